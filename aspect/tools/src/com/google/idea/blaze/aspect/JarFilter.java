@@ -36,7 +36,10 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
@@ -84,6 +87,9 @@ public final class JarFilter {
 
   private static final Logger logger = Logger.getLogger(JarFilter.class.getName());
 
+  /** The timestamp given to all output entries, so the output is deterministic. */
+  private static final long DOS_EPOCH = new GregorianCalendar(1980, 0, 1).getTimeInMillis();
+
   private static final Pattern JAVA_PACKAGE_PATTERN =
       Pattern.compile("^\\s*package\\s+([\\w\\.]+);");
 
@@ -241,11 +247,63 @@ public final class JarFilter {
     return packageString.replace('.', '/') + '/' + className;
   }
 
-  /** Filters a list of jars, keeping anything matching the passed predicate. */
-  private static void filterJars(List<Path> jars, Path output, Predicate<String> shouldKeep)
+  /**
+   * Filters a list of jars, keeping anything matching the passed predicate. Only the first of any
+   * duplicate entries is kept.
+   *
+   * <p>The input jars' central directories are read in parallel, then the entries kept are
+   * streamed into the output without being inflated where possible, so only entry metadata is held
+   * in memory. The output is deterministic, with entries in input order and fixed timestamps.
+   */
+  @VisibleForTesting
+  static void filterJars(List<Path> jars, Path output, Predicate<String> shouldKeep)
       throws IOException {
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(
+                Math.max(1, Math.min(jars.size(), Runtime.getRuntime().availableProcessors()))));
+    List<ImmutableList<RawJarCopier.Entry>> perJarEntries;
+    try {
+      List<ListenableFuture<ImmutableList<RawJarCopier.Entry>>> futures = Lists.newArrayList();
+      for (Path jar : jars) {
+        futures.add(executorService.submit(() -> RawJarCopier.readEntries(jar, shouldKeep)));
+      }
+      perJarEntries = Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    } finally {
+      executorService.shutdown();
+    }
+    if (!perJarEntries.contains(null)) {
+      Set<String> names = new HashSet<>();
+      List<RawJarCopier.Entry> entries = Lists.newArrayList();
+      for (List<RawJarCopier.Entry> jarEntries : perJarEntries) {
+        for (RawJarCopier.Entry entry : jarEntries) {
+          if (names.add(entry.name)) {
+            entries.add(entry);
+          }
+        }
+      }
+      if (RawJarCopier.canWrite(entries)) {
+        RawJarCopier.write(entries, output);
+        return;
+      }
+    }
+    filterJarsInflating(jars, output, shouldKeep);
+  }
+
+  /**
+   * Filters a list of jars by inflating and re-deflating each entry kept. Used for jars {@link
+   * RawJarCopier} doesn't support.
+   */
+  private static void filterJarsInflating(
+      List<Path> jars, Path output, Predicate<String> shouldKeep) throws IOException {
     final int bufferSize = 8 * 1024;
     byte[] buffer = new byte[bufferSize];
+    Set<String> names = new HashSet<>();
 
     try (ZipOutputStream outputStream =
         new ZipOutputStream(new FileOutputStream(output.toFile()))) {
@@ -254,11 +312,12 @@ public final class JarFilter {
           Enumeration<? extends ZipEntry> entries = sourceZipFile.entries();
           while (entries.hasMoreElements()) {
             ZipEntry entry = entries.nextElement();
-            if (!shouldKeep.test(entry.getName())) {
+            if (!shouldKeep.test(entry.getName()) || !names.add(entry.getName())) {
               continue;
             }
 
             ZipEntry newEntry = new ZipEntry(entry.getName());
+            newEntry.setTime(DOS_EPOCH);
             outputStream.putNextEntry(newEntry);
             try (InputStream inputStream = sourceZipFile.getInputStream(entry)) {
               int len;
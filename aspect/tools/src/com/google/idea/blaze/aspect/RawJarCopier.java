@@ -0,0 +1,330 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Copies zip entries between jars without inflating and re-deflating them: the location and CRC
+ * of each entry are read via the source jar's central directory, and its compressed bytes are
+ * streamed from the source jar into the output as-is. Only entry metadata is held in memory.
+ *
+ * <p>Only plain stored or deflated entries in jars without zip64 records are supported; callers
+ * fall back to {@link java.util.zip.ZipOutputStream} otherwise. All entries are written with a
+ * fixed timestamp, so the output only depends on the entries copied.
+ */
+final class RawJarCopier {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CEN_SIGNATURE = 0x02014b50;
+  private static final int CEN_HEADER_SIZE = 46;
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final int FLAG_ENCRYPTED = 0x1;
+  private static final int FLAG_UTF8 = 0x800;
+  private static final int VERSION = 20;
+
+  /** 1980-01-01 00:00:00, the earliest DOS date. */
+  private static final int DOS_TIME = 0;
+  private static final int DOS_DATE = (1 << 5) | 1;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  /** A zip entry, and the location of its compressed data in the source jar. */
+  static final class Entry {
+    final String name;
+    private final byte[] nameBytes;
+    private final int flags;
+    private final int method;
+    private final int crc;
+    private final long uncompressedSize;
+    private final Path source;
+    private final long dataOffset;
+    private final long compressedSize;
+
+    private Entry(
+        String name,
+        byte[] nameBytes,
+        int flags,
+        int method,
+        int crc,
+        long uncompressedSize,
+        Path source,
+        long dataOffset,
+        long compressedSize) {
+      this.name = name;
+      this.nameBytes = nameBytes;
+      this.flags = flags;
+      this.method = method;
+      this.crc = crc;
+      this.uncompressedSize = uncompressedSize;
+      this.source = source;
+      this.dataOffset = dataOffset;
+      this.compressedSize = compressedSize;
+    }
+  }
+
+  private RawJarCopier() {}
+
+  /**
+   * Reads the entries of a jar accepted by the given predicate, in central directory order.
+   * Returns null if the jar can't be copied without inflating its entries.
+   */
+  @Nullable
+  static ImmutableList<Entry> readEntries(Path jar, Predicate<String> shouldKeep)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_LENGTH);
+      ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+      int eocd = findEndOfCentralDirectory(tail);
+      if (eocd < 0) {
+        return null;
+      }
+      int entryCount = tail.getShort(eocd + 10) & 0xffff;
+      long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+      long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+      if (entryCount == 0xffff
+          || directorySize == 0xffffffffL
+          || directoryOffset == 0xffffffffL
+          || directoryOffset + directorySize > fileSize) {
+        // zip64, or data prepended to the zip
+        return null;
+      }
+      ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      int pos = 0;
+      for (int i = 0; i < entryCount; i++) {
+        if (pos + CEN_HEADER_SIZE > directory.limit() || directory.getInt(pos) != CEN_SIGNATURE) {
+          return null;
+        }
+        int flags = directory.getShort(pos + 8) & 0xffff;
+        int method = directory.getShort(pos + 10) & 0xffff;
+        int crc = directory.getInt(pos + 16);
+        long compressedSize = directory.getInt(pos + 20) & 0xffffffffL;
+        long uncompressedSize = directory.getInt(pos + 24) & 0xffffffffL;
+        int nameLength = directory.getShort(pos + 28) & 0xffff;
+        int extraLength = directory.getShort(pos + 30) & 0xffff;
+        int commentLength = directory.getShort(pos + 32) & 0xffff;
+        long localHeaderOffset = directory.getInt(pos + 42) & 0xffffffffL;
+        if (pos + CEN_HEADER_SIZE + nameLength > directory.limit()) {
+          return null;
+        }
+        byte[] nameBytes = new byte[nameLength];
+        directory.position(pos + CEN_HEADER_SIZE);
+        directory.get(nameBytes);
+        pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+        String name = new String(nameBytes, UTF_8);
+        if (!shouldKeep.test(name)) {
+          continue;
+        }
+        if ((flags & FLAG_ENCRYPTED) != 0
+            || (method != STORED && method != DEFLATED)
+            || compressedSize == 0xffffffffL
+            || uncompressedSize == 0xffffffffL
+            || localHeaderOffset == 0xffffffffL) {
+          return null;
+        }
+        ByteBuffer localHeader = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+          return null;
+        }
+        long dataOffset =
+            localHeaderOffset
+                + LOCAL_HEADER_SIZE
+                + (localHeader.getShort(26) & 0xffff)
+                + (localHeader.getShort(28) & 0xffff);
+        if (dataOffset + compressedSize > directoryOffset) {
+          return null;
+        }
+        entries.add(
+            new Entry(
+                name,
+                nameBytes,
+                flags & FLAG_UTF8,
+                method,
+                crc,
+                uncompressedSize,
+                jar,
+                dataOffset,
+                compressedSize));
+      }
+      return entries.build();
+    }
+  }
+
+  /**
+   * Returns true if the given entries can be written without zip64 records, i.e. if {@link
+   * #write} supports them.
+   */
+  static boolean canWrite(List<Entry> entries) {
+    if (entries.size() >= 0xffff) {
+      return false;
+    }
+    long size = 0;
+    for (Entry entry : entries) {
+      size +=
+          LOCAL_HEADER_SIZE
+              + CEN_HEADER_SIZE
+              + 2L * entry.nameBytes.length
+              + entry.compressedSize;
+    }
+    return size + EOCD_SIZE < 0xffffffffL;
+  }
+
+  /**
+   * Writes the given entries to a new jar, in order, copying their data from the source jars.
+   * Entries from the same source jar should be adjacent, since each change of source jar reopens
+   * it.
+   */
+  static void write(List<Entry> entries, Path output) throws IOException {
+    FileChannel source = null;
+    Path sourcePath = null;
+    try (OutputStream out =
+        new BufferedOutputStream(Files.newOutputStream(output), COPY_BUFFER_SIZE)) {
+      ByteBuffer header =
+          ByteBuffer.allocate(Math.max(CEN_HEADER_SIZE, EOCD_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+      ByteBuffer copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+      long[] localHeaderOffsets = new long[entries.size()];
+      long offset = 0;
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        localHeaderOffsets[i] = offset;
+        header.clear();
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION);
+        putCommonFields(header, entry);
+        header.putShort((short) 0); // extra field length
+        out.write(header.array(), 0, header.position());
+        out.write(entry.nameBytes);
+        if (!entry.source.equals(sourcePath)) {
+          if (source != null) {
+            source.close();
+          }
+          source = FileChannel.open(entry.source, StandardOpenOption.READ);
+          sourcePath = entry.source;
+        }
+        copy(source, entry.dataOffset, entry.compressedSize, copyBuffer, out);
+        offset += header.position() + entry.nameBytes.length + entry.compressedSize;
+      }
+      long directoryOffset = offset;
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        header.clear();
+        header.putInt(CEN_SIGNATURE);
+        header.putShort((short) VERSION); // version made by
+        header.putShort((short) VERSION); // version needed to extract
+        putCommonFields(header, entry);
+        header.putShort((short) 0); // extra field length
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(0); // external attributes
+        header.putInt((int) localHeaderOffsets[i]);
+        out.write(header.array(), 0, header.position());
+        out.write(entry.nameBytes);
+        offset += header.position() + entry.nameBytes.length;
+      }
+      header.clear();
+      header.putInt(EOCD_SIGNATURE);
+      header.putShort((short) 0); // disk number
+      header.putShort((short) 0); // central directory disk number
+      header.putShort((short) entries.size());
+      header.putShort((short) entries.size());
+      header.putInt((int) (offset - directoryOffset));
+      header.putInt((int) directoryOffset);
+      header.putShort((short) 0); // comment length
+      out.write(header.array(), 0, header.position());
+    } finally {
+      if (source != null) {
+        source.close();
+      }
+    }
+  }
+
+  /** Copies a range of the source channel to the output, via the given heap buffer. */
+  private static void copy(
+      FileChannel source, long offset, long length, ByteBuffer buffer, OutputStream out)
+      throws IOException {
+    long copied = 0;
+    while (copied < length) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+      while (buffer.hasRemaining()) {
+        if (source.read(buffer, offset + copied + buffer.position()) < 0) {
+          throw new EOFException("Unexpected end of jar file");
+        }
+      }
+      out.write(buffer.array(), 0, buffer.position());
+      copied += buffer.position();
+    }
+  }
+
+  /** Writes the fields shared by local and central directory headers, up to the name length. */
+  private static void putCommonFields(ByteBuffer header, Entry entry) {
+    header.putShort((short) entry.flags);
+    header.putShort((short) entry.method);
+    header.putShort((short) DOS_TIME);
+    header.putShort((short) DOS_DATE);
+    header.putInt(entry.crc);
+    header.putInt((int) entry.compressedSize);
+    header.putInt((int) entry.uncompressedSize);
+    header.putShort((short) entry.nameBytes.length);
+  }
+
+  private static int findEndOfCentralDirectory(ByteBuffer tail) {
+    // the record is followed by a variable-length comment, so search backwards for it
+    for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIGNATURE
+          && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == tail.limit()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of jar file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
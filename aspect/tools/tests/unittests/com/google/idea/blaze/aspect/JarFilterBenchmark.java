@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link JarFilter#filterJars} on several large jars, against the previous
+ * implementation which inflates and re-deflates every entry.
+ *
+ * <p>Not part of the unit test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class JarFilterBenchmark {
+
+  private static final int JAR_COUNT = 8;
+  private static final int CLASSES_PER_JAR = 5000;
+  private static final int ITERATIONS = 5;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void compareWithInflatingFilter() throws IOException {
+    ImmutableList.Builder<Path> jars = ImmutableList.builder();
+    Random random = new Random(0);
+    for (int i = 0; i < JAR_COUNT; i++) {
+      jars.add(createJar(folder.newFile("lib" + i + ".jar"), i, random));
+    }
+    List<Path> inputs = jars.build();
+    // keep roughly half the classes, as for a partially-filtered java_library
+    Predicate<String> shouldKeep = name -> name.hashCode() % 2 == 0;
+    Path output = new File(folder.getRoot(), "filtered.jar").toPath();
+
+    // warm up both code paths
+    filterJarsInflating(inputs, output, shouldKeep);
+    JarFilter.filterJars(inputs, output, shouldKeep);
+
+    long legacy = 0;
+    long raw = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      filterJarsInflating(inputs, output, shouldKeep);
+      legacy += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      JarFilter.filterJars(inputs, output, shouldKeep);
+      raw += System.nanoTime() - start;
+    }
+    System.out.println(
+        String.format(
+            "%d jars of %d classes: inflating %d ms, raw copy %d ms",
+            JAR_COUNT,
+            CLASSES_PER_JAR,
+            legacy / ITERATIONS / 1000000,
+            raw / ITERATIONS / 1000000));
+  }
+
+  private static Path createJar(File file, int jarIndex, Random random) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < CLASSES_PER_JAR; i++) {
+        out.putNextEntry(
+            new ZipEntry(String.format("com/google/example/lib%d/Class%d.class", jarIndex, i)));
+        // somewhat compressible contents, a few KB in size like typical class files
+        StringBuilder contents = new StringBuilder();
+        int size = 1000 + random.nextInt(4000);
+        while (contents.length() < size) {
+          contents.append("method").append(random.nextInt(100)).append(';');
+        }
+        out.write(contents.toString().getBytes(UTF_8));
+        out.closeEntry();
+      }
+    }
+    return file.toPath();
+  }
+
+  /** The previous implementation. */
+  private static void filterJarsInflating(
+      List<Path> jars, Path output, Predicate<String> shouldKeep) throws IOException {
+    byte[] buffer = new byte[8 * 1024];
+    try (ZipOutputStream outputStream =
+        new ZipOutputStream(new FileOutputStream(output.toFile()))) {
+      for (Path jar : jars) {
+        try (ZipFile sourceZipFile = new ZipFile(jar.toFile())) {
+          Enumeration<? extends ZipEntry> entries = sourceZipFile.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!shouldKeep.test(entry.getName())) {
+              continue;
+            }
+            outputStream.putNextEntry(new ZipEntry(entry.getName()));
+            try (InputStream inputStream = sourceZipFile.getInputStream(entry)) {
+              int len;
+              while ((len = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, len);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -20,14 +20,21 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.idea.blaze.aspect.JarFilter.JarFilterOptions;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
@@ -172,4 +179,58 @@ public class JarFilterTest {
             "gen/Gen2.java",
             "gen/Gen3.java");
   }
+
+  @Test
+  public void testFilteredJarIsDeterministic() throws Exception {
+    File first = folder.newFile("first.jar");
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(first))) {
+      zo.putNextEntry(new ZipEntry("com/google/Foo.class"));
+      zo.write("foo from first".getBytes(UTF_8));
+      zo.closeEntry();
+      zo.putNextEntry(new ZipEntry("com/google/Skipped.class"));
+      zo.write("skipped".getBytes(UTF_8));
+      zo.closeEntry();
+      byte[] stored = "stored bar".getBytes(UTF_8);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      ZipEntry storedEntry = new ZipEntry("com/google/Bar.class");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      storedEntry.setCrc(crc.getValue());
+      zo.putNextEntry(storedEntry);
+      zo.write(stored);
+      zo.closeEntry();
+    }
+    File second = folder.newFile("second.jar");
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(second))) {
+      zo.putNextEntry(new ZipEntry("com/google/Foo.class"));
+      zo.write("foo from second".getBytes(UTF_8));
+      zo.closeEntry();
+      zo.putNextEntry(new ZipEntry("com/google/Baz.class"));
+      zo.write("baz".getBytes(UTF_8));
+      zo.closeEntry();
+    }
+    List<Path> jars = ImmutableList.of(first.toPath(), second.toPath());
+    File output1 = new File(folder.getRoot(), "output1.jar");
+    File output2 = new File(folder.getRoot(), "output2.jar");
+
+    JarFilter.filterJars(jars, output1.toPath(), name -> !name.contains("Skipped"));
+    JarFilter.filterJars(jars, output2.toPath(), name -> !name.contains("Skipped"));
+
+    assertThat(Files.toByteArray(output2)).isEqualTo(Files.toByteArray(output1));
+    // read via the local headers, which also verifies the CRCs
+    Map<String, String> contents = new LinkedHashMap<>();
+    try (ZipInputStream in = new ZipInputStream(new FileInputStream(output1))) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        contents.put(entry.getName(), new String(ByteStreams.toByteArray(in), UTF_8));
+      }
+    }
+    assertThat(contents)
+        .containsExactly(
+            "com/google/Foo.class", "foo from first",
+            "com/google/Bar.class", "stored bar",
+            "com/google/Baz.class", "baz")
+        .inOrder();
+  }
 }
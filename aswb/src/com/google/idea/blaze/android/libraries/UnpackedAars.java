@@ -20,10 +20,12 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.android.sync.model.AarLibrary;
 import com.google.idea.blaze.base.filecache.FileCache;
+import com.google.idea.blaze.base.filecache.FileCacheManifest;
 import com.google.idea.blaze.base.filecache.FileCacheSynchronizer;
 import com.google.idea.blaze.base.filecache.FileCacheSynchronizerTraits;
 import com.google.idea.blaze.base.io.FileOperationProvider;
@@ -54,6 +56,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -81,6 +85,8 @@ public class UnpackedAars {
 
   private final File cacheDir;
   private final boolean enabled;
+  private final FileCacheManifest aarManifest;
+  private final FileCacheManifest jarManifest;
 
   @Nullable private AarTraits aarTraits;
   @Nullable private JarTraits jarTraits;
@@ -93,6 +99,10 @@ public class UnpackedAars {
     BlazeImportSettings importSettings =
         BlazeImportSettingsManager.getInstance(project).getImportSettings();
     this.cacheDir = getCacheDir(importSettings);
+    // kept outside the cache directory, whose children are all treated as unpacked AARs
+    File dataDir = BlazeDataStorage.getProjectDataDir(importSettings);
+    this.aarManifest = new FileCacheManifest(new File(dataDir, "aar_libraries.manifest"));
+    this.jarManifest = new FileCacheManifest(new File(dataDir, "aar_libraries_jars.manifest"));
     // We want this to be enabled in normal operation, so there's no user setting.
     this.enabled = !ApplicationManager.getApplication().isUnitTestMode();
   }
@@ -157,11 +167,13 @@ public class UnpackedAars {
       }
     }
 
-    FileCacheSynchronizer aarSynchronizer = new FileCacheSynchronizer(aarTraits);
+    FileCacheSynchronizer aarSynchronizer = new FileCacheSynchronizer(aarTraits, aarManifest);
     if (!aarSynchronizer.synchronize(context, removeMissingFiles)) {
       logger.warn("Unpacked AAR synchronization didn't complete");
     }
-    FileCacheSynchronizer aarJarSynchronizer = new FileCacheSynchronizer(jarTraits);
+    // unpacking an AAR deletes the merged jar in its directory
+    jarManifest.record(ImmutableMap.of(), aarTraits.takeUnpackedKeys());
+    FileCacheSynchronizer aarJarSynchronizer = new FileCacheSynchronizer(jarTraits, jarManifest);
     if (!aarJarSynchronizer.synchronize(context, removeMissingFiles)) {
       logger.warn("Unpacked AAR jar synchronization didn't complete");
     }
@@ -210,6 +222,8 @@ public class UnpackedAars {
     }
     aarTraits = null;
     jarTraits = null;
+    aarManifest.clear();
+    jarManifest.clear();
   }
 
   private static String cacheKeyForAar(File aar) {
@@ -262,6 +276,7 @@ public class UnpackedAars {
     private final File cacheDir;
     private final BiMap<File, String> sourceFileToCacheKey;
     private final FileOperationProvider fileOpProvider;
+    private final Set<String> unpackedKeys = ConcurrentHashMap.newKeySet();
 
     AarTraits(File cacheDir, BiMap<File, String> sourceFileToCacheKey) {
       this.cacheDir = cacheDir;
@@ -307,6 +322,13 @@ public class UnpackedAars {
       return cacheFile.getParentFile();
     }
 
+    /** Returns the keys of AARs unpacked since the last call. */
+    ImmutableList<String> takeUnpackedKeys() {
+      ImmutableList<String> keys = ImmutableList.copyOf(unpackedKeys);
+      unpackedKeys.removeAll(keys);
+      return keys;
+    }
+
     @Override
     public Collection<ListenableFuture<?>> updateFiles(
         Collection<String> cacheKeys, ListeningExecutorService executor) {
@@ -315,6 +337,7 @@ public class UnpackedAars {
       for (String cacheKey : cacheKeys) {
         File sourceFile = cacheKeyToSourceFile.get(cacheKey);
         File cacheFile = cacheFileForKey(cacheKey);
+        unpackedKeys.add(cacheKey);
         futures.add(executor.submit(() -> unpackAar(fileOpProvider, sourceFile, cacheFile)));
       }
       return futures;
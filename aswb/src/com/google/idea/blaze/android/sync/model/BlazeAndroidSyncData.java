@@ -15,6 +15,13 @@
  */
 package com.google.idea.blaze.android.sync.model;
 
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import java.io.IOException;
 import java.io.Serializable;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -32,4 +39,73 @@ public class BlazeAndroidSyncData implements Serializable {
     this.importResult = importResult;
     this.androidSdkPlatform = androidSdkPlatform;
   }
+
+  /** Writes the android sync data in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<BlazeAndroidSyncData> {
+    @Override
+    public Class<BlazeAndroidSyncData> stateClass() {
+      return BlazeAndroidSyncData.class;
+    }
+
+    @Override
+    public void write(BlazeAndroidSyncData syncData, CompactDataOutput out) throws IOException {
+      BlazeAndroidImportResult importResult = syncData.importResult;
+      out.writeVarInt(importResult.androidResourceModules.size());
+      for (AndroidResourceModule module : importResult.androidResourceModules) {
+        out.writeTargetKey(module.targetKey);
+        out.writeArtifactLocations(module.resources);
+        out.writeArtifactLocations(module.transitiveResources);
+        out.writeTargetKeys(module.transitiveResourceDependencies);
+      }
+      out.writeBoolean(importResult.resourceLibrary != null);
+      if (importResult.resourceLibrary != null) {
+        out.writeArtifactLocations(importResult.resourceLibrary.sources);
+      }
+      out.writeVarInt(importResult.aarLibraries.size());
+      for (AarLibrary library : importResult.aarLibraries) {
+        out.writeLibraryArtifact(library.libraryArtifact);
+        out.writeArtifactLocation(library.aarArtifact);
+      }
+      out.writeArtifactLocation(importResult.javacJar);
+      AndroidSdkPlatform platform = syncData.androidSdkPlatform;
+      out.writeBoolean(platform != null);
+      if (platform != null) {
+        out.writeString(platform.androidSdk);
+        out.writeVarInt(platform.androidMinSdkLevel);
+      }
+    }
+
+    @Override
+    public BlazeAndroidSyncData read(CompactDataInput in) throws IOException {
+      int moduleCount = in.readVarInt();
+      ImmutableList.Builder<AndroidResourceModule> modules = ImmutableList.builder();
+      for (int i = 0; i < moduleCount; i++) {
+        modules.add(
+            new AndroidResourceModule(
+                in.readTargetKey(),
+                in.readArtifactLocations(),
+                in.readArtifactLocations(),
+                in.readTargetKeys()));
+      }
+      BlazeResourceLibrary resourceLibrary =
+          in.readBoolean() ? new BlazeResourceLibrary(in.readArtifactLocations()) : null;
+      int aarCount = in.readVarInt();
+      ImmutableList.Builder<AarLibrary> aarLibraries = ImmutableList.builder();
+      for (int i = 0; i < aarCount; i++) {
+        LibraryArtifact libraryArtifact = in.readLibraryArtifact();
+        ArtifactLocation aarArtifact = in.readArtifactLocation();
+        if (libraryArtifact == null || aarArtifact == null) {
+          throw new IOException("Unexpected null aar library in project data");
+        }
+        aarLibraries.add(new AarLibrary(libraryArtifact, aarArtifact));
+      }
+      ArtifactLocation javacJar = in.readArtifactLocation();
+      AndroidSdkPlatform platform =
+          in.readBoolean() ? new AndroidSdkPlatform(in.readNonNullString(), in.readVarInt()) : null;
+      return new BlazeAndroidSyncData(
+          new BlazeAndroidImportResult(
+              modules.build(), resourceLibrary, aarLibraries.build(), javacJar),
+          platform);
+    }
+  }
 }
@@ -15,13 +15,25 @@
  */
 package com.google.idea.blaze.base.async.process;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import javax.annotation.Nullable;
 
-/** An base output stream which marshals output into newline-delimited segments for processing. */
+/**
+ * An base output stream which marshals output into newline-delimited segments for processing.
+ *
+ * <p>Output is buffered as bytes, and scanned for line breaks incrementally, so each byte is only
+ * examined once. Each complete line is decoded at most once, and lines consisting only of ASCII
+ * characters are passed to {@link LineProcessor#processLine(CharSequence)} without being copied.
+ */
 public final class LineProcessingOutputStream extends OutputStream {
 
   /** A line processor */
@@ -32,11 +44,42 @@ public final class LineProcessingOutputStream extends OutputStream {
      * @return Whether line processing should continue
      */
     boolean processLine(String line);
+
+    /**
+     * Process a single, complete line of output. Processors which don't need a {@link String} can
+     * override this to avoid copying the line. The line is only valid for the duration of the call.
+     *
+     * @return Whether line processing should continue
+     */
+    default boolean processLine(CharSequence line) {
+      return processLine(line.toString());
+    }
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
-  private volatile boolean closed;
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+
   private final ImmutableList<LineProcessor> lineProcessors;
+  private volatile boolean closed;
+
+  /** Unprocessed output is held in buffer[start, end). */
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  private int start;
+  private int end;
+  /** Bytes in [start, scanned) are known not to contain a line break. */
+  private int scanned;
+  /** Whether [start, scanned) contains any non-ASCII bytes. */
+  private boolean nonAscii;
+  /** Whether the last line ended with '\r', so a leading '\n' completes that line break. */
+  private boolean skipLineFeed;
+
+  private final Line line = new Line();
+  private final CharsetDecoder decoder =
+      UTF_8
+          .newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private CharBuffer decoded = CharBuffer.allocate(0);
 
   LineProcessingOutputStream(ImmutableList<LineProcessor> lineProcessors) {
     this.lineProcessors = lineProcessors;
@@ -52,47 +95,110 @@ public final class LineProcessingOutputStream extends OutputStream {
 
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
+    if (closed || len == 0) {
+      return;
+    }
+    if (skipLineFeed) {
+      skipLineFeed = false;
+      if (b[off] == '\n') {
+        off++;
+        len--;
+      }
+    }
+    ensureCapacity(len);
+    System.arraycopy(b, off, buffer, end, len);
+    end += len;
+    processLines();
+  }
 
-        String line = stringBuffer.substring(0, lineBreakIndex);
+  @Override
+  public synchronized void write(int b) {
+    if (closed) {
+      return;
+    }
+    if (skipLineFeed) {
+      skipLineFeed = false;
+      if (b == '\n') {
+        return;
+      }
+    }
+    ensureCapacity(1);
+    buffer[end++] = (byte) b;
+    processLines();
+  }
 
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
+  /** Makes room for another {@code len} bytes, compacting or growing the buffer. */
+  private void ensureCapacity(int len) {
+    if (end + len <= buffer.length) {
+      return;
+    }
+    int remaining = end - start;
+    byte[] target = buffer;
+    if (remaining + len > buffer.length / 2) {
+      target = new byte[Math.max(buffer.length * 2, remaining + len)];
+    }
+    System.arraycopy(buffer, start, target, 0, remaining);
+    buffer = target;
+    scanned -= start;
+    end = remaining;
+    start = 0;
+  }
 
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
+  /** Scans the newly written bytes, processing each complete line. */
+  private void processLines() {
+    for (int i = scanned; i < end; i++) {
+      byte b = buffer[i];
+      if (b == '\n' || b == '\r') {
+        processLine(start, i, nonAscii);
+        if (b == '\r') {
+          if (i + 1 < end) {
+            if (buffer[i + 1] == '\n') {
+              i++;
+            }
+          } else {
+            skipLineFeed = true;
           }
         }
+        start = i + 1;
+        nonAscii = false;
+      } else if (b < 0) {
+        nonAscii = true;
       }
     }
+    if (start == end) {
+      // everything was processed, so the buffer can be reused from the beginning
+      start = 0;
+      end = 0;
+    }
+    scanned = end;
   }
 
-  @Override
-  public void write(int b) throws IOException {
-    write(new byte[] {(byte) b}, 0, 1);
+  private void processLine(int lineStart, int lineEnd, boolean decode) {
+    if (decode) {
+      line.setChars(decode(lineStart, lineEnd));
+    } else {
+      line.setBytes(buffer, lineStart, lineEnd - lineStart);
+    }
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+    line.clear();
+  }
+
+  private CharBuffer decode(int lineStart, int lineEnd) {
+    int length = lineEnd - lineStart;
+    // UTF-8 never decodes to more chars than bytes
+    if (decoded.capacity() < length) {
+      decoded = CharBuffer.allocate(Math.max(length, decoded.capacity() * 2));
+    }
+    decoded.clear();
+    decoder.reset();
+    decoder.decode(ByteBuffer.wrap(buffer, lineStart, length), decoded, true);
+    decoder.flush(decoded);
+    decoded.flip();
+    return decoded;
   }
 
   @Override
@@ -100,4 +206,59 @@ public final class LineProcessingOutputStream extends OutputStream {
     closed = true;
     super.close();
   }
+
+  /**
+   * A reusable view of the current line, either over the buffered bytes (for ASCII-only lines) or
+   * over the decoded chars. The {@link String} form is created lazily, and at most once.
+   */
+  private static final class Line implements CharSequence {
+    @Nullable private byte[] bytes;
+    private int offset;
+    private int length;
+    @Nullable private CharBuffer chars;
+    @Nullable private String string;
+
+    void setBytes(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    void setChars(CharBuffer chars) {
+      this.chars = chars;
+      this.length = chars.remaining();
+    }
+
+    void clear() {
+      bytes = null;
+      chars = null;
+      string = null;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      return bytes != null ? (char) bytes[offset + index] : chars.get(chars.position() + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      if (string == null) {
+        string = bytes != null ? new String(bytes, offset, length, ISO_8859_1) : chars.toString();
+      }
+      return string;
+    }
+  }
 }
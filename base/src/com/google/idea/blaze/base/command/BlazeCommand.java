@@ -27,11 +27,17 @@ import javax.annotation.concurrent.Immutable;
 public final class BlazeCommand {
 
   private final String binaryPath;
+  private final ImmutableList<String> startupFlags;
   private final BlazeCommandName name;
   private final ImmutableList<String> arguments;
 
-  private BlazeCommand(String binaryPath, BlazeCommandName name, ImmutableList<String> arguments) {
+  private BlazeCommand(
+      String binaryPath,
+      ImmutableList<String> startupFlags,
+      BlazeCommandName name,
+      ImmutableList<String> arguments) {
     this.binaryPath = binaryPath;
+    this.startupFlags = startupFlags;
     this.name = name;
     this.arguments = arguments;
   }
@@ -43,6 +49,7 @@ public final class BlazeCommand {
   public ImmutableList<String> toList() {
     return ImmutableList.<String>builder()
         .add(binaryPath)
+        .addAll(startupFlags)
         .add(name.toString())
         .addAll(arguments)
         .build();
@@ -62,6 +69,7 @@ public final class BlazeCommand {
     private final String binaryPath;
     private final BlazeCommandName name;
     private final ImmutableList.Builder<TargetExpression> targets = ImmutableList.builder();
+    private final ImmutableList.Builder<String> startupFlags = ImmutableList.builder();
     private final ImmutableList.Builder<String> blazeFlags = ImmutableList.builder();
     private final ImmutableList.Builder<String> exeFlags = ImmutableList.builder();
 
@@ -83,7 +91,7 @@ public final class BlazeCommand {
       }
 
       arguments.addAll(exeFlags.build());
-      return new BlazeCommand(binaryPath, name, arguments.build());
+      return new BlazeCommand(binaryPath, startupFlags.build(), name, arguments.build());
     }
 
     public Builder addTargets(TargetExpression... targets) {
@@ -104,6 +112,12 @@ public final class BlazeCommand {
       return this;
     }
 
+    /** Adds flags which precede the command name, e.g. to select an output base. */
+    public Builder addStartupFlags(List<String> flags) {
+      this.startupFlags.addAll(flags);
+      return this;
+    }
+
     public Builder addBlazeFlags(String... flags) {
       return addBlazeFlags(Arrays.asList(flags));
     }
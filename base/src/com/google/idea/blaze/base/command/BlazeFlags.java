@@ -16,17 +16,22 @@
 package com.google.idea.blaze.base.command;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.command.BlazeInvocationContext.ContextType;
+import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.projectview.section.sections.BuildFlagsSection;
+import com.google.idea.blaze.base.projectview.section.sections.ParallelShardBuildsSection;
 import com.google.idea.blaze.base.projectview.section.sections.SyncFlagsSection;
 import com.google.idea.blaze.base.projectview.section.sections.TestFlagsSection;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.execution.configurations.ParametersList;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.PlatformUtils;
+import java.io.File;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /** The collection of all the Bazel flag strings we use. */
 public final class BlazeFlags {
@@ -54,6 +59,32 @@ public final class BlazeFlags {
 
   public static final String DELETED_PACKAGES = "--deleted_packages";
 
+  // Startup option selecting the output base, and with it the blaze server instance.
+  public static final String OUTPUT_BASE = "--output_base";
+
+  /** Startup flags to build against the given output base, or none for the default one. */
+  public static ImmutableList<String> outputBaseFlags(@Nullable File outputBase) {
+    return outputBase != null
+        ? ImmutableList.of(OUTPUT_BASE + "=" + outputBase.getPath())
+        : ImmutableList.of();
+  }
+
+  /**
+   * The additional output bases used to build sync shards in parallel, as configured by the
+   * 'parallel_shard_builds' project view setting. Each is a sibling of the default output base, and
+   * gets its own blaze server. Empty if shards are built one at a time.
+   */
+  public static ImmutableList<File> parallelShardOutputBases(
+      ProjectViewSet projectViewSet, BlazeInfo blazeInfo) {
+    int parallelism = projectViewSet.getScalarValue(ParallelShardBuildsSection.KEY).orElse(1);
+    File outputBase = blazeInfo.getOutputBase();
+    ImmutableList.Builder<File> outputBases = ImmutableList.builder();
+    for (int i = 1; i < parallelism; i++) {
+      outputBases.add(new File(outputBase.getPath() + "-shard" + i));
+    }
+    return outputBases.build();
+  }
+
   /**
    * Flags to add to blaze/bazel invocations of the given type.
    *
@@ -59,10 +59,27 @@ public final class BuildEventProtocolOutputReader {
    * @throws IOException if the BEP {@link InputStream} is incorrectly formatted
    */
   public static BlazeTestResults parseTestResults(InputStream inputStream) throws IOException {
-    Map<String, Kind> labelToTargetKind = new HashMap<>();
+    TestResultEventParser parser = new TestResultEventParser();
     ImmutableList.Builder<BlazeTestResult> results = ImmutableList.builder();
     BuildEventStreamProtos.BuildEvent event;
     while ((event = BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(inputStream)) != null) {
+      BlazeTestResult result = parser.processEvent(event);
+      if (result != null) {
+        results.add(result);
+      }
+    }
+    return BlazeTestResults.fromFlatList(results.build());
+  }
+
+  /**
+   * Extracts test results from a sequence of build events, one event at a time. Not thread-safe.
+   */
+  public static final class TestResultEventParser {
+    private final Map<String, Kind> labelToTargetKind = new HashMap<>();
+
+    /** Returns the test result for TEST_RESULT events, or null for all other events. */
+    @Nullable
+    public BlazeTestResult processEvent(BuildEventStreamProtos.BuildEvent event) {
       switch (event.getId().getIdCase()) {
         case TARGET_COMPLETED:
           String label = event.getId().getTargetCompleted().getLabel();
@@ -70,22 +87,21 @@ public final class BuildEventProtocolOutputReader {
           if (kind != null) {
             labelToTargetKind.put(label, kind);
           }
-          continue;
+          return null;
         case TARGET_CONFIGURED:
           label = event.getId().getTargetConfigured().getLabel();
           kind = parseTargetKind(event.getConfigured().getTargetKind());
           if (kind != null) {
             labelToTargetKind.put(label, kind);
           }
-          continue;
+          return null;
         case TEST_RESULT:
           label = event.getId().getTestResult().getLabel();
-          results.add(parseTestResult(label, labelToTargetKind.get(label), event.getTestResult()));
-          continue;
-        default: // continue
+          return parseTestResult(label, labelToTargetKind.get(label), event.getTestResult());
+        default:
+          return null;
       }
     }
-    return BlazeTestResults.fromFlatList(results.build());
   }
 
   /** Convert BEP 'target_kind' to our internal format */
@@ -266,7 +282,7 @@ public final class BuildEventProtocolOutputReader {
   }
 
   @Nullable
-  private static File parseFile(BuildEventStreamProtos.File file, Predicate<String> fileFilter) {
+  static File parseFile(BuildEventStreamProtos.File file, Predicate<String> fileFilter) {
     String uri = file.getUri();
     if (uri == null || !uri.startsWith(URLUtil.FILE_PROTOCOL)) {
       return null;
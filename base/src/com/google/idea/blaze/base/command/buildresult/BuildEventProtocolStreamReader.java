@@ -0,0 +1,370 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Follows a BEP output file while blaze is still appending to it, parsing each build event exactly
+ * once.
+ *
+ * <p>NamedSetOfFiles events are resolved as they arrive, and the artifacts of each completed target
+ * belonging to the requested output groups are handed to the listener as soon as they're known.
+ * This lets callers start prefetching / parsing build outputs before the build finishes.
+ *
+ * <p>Alternatively, {@link #forEvents} passes each raw build event to a listener, for callers
+ * interested in something other than output files.
+ */
+public final class BuildEventProtocolStreamReader {
+
+  private static final Logger logger = Logger.getInstance(BuildEventProtocolStreamReader.class);
+
+  /**
+   * Readers poll the BEP file for the whole duration of a build, so they run on their own threads
+   * rather than tying up a shared pool.
+   */
+  private static final ExecutorService TAIL_EXECUTOR =
+      Executors.newCachedThreadPool(
+          ConcurrencyUtil.namedDaemonThreadPoolFactory(BuildEventProtocolStreamReader.class));
+
+  private static final long POLL_INTERVAL_MILLIS = 50;
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private final File bepFile;
+  private final Predicate<String> fileFilter;
+  /** The output groups we're interested in. If empty, all output groups are included. */
+  private final ImmutableSet<String> outputGroups;
+
+  @Nullable private final Consumer<ImmutableList<File>> listener;
+  @Nullable private final Consumer<BuildEventStreamProtos.BuildEvent> eventListener;
+
+  private final Map<String, NamedSetOfFiles> fileSets = new HashMap<>();
+  /** Output file sets referenced by completed targets, which haven't yet been fully resolved. */
+  private final Set<String> pendingFileSets = new LinkedHashSet<>();
+
+  private final Set<String> visitedFileSets = new HashSet<>();
+  private final Set<File> outputGroupFiles = new LinkedHashSet<>();
+  private final Set<File> allFiles = new LinkedHashSet<>();
+
+  private final CountDownLatch finished = new CountDownLatch(1);
+  private volatile boolean buildComplete = false;
+  private volatile boolean cancelled = false;
+  private volatile boolean readSucceeded = false;
+
+  private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+  /**
+   * @param bepFile the BEP output file blaze is (or will be) writing to
+   * @param fileFilter only output files satisfying this predicate are returned
+   * @param outputGroups the output groups to report. If empty, files in all output groups are
+   *     reported.
+   * @param listener notified of newly available output group artifacts, on the reading thread
+   */
+  public BuildEventProtocolStreamReader(
+      File bepFile,
+      Predicate<String> fileFilter,
+      ImmutableSet<String> outputGroups,
+      @Nullable Consumer<ImmutableList<File>> listener) {
+    this(bepFile, fileFilter, outputGroups, listener, null);
+  }
+
+  private BuildEventProtocolStreamReader(
+      File bepFile,
+      Predicate<String> fileFilter,
+      ImmutableSet<String> outputGroups,
+      @Nullable Consumer<ImmutableList<File>> listener,
+      @Nullable Consumer<BuildEventStreamProtos.BuildEvent> eventListener) {
+    this.bepFile = bepFile;
+    this.fileFilter = fileFilter;
+    this.outputGroups = outputGroups;
+    this.listener = listener;
+    this.eventListener = eventListener;
+  }
+
+  /**
+   * Returns a reader passing every build event to the given listener, on the reading thread, in
+   * the order they appear in the BEP file. Output files aren't tracked.
+   */
+  public static BuildEventProtocolStreamReader forEvents(
+      File bepFile, Consumer<BuildEventStreamProtos.BuildEvent> eventListener) {
+    return new BuildEventProtocolStreamReader(
+        bepFile, path -> false, ImmutableSet.of(), null, eventListener);
+  }
+
+  /** Starts tailing the BEP file on a dedicated daemon thread. */
+  public void start() {
+    start(TAIL_EXECUTOR);
+  }
+
+  /**
+   * Starts tailing the BEP file on the given executor, which must run it on a separate thread. The
+   * reader occupies that thread until the build completes.
+   */
+  public void start(Executor executor) {
+    executor.execute(this::run);
+  }
+
+  /**
+   * Signals that the blaze process has exited. Any remaining events are read, then the reader
+   * stops.
+   */
+  public void buildComplete() {
+    buildComplete = true;
+  }
+
+  /** Stops reading as soon as possible, without waiting for remaining events. */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Blocks until the whole BEP file has been read. Should only be called after {@link
+   * #buildComplete}.
+   *
+   * @return false if the stream couldn't be fully read (the caller should fall back to a batch
+   *     read of the BEP file)
+   */
+  public boolean awaitCompletion() {
+    try {
+      finished.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return readSucceeded;
+  }
+
+  /** All output files listed in the BEP output satisfying the file filter. */
+  public synchronized ImmutableList<File> getAllOutputFiles() {
+    return ImmutableList.copyOf(allFiles);
+  }
+
+  /** All output files belonging to the requested output groups seen so far. */
+  public synchronized ImmutableList<File> getOutputGroupFiles() {
+    return ImmutableList.copyOf(outputGroupFiles);
+  }
+
+  private void run() {
+    try {
+      readSucceeded = tail();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Failed to read BEP output file incrementally: " + bepFile, e);
+    } finally {
+      finished.countDown();
+    }
+  }
+
+  /** Returns true if the BEP stream was fully read. */
+  private boolean tail() throws IOException {
+    while (!bepFile.exists()) {
+      if (cancelled || buildComplete) {
+        return false;
+      }
+      sleep();
+    }
+    try (FileChannel channel = FileChannel.open(bepFile.toPath(), StandardOpenOption.READ)) {
+      while (!cancelled) {
+        // read the 'complete' flag before hitting EOF, so we don't miss trailing events
+        boolean processExited = buildComplete;
+        int read = channel.read(buffer);
+        if (read > 0) {
+          if (processBuffer()) {
+            return true;
+          }
+          continue;
+        }
+        if (processExited) {
+          // no more data is coming
+          buffer.flip();
+          boolean consumed = !buffer.hasRemaining();
+          buffer.compact();
+          return consumed;
+        }
+        sleep();
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Parses all complete, length-delimited events in the buffer, leaving any partial trailing event
+   * for the next read.
+   *
+   * @return true if the last BEP message has been read
+   */
+  private boolean processBuffer() throws IOException {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        int start = buffer.position();
+        int length = readVarint(buffer);
+        if (length < 0 || buffer.remaining() < length) {
+          // incomplete event; wait for more data
+          buffer.position(start);
+          if (length > buffer.capacity() - 5) {
+            growBuffer(length + 5);
+          }
+          return false;
+        }
+        ByteBuffer message = buffer.slice();
+        message.limit(length);
+        buffer.position(buffer.position() + length);
+        BuildEventStreamProtos.BuildEvent event =
+            BuildEventStreamProtos.BuildEvent.parseFrom(message);
+        processEvent(event);
+        if (event.getLastMessage()) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      buffer.compact();
+    }
+  }
+
+  /** Grows the buffer, leaving it in 'read' mode, with the same unread content. */
+  private void growBuffer(int minCapacity) {
+    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+    newBuffer.put(buffer);
+    newBuffer.flip();
+    buffer = newBuffer;
+  }
+
+  /**
+   * Reads a protobuf varint32 from the buffer, returning -1 if the buffer doesn't yet contain the
+   * whole varint.
+   */
+  private static int readVarint(ByteBuffer buffer) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      byte b = buffer.get();
+      result |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed length prefix in BEP output");
+  }
+
+  private void processEvent(BuildEventStreamProtos.BuildEvent event) {
+    if (eventListener != null) {
+      eventListener.accept(event);
+      return;
+    }
+    ImmutableList<File> newFiles;
+    synchronized (this) {
+      if (event.getId().hasNamedSet() && event.hasNamedSetOfFiles()) {
+        NamedSetOfFiles fileSet = event.getNamedSetOfFiles();
+        fileSets.put(event.getId().getNamedSet().getId(), fileSet);
+        for (BuildEventStreamProtos.File file : fileSet.getFilesList()) {
+          File f = BuildEventProtocolOutputReader.parseFile(file, fileFilter);
+          if (f != null) {
+            allFiles.add(f);
+          }
+        }
+      } else if (event.hasCompleted()) {
+        for (OutputGroup group : event.getCompleted().getOutputGroupList()) {
+          if (outputGroups.isEmpty() || outputGroups.contains(group.getName())) {
+            for (NamedSetOfFilesId id : group.getFileSetsList()) {
+              if (visitedFileSets.add(id.getId())) {
+                pendingFileSets.add(id.getId());
+              }
+            }
+          }
+        }
+      }
+      if (pendingFileSets.isEmpty()) {
+        return;
+      }
+      newFiles = resolvePendingFileSets();
+    }
+    if (listener != null && !newFiles.isEmpty()) {
+      listener.accept(newFiles);
+    }
+  }
+
+  /**
+   * Traverses all pending file sets whose contents have been announced, returning any newly
+   * discovered files.
+   */
+  private ImmutableList<File> resolvePendingFileSets() {
+    List<File> newFiles = new ArrayList<>();
+    Queue<String> toVisit = new ArrayDeque<>(pendingFileSets);
+    pendingFileSets.clear();
+    while (!toVisit.isEmpty()) {
+      String name = toVisit.remove();
+      NamedSetOfFiles fileSet = fileSets.get(name);
+      if (fileSet == null) {
+        // not yet announced
+        pendingFileSets.add(name);
+        continue;
+      }
+      for (BuildEventStreamProtos.File file : fileSet.getFilesList()) {
+        File f = BuildEventProtocolOutputReader.parseFile(file, fileFilter);
+        if (f != null && outputGroupFiles.add(f)) {
+          newFiles.add(f);
+        }
+      }
+      for (NamedSetOfFilesId child : fileSet.getFileSetsList()) {
+        if (visitedFileSets.add(child.getId())) {
+          toVisit.add(child.getId());
+        }
+      }
+    }
+    return ImmutableList.copyOf(newFiles);
+  }
+
+  private void sleep() {
+    try {
+      TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+    } catch (InterruptedException e) {
+      cancelled = true;
+      Thread.currentThread().interrupt();
+    }
+  }
+}
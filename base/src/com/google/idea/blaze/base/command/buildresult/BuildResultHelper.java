@@ -20,6 +20,7 @@ import com.google.idea.blaze.base.model.primitives.Label;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /** Assists in getting build artifacts from a build operation. */
@@ -41,6 +42,20 @@ public interface BuildResultHelper extends AutoCloseable {
    */
   List<String> getBuildFlags();
 
+  /**
+   * Starts following the build output while the build is still running. The listener is notified
+   * of output artifacts (satisfying the file filter) as soon as their target completes, and the
+   * build output is then only parsed once.
+   *
+   * <p>Must be called before the build starts. Subsequent calls are ignored.
+   *
+   * @param outputGroups the output groups to report artifacts for. If empty, artifacts from all
+   *     output groups are reported.
+   * @param listener called on a background thread each time new artifacts are available
+   */
+  void streamBuildArtifacts(
+      Collection<String> outputGroups, Consumer<ImmutableList<File>> listener);
+
   /**
    * Returns the build result. May only be called once the build is complete, or no artifacts will
    * be returned.
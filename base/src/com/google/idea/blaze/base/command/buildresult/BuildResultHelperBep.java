@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.command.buildresult;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.BufferedInputStream;
@@ -26,7 +27,9 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
  * Build event protocol implementation to get build results.
@@ -39,6 +42,8 @@ class BuildResultHelperBep implements BuildResultHelper {
   private static final Logger logger = Logger.getInstance(BuildResultHelperBep.class);
   private final File outputFile;
   private final Predicate<String> fileFilter;
+  @Nullable private BuildEventProtocolStreamReader streamReader;
+  @Nullable private ImmutableSet<String> streamedOutputGroups;
 
   BuildResultHelperBep(Predicate<String> fileFilter) {
     this.fileFilter = fileFilter;
@@ -50,8 +55,24 @@ class BuildResultHelperBep implements BuildResultHelper {
     return BuildEventProtocolUtils.getBuildFlags(outputFile);
   }
 
+  @Override
+  public synchronized void streamBuildArtifacts(
+      Collection<String> outputGroups, Consumer<ImmutableList<File>> listener) {
+    if (streamReader != null) {
+      return;
+    }
+    streamedOutputGroups = ImmutableSet.copyOf(outputGroups);
+    streamReader =
+        new BuildEventProtocolStreamReader(
+            outputFile, fileFilter, streamedOutputGroups, listener);
+    streamReader.start();
+  }
+
   @Override
   public ImmutableList<File> getBuildArtifacts() {
+    if (finishStreaming()) {
+      return streamReader.getAllOutputFiles();
+    }
     return readResult(
             input -> BuildEventProtocolOutputReader.parseAllOutputFilenames(input, fileFilter))
         .orElse(ImmutableList.of());
@@ -67,6 +88,12 @@ class BuildResultHelperBep implements BuildResultHelper {
 
   @Override
   public ImmutableList<File> getArtifactsForOutputGroups(Collection<String> outputGroups) {
+    if (streamedOutputGroups != null
+        && !streamedOutputGroups.isEmpty()
+        && streamedOutputGroups.equals(ImmutableSet.copyOf(outputGroups))
+        && finishStreaming()) {
+      return streamReader.getOutputGroupFiles();
+    }
     return readResult(
             input ->
                 BuildEventProtocolOutputReader.parseAllOutputGroupFilenames(
@@ -74,6 +101,24 @@ class BuildResultHelperBep implements BuildResultHelper {
         .orElse(ImmutableList.of());
   }
 
+  /**
+   * If the BEP output is being read incrementally, waits for the remaining events to be read.
+   *
+   * @return true if the results are available from the incremental reader
+   */
+  private boolean finishStreaming() {
+    if (streamReader == null) {
+      return false;
+    }
+    // results may only be requested once the build is complete
+    streamReader.buildComplete();
+    if (streamReader.awaitCompletion()) {
+      return true;
+    }
+    logger.warn("Incremental BEP read failed; falling back to reading the complete output file");
+    return false;
+  }
+
   private <V> Optional<V> readResult(BepReader<V> readAction) {
     try (InputStream inputStream = new BufferedInputStream(new FileInputStream(outputFile))) {
       return Optional.of(readAction.read(inputStream));
@@ -85,6 +130,10 @@ class BuildResultHelperBep implements BuildResultHelper {
 
   @Override
   public void close() {
+    if (streamReader != null) {
+      streamReader.cancel();
+      streamReader.awaitCompletion();
+    }
     if (!outputFile.delete()) {
       logger.warn("Could not delete BEP output file: " + outputFile);
     }
@@ -26,23 +26,39 @@ public class BlazeConfigurationHandler {
 
   public final String defaultConfigurationPathComponent;
   private final String blazeOutPath;
+  /** The 'blaze-out' directory name, surrounded by separators. */
+  private final String blazeOutComponent;
 
   public BlazeConfigurationHandler(BlazeInfo blazeInfo) {
     // Would be simpler to use 'output_path' instead, but there's a Bazel-side bug causing that to
     // point to the wrong place. Instead derive 'output_path' from 'blaze-out'.
     File blazeOutDir = blazeInfo.getBlazeBinDirectory().getParentFile().getParentFile();
     blazeOutPath = blazeOutDir + File.separator;
+    blazeOutComponent = File.separator + blazeOutDir.getName() + File.separator;
     defaultConfigurationPathComponent =
         getConfigurationPathComponent(blazeInfo.getBlazeBinDirectory());
     assert (defaultConfigurationPathComponent != null);
   }
 
+  /**
+   * Returns the configuration path component of the given blaze output artifact. Artifacts from
+   * another output base (e.g. when building sync shards in parallel) are matched by their
+   * 'blaze-out' directory name.
+   */
   @Nullable
   public String getConfigurationPathComponent(File artifact) {
-    if (!artifact.getPath().startsWith(blazeOutPath)) {
-      return null;
+    String path = artifact.getPath();
+    int start;
+    if (path.startsWith(blazeOutPath)) {
+      start = blazeOutPath.length();
+    } else {
+      int index = path.lastIndexOf(blazeOutComponent);
+      if (index == -1) {
+        return null;
+      }
+      start = index + blazeOutComponent.length();
     }
-    String relativePath = artifact.getPath().substring(blazeOutPath.length());
+    String relativePath = path.substring(start);
     int endIndex = relativePath.indexOf(File.separatorChar);
     return endIndex == -1 ? relativePath : relativePath.substring(0, endIndex);
   }
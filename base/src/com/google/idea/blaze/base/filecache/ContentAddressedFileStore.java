@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of files named by a digest of their contents, so identical files are only stored
+ * once. Cache files are hard links to the stored files.
+ *
+ * <p>Files are added by hard linking them into the store where possible, and otherwise copied. Only
+ * files which are never modified in place (e.g. blaze outputs, which blaze deletes before
+ * rewriting) may be linked, since the store relies on its files never changing. Thread-safe.
+ */
+public final class ContentAddressedFileStore {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private final File storeDir;
+  private final String extension;
+
+  private final AtomicLong bytesCopied = new AtomicLong();
+  private final AtomicLong bytesLinked = new AtomicLong();
+  private final AtomicLong bytesDeduped = new AtomicLong();
+
+  /**
+   * @param storeDir the directory holding the stored files
+   * @param extension the file extension of stored files, including the '.'
+   */
+  public ContentAddressedFileStore(File storeDir, String extension) {
+    this.storeDir = storeDir;
+    this.extension = extension;
+  }
+
+  /** Returns a digest of the file's contents, as used to name stored files. */
+  public static String digest(File file) throws IOException {
+    return com.google.common.io.Files.asByteSource(file).hash(HASH_FUNCTION).toString();
+  }
+
+  /**
+   * Adds the source file to the store, unless a file with identical contents is already present,
+   * then replaces the cache file with a hard link to the stored file. If hard links aren't
+   * supported, the cache file is a copy.
+   *
+   * @param allowLinkingSource whether the stored file may be a hard link to the source file, i.e.
+   *     the source file is never modified in place
+   * @return the digest of the source file
+   */
+  public String store(File source, File cacheFile, boolean allowLinkingSource)
+      throws IOException {
+    String digest = digest(source);
+    File stored = storedFile(digest);
+    long size = source.length();
+    if (stored.exists()) {
+      bytesDeduped.addAndGet(size);
+    } else {
+      if (!storeDir.exists() && !storeDir.mkdirs() && !storeDir.isDirectory()) {
+        throw new IOException("Could not create directory " + storeDir);
+      }
+      if (allowLinkingSource && tryLink(stored.toPath(), source.toPath())) {
+        bytesLinked.addAndGet(size);
+      } else {
+        File temp = tempFile(storeDir);
+        try {
+          copy(source, temp);
+          Files.move(temp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(temp.toPath());
+        }
+        bytesCopied.addAndGet(size);
+      }
+    }
+    File temp = tempFile(cacheFile.getParentFile());
+    try {
+      if (!tryLink(temp.toPath(), stored.toPath())) {
+        copy(stored, temp);
+        bytesCopied.addAndGet(size);
+      }
+      Files.move(
+          temp.toPath(),
+          cacheFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+    return digest;
+  }
+
+  /** Returns the stored file with the given digest. It may not exist. */
+  public File storedFile(String digest) {
+    return new File(storeDir, digest + extension);
+  }
+
+  /** Deletes all stored files other than those with the given digests, returning the count. */
+  public int retainAll(Collection<String> digests) {
+    File[] files = storeDir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    Set<String> retained = new HashSet<>();
+    for (String digest : digests) {
+      retained.add(digest + extension);
+    }
+    int removed = 0;
+    for (File file : files) {
+      if (!retained.contains(file.getName()) && file.delete()) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /** Returns the total size of the stored files. */
+  public long storedBytes() {
+    File[] files = storeDir.listFiles();
+    long total = 0;
+    if (files != null) {
+      for (File file : files) {
+        total += file.length();
+      }
+    }
+    return total;
+  }
+
+  /** Returns a summary of the bytes copied, linked and deduplicated since the last call. */
+  public String getAndResetStats() {
+    return String.format(
+        "%d kB copied, %d kB hard linked, %d kB deduplicated",
+        bytesCopied.getAndSet(0) / 1024,
+        bytesLinked.getAndSet(0) / 1024,
+        bytesDeduped.getAndSet(0) / 1024);
+  }
+
+  /**
+   * Hard links {@code link} to {@code existing}. Returns false if hard links aren't supported
+   * between the two locations (e.g. they're on different file systems).
+   */
+  private static boolean tryLink(Path link, Path existing) {
+    try {
+      Files.createLink(link, existing);
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      // another thread stored identical contents concurrently
+      return true;
+    } catch (UnsupportedOperationException | IOException e) {
+      return false;
+    }
+  }
+
+  /** Copies the file, letting the OS transfer the bytes directly where possible. */
+  private static void copy(File source, File target) throws IOException {
+    try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                target.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        long transferred = in.transferTo(position, size - position, out);
+        if (transferred <= 0) {
+          throw new IOException("File truncated while copying: " + source);
+        }
+        position += transferred;
+      }
+    }
+  }
+
+  private static File tempFile(File dir) {
+    return new File(dir, "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+  }
+}
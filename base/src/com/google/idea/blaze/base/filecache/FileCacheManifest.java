@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * A persisted record of the source file state each cache file was last updated from, which the
+ * {@link FileCacheSynchronizer} trusts instead of listing and reading the timestamps of every cache
+ * file.
+ *
+ * <p>Stored as an append-only log of updates and removals, which is compacted once it grows
+ * sufficiently larger than the number of live entries. A truncated log (e.g. after a crash) is
+ * read up to the last complete record.
+ *
+ * <p>The manifest can drift from the cache directory if cache files are modified externally, so
+ * it's periodically verified against the cache files: when first loaded, every {@link
+ * #VERIFICATION_INTERVAL} synchronizations, and on demand via {@link #requestVerification}.
+ * Thread-safe.
+ */
+public final class FileCacheManifest {
+  private static final Logger logger = Logger.getInstance(FileCacheManifest.class);
+
+  private static final int MAGIC = 0x4643_4d46;
+  private static final int VERSION = 1;
+  private static final byte OP_UPDATE = 1;
+  private static final byte OP_REMOVE = 2;
+
+  /** The number of synchronizations between verifications of the manifest. */
+  @VisibleForTesting static final int VERIFICATION_INTERVAL = 20;
+
+  /** The log is compacted when it has this many more records than live entries. */
+  private static final int COMPACTION_SLACK = 1000;
+
+  /** The state of the source file a cache file was last updated from. */
+  public static final class Entry {
+    public final long sourceTimestamp;
+    public final long sourceSize;
+    /** A digest of the source file's contents, if the cache computes one. */
+    @Nullable public final String digest;
+
+    public Entry(long sourceTimestamp, long sourceSize, @Nullable String digest) {
+      this.sourceTimestamp = sourceTimestamp;
+      this.sourceSize = sourceSize;
+      this.digest = digest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry other = (Entry) o;
+      return sourceTimestamp == other.sourceTimestamp
+          && sourceSize == other.sourceSize
+          && Objects.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sourceTimestamp, sourceSize, digest);
+    }
+  }
+
+  private final File file;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private int logRecords;
+  private int synchronizationsSinceVerification;
+  private boolean verificationRequested;
+  private boolean loaded;
+
+  public FileCacheManifest(File file) {
+    this.file = file;
+  }
+
+  /** Returns the recorded entries, keyed by cache key. */
+  public synchronized ImmutableMap<String, Entry> getEntries() {
+    ensureLoaded();
+    return ImmutableMap.copyOf(entries);
+  }
+
+  /** Returns the recorded source timestamps, keyed by cache key. */
+  synchronized ImmutableMap<String, Long> getSourceTimestamps() {
+    ensureLoaded();
+    ImmutableMap.Builder<String, Long> timestamps = ImmutableMap.builder();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      timestamps.put(entry.getKey(), entry.getValue().sourceTimestamp);
+    }
+    return timestamps.build();
+  }
+
+  /** Forces the next synchronization to verify the manifest against the cache files. */
+  public synchronized void requestVerification() {
+    verificationRequested = true;
+  }
+
+  /**
+   * Returns true if the next synchronization should verify the manifest against the cache files,
+   * and resets the verification schedule if so.
+   */
+  synchronized boolean startSynchronization() {
+    ensureLoaded();
+    boolean verify =
+        verificationRequested || synchronizationsSinceVerification >= VERIFICATION_INTERVAL;
+    if (verify) {
+      verificationRequested = false;
+      synchronizationsSinceVerification = 0;
+    } else {
+      synchronizationsSinceVerification++;
+    }
+    return verify;
+  }
+
+  /**
+   * Records the given updates and removals, appending them to the persisted log.
+   *
+   * @param updated the new entries, keyed by cache key
+   * @param removed the cache keys which are no longer cached
+   */
+  public synchronized void record(Map<String, Entry> updated, Collection<String> removed) {
+    ensureLoaded();
+    if (updated.isEmpty() && removed.isEmpty()) {
+      return;
+    }
+    for (String key : removed) {
+      entries.remove(key);
+    }
+    entries.putAll(updated);
+    if (logRecords + updated.size() + removed.size() > 2 * entries.size() + COMPACTION_SLACK) {
+      compact();
+      return;
+    }
+    try {
+      boolean newFile = !file.exists();
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(file, /* append= */ true)))) {
+        if (newFile) {
+          writeHeader(out);
+        }
+        for (String key : removed) {
+          out.writeByte(OP_REMOVE);
+          out.writeUTF(key);
+        }
+        for (Map.Entry<String, Entry> entry : updated.entrySet()) {
+          writeUpdate(out, entry.getKey(), entry.getValue());
+        }
+      }
+      logRecords += updated.size() + removed.size();
+    } catch (IOException e) {
+      logger.warn("Could not append to file cache manifest " + file, e);
+      // fall back to verifying the cache contents next time
+      verificationRequested = true;
+    }
+  }
+
+  /** Removes all entries, e.g. when the cache directory is cleared. */
+  public synchronized void clear() {
+    entries.clear();
+    logRecords = 0;
+    loaded = true;
+    synchronizationsSinceVerification = 0;
+    verificationRequested = false;
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      logger.warn("Could not delete file cache manifest " + file, e);
+    }
+  }
+
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    // the cache directory may have changed while the manifest wasn't in use
+    verificationRequested = true;
+    if (!file.exists()) {
+      return;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        logger.warn("Ignoring file cache manifest with unknown format: " + file);
+        return;
+      }
+      while (true) {
+        byte op;
+        try {
+          op = in.readByte();
+        } catch (EOFException e) {
+          break;
+        }
+        String key = in.readUTF();
+        if (op == OP_UPDATE) {
+          long timestamp = in.readLong();
+          long size = in.readLong();
+          String digest = in.readUTF();
+          entries.put(key, new Entry(timestamp, size, digest.isEmpty() ? null : digest));
+        } else if (op == OP_REMOVE) {
+          entries.remove(key);
+        } else {
+          throw new IOException("Unknown record type " + op);
+        }
+        logRecords++;
+      }
+    } catch (IOException e) {
+      // keep the entries read so far; verification will catch anything missed
+      logger.warn("File cache manifest truncated or corrupt: " + file, e);
+    }
+  }
+
+  /** Rewrites the log with only the live entries. */
+  private void compact() {
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        writeHeader(out);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          writeUpdate(out, entry.getKey(), entry.getValue());
+        }
+      }
+      Files.move(
+          temp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      logRecords = entries.size();
+    } catch (IOException e) {
+      logger.warn("Could not write file cache manifest " + file, e);
+      verificationRequested = true;
+    }
+  }
+
+  private static void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  private static void writeUpdate(DataOutputStream out, String key, Entry entry)
+      throws IOException {
+    out.writeByte(OP_UPDATE);
+    out.writeUTF(key);
+    out.writeLong(entry.sourceTimestamp);
+    out.writeLong(entry.sourceSize);
+    out.writeUTF(entry.digest != null ? entry.digest : "");
+  }
+}
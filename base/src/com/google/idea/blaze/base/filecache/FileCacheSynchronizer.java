@@ -15,18 +15,25 @@
  */
 package com.google.idea.blaze.base.filecache;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
@@ -34,15 +41,36 @@ import javax.annotation.Nullable;
  * Synchronizes original ("source") files and cached files for a {@link FileCache}. Updates or
  * removes files if the timestamps of the original file and the cached file are different.
  *
+ * <p>If given a {@link FileCacheManifest}, the state of the cache files is read from the manifest
+ * rather than the cache directory, except when the manifest is due to be verified.
+ *
  * <p>Delegates the actual file naming, updates and deletion to {@link FileCacheSynchronizerTraits}.
  */
 public class FileCacheSynchronizer {
   private static final Logger logger = Logger.getInstance(FileCacheSynchronizer.class);
 
+  private static final BoolExperiment useManifest =
+      new BoolExperiment("blaze.file.cache.manifest", true);
+
   private final FileCacheSynchronizerTraits traits;
+  @Nullable private final FileCacheManifest manifest;
 
   public FileCacheSynchronizer(FileCacheSynchronizerTraits traits) {
+    this(traits, null);
+  }
+
+  public FileCacheSynchronizer(
+      FileCacheSynchronizerTraits traits, @Nullable FileCacheManifest manifest) {
     this.traits = traits;
+    this.manifest = manifest != null && useManifest.getValue() ? manifest : null;
+  }
+
+  /**
+   * Whether cache state is read from and recorded in the manifest. False if no manifest was given,
+   * or manifests are disabled.
+   */
+  public boolean usesManifest() {
+    return manifest != null;
   }
 
   /**
@@ -60,31 +88,25 @@ public class FileCacheSynchronizer {
       return false;
     }
     ImmutableMap.Builder<String, Long> sourceFileCacheKeyToTimestamp = ImmutableMap.builder();
+    Map<String, File> cacheKeyToSourceFile = new HashMap<>();
     for (Map.Entry<File, Long> entry : sourceFileTimestamps.entrySet()) {
       String cacheKey = traits.sourceFileToCacheKey(entry.getKey());
       sourceFileCacheKeyToTimestamp.put(cacheKey, entry.getValue());
+      cacheKeyToSourceFile.put(cacheKey, entry.getKey());
     }
+    ImmutableMap<String, Long> sourceState = sourceFileCacheKeyToTimestamp.build();
 
-    // Discover current on-disk cache state
-    Collection<File> cacheFiles = traits.enumerateCacheFiles();
-    ImmutableMap<File, Long> cacheFileTimestamps =
-        FileDiffer.readFileState(new ArrayList<>(cacheFiles));
-    if (cacheFileTimestamps == null) {
+    // Discover current cache state
+    Set<String> unrecordedKeys = new HashSet<>();
+    ImmutableMap<String, Long> cachedState =
+        manifest != null ? readManifestState(unrecordedKeys) : readCacheState();
+    if (cachedState == null) {
       return false;
     }
-    ImmutableMap.Builder<String, Long> cachedFileCacheKeyToTimestamp = ImmutableMap.builder();
-    for (Map.Entry<File, Long> entry : cacheFileTimestamps.entrySet()) {
-      String cacheKey = traits.cacheFileToCacheKey(entry.getKey());
-      cachedFileCacheKeyToTimestamp.put(cacheKey, entry.getValue());
-    }
 
     List<String> updatedFiles = new ArrayList<>();
     List<String> removedFiles = new ArrayList<>();
-    FileDiffer.diffState(
-        cachedFileCacheKeyToTimestamp.build(),
-        sourceFileCacheKeyToTimestamp.build(),
-        updatedFiles,
-        removedFiles);
+    FileDiffer.diffState(cachedState, sourceState, updatedFiles, removedFiles);
 
     // Update cache files, and remove files if required.
     ListeningExecutorService executor = FetchExecutor.EXECUTOR;
@@ -106,10 +128,116 @@ public class FileCacheSynchronizer {
       succeeded = false;
     }
 
+    if (manifest != null) {
+      if (succeeded) {
+        // up-to-date cache files found during verification are recorded too
+        Set<String> recordedKeys = new HashSet<>(updatedFiles);
+        unrecordedKeys.retainAll(sourceState.keySet());
+        recordedKeys.addAll(unrecordedKeys);
+        recordUpdates(
+            recordedKeys,
+            sourceState,
+            cacheKeyToSourceFile,
+            removeMissingFiles ? removedFiles : ImmutableList.of());
+      } else {
+        manifest.requestVerification();
+      }
+    }
+
     if (context != null) {
       traits.logStats(context, updatedFiles.size(), removedFiles.size(), removeMissingFiles);
     }
 
     return succeeded;
   }
+
+  /** Reads the timestamps of the cache files, keyed by cache key. */
+  @Nullable
+  private ImmutableMap<String, Long> readCacheState() {
+    Collection<File> cacheFiles = traits.enumerateCacheFiles();
+    ImmutableMap<File, Long> cacheFileTimestamps =
+        traits.readCacheFileTimestamps(new ArrayList<>(cacheFiles));
+    if (cacheFileTimestamps == null) {
+      return null;
+    }
+    ImmutableMap.Builder<String, Long> cachedFileCacheKeyToTimestamp = ImmutableMap.builder();
+    for (Map.Entry<File, Long> entry : cacheFileTimestamps.entrySet()) {
+      String cacheKey = traits.cacheFileToCacheKey(entry.getKey());
+      cachedFileCacheKeyToTimestamp.put(cacheKey, entry.getValue());
+    }
+    return cachedFileCacheKeyToTimestamp.build();
+  }
+
+  /**
+   * Returns the source timestamps recorded in the manifest, keyed by cache key. If the manifest is
+   * due to be verified, first drops entries whose cache file is missing, and adds the timestamps of
+   * cache files without an entry to {@code unrecordedKeys} and the returned state.
+   */
+  @Nullable
+  private ImmutableMap<String, Long> readManifestState(Set<String> unrecordedKeys) {
+    Preconditions.checkNotNull(manifest);
+    if (!manifest.startSynchronization()) {
+      return manifest.getSourceTimestamps();
+    }
+    ImmutableMap<String, Long> recorded = manifest.getSourceTimestamps();
+    Map<String, File> cacheFiles = new HashMap<>();
+    for (File cacheFile : traits.enumerateCacheFiles()) {
+      cacheFiles.put(traits.cacheFileToCacheKey(cacheFile), cacheFile);
+    }
+    List<String> missing = new ArrayList<>();
+    Map<String, Long> state = new HashMap<>();
+    for (Map.Entry<String, Long> entry : recorded.entrySet()) {
+      if (cacheFiles.containsKey(entry.getKey())) {
+        state.put(entry.getKey(), entry.getValue());
+      } else {
+        missing.add(entry.getKey());
+      }
+    }
+    List<File> unrecordedFiles = new ArrayList<>();
+    for (Map.Entry<String, File> entry : cacheFiles.entrySet()) {
+      if (!recorded.containsKey(entry.getKey())) {
+        unrecordedFiles.add(entry.getValue());
+      }
+    }
+    ImmutableMap<File, Long> unrecordedTimestamps =
+        traits.readCacheFileTimestamps(unrecordedFiles);
+    if (unrecordedTimestamps == null) {
+      return null;
+    }
+    for (Map.Entry<File, Long> entry : unrecordedTimestamps.entrySet()) {
+      String cacheKey = traits.cacheFileToCacheKey(entry.getKey());
+      state.put(cacheKey, entry.getValue());
+      unrecordedKeys.add(cacheKey);
+    }
+    manifest.record(ImmutableMap.of(), missing);
+    return ImmutableMap.copyOf(state);
+  }
+
+  private void recordUpdates(
+      Collection<String> updatedKeys,
+      Map<String, Long> sourceState,
+      Map<String, File> cacheKeyToSourceFile,
+      Collection<String> removedKeys) {
+    Preconditions.checkNotNull(manifest);
+    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    Map<String, FileCacheManifest.Entry> entries = new HashMap<>();
+    List<String> failedKeys = new ArrayList<>();
+    for (String cacheKey : updatedKeys) {
+      // updates log rather than propagate their failures
+      if (!fileOperationProvider.exists(traits.cacheFileForKey(cacheKey))) {
+        failedKeys.add(cacheKey);
+        continue;
+      }
+      File sourceFile = cacheKeyToSourceFile.get(cacheKey);
+      entries.put(
+          cacheKey,
+          new FileCacheManifest.Entry(
+              sourceState.get(cacheKey),
+              fileOperationProvider.getFileSize(sourceFile),
+              traits.cachedDigest(cacheKey)));
+    }
+    List<String> removed = new ArrayList<>(removedKeys);
+    removed.addAll(failedKeys);
+    manifest.record(entries, removed);
+  }
 }
@@ -15,11 +15,13 @@
  */
 package com.google.idea.blaze.base.filecache;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import java.io.File;
 import java.util.Collection;
+import javax.annotation.Nullable;
 
 /**
  * Traits to customize how a {@link FileCacheSynchronizer} operates.
@@ -40,6 +42,30 @@ public interface FileCacheSynchronizerTraits {
   /** Return the cache key for a given cache file. */
   String cacheFileToCacheKey(File cacheFile);
 
+  /**
+   * Returns the timestamp of each cache file, to compare with the timestamp of its source file.
+   * Cache files with a different timestamp are updated.
+   *
+   * <p>Defaults to the modified time of the cache files themselves, which updates are expected to
+   * preserve. Caches whose files can't carry their source's timestamp (e.g. hard links shared by
+   * multiple sources) should instead return the timestamps recorded at the last update.
+   *
+   * @return null if the timestamps couldn't be read
+   */
+  @Nullable
+  default ImmutableMap<File, Long> readCacheFileTimestamps(Collection<File> cacheFiles) {
+    return FileDiffer.readFileState(cacheFiles);
+  }
+
+  /**
+   * Returns a digest of the contents last cached for the given key, or null if the cache doesn't
+   * compute one. Called after updates complete, and recorded in the {@link FileCacheManifest}.
+   */
+  @Nullable
+  default String cachedDigest(String cacheKey) {
+    return null;
+  }
+
   /** Return the cache file for a given cache key. */
   File cacheFileForKey(String cacheKey);
 
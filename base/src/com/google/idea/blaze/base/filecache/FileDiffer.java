@@ -20,7 +20,9 @@ import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.io.ModifiedTimeScanner;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -80,4 +82,24 @@ public final class FileDiffer {
     removedSet.removeAll(newState.keySet());
     removed.addAll(removedSet);
   }
+
+  /**
+   * Returns the files whose contents changed, out of files whose modified time changed, by
+   * comparing their old and new content digests. Files without a digest in either map are assumed
+   * to have changed.
+   */
+  public static <K> List<K> filterUnchangedContents(
+      Collection<K> updated, @Nullable Map<K, Long> oldDigests, Map<K, Long> newDigests) {
+    if (oldDigests == null) {
+      return new ArrayList<>(updated);
+    }
+    List<K> changed = new ArrayList<>();
+    for (K key : updated) {
+      Long oldDigest = oldDigests.get(key);
+      if (oldDigest == null || !oldDigest.equals(newDigests.get(key))) {
+        changed.add(key);
+      }
+    }
+    return changed;
+  }
 }
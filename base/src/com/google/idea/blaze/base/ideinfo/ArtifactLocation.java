@@ -37,6 +37,11 @@ public final class ArtifactLocation implements Serializable, Comparable<Artifact
     this.isExternal = isExternal;
   }
 
+  /** The execution-root-relative path of the root containing this artifact. */
+  public String getRootExecutionPathFragment() {
+    return rootExecutionPathFragment;
+  }
+
   /**
    * The root-relative path. For external workspace artifacts, this is relative to the external
    * workspace root.
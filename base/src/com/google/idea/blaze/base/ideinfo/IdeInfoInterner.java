@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Deduplicates the small value objects which make up most of a {@link TargetMap}.
+ *
+ * <p>The same labels, dependencies, artifact roots and tags appear in many targets. Both the
+ * protobuf conversion and the project data deserialization pass their values through here, so a
+ * single instance of each is shared across the whole target map (and across syncs, while the
+ * previous target map is still alive).
+ *
+ * <p>Interned instances are weakly referenced, so this doesn't keep unused values alive.
+ */
+public final class IdeInfoInterner {
+
+  /** Approximate shallow size of a small object, with header and two references. */
+  private static final int OBJECT_SIZE = 24;
+
+  private static final Category<String> strings =
+      new Category<>("strings", IdeInfoInterner::stringSize);
+  private static final Category<Label> labels =
+      new Category<>("labels", label -> OBJECT_SIZE + stringSize(label.toString()));
+  private static final Category<TargetKey> targetKeys =
+      new Category<>("target keys", key -> OBJECT_SIZE);
+  private static final Category<Dependency> dependencies =
+      new Category<>("dependencies", dep -> OBJECT_SIZE);
+  private static final Category<ArtifactLocation> artifactLocations =
+      new Category<>(
+          "artifact locations",
+          location -> OBJECT_SIZE + 8 + stringSize(location.getRelativePath()));
+
+  private IdeInfoInterner() {}
+
+  public static String intern(String string) {
+    return strings.intern(string);
+  }
+
+  public static Label intern(Label label) {
+    return labels.intern(label);
+  }
+
+  public static TargetKey intern(TargetKey key) {
+    return targetKeys.intern(key);
+  }
+
+  public static Dependency intern(Dependency dependency) {
+    return dependencies.intern(dependency);
+  }
+
+  @Nullable
+  public static ArtifactLocation intern(@Nullable ArtifactLocation location) {
+    return location != null ? artifactLocations.intern(location) : null;
+  }
+
+  public static ImmutableList<String> internStrings(Collection<String> values) {
+    if (values.isEmpty()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (String value : values) {
+      builder.add(intern(value));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a summary of interning activity since the last call to this method, suitable for the
+   * sync log, and resets the statistics.
+   */
+  public static String getAndResetStats() {
+    StringBuilder summary = new StringBuilder("Interned target map values (since last report):");
+    long totalSaved = 0;
+    for (Category<?> category :
+        ImmutableList.of(labels, targetKeys, dependencies, artifactLocations, strings)) {
+      totalSaved += category.appendAndReset(summary);
+    }
+    summary.append(String.format("\n  total: ~%,d KB saved", totalSaved / 1024));
+    return summary.toString();
+  }
+
+  /** Approximate retained size of a string (compact, latin-1 encoding). */
+  private static long stringSize(String string) {
+    return 24 + 16 + string.length();
+  }
+
+  private static class Category<T> {
+    private final String name;
+    private final Interner<T> interner = Interners.newWeakInterner();
+    private final ToLongFunction<T> estimatedSize;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    Category(String name, ToLongFunction<T> estimatedSize) {
+      this.name = name;
+      this.estimatedSize = estimatedSize;
+    }
+
+    T intern(T value) {
+      T interned = interner.intern(value);
+      total.incrementAndGet();
+      if (interned != value) {
+        duplicates.incrementAndGet();
+        bytesSaved.addAndGet(estimatedSize.applyAsLong(value));
+      }
+      return interned;
+    }
+
+    /** Appends a line summarizing this category, returning the estimated bytes saved. */
+    long appendAndReset(StringBuilder summary) {
+      long total = this.total.getAndSet(0);
+      long duplicates = this.duplicates.getAndSet(0);
+      long bytesSaved = this.bytesSaved.getAndSet(0);
+      summary.append(
+          String.format(
+              "\n  %s: %,d total, %,d distinct, ~%,d KB saved",
+              name, total, total - duplicates, bytesSaved / 1024));
+      return bytesSaved;
+    }
+  }
+}
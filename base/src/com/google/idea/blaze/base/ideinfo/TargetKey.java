@@ -49,6 +49,11 @@ public class TargetKey implements Serializable, Comparable<TargetKey> {
     return new TargetKey(label, ImmutableList.copyOf(aspectIds));
   }
 
+  /** The ids of the aspects applied to this target, if any. */
+  public ImmutableList<String> getAspectIds() {
+    return aspectIds;
+  }
+
   public boolean isPlainTarget() {
     return aspectIds.isEmpty();
   }
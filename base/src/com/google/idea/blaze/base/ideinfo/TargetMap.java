@@ -17,7 +17,9 @@ package com.google.idea.blaze.base.ideinfo;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.io.Serializable;
+import java.util.Collection;
 import javax.annotation.Nullable;
 
 /** Map of configured targets (and soon aspects). */
@@ -30,6 +32,11 @@ public class TargetMap implements Serializable {
     this.targetMap = targetMap;
   }
 
+  /** For subclasses which provide targets from a different backing store. */
+  protected TargetMap() {
+    this(ImmutableMap.of());
+  }
+
   @Nullable
   public TargetIdeInfo get(TargetKey key) {
     return targetMap.get(key);
@@ -39,6 +46,23 @@ public class TargetMap implements Serializable {
     return targetMap.containsKey(key);
   }
 
+  /**
+   * Returns the keys of all targets in the map. Prefer this over {@link #map} when the targets
+   * themselves aren't needed, since some implementations load targets on demand.
+   */
+  public ImmutableSet<TargetKey> keys() {
+    return targetMap.keySet();
+  }
+
+  /**
+   * Returns the direct dependencies of the given target, or an empty collection if it isn't in the
+   * map. Unlike {@link #get}, this never needs to load the whole target.
+   */
+  public Collection<Dependency> getDependencies(TargetKey key) {
+    TargetIdeInfo target = targetMap.get(key);
+    return target != null ? target.dependencies : ImmutableSet.of();
+  }
+
   public ImmutableCollection<TargetIdeInfo> targets() {
     return targetMap.values();
   }
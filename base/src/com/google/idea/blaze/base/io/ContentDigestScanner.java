@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.io;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import java.io.File;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a cheap, non-cryptographic 64-bit digest of the contents of a list of files. Used to
+ * detect files which were rewritten with identical contents.
+ */
+public class ContentDigestScanner {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private static final class DigestReader implements FileAttributeScanner.AttributeReader<Long> {
+    @Override
+    @Nullable
+    public Long getAttribute(File file) {
+      try {
+        return Files.asByteSource(file).hash(HASH_FUNCTION).asLong();
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public boolean isValid(@Nullable Long digest) {
+      return digest != null;
+    }
+  }
+
+  public static ImmutableMap<File, Long> readDigests(Iterable<File> fileList) throws Exception {
+    return FileAttributeScanner.readAttributes(
+        fileList, new DigestReader(), BlazeExecutor.getInstance());
+  }
+
+  /**
+   * Reads the content digests of all files, without blocking the calling thread. Files which
+   * can't be read are omitted.
+   */
+  public static ListenableFuture<ImmutableMap<File, Long>> readDigestsAsync(
+      Iterable<File> fileList) {
+    return FileAttributeScanner.readAttributesAsync(
+        fileList, new DigestReader(), BlazeExecutor.getInstance());
+  }
+}
@@ -15,17 +15,24 @@
  */
 package com.google.idea.blaze.base.io;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 /** Reads file attributes from a list files in parallel. */
 public class FileAttributeScanner {
 
+  /** The number of files read by each task. */
+  private static final int BATCH_SIZE = 256;
+
   interface AttributeReader<T> {
     T getAttribute(File file);
 
@@ -35,26 +42,46 @@ public class FileAttributeScanner {
   public static <T> ImmutableMap<File, T> readAttributes(
       Iterable<File> fileList, AttributeReader<T> attributeReader, BlazeExecutor executor)
       throws Exception {
-    List<ListenableFuture<FilePair<T>>> futures = Lists.newArrayList();
-    for (File file : fileList) {
+    return readAttributesAsync(fileList, attributeReader, executor).get();
+  }
+
+  /**
+   * Reads the attributes of all files, without blocking the calling thread.
+   *
+   * <p>Files are read in batches of {@link #BATCH_SIZE}, one task per batch, rather than one task
+   * per file. Callers typically list the files of an output directory together, so each batch
+   * touches few directories.
+   */
+  public static <T> ListenableFuture<ImmutableMap<File, T>> readAttributesAsync(
+      Iterable<File> fileList, AttributeReader<T> attributeReader, BlazeExecutor executor) {
+    List<ListenableFuture<List<FilePair<T>>>> futures = Lists.newArrayList();
+    for (List<File> batch : Iterables.partition(fileList, BATCH_SIZE)) {
       futures.add(
           executor.submit(
               () -> {
-                T attribute = attributeReader.getAttribute(file);
-                if (attributeReader.isValid(attribute)) {
-                  return new FilePair<>(file, attribute);
+                List<FilePair<T>> pairs = new ArrayList<>(batch.size());
+                for (File file : batch) {
+                  T attribute = attributeReader.getAttribute(file);
+                  if (attributeReader.isValid(attribute)) {
+                    pairs.add(new FilePair<>(file, attribute));
+                  }
                 }
-                return null;
+                return pairs;
               }));
     }
-
-    ImmutableMap.Builder<File, T> result = ImmutableMap.builder();
-    for (FilePair<T> filePair : Futures.allAsList(futures).get()) {
-      if (filePair != null) {
-        result.put(filePair.file, filePair.attribute);
-      }
-    }
-    return result.build();
+    return Futures.transform(
+        Futures.allAsList(futures),
+        (Function<List<List<FilePair<T>>>, ImmutableMap<File, T>>)
+            batches -> {
+              ImmutableMap.Builder<File, T> result = ImmutableMap.builder();
+              for (List<FilePair<T>> batch : batches) {
+                for (FilePair<T> filePair : batch) {
+                  result.put(filePair.file, filePair.attribute);
+                }
+              }
+              return result.build();
+            },
+        MoreExecutors.directExecutor());
   }
 
   private static class FilePair<T> {
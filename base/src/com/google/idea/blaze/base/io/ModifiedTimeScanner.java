@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.io;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import java.io.File;
 
@@ -47,4 +48,13 @@ public class ModifiedTimeScanner {
     return FileAttributeScanner.readAttributes(
         fileList, timestampReader, BlazeExecutor.getInstance());
   }
+
+  /** Reads the last modified times of all files, without blocking the calling thread. */
+  public static ListenableFuture<ImmutableMap<File, Long>> readTimestampsAsync(
+      Iterable<File> fileList) {
+    final TimestampReader timestampReader =
+        new TimestampReader(FileOperationProvider.getInstance());
+    return FileAttributeScanner.readAttributesAsync(
+        fileList, timestampReader, BlazeExecutor.getInstance());
+  }
 }
@@ -43,7 +43,7 @@ public class LabelRuleLookupElement extends BuildLookupElement {
 
     String ruleFragment = LabelUtils.getRuleComponent(originalString);
     List<BuildLookupElement> lookups = Lists.newArrayList();
-    for (FuncallExpression target : file.findChildrenByClass(FuncallExpression.class)) {
+    for (FuncallExpression target : file.getTopLevelFuncalls()) {
       String targetName = target.getName();
       if (targetName == null
           || Objects.equals(target.getName(), excluded)
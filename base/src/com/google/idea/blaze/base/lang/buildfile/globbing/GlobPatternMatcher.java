@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.annotation.Nullable;
+
+/**
+ * Matches strings against a set of glob patterns, compiled once into a single regular expression.
+ *
+ * <p>Equivalent to calling {@link UnixGlob#matches(String, String)} for each pattern in turn, but
+ * without compiling a regex per pattern, per call.
+ */
+public final class GlobPatternMatcher {
+
+  private static final Cache<ImmutableList<String>, GlobPatternMatcher> cache =
+      CacheBuilder.newBuilder().maximumSize(1000).build();
+
+  private static final GlobPatternMatcher MATCH_NOTHING = new GlobPatternMatcher(false, null);
+
+  /** Returns a (possibly cached) matcher for the given patterns. */
+  public static GlobPatternMatcher forPatterns(Collection<String> patterns) {
+    if (patterns.isEmpty()) {
+      return MATCH_NOTHING;
+    }
+    ImmutableList<String> key = ImmutableList.copyOf(patterns);
+    try {
+      return cache.get(key, () -> compile(key));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static GlobPatternMatcher compile(ImmutableList<String> patterns) {
+    StringBuilder regex = new StringBuilder();
+    for (String pattern : patterns) {
+      if (pattern.isEmpty()) {
+        continue;
+      }
+      if (pattern.equals("**") || pattern.equals("*")) {
+        return new GlobPatternMatcher(true, null);
+      }
+      String alternative = toRegex(pattern);
+      if (alternative == null) {
+        continue;
+      }
+      if (regex.length() != 0) {
+        regex.append('|');
+      }
+      regex.append("(?:").append(alternative).append(')');
+    }
+    return regex.length() == 0
+        ? MATCH_NOTHING
+        : new GlobPatternMatcher(false, Pattern.compile(regex.toString()));
+  }
+
+  /**
+   * Converts a single pattern to a regex with the same semantics as {@link UnixGlob#matches}, or
+   * returns null if the pattern can never match.
+   */
+  @Nullable
+  private static String toRegex(String pattern) {
+    // if a filename starts with '.', this char must be matched explicitly
+    String prefix = pattern.charAt(0) == '.' ? "" : "(?!\\.)";
+    int lastIndex = pattern.length() - 1;
+    if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
+      // *.xyz: matched by suffix, with no further wildcard expansion
+      return prefix + ".*" + Pattern.quote(pattern.substring(1));
+    }
+    if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
+      // xyz*: matched by prefix, with no further wildcard expansion
+      return prefix + Pattern.quote(pattern.substring(0, lastIndex)) + ".*";
+    }
+    try {
+      return prefix + UnixGlob.makePatternFromWildcard(pattern).pattern();
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  private final boolean matchesEverything;
+  @Nullable private final Pattern pattern;
+
+  private GlobPatternMatcher(boolean matchesEverything, @Nullable Pattern pattern) {
+    this.matchesEverything = matchesEverything;
+    this.pattern = pattern;
+  }
+
+  /** Returns true if any of the patterns matches the given string. */
+  public boolean matches(String str) {
+    if (str.isEmpty()) {
+      return false;
+    }
+    if (matchesEverything) {
+      return true;
+    }
+    return pattern != null && pattern.matcher(str).matches();
+  }
+}
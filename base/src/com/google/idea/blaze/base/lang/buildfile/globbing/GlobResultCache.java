@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.PathUtil;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Caches glob results per blaze package, keyed by the glob's includes, excludes and
+ * exclude_directories value.
+ *
+ * <p>All entries for a package are dropped when a file or directory under it is created, deleted,
+ * moved or renamed. Content changes don't affect glob results, so are ignored.
+ */
+public class GlobResultCache implements BulkFileListener {
+
+  private static final int MAX_ENTRIES = 2000;
+
+  public static GlobResultCache getInstance(Project project) {
+    return ServiceManager.getService(project, GlobResultCache.class);
+  }
+
+  private final Cache<GlobKey, ImmutableList<VirtualFile>> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  public GlobResultCache(Project project) {
+    project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, this);
+  }
+
+  /**
+   * Returns the files under the package directory matching the given glob, evaluating it only if
+   * there's no cached result.
+   *
+   * @param directoryFilter see {@link VirtualFileGlob.Builder#setDirectoryFilter}. This should
+   *     only depend on the file system contents under the package directory.
+   */
+  public ImmutableList<VirtualFile> glob(
+      VirtualFile packageDirectory,
+      Collection<String> includes,
+      Collection<String> excludes,
+      boolean excludeDirectories,
+      Predicate<VirtualFile> directoryFilter)
+      throws InterruptedException {
+    GlobKey key =
+        GlobKey.create(
+            packageDirectory.getPath(),
+            ImmutableList.copyOf(includes),
+            ImmutableList.copyOf(excludes),
+            excludeDirectories);
+    ImmutableList<VirtualFile> files = cache.getIfPresent(key);
+    if (files != null) {
+      return files;
+    }
+    files =
+        VirtualFileGlob.forPath(packageDirectory)
+            .addPatterns(includes)
+            .addExcludes(excludes)
+            .setExcludeDirectories(excludeDirectories)
+            .setDirectoryFilter(directoryFilter)
+            .glob();
+    cache.put(key, files);
+    return files;
+  }
+
+  @Override
+  public void before(List<? extends VFileEvent> events) {}
+
+  @Override
+  public void after(List<? extends VFileEvent> events) {
+    if (cache.size() == 0) {
+      return;
+    }
+    NavigableSet<String> changedPaths = new TreeSet<>();
+    for (VFileEvent event : events) {
+      if (event instanceof VFileContentChangeEvent) {
+        continue;
+      }
+      if (event instanceof VFilePropertyChangeEvent) {
+        VFilePropertyChangeEvent propEvent = (VFilePropertyChangeEvent) event;
+        if (!VirtualFile.PROP_NAME.equals(propEvent.getPropertyName())) {
+          continue;
+        }
+        VirtualFile parent = propEvent.getFile().getParent();
+        if (parent != null) {
+          changedPaths.add(parent.getPath() + "/" + propEvent.getOldValue());
+        }
+      } else if (event instanceof VFileMoveEvent) {
+        VFileMoveEvent moveEvent = (VFileMoveEvent) event;
+        changedPaths.add(moveEvent.getOldParent().getPath() + "/" + moveEvent.getFile().getName());
+      } else if (event instanceof VFileCopyEvent) {
+        VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+        changedPaths.add(copyEvent.getNewParent().getPath() + "/" + copyEvent.getNewChildName());
+        continue;
+      }
+      changedPaths.add(event.getPath());
+    }
+    if (!changedPaths.isEmpty()) {
+      cache.asMap().keySet().removeIf(key -> isAffected(key.packagePath(), changedPaths));
+    }
+  }
+
+  /** Returns true if any of the changed paths is in the package, or contains it. */
+  private static boolean isAffected(String packagePath, NavigableSet<String> changedPaths) {
+    if (changedPaths.contains(packagePath)
+        || !changedPaths.subSet(packagePath + "/", packagePath + "0").isEmpty()) {
+      // the package directory itself, or a path under it ('0' follows '/')
+      return true;
+    }
+    for (String path = PathUtil.getParentPath(packagePath);
+        !path.isEmpty();
+        path = PathUtil.getParentPath(path)) {
+      if (changedPaths.contains(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @AutoValue
+  abstract static class GlobKey {
+    abstract String packagePath();
+
+    abstract ImmutableList<String> includes();
+
+    abstract ImmutableList<String> excludes();
+
+    abstract boolean excludeDirectories();
+
+    static GlobKey create(
+        String packagePath,
+        ImmutableList<String> includes,
+        ImmutableList<String> excludes,
+        boolean excludeDirectories) {
+      return new AutoValue_GlobResultCache_GlobKey(
+          packagePath, includes, excludes, excludeDirectories);
+    }
+  }
+}
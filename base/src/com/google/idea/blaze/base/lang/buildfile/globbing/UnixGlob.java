@@ -78,7 +78,7 @@ public final class UnixGlob {
    *
    * @return list of segment arrays
    */
-  private static List<String[]> checkAndSplitPatterns(Collection<String> patterns) {
+  static List<String[]> checkAndSplitPatterns(Collection<String> patterns) {
     List<String[]> list = Lists.newArrayListWithCapacity(patterns.size());
     for (String pattern : patterns) {
       String error = GlobPatternValidator.validate(pattern);
@@ -157,7 +157,7 @@ public final class UnixGlob {
    *
    * <p>e.g. "foo*bar?.java" -> "foo.*bar.\\.java"
    */
-  private static Pattern makePatternFromWildcard(String pattern) {
+  static Pattern makePatternFromWildcard(String pattern) {
     StringBuilder regexp = new StringBuilder();
     for (int i = 0, len = pattern.length(); i < len; i++) {
       char c = pattern.charAt(i);
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+/**
+ * Evaluates globs against the in-memory {@link VirtualFile} tree, supporting the same pattern
+ * syntax as {@link UnixGlob}, with the same results.
+ *
+ * <p>All include and exclude patterns are evaluated in a single traversal, listing each directory
+ * at most once. Directories are only listed if a pattern has a wildcard at that level, and are
+ * only traversed while some include pattern can still match below them. Subtrees matched by an
+ * exclude pattern ending in <code>/**</code> are skipped entirely.
+ *
+ * <p>Subdirectories are visited in parallel on a shared, bounded executor. Callers are expected to
+ * hold a read lock, which keeps the VFS from changing under the worker threads.
+ */
+public final class VirtualFileGlob {
+  private VirtualFileGlob() {}
+
+  private static final int THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private static final long CANCELLATION_CHECK_INTERVAL_MILLIS = 20;
+
+  /** The executor shared by all parallel glob evaluations. */
+  private static final Executor SHARED_EXECUTOR =
+      new BoundedTaskExecutor(
+          // #api171 add this argument, the form without a name is deprecated
+          // VirtualFileGlob.class.getSimpleName(),
+          PooledThreadExecutor.INSTANCE, THREAD_COUNT);
+
+  public static Builder forPath(VirtualFile base) {
+    return new Builder(base);
+  }
+
+  /** Builder class for VirtualFileGlob. */
+  public static class Builder {
+    private final VirtualFile base;
+    private final List<String> patterns = new ArrayList<>();
+    private final List<String> excludes = new ArrayList<>();
+    private boolean excludeDirectories;
+    private Predicate<VirtualFile> directoryFilter = file -> true;
+    @Nullable private Executor executor = SHARED_EXECUTOR;
+
+    /** Creates a glob builder with the given base directory. */
+    public Builder(VirtualFile base) {
+      this.base = base;
+    }
+
+    /**
+     * Adds patterns to include to the glob builder.
+     *
+     * <p>For a description of the syntax of the patterns, see {@link UnixGlob}.
+     */
+    public Builder addPatterns(String... patterns) {
+      Collections.addAll(this.patterns, patterns);
+      return this;
+    }
+
+    /**
+     * Adds patterns to include to the glob builder.
+     *
+     * <p>For a description of the syntax of the patterns, see {@link UnixGlob}.
+     */
+    public Builder addPatterns(Collection<String> patterns) {
+      this.patterns.addAll(patterns);
+      return this;
+    }
+
+    /**
+     * Adds patterns to exclude from the results to the glob builder.
+     *
+     * <p>For a description of the syntax of the patterns, see {@link UnixGlob}.
+     */
+    public Builder addExcludes(String... excludes) {
+      Collections.addAll(this.excludes, excludes);
+      return this;
+    }
+
+    /**
+     * Adds patterns to exclude from the results to the glob builder.
+     *
+     * <p>For a description of the syntax of the patterns, see {@link UnixGlob}.
+     */
+    public Builder addExcludes(Collection<String> excludes) {
+      this.excludes.addAll(excludes);
+      return this;
+    }
+
+    /** If set to true, directories are not returned in the glob result. */
+    public Builder setExcludeDirectories(boolean excludeDirectories) {
+      this.excludeDirectories = excludeDirectories;
+      return this;
+    }
+
+    /**
+     * If set, the given predicate is called for every directory encountered. If it returns false,
+     * the corresponding item is not returned in the output and directories are not traversed
+     * either.
+     *
+     * <p>The predicate may be called concurrently from several threads.
+     */
+    public Builder setDirectoryFilter(Predicate<VirtualFile> directoryFilter) {
+      this.directoryFilter = directoryFilter;
+      return this;
+    }
+
+    /**
+     * Sets the executor used to visit subdirectories in parallel. If null, evaluation is done
+     * in-thread. Defaults to an executor shared by all globs.
+     */
+    public Builder setExecutor(@Nullable Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Executes the glob, returning the matching files sorted by path.
+     *
+     * @throws IllegalArgumentException if any include or exclude pattern contains errors.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public ImmutableList<VirtualFile> glob() throws InterruptedException {
+      if (patterns.isEmpty() || !base.isValid()) {
+        return ImmutableList.of();
+      }
+      List<State> initialStates = new ArrayList<>();
+      for (String[] segments : UnixGlob.checkAndSplitPatterns(patterns)) {
+        initialStates.add(new State(new GlobPattern(segments, false), 0));
+      }
+      for (String[] segments : UnixGlob.checkAndSplitPatterns(excludes)) {
+        initialStates.add(new State(new GlobPattern(segments, true), 0));
+      }
+      return new GlobVisitor(excludeDirectories, directoryFilter, executor)
+          .glob(base, initialStates);
+    }
+  }
+
+  /** A split include or exclude pattern. */
+  private static final class GlobPattern {
+    private final String[] segments;
+    /** The matcher for each segment, or null for segments without wildcards. */
+    private final GlobPatternMatcher[] matchers;
+
+    private final boolean exclude;
+
+    private GlobPattern(String[] segments, boolean exclude) {
+      this.segments = segments;
+      this.exclude = exclude;
+      this.matchers = new GlobPatternMatcher[segments.length];
+      for (int i = 0; i < segments.length; i++) {
+        if (hasWildcard(segments[i])) {
+          matchers[i] = GlobPatternMatcher.forPatterns(ImmutableList.of(segments[i]));
+        }
+      }
+    }
+
+    private static boolean hasWildcard(String segment) {
+      return segment.contains("*") || segment.contains("?");
+    }
+  }
+
+  /** A pattern, along with the number of its segments matched so far. */
+  private static final class State {
+    private final GlobPattern pattern;
+    private final int index;
+
+    private State(GlobPattern pattern, int index) {
+      this.pattern = pattern;
+      this.index = index;
+    }
+
+    private boolean isComplete() {
+      return index == pattern.segments.length;
+    }
+
+    private boolean isLastSegment() {
+      return index == pattern.segments.length - 1;
+    }
+
+    private boolean isDoubleStar() {
+      return "**".equals(pattern.segments[index]);
+    }
+
+    private boolean isLiteral() {
+      return pattern.matchers[index] == null;
+    }
+
+    private String segment() {
+      return pattern.segments[index];
+    }
+
+    private boolean matches(String name) {
+      GlobPatternMatcher matcher = pattern.matchers[index];
+      return matcher != null ? matcher.matches(name) : pattern.segments[index].equals(name);
+    }
+
+    /** Whether the remaining segments match anything at or under a directory. */
+    private boolean matchesWholeSubtree() {
+      for (int i = index; i < pattern.segments.length; i++) {
+        if (!"**".equals(pattern.segments[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private State next() {
+      return new State(pattern, index + 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof State)) {
+        return false;
+      }
+      State other = (State) obj;
+      return pattern == other.pattern && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(pattern) + index;
+    }
+  }
+
+  /**
+   * Visits the tree under the base directory, passing each directory the states of the patterns
+   * which can still match under it.
+   */
+  private static final class GlobVisitor {
+    private final boolean excludeDirectories;
+    private final Predicate<VirtualFile> directoryFilter;
+    @Nullable private final Executor executor;
+
+    // These are used across workers and must therefore be thread-safe.
+    private final Set<VirtualFile> results = Sets.newConcurrentHashSet();
+    private final AtomicLong pendingOps = new AtomicLong(0);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final SettableFuture<Void> done = SettableFuture.create();
+    private volatile boolean canceled = false;
+
+    private GlobVisitor(
+        boolean excludeDirectories,
+        Predicate<VirtualFile> directoryFilter,
+        @Nullable Executor executor) {
+      this.excludeDirectories = excludeDirectories;
+      this.directoryFilter = directoryFilter;
+      this.executor = executor;
+    }
+
+    private ImmutableList<VirtualFile> glob(VirtualFile base, List<State> initialStates)
+        throws InterruptedException {
+      // the base directory is visited on the calling thread
+      enqueue(() -> visit(base, initialStates), /* fork= */ false);
+      awaitCompletion();
+      return Ordering.<String>natural()
+          .onResultOf(VirtualFile::getPath)
+          .immutableSortedCopy(results);
+    }
+
+    private void awaitCompletion() throws InterruptedException {
+      try {
+        while (true) {
+          try {
+            done.get(CANCELLATION_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+          } catch (TimeoutException e) {
+            ProgressManager.checkCanceled();
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        Throwables.propagateIfPossible(cause);
+        throw new RuntimeException(cause);
+      } catch (InterruptedException | ProcessCanceledException e) {
+        // stop the remaining workers
+        canceled = true;
+        throw e;
+      }
+    }
+
+    private void enqueue(Runnable runnable, boolean fork) {
+      pendingOps.incrementAndGet();
+      Runnable wrapped =
+          () -> {
+            try {
+              if (!canceled && failure.get() == null) {
+                runnable.run();
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            } finally {
+              decrementAndCheckDone();
+            }
+          };
+      if (fork && executor != null) {
+        executor.execute(wrapped);
+      } else {
+        wrapped.run();
+      }
+    }
+
+    private void decrementAndCheckDone() {
+      if (pendingOps.decrementAndGet() == 0) {
+        // We get to 0 iff all work is done, as we always increment the pending ops count when
+        // enqueuing, and only decrement once the task (and its own enqueuing) is complete.
+        Throwable t = failure.get();
+        if (t != null) {
+          done.setException(t);
+        } else {
+          done.set(null);
+        }
+      }
+    }
+
+    private void visit(VirtualFile file, Collection<State> states) {
+      ProgressManager.checkCanceled();
+      boolean isDirectory = file.isDirectory();
+      if (isDirectory) {
+        if (!directoryFilter.test(file)) {
+          return;
+        }
+        // ** can match nothing at all. For example, x/** matches x, and x/**/y matches x/y.
+        states = skipDoubleStars(states);
+      }
+      boolean included = false;
+      boolean excluded = false;
+      List<State> incomplete = new ArrayList<>();
+      boolean includesRemaining = false;
+      for (State state : states) {
+        if (state.isComplete()) {
+          if (state.pattern.exclude) {
+            excluded = true;
+          } else {
+            included = true;
+          }
+        } else if (!state.pattern.exclude) {
+          incomplete.add(state);
+          includesRemaining = true;
+        } else if (isDirectory && state.matchesWholeSubtree()) {
+          // nothing at or under this directory can be part of the result
+          return;
+        } else {
+          incomplete.add(state);
+        }
+      }
+      if (included && !excluded && !(excludeDirectories && isDirectory)) {
+        results.add(file);
+      }
+      if (isDirectory && includesRemaining) {
+        visitChildren(file, incomplete);
+      }
+    }
+
+    private static Collection<State> skipDoubleStars(Collection<State> states) {
+      Set<State> expanded = null;
+      for (State state : states) {
+        State next = state;
+        while (!next.isComplete() && next.isDoubleStar()) {
+          next = next.next();
+          if (expanded == null) {
+            expanded = new LinkedHashSet<>(states);
+          }
+          expanded.add(next);
+        }
+      }
+      return expanded != null ? expanded : states;
+    }
+
+    private void visitChildren(VirtualFile directory, List<State> states) {
+      Map<VirtualFile, Set<State>> childDirectories = new LinkedHashMap<>();
+      if (states.stream().allMatch(State::isLiteral)) {
+        // no need to list the directory, just look up the named children
+        Map<String, List<State>> statesBySegment = new LinkedHashMap<>();
+        for (State state : states) {
+          statesBySegment.computeIfAbsent(state.segment(), s -> new ArrayList<>()).add(state);
+        }
+        for (Map.Entry<String, List<State>> entry : statesBySegment.entrySet()) {
+          VirtualFile child = directory.findChild(entry.getKey());
+          if (child != null) {
+            matchChild(child, entry.getValue(), childDirectories);
+          }
+        }
+      } else {
+        VirtualFile[] children = directory.getChildren();
+        if (children == null) {
+          return;
+        }
+        for (VirtualFile child : children) {
+          matchChild(child, states, childDirectories);
+        }
+      }
+      for (Map.Entry<VirtualFile, Set<State>> entry : childDirectories.entrySet()) {
+        VirtualFile child = entry.getKey();
+        Set<State> childStates = entry.getValue();
+        enqueue(() -> visit(child, childStates), /* fork= */ true);
+      }
+    }
+
+    /**
+     * Matches a child against the given states. Matching files are added to the results directly,
+     * while directories are added to {@code childDirectories} along with the states to continue
+     * with, as long as at least one include pattern can match under them.
+     */
+    private void matchChild(
+        VirtualFile child, List<State> states, Map<VirtualFile, Set<State>> childDirectories) {
+      String name = child.getName();
+      boolean isDirectory = child.isDirectory();
+      Set<State> childStates = null;
+      boolean includesRemaining = false;
+      boolean included = false;
+      boolean excluded = false;
+      for (State state : states) {
+        if (isDirectory && state.isDoubleStar()) {
+          // recurse without consuming the segment
+          childStates = add(childStates, state);
+          includesRemaining |= !state.pattern.exclude;
+        }
+        if (!state.matches(name)) {
+          continue;
+        }
+        if (isDirectory) {
+          childStates = add(childStates, state.next());
+          includesRemaining |= !state.pattern.exclude;
+        } else if (state.isLastSegment()) {
+          if (state.pattern.exclude) {
+            excluded = true;
+          } else {
+            included = true;
+          }
+        }
+      }
+      if (included && !excluded) {
+        results.add(child);
+      }
+      if (includesRemaining) {
+        childDirectories.put(child, childStates);
+      }
+    }
+
+    private static Set<State> add(@Nullable Set<State> states, State state) {
+      if (states == null) {
+        states = new LinkedHashSet<>();
+      }
+      states.add(state);
+      return states;
+    }
+  }
+}
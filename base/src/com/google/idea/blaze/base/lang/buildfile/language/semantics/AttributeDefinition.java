@@ -64,6 +64,12 @@ public class AttributeDefinition implements Comparable<AttributeDefinition>, Ser
     this.allowedRuleClasses = allowedRuleClasses;
   }
 
+  /** The names of rules allowed in this attribute, or null if any rules are allowed. */
+  @Nullable
+  public ImmutableList<String> getAllowedRuleClasses() {
+    return allowedRuleClasses;
+  }
+
   /**
    * Only relevant for attributes of type LABEL and LABEL_LIST. Some such attributes can only
    * contain certain rule types.
@@ -27,10 +27,14 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.FileViewProvider;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.tree.IElementType;
 import com.intellij.util.PathUtil;
 import com.intellij.util.Processor;
 import icons.BlazeIcons;
 import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
@@ -131,7 +135,7 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   /** Finds a top-level rule with a "name" keyword argument with the given value. */
   @Nullable
   public FuncallExpression findRule(String name) {
-    for (FuncallExpression expr : findChildrenByClass(FuncallExpression.class)) {
+    for (FuncallExpression expr : getTopLevelFuncalls()) {
       String ruleName = expr.getNameArgumentValue();
       if (name.equals(ruleName)) {
         return expr;
@@ -152,13 +156,32 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
 
   @Nullable
   public FunctionStatement findLoadedFunction(String name) {
-    for (LoadStatement loadStatement : findChildrenByClass(LoadStatement.class)) {
-      for (LoadedSymbol loadedSymbol : loadStatement.getImportedSymbolElements()) {
-        if (name.equals(loadedSymbol.getSymbolString())) {
-          PsiElement element = loadedSymbol.getLoadedElement();
-          return element instanceof FunctionStatement ? (FunctionStatement) element : null;
-        }
+    return findLoadedFunction(name, new HashSet<>());
+  }
+
+  /**
+   * Follows load statements (including re-exported symbols) to the function declaration, using
+   * the stub trees of the loaded extensions where available.
+   */
+  @Nullable
+  private FunctionStatement findLoadedFunction(String name, Set<BuildFile> visited) {
+    if (!visited.add(this)) {
+      // cyclic load statements
+      return null;
+    }
+    for (LoadStatement loadStatement :
+        getTopLevelElements(
+            BuildElementTypes.LOAD_STATEMENT, LoadStatement.class, LoadStatement.EMPTY_ARRAY)) {
+      String loadedName = loadStatement.getLoadedSymbolName(name);
+      if (loadedName == null) {
+        continue;
       }
+      BuildFile extension = loadStatement.resolveImportedFile();
+      if (extension == null) {
+        return null;
+      }
+      FunctionStatement function = extension.findDeclaredFunction(loadedName);
+      return function != null ? function : extension.findLoadedFunction(loadedName, visited);
     }
     return null;
   }
@@ -230,7 +253,28 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   }
 
   public FunctionStatement[] getFunctionDeclarations() {
-    return findChildrenByClass(FunctionStatement.class);
+    return getTopLevelElements(
+        BuildElementTypes.FUNCTION_STATEMENT,
+        FunctionStatement.class,
+        FunctionStatement.EMPTY_ARRAY);
+  }
+
+  /** All top-level function calls (which are almost always BUILD rules). */
+  public FuncallExpression[] getTopLevelFuncalls() {
+    return getTopLevelElements(
+        BuildElementTypes.FUNCALL_EXPRESSION,
+        FuncallExpression.class,
+        FuncallExpression.EMPTY_ARRAY);
+  }
+
+  /** The top-level elements of the given type, from the stub tree if the AST isn't loaded. */
+  private <P extends PsiElement> P[] getTopLevelElements(
+      IElementType type, Class<P> psiClass, P[] emptyArray) {
+    StubElement<?> stub = getStub();
+    if (stub == null) {
+      return findChildrenByClass(psiClass);
+    }
+    return stub.getChildrenByType(type, emptyArray);
   }
 
   @Override
@@ -20,6 +20,7 @@ import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.FuncallReference;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FuncallExpressionStub;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.lang.ASTNode;
@@ -37,13 +38,19 @@ import javax.swing.Icon;
  * PSI element for an function call.<br>
  * Could be a top-level rule, Skylark function reference, or general some other python function call
  */
-public class FuncallExpression extends BuildElementImpl
+public class FuncallExpression extends StubBasedBuildElementImpl<FuncallExpressionStub>
     implements Expression, PsiNameIdentifierOwner {
 
+  public static final FuncallExpression[] EMPTY_ARRAY = new FuncallExpression[0];
+
   public FuncallExpression(ASTNode astNode) {
     super(astNode);
   }
 
+  public FuncallExpression(FuncallExpressionStub stub) {
+    super(stub, BuildElementTypes.FUNCALL_EXPRESSION);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitFuncallExpression(this);
@@ -52,6 +59,10 @@ public class FuncallExpression extends BuildElementImpl
   /** The name of the function being called. */
   @Nullable
   public String getFunctionName() {
+    FuncallExpressionStub stub = getStub();
+    if (stub != null) {
+      return stub.getFunctionName();
+    }
     ASTNode node = getFunctionNameNode();
     return node != null ? node.getText() : null;
   }
@@ -103,6 +114,10 @@ public class FuncallExpression extends BuildElementImpl
 
   /** Top-level funcalls are almost always BUILD rules. */
   public boolean isTopLevel() {
+    if (getStub() != null) {
+      // only top-level funcalls have stubs
+      return true;
+    }
     ASTNode parent = getNode().getTreeParent();
     return parent == null || parent.getElementType() == BuildElementTypes.BUILD_FILE;
   }
@@ -164,6 +179,10 @@ public class FuncallExpression extends BuildElementImpl
   /** Value of keyword argument with name "name", if one is present. */
   @Nullable
   public String getNameArgumentValue() {
+    FuncallExpressionStub stub = getStub();
+    if (stub != null) {
+      return stub.getNameArgumentValue();
+    }
     StringLiteral node = getNameArgumentValueNode();
     return node != null ? node.getStringContents() : null;
   }
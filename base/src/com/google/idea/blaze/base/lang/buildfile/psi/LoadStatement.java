@@ -15,20 +15,31 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
+import com.google.idea.blaze.base.lang.buildfile.references.BuildReferenceManager;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadStatementStub;
+import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
 import com.intellij.util.PlatformIcons;
 import java.util.Arrays;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** PSI element for a load statement. */
-public class LoadStatement extends BuildElementImpl implements Statement {
+public class LoadStatement extends StubBasedBuildElementImpl<LoadStatementStub>
+    implements Statement {
+
+  public static final LoadStatement[] EMPTY_ARRAY = new LoadStatement[0];
 
   public LoadStatement(ASTNode astNode) {
     super(astNode);
   }
 
+  public LoadStatement(LoadStatementStub stub) {
+    super(stub, BuildElementTypes.LOAD_STATEMENT);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitLoadStatement(this);
@@ -46,6 +57,10 @@ public class LoadStatement extends BuildElementImpl implements Statement {
 
   @Nullable
   public String getImportedPath() {
+    LoadStatementStub stub = getStub();
+    if (stub != null) {
+      return stub.getImportedPath();
+    }
     ASTNode firstString = getImportNode();
     return firstString != null ? StringLiteral.stripQuotes(firstString.getText()) : null;
   }
@@ -74,11 +89,46 @@ public class LoadStatement extends BuildElementImpl implements Statement {
 
   /** Aliased symbol name, if alias is present. */
   public String[] getVisibleSymbolNames() {
+    LoadStatementStub stub = getStub();
+    if (stub != null) {
+      return stub.getVisibleSymbolNames().toArray(new String[0]);
+    }
     return Arrays.stream(getImportedSymbolElements())
         .map(LoadedSymbol::getSymbolString)
         .toArray(String[]::new);
   }
 
+  /**
+   * The name in the loaded extension of the symbol visible in this file with the given name, or
+   * null if this statement doesn't load such a symbol.
+   */
+  @Nullable
+  public String getLoadedSymbolName(String visibleName) {
+    LoadStatementStub stub = getStub();
+    if (stub != null) {
+      int index = stub.getVisibleSymbolNames().indexOf(visibleName);
+      return index != -1 ? stub.getLoadedSymbolNames().get(index) : null;
+    }
+    for (LoadedSymbol symbol : getImportedSymbolElements()) {
+      if (visibleName.equals(symbol.getSymbolString())) {
+        StringLiteral loadedSymbol = symbol.getImport();
+        return loadedSymbol != null ? loadedSymbol.getStringContents() : null;
+      }
+    }
+    return null;
+  }
+
+  /** The loaded Skylark extension, resolved without parsing this file. */
+  @Nullable
+  public BuildFile resolveImportedFile() {
+    Label label = LabelUtils.createLabelFromString(getBlazePackage(), getImportedPath());
+    if (label == null) {
+      return null;
+    }
+    PsiElement file = BuildReferenceManager.getInstance(getProject()).resolveLabel(label, true);
+    return file instanceof BuildFile ? (BuildFile) file : null;
+  }
+
   @Override
   public Icon getIcon(int flags) {
     return PlatformIcons.IMPORT_ICON;
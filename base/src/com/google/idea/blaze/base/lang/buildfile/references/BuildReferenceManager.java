@@ -100,7 +100,12 @@ public class BuildReferenceManager {
   public PsiFileSystemItem resolveFile(File file) {
     VirtualFile vf =
         VirtualFileSystemProvider.getInstance().getSystem().findFileByPath(file.getPath());
-    if (vf == null) {
+    return vf != null ? resolveFile(vf) : null;
+  }
+
+  @Nullable
+  public PsiFileSystemItem resolveFile(VirtualFile vf) {
+    if (!vf.isValid()) {
       return null;
     }
     PsiManager manager = PsiManager.getInstance(project);
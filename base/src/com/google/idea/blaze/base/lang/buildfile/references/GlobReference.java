@@ -18,7 +18,9 @@ package com.google.idea.blaze.base.lang.buildfile.references;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
-import com.google.idea.blaze.base.lang.buildfile.globbing.UnixGlob;
+import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.lang.buildfile.globbing.GlobPatternMatcher;
+import com.google.idea.blaze.base.lang.buildfile.globbing.GlobResultCache;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.Expression;
 import com.google.idea.blaze.base.lang.buildfile.psi.GlobExpression;
@@ -29,6 +31,7 @@ import com.google.idea.blaze.base.settings.Blaze;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementResolveResult;
 import com.intellij.psi.PsiFile;
@@ -39,6 +42,7 @@ import com.intellij.util.IncorrectOperationException;
 import java.io.File;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /** References from a glob to a list of files contained in the same blaze package. */
 public class GlobReference extends PsiPolyVariantCachingReference {
@@ -61,17 +65,12 @@ public class GlobReference extends PsiPolyVariantCachingReference {
     if (isDirectory && element.areDirectoriesExcluded()) {
       return false;
     }
-    for (String exclude : resolveListContents(element.getExcludes())) {
-      if (UnixGlob.matches(exclude, packageRelativePath)) {
-        return false;
-      }
-    }
-    for (String include : resolveListContents(element.getIncludes())) {
-      if (UnixGlob.matches(include, packageRelativePath)) {
-        return true;
-      }
+    if (GlobPatternMatcher.forPatterns(resolveListContents(element.getExcludes()))
+        .matches(packageRelativePath)) {
+      return false;
     }
-    return false;
+    return GlobPatternMatcher.forPatterns(resolveListContents(element.getIncludes()))
+        .matches(packageRelativePath);
   }
 
   /**
@@ -82,17 +81,16 @@ public class GlobReference extends PsiPolyVariantCachingReference {
     if (isDirectory && element.areDirectoriesExcluded()) {
       return false;
     }
-    for (String exclude : resolveListContents(element.getExcludes())) {
-      if (UnixGlob.matches(exclude, packageRelativePath)) {
-        return false;
-      }
-    }
-    for (String include : resolveListContents(element.getIncludes())) {
-      if (!hasWildcard(include) && UnixGlob.matches(include, packageRelativePath)) {
-        return true;
-      }
+    if (GlobPatternMatcher.forPatterns(resolveListContents(element.getExcludes()))
+        .matches(packageRelativePath)) {
+      return false;
     }
-    return false;
+    List<String> includes =
+        resolveListContents(element.getIncludes())
+            .stream()
+            .filter(include -> !hasWildcard(include))
+            .collect(Collectors.toList());
+    return GlobPatternMatcher.forPatterns(includes).matches(packageRelativePath);
   }
 
   private static boolean hasWildcard(String pattern) {
@@ -111,18 +109,26 @@ public class GlobReference extends PsiPolyVariantCachingReference {
     if (includes.isEmpty()) {
       return ResolveResult.EMPTY_ARRAY;
     }
+    VirtualFile packageDirectory =
+        VirtualFileSystemProvider.getInstance()
+            .getSystem()
+            .findFileByPath(containingDirectory.getPath());
+    if (packageDirectory == null) {
+      return ResolveResult.EMPTY_ARRAY;
+    }
     Project project = element.getProject();
     try {
-      List<File> files =
-          UnixGlob.forPath(containingDirectory)
-              .addPatterns(includes)
-              .addExcludes(excludes)
-              .setExcludeDirectories(directoriesExcluded)
-              .setDirectoryFilter(directoryFilter(project, containingDirectory.getPath()))
-              .glob();
+      List<VirtualFile> files =
+          GlobResultCache.getInstance(project)
+              .glob(
+                  packageDirectory,
+                  includes,
+                  excludes,
+                  directoriesExcluded,
+                  directoryFilter(project, packageDirectory));
 
       List<ResolveResult> results = Lists.newArrayListWithCapacity(files.size());
-      for (File file : files) {
+      for (VirtualFile file : files) {
         PsiFileSystemItem psiFile = BuildReferenceManager.getInstance(project).resolveFile(file);
         if (psiFile != null) {
           results.add(new PsiElementResolveResult(psiFile));
@@ -136,10 +142,10 @@ public class GlobReference extends PsiPolyVariantCachingReference {
   }
 
   /** Don't traverse sub-directories which are themselves blaze packages */
-  private static Predicate<File> directoryFilter(Project project, String base) {
+  private static Predicate<VirtualFile> directoryFilter(Project project, VirtualFile base) {
     BuildSystemProvider provider = Blaze.getBuildSystemProvider(project);
     return file -> {
-      if (base.equals(file.getPath())) {
+      if (base.equals(file)) {
         return true;
       }
       return provider.findBuildFileInDirectory(file) == null;
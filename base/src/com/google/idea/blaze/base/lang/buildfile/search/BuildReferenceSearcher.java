@@ -20,11 +20,17 @@ import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
 import com.google.idea.blaze.base.lang.buildfile.psi.NamedBuildElement;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadedSymbolIndex;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.sdkcompat.query.QueryExecutorBaseAdapter;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -34,8 +40,11 @@ import com.intellij.psi.search.LocalSearchScope;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.psi.search.UsageSearchContext;
 import com.intellij.psi.search.searches.ReferencesSearch.SearchParameters;
+import com.intellij.psi.stubs.StubIndex;
 import com.intellij.util.Processor;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /** String search for references in BUILD files */
@@ -49,6 +58,10 @@ public class BuildReferenceSearcher
   @Override
   public void processQueryImpl(SearchParameters params, Processor<? super PsiReference> consumer) {
     PsiElement element = params.getElementToSearch();
+    if (element instanceof FunctionStatement) {
+      processFunctionReferences(params, (FunctionStatement) element);
+      return;
+    }
     if (element instanceof NamedBuildElement) {
       String fnName = ((NamedBuildElement) element).getName();
       if (fnName != null) {
@@ -75,6 +88,7 @@ public class BuildReferenceSearcher
       searchForExternalWorkspace(params, localFile, funcall);
       return;
     }
+    // rule references are plain label strings, which aren't indexed, so this is a text search
     List<String> stringsToSearch = LabelUtils.getAllValidLabelStrings(label, true);
     for (String string : stringsToSearch) {
       if (LabelUtils.isAbsolute(string)) {
@@ -89,6 +103,44 @@ public class BuildReferenceSearcher
     }
   }
 
+  /**
+   * A top-level function can only be referenced from its own file, and from files which load it.
+   * The latter are found via the stub index, so only those files are searched.
+   */
+  private static void processFunctionReferences(
+      SearchParameters params, FunctionStatement function) {
+    String name = function.getName();
+    if (name == null) {
+      return;
+    }
+    PsiFile file = function.getContainingFile();
+    Project project = function.getProject();
+    if (file == null
+        || file.getVirtualFile() == null
+        || !(function.getParent() instanceof BuildFile)
+        || DumbService.isDumb(project)) {
+      searchForString(params, function, name);
+      return;
+    }
+    Set<VirtualFile> files = new HashSet<>();
+    files.add(file.getVirtualFile());
+    for (LoadStatement load :
+        StubIndex.getElements(
+            LoadedSymbolIndex.KEY,
+            name,
+            project,
+            GlobalSearchScope.allScope(project),
+            LoadStatement.class)) {
+      VirtualFile loadingFile = load.getContainingFile().getVirtualFile();
+      if (loadingFile != null) {
+        files.add(loadingFile);
+      }
+    }
+    SearchScope loadingFiles = GlobalSearchScope.filesScope(project, files);
+    searchForString(
+        params, params.getScopeDeterminedByUser().intersectWith(loadingFiles), function, name);
+  }
+
   /** Find all references to the given file within BUILD files. */
   private void processFileReferences(SearchParameters params, PsiFile file) {
     if (file instanceof BuildFile) {
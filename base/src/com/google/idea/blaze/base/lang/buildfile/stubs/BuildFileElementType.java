@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.StubBuilder;
+import com.intellij.psi.stubs.DefaultStubBuilder;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.psi.tree.IStubFileElementType;
+
+/** The file element type for BUILD files and Skylark extensions, with a stub tree. */
+public class BuildFileElementType extends IStubFileElementType<BuildFileStub> {
+
+  // increment whenever the stub format or the set of stubbed elements changes
+  private static final int STUB_VERSION = 1;
+
+  public BuildFileElementType() {
+    super(BuildFileType.INSTANCE.getLanguage());
+  }
+
+  @Override
+  public int getStubVersion() {
+    return STUB_VERSION;
+  }
+
+  @Override
+  public String getExternalId() {
+    return "BUILD.file";
+  }
+
+  @Override
+  public StubBuilder getBuilder() {
+    return new DefaultStubBuilder() {
+      @Override
+      protected StubElement createStubForFile(PsiFile file) {
+        return file instanceof BuildFile
+            ? new BuildFileStub((BuildFile) file)
+            : super.createStubForFile(file);
+      }
+
+      @Override
+      public boolean skipChildProcessingWhenBuildingStubs(ASTNode parent, ASTNode node) {
+        // only top-level elements have stubs
+        return parent.getElementType() != BuildElementTypes.BUILD_FILE;
+      }
+    };
+  }
+
+  @Override
+  public void serialize(BuildFileStub stub, StubOutputStream dataStream) {}
+
+  @Override
+  public BuildFileStub deserialize(StubInputStream dataStream, StubElement parentStub) {
+    return new BuildFileStub(null);
+  }
+}
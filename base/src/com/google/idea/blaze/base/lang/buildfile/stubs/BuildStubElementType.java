@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+
+/**
+ * Element types for BUILD file PSI elements which have a stub. Only top-level elements are stored
+ * in the stub tree; nested elements of the same type are only available from the AST.
+ */
+public abstract class BuildStubElementType<
+        StubT extends StubElement<PsiT>, PsiT extends PsiElement>
+    extends IStubElementType<StubT, PsiT> {
+
+  BuildStubElementType(String debugName) {
+    super(debugName, BuildFileType.INSTANCE.getLanguage());
+  }
+
+  /** Creates a PSI element backed by the given AST node. */
+  public abstract PsiT createElement(ASTNode node);
+
+  @Override
+  public String getExternalId() {
+    return "BUILD." + toString();
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null && parent.getElementType() == BuildElementTypes.BUILD_FILE;
+  }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 The Bazel Authors. All rights reserved.
+ * Copyright 2018 The Bazel Authors. All rights reserved.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,29 +15,24 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.stubs;
 
-import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.stubs.BinaryFileStubBuilder;
-import com.intellij.psi.stubs.Stub;
-import com.intellij.util.indexing.FileContent;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
 import javax.annotation.Nullable;
 
-/** Empty stub builder to suppress errors when IntelliJ is looking for stubs. */
-public class BuildFileStubBuilder implements BinaryFileStubBuilder {
-  private static final int STUB_VERSION = 0;
+/** Stub for a top-level function definition. */
+public class FunctionStatementStub extends StubBase<FunctionStatement> {
 
-  @Override
-  public boolean acceptsFile(VirtualFile file) {
-    return false;
-  }
+  @Nullable private final String name;
 
-  @Nullable
-  @Override
-  public Stub buildStubTree(FileContent fileContent) {
-    return null;
+  public FunctionStatementStub(StubElement parent, @Nullable String name) {
+    super(parent, BuildElementTypes.FUNCTION_STATEMENT);
+    this.name = name;
   }
 
-  @Override
-  public int getStubVersion() {
-    return STUB_VERSION;
+  @Nullable
+  public String getName() {
+    return name;
   }
 }
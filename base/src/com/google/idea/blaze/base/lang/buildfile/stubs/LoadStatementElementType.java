@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadedSymbol;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.util.io.StringRef;
+import java.io.IOException;
+
+/** Element type for load statements. Indexed by the names of the loaded symbols. */
+public class LoadStatementElementType
+    extends BuildStubElementType<LoadStatementStub, LoadStatement> {
+
+  public LoadStatementElementType(String debugName) {
+    super(debugName);
+  }
+
+  @Override
+  public LoadStatement createElement(ASTNode node) {
+    return new LoadStatement(node);
+  }
+
+  @Override
+  public LoadStatement createPsi(LoadStatementStub stub) {
+    return new LoadStatement(stub);
+  }
+
+  @Override
+  public LoadStatementStub createStub(LoadStatement psi, StubElement parentStub) {
+    ImmutableList.Builder<String> loadedSymbolNames = ImmutableList.builder();
+    ImmutableList.Builder<String> visibleSymbolNames = ImmutableList.builder();
+    for (LoadedSymbol symbol : psi.getImportedSymbolElements()) {
+      StringLiteral loadedSymbol = symbol.getImport();
+      String visibleName = symbol.getSymbolString();
+      if (loadedSymbol != null && visibleName != null) {
+        loadedSymbolNames.add(loadedSymbol.getStringContents());
+        visibleSymbolNames.add(visibleName);
+      }
+    }
+    return new LoadStatementStub(
+        parentStub, psi.getImportedPath(), loadedSymbolNames.build(), visibleSymbolNames.build());
+  }
+
+  @Override
+  public void serialize(LoadStatementStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeName(stub.getImportedPath());
+    ImmutableList<String> loadedSymbolNames = stub.getLoadedSymbolNames();
+    ImmutableList<String> visibleSymbolNames = stub.getVisibleSymbolNames();
+    dataStream.writeVarInt(loadedSymbolNames.size());
+    for (int i = 0; i < loadedSymbolNames.size(); i++) {
+      dataStream.writeName(loadedSymbolNames.get(i));
+      dataStream.writeName(visibleSymbolNames.get(i));
+    }
+  }
+
+  @Override
+  public LoadStatementStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    String importedPath = StringRef.toString(dataStream.readName());
+    int count = dataStream.readVarInt();
+    ImmutableList.Builder<String> loadedSymbolNames = ImmutableList.builder();
+    ImmutableList.Builder<String> visibleSymbolNames = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      loadedSymbolNames.add(StringRef.toString(dataStream.readName()));
+      visibleSymbolNames.add(StringRef.toString(dataStream.readName()));
+    }
+    return new LoadStatementStub(
+        parentStub, importedPath, loadedSymbolNames.build(), visibleSymbolNames.build());
+  }
+
+  @Override
+  public void indexStub(LoadStatementStub stub, IndexSink sink) {
+    for (String name : stub.getLoadedSymbolNames()) {
+      sink.occurrence(LoadedSymbolIndex.KEY, name);
+    }
+  }
+}
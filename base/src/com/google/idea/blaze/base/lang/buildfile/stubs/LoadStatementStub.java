@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
+import javax.annotation.Nullable;
+
+/**
+ * Stub for a load statement. The loaded symbols are stored as parallel lists of their names in the
+ * loaded extension, and the (possibly aliased) names visible in this file.
+ */
+public class LoadStatementStub extends StubBase<LoadStatement> {
+
+  @Nullable private final String importedPath;
+  private final ImmutableList<String> loadedSymbolNames;
+  private final ImmutableList<String> visibleSymbolNames;
+
+  public LoadStatementStub(
+      StubElement parent,
+      @Nullable String importedPath,
+      ImmutableList<String> loadedSymbolNames,
+      ImmutableList<String> visibleSymbolNames) {
+    super(parent, BuildElementTypes.LOAD_STATEMENT);
+    this.importedPath = importedPath;
+    this.loadedSymbolNames = loadedSymbolNames;
+    this.visibleSymbolNames = visibleSymbolNames;
+  }
+
+  @Nullable
+  public String getImportedPath() {
+    return importedPath;
+  }
+
+  /** The symbols as they appear in the loaded extension (i.e. ignoring aliases). */
+  public ImmutableList<String> getLoadedSymbolNames() {
+    return loadedSymbolNames;
+  }
+
+  /** The symbol names visible in this file (i.e. the alias, if present). */
+  public ImmutableList<String> getVisibleSymbolNames() {
+    return visibleSymbolNames;
+  }
+}
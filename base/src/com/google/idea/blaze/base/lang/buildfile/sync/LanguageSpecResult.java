@@ -15,8 +15,17 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.sync;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.idea.blaze.base.lang.buildfile.language.semantics.AttributeDefinition;
 import com.google.idea.blaze.base.lang.buildfile.language.semantics.BuildLanguageSpec;
+import com.google.idea.blaze.base.lang.buildfile.language.semantics.RuleDefinition;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.List;
 
 /** The BUILD language specifications, serialized along with the sync data. */
 public class LanguageSpecResult implements Serializable {
@@ -34,4 +43,59 @@ public class LanguageSpecResult implements Serializable {
   public boolean shouldRecalculateSpec() {
     return System.currentTimeMillis() - timestampMillis > ONE_DAY_IN_MILLISECONDS;
   }
+
+  /** Writes the language spec in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<LanguageSpecResult> {
+    @Override
+    public Class<LanguageSpecResult> stateClass() {
+      return LanguageSpecResult.class;
+    }
+
+    @Override
+    public void write(LanguageSpecResult result, CompactDataOutput out) throws IOException {
+      out.writeLong(result.timestampMillis);
+      out.writeVarInt(result.spec.rules.size());
+      for (RuleDefinition rule : result.spec.rules.values()) {
+        out.writeString(rule.name);
+        out.writeString(rule.documentation);
+        out.writeVarInt(rule.attributes.size());
+        for (AttributeDefinition attribute : rule.attributes.values()) {
+          out.writeString(attribute.name);
+          out.writeEnum(attribute.type);
+          out.writeBoolean(attribute.mandatory);
+          out.writeString(attribute.documentation);
+          List<String> allowedRuleClasses = attribute.getAllowedRuleClasses();
+          out.writeBoolean(allowedRuleClasses != null);
+          if (allowedRuleClasses != null) {
+            out.writeStrings(allowedRuleClasses);
+          }
+        }
+      }
+    }
+
+    @Override
+    public LanguageSpecResult read(CompactDataInput in) throws IOException {
+      long timestampMillis = in.readLong();
+      int ruleCount = in.readVarInt();
+      ImmutableMap.Builder<String, RuleDefinition> rules = ImmutableMap.builder();
+      for (int i = 0; i < ruleCount; i++) {
+        String name = in.readNonNullString();
+        String documentation = in.readString();
+        int attributeCount = in.readVarInt();
+        ImmutableMap.Builder<String, AttributeDefinition> attributes = ImmutableMap.builder();
+        for (int j = 0; j < attributeCount; j++) {
+          AttributeDefinition attribute =
+              new AttributeDefinition(
+                  in.readNonNullString(),
+                  in.readEnum(Build.Attribute.Discriminator.class),
+                  in.readBoolean(),
+                  in.readString(),
+                  in.readBoolean() ? in.readStrings() : null);
+          attributes.put(attribute.name, attribute);
+        }
+        rules.put(name, new RuleDefinition(name, attributes.build(), documentation));
+      }
+      return new LanguageSpecResult(new BuildLanguageSpec(rules.build()), timestampMillis);
+    }
+  }
 }
@@ -31,12 +31,22 @@ public class SyncState implements Serializable {
     return (T) syncStateMap.get(klass.getName());
   }
 
+  /** All entries, keyed by the name of the class they were stored under. */
+  public ImmutableMap<String, Serializable> entries() {
+    return syncStateMap;
+  }
+
+  /** Recreates a sync state from its {@link #entries}. */
+  public static SyncState fromEntries(Map<String, Serializable> entries) {
+    return new SyncState(ImmutableMap.copyOf(entries));
+  }
+
   /** Builder for a sync state */
   public static class Builder {
-    ImmutableMap.Builder<Class, Serializable> syncStateMap = ImmutableMap.builder();
+    ImmutableMap.Builder<String, Serializable> syncStateMap = ImmutableMap.builder();
 
     public <K extends Serializable, V extends K> Builder put(Class<K> klass, V instance) {
-      syncStateMap.put(klass, instance);
+      syncStateMap.put(klass.getName(), instance);
       return this;
     }
 
@@ -45,11 +55,7 @@ public class SyncState implements Serializable {
     }
   }
 
-  SyncState(ImmutableMap<Class, Serializable> syncStateMap) {
-    ImmutableMap.Builder<String, Serializable> extraProjectSyncStateMap = ImmutableMap.builder();
-    for (Map.Entry<Class, Serializable> entry : syncStateMap.entrySet()) {
-      extraProjectSyncStateMap.put(entry.getKey().getName(), entry.getValue());
-    }
-    this.syncStateMap = extraProjectSyncStateMap.build();
+  SyncState(ImmutableMap<String, Serializable> syncStateMap) {
+    this.syncStateMap = syncStateMap;
   }
 }
@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import com.intellij.openapi.fileTypes.FileNameMatcher;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import org.jetbrains.jps.model.fileTypes.FileNameMatcherFactory;
 
 /** Glob matcher. */
@@ -47,6 +48,10 @@ public class Glob implements Serializable {
       return globs.isEmpty();
     }
 
+    public Collection<Glob> getGlobs() {
+      return Collections.unmodifiableCollection(globs);
+    }
+
     public void add(Glob glob) {
       globs.add(glob);
     }
@@ -61,6 +66,10 @@ public class Glob implements Serializable {
     }
   }
 
+  public String getPattern() {
+    return pattern;
+  }
+
   public boolean matches(String string) {
     if (matcher == null) {
       matcher = FileNameMatcherFactory.getInstance().createMatcher(pattern);
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.projectview.section.sections;
+
+import com.google.idea.blaze.base.projectview.parser.ParseContext;
+import com.google.idea.blaze.base.projectview.parser.ProjectViewParser;
+import com.google.idea.blaze.base.projectview.section.ScalarSection;
+import com.google.idea.blaze.base.projectview.section.ScalarSectionParser;
+import com.google.idea.blaze.base.projectview.section.SectionKey;
+import com.google.idea.blaze.base.projectview.section.SectionParser;
+import javax.annotation.Nullable;
+
+/**
+ * Allows the user to build several sync shards concurrently, each against its own output base and
+ * blaze server.
+ */
+public class ParallelShardBuildsSection {
+  public static final SectionKey<Integer, ScalarSection<Integer>> KEY =
+      SectionKey.of("parallel_shard_builds");
+  public static final SectionParser PARSER = new ParallelShardBuildsSectionParser();
+
+  private static class ParallelShardBuildsSectionParser extends ScalarSectionParser<Integer> {
+    ParallelShardBuildsSectionParser() {
+      super(KEY, ':');
+    }
+
+    @Nullable
+    @Override
+    protected Integer parseItem(ProjectViewParser parser, ParseContext parseContext, String rest) {
+      try {
+        int value = Integer.parseInt(rest);
+        if (value >= 1) {
+          return value;
+        }
+      } catch (NumberFormatException e) {
+        // handled below
+      }
+      parseContext.addError(
+          String.format("Invalid parallel shard builds '%s': Must be a positive integer", rest));
+      return null;
+    }
+
+    @Override
+    protected void printItem(StringBuilder sb, Integer value) {
+      sb.append(value.toString());
+    }
+
+    @Override
+    public ItemType getItemType() {
+      return ItemType.Other;
+    }
+
+    @Override
+    public String quickDocs() {
+      return "Sets the number of shards built concurrently during sync, each using a separate "
+          + "output base and server instance. Only relevant if 'shard_sync: true' is also set";
+    }
+  }
+}
@@ -19,82 +19,44 @@ import com.google.common.collect.Lists;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlRootElement;
-import javax.xml.bind.annotation.XmlValue;
+import javax.xml.stream.XMLStreamException;
 
 /** Used to parse the test.xml generated by the blaze/bazel testing framework. */
 public class BlazeXmlSchema {
 
-  private static final JAXBContext CONTEXT;
-
-  static {
-    try {
-      CONTEXT = JAXBContext.newInstance(TestSuite.class, TestSuites.class);
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   public static TestSuite parse(InputStream input) {
     try {
-      Object parsed = CONTEXT.createUnmarshaller().unmarshal(input);
-      return parsed instanceof TestSuites
-          ? ((TestSuites) parsed).convertToTestSuite()
-          : (TestSuite) parsed;
-
-    } catch (JAXBException e) {
+      return BlazeXmlStreamParser.parse(input);
+    } catch (XMLStreamException e) {
       throw new RuntimeException("Failed to parse test XML", e);
     }
   }
 
-  // optional wrapping XML element. Some test runners don't include it.
-  @XmlRootElement(name = "testsuites")
-  static class TestSuites {
-    @XmlElement(name = "testsuite")
-    List<TestSuite> testSuites = Lists.newArrayList();
-
-    TestSuite convertToTestSuite() {
-      TestSuite suite = new TestSuite();
-      suite.testSuites.addAll(testSuites);
-      return suite;
-    }
+  /**
+   * Parses the test XML from one shard of a test target, then merges it into the given suite.
+   * Equivalent to parsing each shard then calling {@link #mergeSuites}, but only one shard's tree
+   * is held in memory at a time. If the shard can't be parsed, the merged suite is left unchanged.
+   */
+  static void parseAndMerge(InputStream input, TestSuite merged) {
+    merged.addSuite(parse(input));
   }
 
   /** XML output by blaze test runners. */
-  @XmlRootElement(name = "testsuite")
   public static class TestSuite {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public int tests;
-    @XmlAttribute public int failures;
-    @XmlAttribute public int errors;
-    @XmlAttribute public int skipped;
-    @XmlAttribute public int disabled;
-    @XmlAttribute public double time;
-
-    @XmlAttribute(name = "system-out")
+    public String name;
+    public String classname;
+    public int tests;
+    public int failures;
+    public int errors;
+    public int skipped;
+    public int disabled;
+    public double time;
     public String sysOut;
-
-    @XmlAttribute(name = "system-err")
     public String sysErr;
-
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped error;
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped failure;
-
-    @XmlElement(name = "testsuite")
     public List<TestSuite> testSuites = Lists.newArrayList();
-
-    @XmlElement(name = "testdecorator")
     List<TestSuite> testDecorators = Lists.newArrayList();
-
-    @XmlElement(name = "testcase")
     public List<TestCase> testCases = Lists.newArrayList();
 
     /** Used to merge test suites from a single target, split across multiple shards */
@@ -134,31 +96,21 @@ public class BlazeXmlSchema {
 
   /** Individual test case XML output by blaze test runners. */
   public static class TestCase {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public String status;
-    @XmlAttribute public String result;
-    @XmlAttribute public String time;
-
-    @XmlAttribute(name = "system-out")
+    public String name;
+    public String classname;
+    public String status;
+    public String result;
+    public String time;
     String sysOut;
-
-    @XmlAttribute(name = "system-err")
     String sysErr;
-
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> errors = Lists.newArrayList();
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> failures = Lists.newArrayList();
-
-    @XmlElement(name = "skipped", type = ErrorOrFailureOrSkipped.class)
     public ErrorOrFailureOrSkipped skipped;
   }
 
   static class ErrorOrFailureOrSkipped {
-    @XmlValue String content;
-    @XmlAttribute String message;
-    @XmlAttribute String type;
+    String content;
+    String message;
+    String type;
   }
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.smrunner;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.ErrorOrFailureOrSkipped;
+import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestCase;
+import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestSuite;
+import java.io.InputStream;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming (StAX) parser for the test.xml files generated by blaze/bazel test runners, producing
+ * the {@link BlazeXmlSchema} model.
+ *
+ * <p>Elements which aren't part of the model are skipped without being materialized, and output
+ * blocks are truncated (keeping their start and end) past a per-block and per-file limit, so memory
+ * use doesn't grow with verbose test logs.
+ */
+final class BlazeXmlStreamParser {
+
+  /** The maximum number of characters kept from a single output, error or failure block. */
+  @VisibleForTesting static final int MAX_TEXT_LENGTH = 1 << 20;
+
+  /**
+   * The maximum number of characters kept from all the blocks in a file. Once exceeded, only the
+   * start and end of each block are kept.
+   */
+  @VisibleForTesting static final int MAX_TOTAL_TEXT_LENGTH = 1 << 24;
+
+  private static final int MIN_TEXT_LENGTH = 1 << 12;
+
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  private final XMLStreamReader reader;
+  private long remainingTextLength = MAX_TOTAL_TEXT_LENGTH;
+
+  private BlazeXmlStreamParser(XMLStreamReader reader) {
+    this.reader = reader;
+  }
+
+  private static XMLInputFactory createFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
+  }
+
+  /** Parses a single test.xml file. */
+  static TestSuite parse(InputStream input) throws XMLStreamException {
+    TestSuite root = new TestSuite();
+    XMLStreamReader reader = FACTORY.createXMLStreamReader(input);
+    try {
+      BlazeXmlStreamParser parser = new BlazeXmlStreamParser(reader);
+      String rootElement = parser.readRootElement();
+      if (rootElement.equals("testsuite")) {
+        parser.readSuite(root);
+      } else {
+        parser.readSuites(root);
+      }
+      return root;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Advances to the root element, returning its name. */
+  private String readRootElement() throws XMLStreamException {
+    while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+      if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("No root element");
+      }
+    }
+    String name = reader.getLocalName();
+    if (!name.equals("testsuite") && !name.equals("testsuites")) {
+      throw new XMLStreamException("Unexpected root element: " + name, reader.getLocation());
+    }
+    return name;
+  }
+
+  /** Reads the children of an optional 'testsuites' wrapper element into the given suite. */
+  private void readSuites(TestSuite suite) throws XMLStreamException {
+    while (nextChildElement()) {
+      if (reader.getLocalName().equals("testsuite")) {
+        suite.testSuites.add(readChildSuite());
+      } else {
+        skipElement();
+      }
+    }
+  }
+
+  /** Reads a 'testsuite' element into the given suite. */
+  private void readSuite(TestSuite suite) throws XMLStreamException {
+    suite.name = reader.getAttributeValue(null, "name");
+    suite.classname = reader.getAttributeValue(null, "classname");
+    suite.sysOut = reader.getAttributeValue(null, "system-out");
+    suite.sysErr = reader.getAttributeValue(null, "system-err");
+    suite.tests = parseInt(reader.getAttributeValue(null, "tests"));
+    suite.failures = parseInt(reader.getAttributeValue(null, "failures"));
+    suite.errors = parseInt(reader.getAttributeValue(null, "errors"));
+    suite.skipped = parseInt(reader.getAttributeValue(null, "skipped"));
+    suite.disabled = parseInt(reader.getAttributeValue(null, "disabled"));
+    suite.time = parseDouble(reader.getAttributeValue(null, "time"));
+
+    while (nextChildElement()) {
+      switch (reader.getLocalName()) {
+        case "testsuite":
+          suite.testSuites.add(readChildSuite());
+          break;
+        case "testdecorator":
+          suite.testDecorators.add(readChildSuite());
+          break;
+        case "testcase":
+          suite.testCases.add(readTestCase());
+          break;
+        case "error":
+          suite.error = readErrorOrFailureOrSkipped();
+          break;
+        case "failure":
+          suite.failure = readErrorOrFailureOrSkipped();
+          break;
+        case "system-out":
+          String sysOut = readOutput();
+          suite.sysOut = sysOut != null ? sysOut : suite.sysOut;
+          break;
+        case "system-err":
+          String sysErr = readOutput();
+          suite.sysErr = sysErr != null ? sysErr : suite.sysErr;
+          break;
+        default:
+          skipElement();
+      }
+    }
+  }
+
+  private TestSuite readChildSuite() throws XMLStreamException {
+    TestSuite child = new TestSuite();
+    readSuite(child);
+    return child;
+  }
+
+  private TestCase readTestCase() throws XMLStreamException {
+    TestCase test = new TestCase();
+    test.name = reader.getAttributeValue(null, "name");
+    test.classname = reader.getAttributeValue(null, "classname");
+    test.status = reader.getAttributeValue(null, "status");
+    test.result = reader.getAttributeValue(null, "result");
+    test.time = reader.getAttributeValue(null, "time");
+    test.sysOut = reader.getAttributeValue(null, "system-out");
+    test.sysErr = reader.getAttributeValue(null, "system-err");
+
+    while (nextChildElement()) {
+      switch (reader.getLocalName()) {
+        case "error":
+          test.errors.add(readErrorOrFailureOrSkipped());
+          break;
+        case "failure":
+          test.failures.add(readErrorOrFailureOrSkipped());
+          break;
+        case "skipped":
+          test.skipped = readErrorOrFailureOrSkipped();
+          break;
+        case "system-out":
+          String sysOut = readOutput();
+          test.sysOut = sysOut != null ? sysOut : test.sysOut;
+          break;
+        case "system-err":
+          String sysErr = readOutput();
+          test.sysErr = sysErr != null ? sysErr : test.sysErr;
+          break;
+        default:
+          skipElement();
+      }
+    }
+    return test;
+  }
+
+  private ErrorOrFailureOrSkipped readErrorOrFailureOrSkipped() throws XMLStreamException {
+    ErrorOrFailureOrSkipped result = new ErrorOrFailureOrSkipped();
+    result.message = reader.getAttributeValue(null, "message");
+    result.type = reader.getAttributeValue(null, "type");
+    result.content = readText().toString();
+    return result;
+  }
+
+  /** Reads the text of an output element, returning null if it's empty. */
+  @Nullable
+  private String readOutput() throws XMLStreamException {
+    BoundedText text = readText();
+    return text.isEmpty() ? null : text.toString();
+  }
+
+  /** Reads the text content of the current element, ignoring any nested elements. */
+  private BoundedText readText() throws XMLStreamException {
+    int maxLength =
+        (int) Math.max(MIN_TEXT_LENGTH, Math.min(MAX_TEXT_LENGTH, remainingTextLength));
+    BoundedText text = new BoundedText(maxLength);
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          skipElement();
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          remainingTextLength -= text.length();
+          return text;
+        default: // ignore comments, processing instructions
+      }
+    }
+  }
+
+  /**
+   * Advances to the next child element of the current element, skipping any text. Returns false
+   * once the end of the current element is reached.
+   */
+  private boolean nextChildElement() throws XMLStreamException {
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          return true;
+        case XMLStreamConstants.END_ELEMENT:
+          return false;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+        default: // ignore text, comments, processing instructions
+      }
+    }
+  }
+
+  /** Skips the current element and all its children, without materializing any text. */
+  private void skipElement() throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+        default: // skip
+      }
+    }
+  }
+
+  private static int parseInt(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double parseDouble(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Accumulates text up to a maximum length. Once the limit is reached, the start of the text and
+   * the most recently appended characters are kept, and the middle is dropped.
+   */
+  @VisibleForTesting
+  static final class BoundedText {
+    private final int headLength;
+    private final StringBuilder head = new StringBuilder();
+    /** Circular buffer of the latest characters, allocated once the head is full. */
+    @Nullable private char[] tail;
+
+    private int tailEnd;
+    private int tailSize;
+    private long dropped;
+
+    BoundedText(int maxLength) {
+      this.headLength = maxLength / 2;
+    }
+
+    boolean isEmpty() {
+      return head.length() == 0;
+    }
+
+    /** The number of characters kept. */
+    int length() {
+      return head.length() + tailSize;
+    }
+
+    void append(char[] chars, int start, int length) {
+      int toHead = Math.min(length, headLength - head.length());
+      head.append(chars, start, toHead);
+      start += toHead;
+      length -= toHead;
+      if (length == 0) {
+        return;
+      }
+      if (tail == null) {
+        tail = new char[headLength];
+      }
+      if (length > tail.length) {
+        dropped += tailSize + length - tail.length;
+        start += length - tail.length;
+        length = tail.length;
+        tailSize = 0;
+      }
+      dropped += Math.max(0, tailSize + length - tail.length);
+      tailSize = Math.min(tail.length, tailSize + length);
+      int firstPart = Math.min(length, tail.length - tailEnd);
+      System.arraycopy(chars, start, tail, tailEnd, firstPart);
+      System.arraycopy(chars, start + firstPart, tail, 0, length - firstPart);
+      tailEnd = (tailEnd + length) % tail.length;
+    }
+
+    @Override
+    public String toString() {
+      if (tail == null) {
+        return head.toString();
+      }
+      StringBuilder text = new StringBuilder(head.length() + tailSize + 100);
+      text.append(head);
+      if (dropped > 0) {
+        text.append(String.format("%n%n... [%d characters truncated] ...%n%n", dropped));
+      }
+      int tailStart = (tailEnd - tailSize + tail.length) % tail.length;
+      int firstPart = Math.min(tailSize, tail.length - tailStart);
+      text.append(tail, tailStart, firstPart);
+      text.append(tail, 0, tailSize - firstPart);
+      return text.toString();
+    }
+  }
+}
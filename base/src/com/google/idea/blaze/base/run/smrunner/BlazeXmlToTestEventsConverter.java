@@ -49,14 +49,17 @@ import com.intellij.execution.testframework.sm.runner.events.TestSuiteFinishedEv
 import com.intellij.execution.testframework.sm.runner.events.TestSuiteStartedEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import jetbrains.buildServer.messages.serviceMessages.TestSuiteStarted;
 
@@ -72,6 +75,12 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
   }
 
   private final BlazeTestResultFinderStrategy testResultFinderStrategy;
+  private final AtomicBoolean testingStarted = new AtomicBoolean();
+  /** Whether results are reported while blaze is running, rather than once it completes. */
+  private volatile boolean reportingLiveResults;
+  /** Processing of each test target's results, which must finish before testing completes. */
+  private final List<ListenableFuture<?>> targetFutures =
+      Collections.synchronizedList(new ArrayList<>());
 
   public BlazeXmlToTestEventsConverter(
       String testFrameworkName,
@@ -82,20 +91,36 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
   }
 
   @Override
-  public void processTestSuites() {
-    onStartTesting();
-    getProcessor().onTestsReporterAttached();
+  public void process(String text, Key outputType) {
+    super.process(text, outputType);
+    // the first output from blaze: start reporting results as each test target completes
+    startTesting();
+  }
 
-    BlazeTestResults testResults = testResultFinderStrategy.findTestResults();
-    if (testResults == null) {
+  private void startTesting() {
+    if (!testingStarted.compareAndSet(false, true)) {
       return;
     }
+    onStartTesting();
+    getProcessor().onTestsReporterAttached();
+    reportingLiveResults =
+        testResultFinderStrategy.startReportingLiveResults(this::submitTestResults);
+  }
+
+  @Override
+  public void processTestSuites() {
+    startTesting();
     try {
-      List<ListenableFuture<?>> futures = new ArrayList<>();
-      for (Label label : testResults.perTargetResults.keySet()) {
-        futures.add(
-            FetchExecutor.EXECUTOR.submit(
-                () -> processTestSuites(label, testResults.perTargetResults.get(label))));
+      BlazeTestResults testResults =
+          reportingLiveResults
+              ? testResultFinderStrategy.finishReportingLiveResults()
+              : testResultFinderStrategy.findTestResults();
+      if (testResults != null) {
+        submitTestResults(testResults);
+      }
+      List<ListenableFuture<?>> futures;
+      synchronized (targetFutures) {
+        futures = new ArrayList<>(targetFutures);
       }
       FuturesUtil.getIgnoringErrors(Futures.allAsList(futures));
     } finally {
@@ -103,6 +128,14 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
     }
   }
 
+  private void submitTestResults(BlazeTestResults testResults) {
+    for (Label label : testResults.perTargetResults.keySet()) {
+      targetFutures.add(
+          FetchExecutor.EXECUTOR.submit(
+              () -> processTestSuites(label, testResults.perTargetResults.get(label))));
+    }
+  }
+
   /** Process all test XML files from a single test target. */
   private void processTestSuites(Label label, Collection<BlazeTestResult> results) {
     List<File> outputFiles = new ArrayList<>();
@@ -115,16 +148,8 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
       return;
     }
 
-    List<TestSuite> targetSuites = new ArrayList<>();
-    for (File file : outputFiles) {
-      try (InputStream input = new FileInputStream(file)) {
-        targetSuites.add(BlazeXmlSchema.parse(input));
-      } catch (Exception e) {
-        // ignore parsing errors -- most common cause is user cancellation, which we can't easily
-        // recognize.
-      }
-    }
-    if (targetSuites.isEmpty()) {
+    TestSuite suite = parseTestXml(outputFiles);
+    if (suite == null) {
       return;
     }
     Kind kind =
@@ -136,11 +161,37 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
             .orElse(null);
     BlazeTestEventsHandler eventsHandler =
         BlazeTestEventsHandler.getHandlerForTargetKindOrFallback(kind);
-    TestSuite suite =
-        targetSuites.size() == 1 ? targetSuites.get(0) : BlazeXmlSchema.mergeSuites(targetSuites);
     processTestSuite(getProcessor(), eventsHandler, kind, suite);
   }
 
+  /**
+   * Parses the test XML files from a single test target, merging the output of sharded tests as
+   * it's read. Returns null if no files could be parsed.
+   */
+  @Nullable
+  private static TestSuite parseTestXml(List<File> outputFiles) {
+    if (outputFiles.size() == 1) {
+      try (InputStream input = new FileInputStream(outputFiles.get(0))) {
+        return BlazeXmlSchema.parse(input);
+      } catch (Exception e) {
+        // ignore parsing errors -- most common cause is user cancellation, which we can't easily
+        // recognize.
+        return null;
+      }
+    }
+    TestSuite merged = new TestSuite();
+    boolean parsedAny = false;
+    for (File file : outputFiles) {
+      try (InputStream input = new FileInputStream(file)) {
+        BlazeXmlSchema.parseAndMerge(input, merged);
+        parsedAny = true;
+      } catch (Exception e) {
+        // ignore parsing errors, as above
+      }
+    }
+    return parsedAny ? merged : null;
+  }
+
   /** Return false if there's output XML which should be parsed. */
   private static boolean noUsefulOutput(
       Collection<BlazeTestResult> results, List<File> outputFiles) {
@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.run.testlogs;
 
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /** A strategy for locating results from 'blaze test' invocation (e.g. output XML files). */
@@ -27,6 +28,28 @@ public interface BlazeTestResultFinderStrategy {
   @Nullable
   BlazeTestResults findTestResults();
 
+  /**
+   * Starts reporting results while the 'blaze test' invocation is running, passing the results of
+   * each test target to the consumer as soon as they're complete.
+   *
+   * @return false if results aren't available until the invocation completes, in which case
+   *     {@link #findTestResults} should be used instead.
+   */
+  default boolean startReportingLiveResults(Consumer<BlazeTestResults> consumer) {
+    return false;
+  }
+
+  /**
+   * Called after the 'blaze test' process completes if {@link #startReportingLiveResults} returned
+   * true. Blocks until all remaining results have been passed to the consumer.
+   *
+   * @return any results which couldn't be passed to the consumer, and should be processed now.
+   */
+  @Nullable
+  default BlazeTestResults finishReportingLiveResults() {
+    return findTestResults();
+  }
+
   /** Remove any temporary files used by this result finder. */
   void deleteTemporaryOutputXmlFiles();
 }
@@ -15,25 +15,37 @@
  */
 package com.google.idea.blaze.base.run.testlogs;
 
+import static com.google.idea.common.guava.GuavaHelper.toImmutableList;
+
 import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolOutputReader;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.io.InputStreamProvider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 /**
  * A strategy for locating results from a single 'blaze test' invocation (e.g. output XML files).
  *
- * <p>Parses the output BEP proto written by blaze to locate the test XML files.
+ * <p>Parses the output BEP proto written by blaze to locate the test XML files. Results can also
+ * be reported live, by reading the BEP output while blaze is still writing it.
  */
 public final class BuildEventProtocolTestFinderStrategy implements BlazeTestResultFinderStrategy {
 
   private static final Logger logger =
       Logger.getInstance(BuildEventProtocolTestFinderStrategy.class);
 
+  private static final BoolExperiment reportLiveResults =
+      new BoolExperiment("blaze.test.live.results", false);
+
   private final File outputFile;
+  @Nullable private LiveTestResultReader liveReader;
 
   public BuildEventProtocolTestFinderStrategy(File bepOutputFile) {
     this.outputFile = bepOutputFile;
@@ -41,16 +53,64 @@ public final class BuildEventProtocolTestFinderStrategy implements BlazeTestResu
 
   @Override
   public BlazeTestResults findTestResults() {
+    try {
+      return readTestResults();
+    } finally {
+      deleteOutputFile();
+    }
+  }
+
+  @Override
+  public synchronized boolean startReportingLiveResults(Consumer<BlazeTestResults> consumer) {
+    if (!reportLiveResults.getValue() || liveReader != null) {
+      return false;
+    }
+    liveReader = new LiveTestResultReader(outputFile, consumer);
+    liveReader.start();
+    return true;
+  }
+
+  @Override
+  public BlazeTestResults finishReportingLiveResults() {
+    LiveTestResultReader reader;
+    synchronized (this) {
+      reader = liveReader;
+    }
+    if (reader == null) {
+      return findTestResults();
+    }
+    try {
+      if (reader.finish()) {
+        return BlazeTestResults.NO_RESULTS;
+      }
+      // fall back to re-reading the whole file, skipping targets which were already reported
+      ImmutableSet<Label> reported = reader.getReportedLabels();
+      BlazeTestResults results = readTestResults();
+      return BlazeTestResults.fromFlatList(
+          results
+              .perTargetResults
+              .values()
+              .stream()
+              .filter(result -> !reported.contains(result.getLabel()))
+              .collect(toImmutableList()));
+    } finally {
+      deleteOutputFile();
+    }
+  }
+
+  private BlazeTestResults readTestResults() {
     try (InputStream inputStream =
         new BufferedInputStream(InputStreamProvider.getInstance().getFile(outputFile))) {
       return BuildEventProtocolOutputReader.parseTestResults(inputStream);
     } catch (IOException e) {
       logger.warn(e);
       return BlazeTestResults.NO_RESULTS;
-    } finally {
-      if (!outputFile.delete()) {
-        logger.warn("Could not delete BEP output file: " + outputFile);
-      }
+    }
+  }
+
+  private void deleteOutputFile() {
+    if (!outputFile.delete()) {
+      logger.warn("Could not delete BEP output file: " + outputFile);
     }
   }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.testlogs;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.IdCase;
+import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolOutputReader.TestResultEventParser;
+import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolStreamReader;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads test results from a BEP output file while blaze is still writing it. The results of each
+ * test target are reported once blaze writes the target's test summary, which follows all of its
+ * test results (e.g. one per shard).
+ *
+ * <p>Only the results of targets which haven't completed yet are retained.
+ */
+final class LiveTestResultReader {
+
+  private final BuildEventProtocolStreamReader reader;
+  private final Consumer<BlazeTestResults> consumer;
+  private final TestResultEventParser parser = new TestResultEventParser();
+  /**
+   * Results of targets whose test summary hasn't been read yet, in the order they were read. Only
+   * accessed on the reading thread, or after it's finished.
+   */
+  private final Map<Label, List<BlazeTestResult>> pendingResults = new LinkedHashMap<>();
+
+  private final Set<Label> reportedLabels = new HashSet<>();
+
+  LiveTestResultReader(File bepOutputFile, Consumer<BlazeTestResults> consumer) {
+    this.reader = BuildEventProtocolStreamReader.forEvents(bepOutputFile, this::handleEvent);
+    this.consumer = consumer;
+  }
+
+  /** Starts tailing the BEP output file on a dedicated thread. */
+  void start() {
+    reader.start();
+  }
+
+  /**
+   * Stops tailing the BEP output file once all the data currently in it has been read, and reports
+   * the results of any targets without a test summary. Blocks until all results have been passed
+   * to the consumer.
+   *
+   * @return false if the BEP output couldn't be read, in which case only the results of targets
+   *     listed in {@link #getReportedLabels} have been reported.
+   */
+  boolean finish() {
+    reader.buildComplete();
+    if (!reader.awaitCompletion()) {
+      reader.cancel();
+      return false;
+    }
+    // targets without a test summary, e.g. if the invocation was cancelled
+    for (Label label : new ArrayList<>(pendingResults.keySet())) {
+      report(label);
+    }
+    return true;
+  }
+
+  /** The labels of all targets whose results have been passed to the consumer. */
+  synchronized ImmutableSet<Label> getReportedLabels() {
+    return ImmutableSet.copyOf(reportedLabels);
+  }
+
+  private void handleEvent(BuildEventStreamProtos.BuildEvent event) {
+    if (event.getId().getIdCase() == IdCase.TEST_SUMMARY) {
+      report(Label.create(event.getId().getTestSummary().getLabel()));
+      return;
+    }
+    BlazeTestResult result = parser.processEvent(event);
+    if (result != null) {
+      pendingResults.computeIfAbsent(result.getLabel(), label -> new ArrayList<>()).add(result);
+    }
+  }
+
+  private void report(Label label) {
+    List<BlazeTestResult> results = pendingResults.remove(label);
+    if (results == null) {
+      return;
+    }
+    synchronized (this) {
+      reportedLabels.add(label);
+    }
+    consumer.accept(BlazeTestResults.fromFlatList(results));
+  }
+}
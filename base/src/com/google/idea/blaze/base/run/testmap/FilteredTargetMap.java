@@ -17,7 +17,6 @@ package com.google.idea.blaze.base.run.testmap;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Queues;
@@ -29,6 +28,7 @@ import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
@@ -66,7 +66,7 @@ public class FilteredTargetMap {
   }
 
   private Collection<TargetIdeInfo> targetsForSourceFileImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, File sourceFile) {
+      ReverseDependencyMap rdepsMap, File sourceFile) {
     List<TargetIdeInfo> result = Lists.newArrayList();
     Collection<TargetKey> roots = rootsMap.get(sourceFile);
 
@@ -35,7 +35,8 @@ public class BlazeContext {
 
   boolean isEnding;
 
-  boolean isCancelled;
+  // read from other threads, e.g. by sharded builds polling for cancellation
+  volatile boolean isCancelled;
 
   private int holdCount;
 
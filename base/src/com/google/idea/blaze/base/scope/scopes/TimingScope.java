@@ -21,7 +21,9 @@ import com.google.idea.blaze.base.scope.BlazeScope;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScopeListener.TimedEvent;
 import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,7 +55,8 @@ public class TimingScope implements BlazeScope {
 
   @Nullable private TimingScope parentScope;
 
-  private final List<TimingScope> children = Lists.newArrayList();
+  // child scopes may be started concurrently, e.g. by sync shards building in parallel
+  private final List<TimingScope> children = Collections.synchronizedList(new ArrayList<>());
 
   public TimingScope(String name, EventType eventType) {
     this.name = name;
@@ -121,12 +124,17 @@ public class TimingScope implements BlazeScope {
   private static void outputReport(
       BlazeContext context, TimingScope timingScope, TimingReportData data, int depth) {
     String selfString = "";
+    List<TimingScope> children;
+    // children may be added concurrently, e.g. by sharded builds
+    synchronized (timingScope.children) {
+      children = new ArrayList<>(timingScope.children);
+    }
 
     // Self time trivially 100% if no children
-    if (timingScope.children.size() > 0) {
+    if (!children.isEmpty()) {
       // Calculate self time as <my duration> - <sum child duration>
       double selfTime = timingScope.getDuration();
-      for (TimingScope child : timingScope.children) {
+      for (TimingScope child : children) {
         selfTime -= child.getDuration();
       }
 
@@ -142,11 +150,11 @@ public class TimingScope implements BlazeScope {
                 durationStr(timingScope.getDuration()),
                 selfString)));
 
-    for (TimingScope child : timingScope.children) {
+    for (TimingScope child : children) {
       outputReport(context, child, data, depth + 1);
     }
 
-    if (timingScope.children.isEmpty()) {
+    if (children.isEmpty()) {
       // sum times for leaf nodes
       data.addEventTiming(timingScope.eventType, timingScope.getDuration());
     }
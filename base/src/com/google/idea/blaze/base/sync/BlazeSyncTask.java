@@ -17,7 +17,7 @@ package com.google.idea.blaze.base.sync;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -34,6 +34,7 @@ import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.command.info.BlazeInfoRunner;
 import com.google.idea.blaze.base.experiments.ExperimentScope;
 import com.google.idea.blaze.base.filecache.FileCaches;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.FileOperationProvider;
@@ -101,6 +102,7 @@ import com.google.idea.blaze.base.sync.workspace.WorkingSet;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
 import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.targetmaps.SourceToTargetIndex;
 import com.google.idea.blaze.base.util.SaveUtil;
 import com.google.idea.blaze.base.vcs.BlazeVcsHandler;
 import com.google.idea.common.transactions.Transactions;
@@ -412,13 +414,24 @@ final class BlazeSyncTask implements Progressive {
       printTargets(context, syncParams.title, syncParams.targetExpressions);
     }
 
+    List<File> parallelOutputBases =
+        BlazeFlags.parallelShardOutputBases(projectViewSet, blazeInfo);
     ShardedTargetsResult shardedTargetsResult =
         BlazeBuildTargetSharder.expandAndShardTargets(
-            project, context, workspaceRoot, projectViewSet, workspacePathResolver, targets);
+            project,
+            context,
+            workspaceRoot,
+            projectViewSet,
+            workspacePathResolver,
+            targets,
+            parallelOutputBases,
+            previousSyncState,
+            syncStateBuilder);
     if (shardedTargetsResult.buildResult.status == BuildResult.Status.FATAL_ERROR) {
       return SyncResult.FAILURE;
     }
-    ShardedTargetList shardedTargets = shardedTargetsResult.shardedTargets;
+    ShardedTargetList shardedTargets =
+        shardedTargetsResult.shardedTargets.withParallelOutputBases(parallelOutputBases);
 
     syncStats.setSyncSharded(shardedTargets.shardedTargets.size() > 1);
 
@@ -453,10 +466,14 @@ final class BlazeSyncTask implements Progressive {
     TargetMap targetMap = ideQueryResult.targetMap;
     context.output(
         PrintOutput.log("Target map size: " + ideQueryResult.targetMap.targets().size()));
+    context.output(PrintOutput.log(IdeInfoInterner.getAndResetStats()));
     BuildResult ideInfoResult = ideQueryResult.buildResult;
 
-    ListenableFuture<ImmutableMultimap<TargetKey, TargetKey>> reverseDependenciesFuture =
-        BlazeExecutor.getInstance().submit(() -> ReverseDependencyMap.createRdepsMap(targetMap));
+    ListenableFuture<ReverseDependencyMap> reverseDependenciesFuture =
+        computeReverseDependencies(context, oldBlazeProjectData, ideQueryResult);
+    ListenableFuture<SourceToTargetIndex> sourceToTargetIndexFuture =
+        computeSourceToTargetIndex(
+            oldBlazeProjectData, ideQueryResult, artifactLocationDecoder, blazeInfo);
 
     BuildResult ideResolveResult =
         resolveIdeArtifacts(
@@ -501,7 +518,7 @@ final class BlazeSyncTask implements Progressive {
           }
         });
 
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
+    ReverseDependencyMap reverseDependencies =
         FutureUtil.waitForFuture(context, reverseDependenciesFuture)
             .timed("ReverseDependencies", EventType.Other)
             .onError("Failed to compute reverse dependency map")
@@ -510,6 +527,16 @@ final class BlazeSyncTask implements Progressive {
     if (reverseDependencies == null) {
       return SyncResult.FAILURE;
     }
+    SourceToTargetIndex sourceToTargetIndex =
+        FutureUtil.waitForFuture(context, sourceToTargetIndexFuture)
+            .timed("SourceToTargetIndex", EventType.Other)
+            .onError("Failed to compute source to target index")
+            .run()
+            .result();
+    if (sourceToTargetIndex == null) {
+      return SyncResult.FAILURE;
+    }
+    syncStateBuilder.put(SourceToTargetIndex.class, sourceToTargetIndex);
 
     newBlazeProjectData =
         new BlazeProjectData(
@@ -727,6 +754,68 @@ final class BlazeSyncTask implements Progressive {
     return result;
   }
 
+  /**
+   * Whether the target map in the given result was derived from the previous sync's target map, so
+   * state computed from that can be updated from the changed targets alone.
+   */
+  private static boolean canUpdateIncrementally(
+      @Nullable BlazeProjectData oldBlazeProjectData, BlazeIdeInterface.IdeResult ideQueryResult) {
+    return oldBlazeProjectData != null
+        && ideQueryResult.previousTargetMap != null
+        && ideQueryResult.previousTargetMap == oldBlazeProjectData.targetMap;
+  }
+
+  /**
+   * Updates the previous sync's reverse dependency map with the targets changed during this sync,
+   * if possible. Otherwise builds it from scratch.
+   */
+  private static ListenableFuture<ReverseDependencyMap> computeReverseDependencies(
+      BlazeContext context,
+      @Nullable BlazeProjectData oldBlazeProjectData,
+      BlazeIdeInterface.IdeResult ideQueryResult) {
+    TargetMap targetMap = ideQueryResult.targetMap;
+    if (canUpdateIncrementally(oldBlazeProjectData, ideQueryResult)) {
+      ReverseDependencyMap previous = oldBlazeProjectData.reverseDependencies;
+      TargetMap previousTargetMap = ideQueryResult.previousTargetMap;
+      ImmutableSet<TargetKey> changedTargets = ideQueryResult.changedTargets;
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Updating reverse dependencies for %d changed targets", changedTargets.size())));
+      return BlazeExecutor.getInstance()
+          .submit(() -> previous.update(previousTargetMap, targetMap, changedTargets));
+    }
+    return BlazeExecutor.getInstance().submit(() -> ReverseDependencyMap.create(targetMap));
+  }
+
+  /**
+   * Updates the previous sync's source to target index with the targets changed during this sync,
+   * if possible. Otherwise builds it from scratch.
+   */
+  private static ListenableFuture<SourceToTargetIndex> computeSourceToTargetIndex(
+      @Nullable BlazeProjectData oldBlazeProjectData,
+      BlazeIdeInterface.IdeResult ideQueryResult,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      BlazeInfo blazeInfo) {
+    TargetMap targetMap = ideQueryResult.targetMap;
+    String executionRoot = blazeInfo.getExecutionRoot().getPath();
+    SourceToTargetIndex previous =
+        canUpdateIncrementally(oldBlazeProjectData, ideQueryResult)
+            ? oldBlazeProjectData.syncState.get(SourceToTargetIndex.class)
+            : null;
+    if (previous != null) {
+      ImmutableSet<TargetKey> changedTargets = ideQueryResult.changedTargets;
+      return BlazeExecutor.getInstance()
+          .submit(
+              () ->
+                  previous.update(
+                      targetMap, changedTargets, artifactLocationDecoder, executionRoot));
+    }
+    return BlazeExecutor.getInstance()
+        .submit(
+            () -> SourceToTargetIndex.create(targetMap, artifactLocationDecoder, executionRoot));
+  }
+
   private BlazeIdeInterface.IdeResult getIdeQueryResult(
       Project project,
       BlazeContext parentContext,
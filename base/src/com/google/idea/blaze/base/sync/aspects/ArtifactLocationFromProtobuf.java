@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.sync.aspects;
 import com.google.common.base.Joiner;
 import com.google.devtools.intellij.aspect.Common;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.intellij.openapi.util.text.StringUtil;
 import java.util.List;
 
@@ -40,11 +41,12 @@ public final class ArtifactLocationFromProtobuf {
             rootExecutionPathFragment.isEmpty() ? prefix : rootExecutionPathFragment + "/" + prefix;
       }
     }
-    return ArtifactLocation.builder()
-        .setRootExecutionPathFragment(rootExecutionPathFragment)
-        .setRelativePath(relativePath)
-        .setIsSource(location.getIsSource())
-        .setIsExternal(location.getIsExternal())
-        .build();
+    return IdeInfoInterner.intern(
+        ArtifactLocation.builder()
+            .setRootExecutionPathFragment(IdeInfoInterner.intern(rootExecutionPathFragment))
+            .setRelativePath(relativePath)
+            .setIsSource(location.getIsSource())
+            .setIsExternal(location.getIsExternal())
+            .build());
   }
 }
@@ -15,7 +15,9 @@
  */
 package com.google.idea.blaze.base.sync.aspects;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.command.info.BlazeConfigurationHandler;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeVersionData;
 import com.google.idea.blaze.base.model.SyncState;
@@ -41,9 +43,27 @@ public interface BlazeIdeInterface {
     @Nullable public final TargetMap targetMap;
     public final BuildResult buildResult;
 
+    /**
+     * The target map {@link #targetMap} was derived from, or null if it was built from scratch (or
+     * the changes are otherwise unknown).
+     */
+    @Nullable public final TargetMap previousTargetMap;
+    /** The keys of all targets added, removed or modified relative to {@link #previousTargetMap}. */
+    public final ImmutableSet<TargetKey> changedTargets;
+
     public IdeResult(@Nullable TargetMap targetMap, BuildResult buildResult) {
+      this(targetMap, buildResult, null, ImmutableSet.of());
+    }
+
+    public IdeResult(
+        @Nullable TargetMap targetMap,
+        BuildResult buildResult,
+        @Nullable TargetMap previousTargetMap,
+        ImmutableSet<TargetKey> changedTargets) {
       this.targetMap = targetMap;
       this.buildResult = buildResult;
+      this.previousTargetMap = previousTargetMap;
+      this.changedTargets = changedTargets;
     }
   }
 
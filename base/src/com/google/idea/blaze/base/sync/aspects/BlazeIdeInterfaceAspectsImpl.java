@@ -28,6 +28,7 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
@@ -45,6 +46,9 @@ import com.google.idea.blaze.base.filecache.FileDiffer;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.io.ContentDigestScanner;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.ModifiedTimeScanner;
 import com.google.idea.blaze.base.lang.AdditionalLanguagesHelper;
 import com.google.idea.blaze.base.model.BlazeVersionData;
 import com.google.idea.blaze.base.model.SyncState;
@@ -52,6 +56,7 @@ import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.model.primitives.WorkspaceType;
 import com.google.idea.blaze.base.prefetch.PrefetchFileSource;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
@@ -70,29 +75,40 @@ import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategyProvider;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.sharding.ShardedTargetList;
+import com.google.idea.blaze.base.sync.sharding.ShardedTargetList.ShardInvocation;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.pom.NavigatableAdapter;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /** Implementation of BlazeIdeInterface based on aspects. */
@@ -100,13 +116,85 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
   private static final Logger logger = Logger.getInstance(BlazeIdeInterfaceAspectsImpl.class);
 
+  /**
+   * If true, build outputs are read while the build is running, and each build shard's aspect
+   * output files are diffed, prefetched and parsed while the next shard is building.
+   */
+  private static final BoolExperiment pipelinedAspectIngestion =
+      new BoolExperiment("blaze.sync.pipelined.aspect.ingestion", false);
+
+  /**
+   * If true, aspect output files with a new modified time are only reparsed if a digest of their
+   * contents has also changed.
+   */
+  private static final BoolExperiment aspectOutputContentDigests =
+      new BoolExperiment("blaze.sync.aspect.output.content.digests", false);
+
   static class State implements Serializable {
     private static final long serialVersionUID = 15L;
     TargetMap targetMap;
     ImmutableMap<File, Long> fileState = null;
+    /** Content digests of the aspect output files. Null unless content digests are enabled. */
+    @Nullable ImmutableMap<File, Long> fileDigests = null;
     BiMap<File, TargetKey> fileToTargetMapKey = HashBiMap.create();
     WorkspaceLanguageSettings workspaceLanguageSettings;
     String aspectStrategyName;
+
+    /** Targets added, removed or modified relative to the previous state. Not persisted. */
+    transient ImmutableSet<TargetKey> changedTargets = ImmutableSet.of();
+  }
+
+  /** Writes {@link State} in the compact project data format. */
+  static final class StateCodec implements SyncStateCodec<State> {
+    @Override
+    public Class<State> stateClass() {
+      return State.class;
+    }
+
+    @Override
+    public void write(State state, CompactDataOutput out) throws IOException {
+      out.writeTargetMap(state.targetMap);
+      out.writeFileState(state.fileState);
+      out.writeBoolean(state.fileDigests != null);
+      if (state.fileDigests != null) {
+        out.writeFileState(state.fileDigests);
+      }
+      out.writeVarInt(state.fileToTargetMapKey.size());
+      for (Map.Entry<File, TargetKey> entry : state.fileToTargetMapKey.entrySet()) {
+        out.writeFile(entry.getKey());
+        out.writeTargetKey(entry.getValue());
+      }
+      out.writeEnum(state.workspaceLanguageSettings.getWorkspaceType());
+      out.writeVarInt(state.workspaceLanguageSettings.activeLanguages.size());
+      for (LanguageClass language : state.workspaceLanguageSettings.activeLanguages) {
+        out.writeEnum(language);
+      }
+      out.writeString(state.aspectStrategyName);
+    }
+
+    @Override
+    public State read(CompactDataInput in) throws IOException {
+      State state = new State();
+      state.targetMap = in.readTargetMap();
+      state.fileState = in.readFileState();
+      state.fileDigests = in.readBoolean() ? in.readFileState() : null;
+      int fileCount = in.readVarInt();
+      state.fileToTargetMapKey = HashBiMap.create(fileCount);
+      for (int i = 0; i < fileCount; i++) {
+        state.fileToTargetMapKey.put(in.readNonNullFile(), in.readTargetKey());
+      }
+      WorkspaceType workspaceType = in.readEnum(WorkspaceType.class);
+      ImmutableSet.Builder<LanguageClass> languages = ImmutableSet.builder();
+      int languageCount = in.readVarInt();
+      for (int i = 0; i < languageCount; i++) {
+        languages.add(in.readEnum(LanguageClass.class));
+      }
+      state.workspaceLanguageSettings =
+          new WorkspaceLanguageSettings(workspaceType, languages.build());
+      state.aspectStrategyName = in.readString();
+      return state;
+    }
+
   }
 
   @Override
@@ -139,6 +227,36 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       prevState = null;
     }
 
+    // prefetch new or modified aspect output files as soon as they're built
+    ImmutableMap<File, Long> prevFileState = prevState != null ? prevState.fileState : null;
+    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    StreamingPrefetcher aspectFilePrefetcher =
+        new StreamingPrefetcher(
+            file ->
+                prevFileState == null
+                    || !Objects.equals(
+                        prevFileState.get(file), fileOperationProvider.getFileModifiedTime(file)),
+            /* refetchCachedFiles= */ true);
+
+    ImportRoots importRoots =
+        ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
+            .add(projectViewSet)
+            .build();
+    AspectFileParser parser =
+        new AspectFileParser(workspaceLanguageSettings, importRoots, aspectStrategy);
+
+    ContentDigestFilter digestFilter =
+        aspectOutputContentDigests.getValue()
+            ? new ContentDigestFilter(prevState != null ? prevState.fileDigests : null)
+            : null;
+
+    // optionally diff, prefetch and parse each shard's output while the next shard builds
+    boolean pipelined = pipelinedAspectIngestion.getValue();
+    PipelinedIngester pipelinedIngester =
+        pipelined && shardedTargets.shardedTargets.size() > 1
+            ? new PipelinedIngester(prevFileState, parser, aspectFilePrefetcher, digestFilter)
+            : null;
+
     IdeInfoResult ideInfoResult =
         getIdeInfo(
             project,
@@ -147,9 +265,14 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             projectViewSet,
             workspaceLanguageSettings.activeLanguages,
             shardedTargets,
-            aspectStrategy);
+            aspectStrategy,
+            pipelined ? aspectFilePrefetcher : null,
+            pipelinedIngester != null ? pipelinedIngester::ingestShard : files -> {});
     context.output(PrintOutput.log("ide-info result: " + ideInfoResult.buildResult.status));
     if (ideInfoResult.buildResult.status == BuildResult.Status.FATAL_ERROR) {
+      if (pipelinedIngester != null) {
+        pipelinedIngester.cancel();
+      }
       return new IdeResult(
           prevState != null ? prevState.targetMap : null, ideInfoResult.buildResult);
     }
@@ -162,9 +285,15 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     Collection<File> fileList = ideInfoResult.files;
     List<File> updatedFiles = Lists.newArrayList();
     List<File> removedFiles = Lists.newArrayList();
-    ImmutableMap<File, Long> fileState =
-        FileDiffer.updateFiles(
-            prevState != null ? prevState.fileState : null, fileList, updatedFiles, removedFiles);
+    ImmutableMap<File, Long> fileState;
+    if (pipelinedIngester != null) {
+      fileState = pipelinedIngester.getFileState(context);
+      if (fileState != null) {
+        FileDiffer.diffState(prevFileState, fileState, updatedFiles, removedFiles);
+      }
+    } else {
+      fileState = FileDiffer.updateFiles(prevFileState, fileList, updatedFiles, removedFiles);
+    }
     if (fileState == null) {
       return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
     }
@@ -179,8 +308,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 "Total rules: %d, new/changed: %d, removed: %d",
                 targetCount, updatedFiles.size(), removedCount)));
 
-    ListenableFuture<?> prefetchFuture =
-        PrefetchService.getInstance().prefetchFiles(updatedFiles, true, false);
+    ListenableFuture<?> prefetchFuture = aspectFilePrefetcher.prefetchRemaining(updatedFiles);
     if (!FutureUtil.waitForFuture(context, prefetchFuture)
         .timed("FetchAspectOutput", EventType.Prefetching)
         .withProgressMessage("Reading IDE info result...")
@@ -189,10 +317,32 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
     }
 
-    ImportRoots importRoots =
-        ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
-            .add(projectViewSet)
-            .build();
+    // in pipelined mode, most of the files have already been parsed
+    List<File> filesToParse = updatedFiles;
+    if (pipelinedIngester == null && digestFilter != null) {
+      filesToParse =
+          FutureUtil.waitForFuture(context, digestFilter.filter(updatedFiles))
+              .timed("DigestAspectOutput", EventType.Other)
+              .withProgressMessage("Reading IDE info result...")
+              .run()
+              .result();
+      if (filesToParse == null) {
+        return new IdeResult(
+            prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
+      }
+    }
+    List<ListenableFuture<TargetFilePair>> parsedFiles =
+        pipelinedIngester != null
+            ? pipelinedIngester.getParsedFiles()
+            : parser.parseAspectFiles(filesToParse);
+    if (digestFilter != null) {
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Aspect output files: %d reparsed, %d skipped with unchanged contents",
+                  updatedFiles.size() - digestFilter.skippedCount(),
+                  digestFilter.skippedCount())));
+    }
 
     State state =
         updateState(
@@ -200,18 +350,24 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             context,
             prevState,
             fileState,
+            digestFilter != null ? digestFilter.getDigests(fileState, updatedFiles) : null,
             configHandler,
             workspaceLanguageSettings,
-            importRoots,
+            parser,
             aspectStrategy,
-            updatedFiles,
+            filesToParse,
+            parsedFiles,
             removedFiles,
             mergeWithOldState);
     if (state == null) {
       return new IdeResult(prevState != null ? prevState.targetMap : null, BuildResult.FATAL_ERROR);
     }
     syncStateBuilder.put(State.class, state);
-    return new IdeResult(state.targetMap, ideInfoResult.buildResult);
+    return new IdeResult(
+        state.targetMap,
+        ideInfoResult.buildResult,
+        prevState != null ? prevState.targetMap : null,
+        state.changedTargets);
   }
 
   private static class IdeInfoResult {
@@ -231,7 +387,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       ProjectViewSet projectViewSet,
       ImmutableSet<LanguageClass> activeLanguages,
       ShardedTargetList shardedTargets,
-      AspectStrategy aspectStrategy) {
+      AspectStrategy aspectStrategy,
+      @Nullable Consumer<ImmutableList<File>> artifactListener,
+      Consumer<List<File>> shardCompleteListener) {
     return Scope.push(
         parentContext,
         context -> {
@@ -245,27 +403,47 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   String.format(
                       "Building IDE info files for shard %s of %s...",
                       count, shardedTargets.shardedTargets.size());
-          Function<List<TargetExpression>, BuildResult> invocation =
-              targets -> {
-                IdeInfoResult result =
-                    getIdeInfoForTargets(
-                        project,
-                        context,
-                        workspaceRoot,
-                        projectViewSet,
-                        activeLanguages,
-                        targets,
-                        aspectStrategy);
-                ideInfoFiles.addAll(result.files);
+          // shards may be built concurrently, but their results are handled in shard order
+          ShardInvocation<IdeInfoResult> invocation =
+              (shardContext, targets, outputBase) ->
+                  getIdeInfoForTargets(
+                      project,
+                      shardContext,
+                      workspaceRoot,
+                      projectViewSet,
+                      activeLanguages,
+                      targets,
+                      outputBase,
+                      aspectStrategy,
+                      artifactListener);
+          Function<IdeInfoResult, BuildResult> resultHandler =
+              result -> {
+                if (result.buildResult.status != Status.FATAL_ERROR) {
+                  List<File> newFiles =
+                      result.files.stream().filter(ideInfoFiles::add).collect(Collectors.toList());
+                  shardCompleteListener.accept(newFiles);
+                }
                 return result.buildResult;
               };
           BuildResult result =
-              shardedTargets.runShardedCommand(project, context, progressMessage, invocation);
+              shardedTargets.runShardedCommandInParallel(
+                  project,
+                  context,
+                  progressMessage,
+                  invocation,
+                  result -> result.buildResult.outOfMemory(),
+                  resultHandler);
           return new IdeInfoResult(ideInfoFiles, result);
         });
   }
 
-  /** Runs blaze build with the aspect's ide-info output group for a given set of targets */
+  /**
+   * Runs blaze build with the aspect's ide-info output group for a given set of targets, against
+   * the given output base (or the default output base if null).
+   *
+   * <p>Only the ide-info files are read from the build's output base. Build artifacts referenced by
+   * the resulting targets are resolved against the default output base.
+   */
   private static IdeInfoResult getIdeInfoForTargets(
       Project project,
       BlazeContext context,
@@ -273,12 +451,18 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       ProjectViewSet projectViewSet,
       ImmutableSet<LanguageClass> activeLanguages,
       List<TargetExpression> targets,
-      AspectStrategy aspectStrategy) {
+      @Nullable File outputBase,
+      AspectStrategy aspectStrategy,
+      @Nullable Consumer<ImmutableList<File>> artifactListener) {
     try (BuildResultHelper buildResultHelper =
         BuildResultHelper.forFiles(aspectStrategy.getAspectOutputFilePredicate())) {
+      if (artifactListener != null) {
+        buildResultHelper.streamBuildArtifacts(ImmutableList.of(), artifactListener);
+      }
 
       BlazeCommand.Builder builder =
           BlazeCommand.builder(getBinaryPath(project), BlazeCommandName.BUILD)
+              .addStartupFlags(BlazeFlags.outputBaseFlags(outputBase))
               .addTargets(targets)
               .addBlazeFlags(BlazeFlags.KEEP_GOING)
               .addBlazeFlags(buildResultHelper.getBuildFlags())
@@ -325,11 +509,13 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       BlazeContext parentContext,
       @Nullable State prevState,
       ImmutableMap<File, Long> fileState,
+      @Nullable ImmutableMap<File, Long> fileDigests,
       BlazeConfigurationHandler configHandler,
       WorkspaceLanguageSettings workspaceLanguageSettings,
-      ImportRoots importRoots,
+      AspectFileParser parser,
       AspectStrategy aspectStrategy,
       List<File> newFiles,
+      List<ListenableFuture<TargetFilePair>> parsedFiles,
       List<File> removedFiles,
       boolean mergeWithOldState) {
     Result<State> result =
@@ -352,52 +538,48 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                     }
                     nextFileState = fileStateBuilder.build();
                   }
+                  ImmutableMap<File, Long> nextFileDigests = fileDigests;
+                  if (mergeWithOldState
+                      && prevState != null
+                      && prevState.fileDigests != null
+                      && fileDigests != null) {
+                    ImmutableMap.Builder<File, Long> digestsBuilder =
+                        ImmutableMap.<File, Long>builder().putAll(fileDigests);
+                    for (Map.Entry<File, Long> entry : prevState.fileDigests.entrySet()) {
+                      if (!fileState.containsKey(entry.getKey())) {
+                        digestsBuilder.put(entry);
+                      }
+                    }
+                    nextFileDigests = digestsBuilder.build();
+                  }
 
                   State state = new State();
                   state.fileState = nextFileState;
+                  state.fileDigests = nextFileDigests;
                   state.workspaceLanguageSettings = workspaceLanguageSettings;
                   state.aspectStrategyName = aspectStrategy.getName();
 
-                  Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
+                  // unchanged targets are read from the previous target map when needed
+                  Set<TargetKey> targetKeys = new HashSet<>();
+                  Map<TargetKey, TargetIdeInfo> updatedTargets = Maps.newHashMap();
                   if (prevState != null) {
-                    targetMap.putAll(prevState.targetMap.map());
+                    targetKeys.addAll(prevState.targetMap.keys());
                     state.fileToTargetMapKey.putAll(prevState.fileToTargetMapKey);
                   }
 
+                  Set<TargetKey> changedTargets = new HashSet<>();
+
                   // Update removed unless we're merging with the old state
                   if (!mergeWithOldState) {
                     for (File removedFile : removedFiles) {
                       TargetKey key = state.fileToTargetMapKey.remove(removedFile);
                       if (key != null) {
-                        targetMap.remove(key);
+                        targetKeys.remove(key);
+                        changedTargets.add(key);
                       }
                     }
                   }
 
-                  AtomicLong totalSizeLoaded = new AtomicLong(0);
-                  Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
-
-                  ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
-
-                  // Read protos from any new files
-                  List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
-                  for (File file : newFiles) {
-                    futures.add(
-                        executor.submit(
-                            () -> {
-                              totalSizeLoaded.addAndGet(file.length());
-                              IntellijIdeInfo.TargetIdeInfo message =
-                                  aspectStrategy.readAspectFile(file);
-                              TargetIdeInfo target =
-                                  protoToTarget(
-                                      workspaceLanguageSettings,
-                                      importRoots,
-                                      message,
-                                      ignoredLanguages);
-                              return new TargetFilePair(file, target);
-                            }));
-                  }
-
                   Set<TargetKey> newTargets = new HashSet<>();
                   Set<String> configurations = new LinkedHashSet<>();
                   configurations.add(configHandler.defaultConfigurationPathComponent);
@@ -405,14 +587,16 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   // Update state with result from proto files
                   int duplicateTargetLabels = 0;
                   try {
-                    for (TargetFilePair targetFilePair : Futures.allAsList(futures).get()) {
+                    for (TargetFilePair targetFilePair : Futures.allAsList(parsedFiles).get()) {
                       if (targetFilePair.target != null) {
                         File file = targetFilePair.file;
                         String config = configHandler.getConfigurationPathComponent(file);
                         configurations.add(config);
                         TargetKey key = targetFilePair.target.key;
-                        if (targetMap.putIfAbsent(key, targetFilePair.target) == null) {
+                        if (targetKeys.add(key)) {
+                          updatedTargets.put(key, targetFilePair.target);
                           state.fileToTargetMapKey.forcePut(file, key);
+                          changedTargets.add(key);
                         } else {
                           if (!newTargets.add(key)) {
                             duplicateTargetLabels++;
@@ -420,8 +604,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                           // prioritize the default configuration over build order
                           if (Objects.equals(
                               config, configHandler.defaultConfigurationPathComponent)) {
-                            targetMap.put(key, targetFilePair.target);
+                            updatedTargets.put(key, targetFilePair.target);
                             state.fileToTargetMapKey.forcePut(file, key);
+                            changedTargets.add(key);
                           }
                         }
                       }
@@ -437,7 +622,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                       PrintOutput.log(
                           String.format(
                               "Loaded %d aspect files, total size %dkB",
-                              newFiles.size(), totalSizeLoaded.get() / 1024)));
+                              newFiles.size(), parser.totalSizeLoaded.get() / 1024)));
                   if (duplicateTargetLabels > 0) {
                     context.output(
                         new PerformanceWarning(
@@ -446,15 +631,20 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                                     + "configurations: %s.\nYour IDE sync is slowed down by ~%d%%.",
                                 duplicateTargetLabels,
                                 configurations,
-                                (100 * duplicateTargetLabels / targetMap.size()))));
+                                (100 * duplicateTargetLabels / targetKeys.size()))));
                   }
 
+                  Set<LanguageClass> ignoredLanguages = new HashSet<>(parser.ignoredLanguages);
                   ignoredLanguages.retainAll(
                       LanguageSupport.availableAdditionalLanguages(
                           workspaceLanguageSettings.getWorkspaceType()));
                   warnIgnoredLanguages(project, context, ignoredLanguages);
 
-                  state.targetMap = new TargetMap(ImmutableMap.copyOf(targetMap));
+                  state.targetMap =
+                      prevState != null
+                          ? UpdatedTargetMap.create(prevState.targetMap, targetKeys, updatedTargets)
+                          : new TargetMap(ImmutableMap.copyOf(updatedTargets));
+                  state.changedTargets = ImmutableSet.copyOf(changedTargets);
                   return Result.of(state);
                 });
 
@@ -465,6 +655,194 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return result.result;
   }
 
+  /** Reads and converts aspect output files on the shared blaze executor. */
+  private static class AspectFileParser {
+    private final WorkspaceLanguageSettings workspaceLanguageSettings;
+    private final ImportRoots importRoots;
+    private final AspectStrategy aspectStrategy;
+    private final ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
+
+    final AtomicLong totalSizeLoaded = new AtomicLong(0);
+    final Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
+
+    AspectFileParser(
+        WorkspaceLanguageSettings workspaceLanguageSettings,
+        ImportRoots importRoots,
+        AspectStrategy aspectStrategy) {
+      this.workspaceLanguageSettings = workspaceLanguageSettings;
+      this.importRoots = importRoots;
+      this.aspectStrategy = aspectStrategy;
+    }
+
+    List<ListenableFuture<TargetFilePair>> parseAspectFiles(Collection<File> files) {
+      List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
+      for (File file : files) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  totalSizeLoaded.addAndGet(file.length());
+                  IntellijIdeInfo.TargetIdeInfo message = aspectStrategy.readAspectFile(file);
+                  TargetIdeInfo target =
+                      protoToTarget(
+                          workspaceLanguageSettings, importRoots, message, ignoredLanguages);
+                  return new TargetFilePair(file, target);
+                }));
+      }
+      return futures;
+    }
+  }
+
+  /**
+   * Diffs, prefetches and parses the aspect output files from each build shard as soon as that
+   * shard is built, overlapping this work with the remaining shards' builds.
+   *
+   * <p>Shards are processed in the order they were built, and files already seen in an earlier
+   * shard are skipped, so the merged results are identical to processing all files at once.
+   */
+  private static class PipelinedIngester {
+    @Nullable private final ImmutableMap<File, Long> prevFileState;
+    private final AspectFileParser parser;
+    private final StreamingPrefetcher prefetcher;
+    @Nullable private final ContentDigestFilter digestFilter;
+    private final List<ListenableFuture<ShardState>> shards = new ArrayList<>();
+
+    PipelinedIngester(
+        @Nullable ImmutableMap<File, Long> prevFileState,
+        AspectFileParser parser,
+        StreamingPrefetcher prefetcher,
+        @Nullable ContentDigestFilter digestFilter) {
+      this.prevFileState = prevFileState;
+      this.parser = parser;
+      this.prefetcher = prefetcher;
+      this.digestFilter = digestFilter;
+    }
+
+    /** Called with the new aspect output files once each shard is built. */
+    void ingestShard(List<File> files) {
+      ListenableFuture<ShardState> shard =
+          Futures.transformAsync(
+              ModifiedTimeScanner.readTimestampsAsync(files),
+              fileState -> {
+                List<File> updated = new ArrayList<>();
+                FileDiffer.diffState(prevFileState, fileState, updated, new ArrayList<>());
+                ListenableFuture<List<File>> toParse =
+                    Futures.transformAsync(
+                        prefetcher.prefetchRemaining(updated),
+                        prefetched ->
+                            digestFilter != null
+                                ? digestFilter.filter(updated)
+                                : Futures.immediateFuture(updated),
+                        MoreExecutors.directExecutor());
+                return Futures.transform(
+                    toParse,
+                    (com.google.common.base.Function<List<File>, ShardState>)
+                        files -> new ShardState(fileState, parser.parseAspectFiles(files)),
+                    MoreExecutors.directExecutor());
+              },
+              MoreExecutors.directExecutor());
+      shards.add(shard);
+    }
+
+    /**
+     * Waits for all shards to be diffed and prefetched, returning the combined file state, or null
+     * if it couldn't be read.
+     */
+    @Nullable
+    ImmutableMap<File, Long> getFileState(BlazeContext context) {
+      List<ShardState> shardStates =
+          FutureUtil.waitForFuture(context, Futures.allAsList(shards))
+              .timed("ReadAspectOutputState", EventType.Other)
+              .withProgressMessage("Reading IDE info result...")
+              .run()
+              .result();
+      if (shardStates == null) {
+        cancel();
+        return null;
+      }
+      ImmutableMap.Builder<File, Long> fileState = ImmutableMap.builder();
+      shardStates.forEach(shard -> fileState.putAll(shard.fileState));
+      return fileState.build();
+    }
+
+    /** Returns the parsed aspect files from all shards, in build order. */
+    List<ListenableFuture<TargetFilePair>> getParsedFiles() {
+      return shards
+          .stream()
+          .map(Futures::getUnchecked)
+          .flatMap(shard -> shard.parsedFiles.stream())
+          .collect(Collectors.toList());
+    }
+
+    void cancel() {
+      shards.forEach(shard -> shard.cancel(true));
+    }
+
+    private static class ShardState {
+      final ImmutableMap<File, Long> fileState;
+      final List<ListenableFuture<TargetFilePair>> parsedFiles;
+
+      ShardState(
+          ImmutableMap<File, Long> fileState,
+          List<ListenableFuture<TargetFilePair>> parsedFiles) {
+        this.fileState = fileState;
+        this.parsedFiles = parsedFiles;
+      }
+    }
+  }
+
+  /**
+   * Filters out aspect output files whose modified time changed but whose contents didn't, so
+   * they're not reparsed. Their targets are carried over from the previous state, as for files with
+   * an unchanged modified time.
+   */
+  private static class ContentDigestFilter {
+    @Nullable private final ImmutableMap<File, Long> prevDigests;
+    private final Map<File, Long> digests = new ConcurrentHashMap<>();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    ContentDigestFilter(@Nullable ImmutableMap<File, Long> prevDigests) {
+      this.prevDigests = prevDigests;
+    }
+
+    /** Reads the digests of the given modified files, returning those whose contents changed. */
+    ListenableFuture<List<File>> filter(List<File> updated) {
+      return Futures.transform(
+          ContentDigestScanner.readDigestsAsync(updated),
+          (com.google.common.base.Function<ImmutableMap<File, Long>, List<File>>)
+              newDigests -> {
+                digests.putAll(newDigests);
+                List<File> changed =
+                    FileDiffer.filterUnchangedContents(updated, prevDigests, newDigests);
+                skipped.addAndGet(updated.size() - changed.size());
+                return changed;
+              },
+          MoreExecutors.directExecutor());
+    }
+
+    int skippedCount() {
+      return skipped.get();
+    }
+
+    /**
+     * Returns the digests of all files in the new file state: freshly read for modified files, and
+     * carried over from the previous state otherwise.
+     */
+    ImmutableMap<File, Long> getDigests(Map<File, Long> fileState, Collection<File> updated) {
+      Set<File> updatedSet = new HashSet<>(updated);
+      ImmutableMap.Builder<File, Long> result = ImmutableMap.builder();
+      for (File file : fileState.keySet()) {
+        Long digest = digests.get(file);
+        if (digest == null && prevDigests != null && !updatedSet.contains(file)) {
+          digest = prevDigests.get(file);
+        }
+        if (digest != null) {
+          result.put(file, digest);
+        }
+      }
+      return result.build();
+    }
+  }
+
   @Nullable
   private static TargetIdeInfo protoToTarget(
       WorkspaceLanguageSettings languageSettings,
@@ -606,6 +984,12 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       List<TargetExpression> targets) {
     try (BuildResultHelper buildResultHelper =
         BuildResultHelper.forFiles(getGenfilePrefetchFilter())) {
+      StreamingPrefetcher genfilePrefetcher =
+          new StreamingPrefetcher(file -> true, /* refetchCachedFiles= */ false);
+      if (pipelinedAspectIngestion.getValue()) {
+        // start prefetching genfiles while the build is still running
+        buildResultHelper.streamBuildArtifacts(ImmutableList.of(), genfilePrefetcher);
+      }
 
       BlazeCommand.Builder blazeCommandBuilder =
           BlazeCommand.builder(getBinaryPath(project), BlazeCommandName.BUILD)
@@ -637,7 +1021,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
       BuildResult result = BuildResult.fromExitCode(retVal);
       if (result.status != BuildResult.Status.FATAL_ERROR) {
-        prefetchGenfiles(context, buildResultHelper.getBuildArtifacts());
+        prefetchGenfiles(
+            context, genfilePrefetcher.prefetchRemaining(buildResultHelper.getBuildArtifacts()));
       }
       return result;
     }
@@ -688,16 +1073,56 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return fileName -> extensions.contains(FileUtil.getExtension(fileName));
   }
 
-  /** Prefetch a list of blaze output artifacts, blocking until complete. */
-  private static void prefetchGenfiles(BlazeContext context, ImmutableList<File> artifacts) {
-    ListenableFuture<?> prefetchFuture =
-        PrefetchService.getInstance().prefetchFiles(artifacts, false, false);
+  /** Blocks until prefetching of blaze output artifacts is complete. */
+  private static void prefetchGenfiles(BlazeContext context, ListenableFuture<?> prefetchFuture) {
     FutureUtil.waitForFuture(context, prefetchFuture)
         .timed("PrefetchGenfiles", EventType.Prefetching)
         .withProgressMessage("Prefetching genfiles...")
         .run();
   }
 
+  /**
+   * Prefetches build artifacts as they're reported by blaze, while the build is still running.
+   * Each file is only requested once.
+   */
+  private static class StreamingPrefetcher implements Consumer<ImmutableList<File>> {
+    private final Predicate<File> shouldPrefetch;
+    private final boolean refetchCachedFiles;
+    private final Set<File> requestedFiles = Sets.newConcurrentHashSet();
+    private final List<ListenableFuture<?>> futures =
+        Collections.synchronizedList(new ArrayList<>());
+
+    StreamingPrefetcher(Predicate<File> shouldPrefetch, boolean refetchCachedFiles) {
+      this.shouldPrefetch = shouldPrefetch;
+      this.refetchCachedFiles = refetchCachedFiles;
+    }
+
+    @Override
+    public void accept(ImmutableList<File> files) {
+      prefetch(files.stream().filter(shouldPrefetch).collect(Collectors.toList()));
+    }
+
+    /**
+     * Prefetches any of the given files which haven't already been requested, returning a future
+     * which completes once all prefetching (including that started during the build) is done.
+     */
+    ListenableFuture<?> prefetchRemaining(Collection<File> files) {
+      prefetch(files);
+      synchronized (futures) {
+        return Futures.allAsList(futures);
+      }
+    }
+
+    private void prefetch(Collection<File> files) {
+      List<File> toFetch =
+          files.stream().filter(requestedFiles::add).collect(Collectors.toList());
+      if (!toFetch.isEmpty()) {
+        futures.add(
+            PrefetchService.getInstance().prefetchFiles(toFetch, refetchCachedFiles, false));
+      }
+    }
+  }
+
   private static String getBinaryPath(Project project) {
     BuildSystemProvider buildSystemProvider = Blaze.getBuildSystemProvider(project);
     return buildSystemProvider.getSyncBinaryPath();
@@ -35,6 +35,7 @@ import com.google.idea.blaze.base.ideinfo.DartIdeInfo;
 import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.Dependency.DependencyType;
 import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
 import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
 import com.google.idea.blaze.base.ideinfo.JavaToolchainIdeInfo;
 import com.google.idea.blaze.base.ideinfo.JsIdeInfo;
@@ -74,7 +75,7 @@ public class IdeInfoFromProtobuf {
     Collection<Dependency> dependencies =
         message.getDepsList().stream().map(IdeInfoFromProtobuf::makeDependency).collect(toList());
 
-    Collection<String> tags = ImmutableList.copyOf(message.getTagsList());
+    Collection<String> tags = IdeInfoInterner.internStrings(message.getTagsList());
 
     Set<ArtifactLocation> sources = new HashSet<>();
     CIdeInfo cIdeInfo = null;
@@ -169,12 +170,16 @@ public class IdeInfoFromProtobuf {
   }
 
   private static TargetKey makeTargetKey(IntellijIdeInfo.TargetKey key) {
-    return TargetKey.forGeneralTarget(Label.create(key.getLabel()), key.getAspectIdsList());
+    return IdeInfoInterner.intern(
+        TargetKey.forGeneralTarget(
+            IdeInfoInterner.intern(Label.create(key.getLabel())),
+            IdeInfoInterner.internStrings(key.getAspectIdsList())));
   }
 
   private static Dependency makeDependency(IntellijIdeInfo.Dependency dep) {
-    return new Dependency(
-        makeTargetKey(dep.getTarget()), makeDependencyType(dep.getDependencyType()));
+    return IdeInfoInterner.intern(
+        new Dependency(
+            makeTargetKey(dep.getTarget()), makeDependencyType(dep.getDependencyType())));
   }
 
   private static Dependency.DependencyType makeDependencyType(
@@ -300,7 +305,7 @@ public class IdeInfoFromProtobuf {
             : null,
         androidIdeInfo.getHasIdlSources(),
         !Strings.isNullOrEmpty(androidIdeInfo.getLegacyResources())
-            ? Label.create(androidIdeInfo.getLegacyResources())
+            ? IdeInfoInterner.intern(Label.create(androidIdeInfo.getLegacyResources()))
             : null);
   }
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The target map produced by an incremental sync. Targets which weren't updated are read from the
+ * previous target map, so they're neither copied nor, if that map loads targets on demand,
+ * decoded.
+ */
+final class UpdatedTargetMap extends TargetMap {
+  private static final long serialVersionUID = 1L;
+
+  /** The target map of the last full load. Never itself an {@link UpdatedTargetMap}. */
+  private final TargetMap base;
+
+  private final ImmutableSet<TargetKey> keys;
+  private final ImmutableMap<TargetKey, TargetIdeInfo> updatedTargets;
+
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> allTargets =
+      new SoftReference<>(null);
+
+  private UpdatedTargetMap(
+      TargetMap base,
+      ImmutableSet<TargetKey> keys,
+      ImmutableMap<TargetKey, TargetIdeInfo> updatedTargets) {
+    this.base = base;
+    this.keys = keys;
+    this.updatedTargets = updatedTargets;
+  }
+
+  /**
+   * @param previous the target map of the previous sync
+   * @param keys the keys of all targets in the new map
+   * @param updatedTargets the targets which were added or modified since the previous sync
+   */
+  static TargetMap create(
+      TargetMap previous, Set<TargetKey> keys, Map<TargetKey, TargetIdeInfo> updatedTargets) {
+    if (!(previous instanceof UpdatedTargetMap)) {
+      return new UpdatedTargetMap(
+          previous, ImmutableSet.copyOf(keys), ImmutableMap.copyOf(updatedTargets));
+    }
+    // layer on top of the same base map, rather than building up a chain of maps over many syncs
+    UpdatedTargetMap updated = (UpdatedTargetMap) previous;
+    Map<TargetKey, TargetIdeInfo> merged = new HashMap<>();
+    for (Map.Entry<TargetKey, TargetIdeInfo> entry : updated.updatedTargets.entrySet()) {
+      if (keys.contains(entry.getKey())) {
+        merged.put(entry.getKey(), entry.getValue());
+      }
+    }
+    merged.putAll(updatedTargets);
+    return new UpdatedTargetMap(
+        updated.base, ImmutableSet.copyOf(keys), ImmutableMap.copyOf(merged));
+  }
+
+  @Nullable
+  @Override
+  public TargetIdeInfo get(TargetKey key) {
+    if (!keys.contains(key)) {
+      return null;
+    }
+    TargetIdeInfo target = updatedTargets.get(key);
+    return target != null ? target : base.get(key);
+  }
+
+  @Override
+  public boolean contains(TargetKey key) {
+    return keys.contains(key);
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    return keys;
+  }
+
+  @Override
+  public Collection<Dependency> getDependencies(TargetKey key) {
+    if (!keys.contains(key)) {
+      return ImmutableList.of();
+    }
+    TargetIdeInfo target = updatedTargets.get(key);
+    return target != null ? target.dependencies : base.getDependencies(key);
+  }
+
+  @Override
+  public ImmutableCollection<TargetIdeInfo> targets() {
+    return map().values();
+  }
+
+  @Override
+  public ImmutableMap<TargetKey, TargetIdeInfo> map() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = allTargets.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+    for (TargetKey key : keys) {
+      builder.put(key, get(key));
+    }
+    map = builder.build();
+    allTargets = new SoftReference<>(map);
+    return map;
+  }
+
+  /** Java serialization writes a fully materialized map. */
+  private Object writeReplace() {
+    return new TargetMap(map());
+  }
+}
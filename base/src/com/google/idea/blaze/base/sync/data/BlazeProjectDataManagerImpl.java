@@ -20,10 +20,11 @@ import com.google.idea.blaze.base.async.executor.ProgressiveTaskWithProgressIndi
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
-import com.google.idea.blaze.base.util.SerializationUtil;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -35,6 +36,13 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static final Logger logger =
       Logger.getInstance(BlazeProjectDataManagerImpl.class.getName());
 
+  /**
+   * If true, the target map is memory-mapped from the project data file, and targets are decoded on
+   * demand. Not supported on Windows, where a mapped file can't be replaced when it's next saved.
+   */
+  private static final BoolExperiment lazyTargetMap =
+      new BoolExperiment("blaze.sync.lazy.target.map", false);
+
   private final Project project;
 
   @Nullable private volatile BlazeProjectData blazeProjectData;
@@ -79,7 +87,8 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
     classLoaders.add(getClass().getClassLoader());
     classLoaders.add(Thread.currentThread().getContextClassLoader());
 
-    blazeProjectData = (BlazeProjectData) SerializationUtil.loadFromDisk(file, classLoaders);
+    boolean lazy = lazyTargetMap.getValue() && !SystemInfo.isWindows;
+    blazeProjectData = BlazeProjectDataSerializer.loadFromDisk(file, classLoaders, lazy);
     return blazeProjectData;
   }
 
@@ -95,7 +104,7 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
               (ProgressIndicator indicator) -> {
                 try {
                   File file = getCacheFile(project, importSettings);
-                  SerializationUtil.saveToDisk(file, blazeProjectData);
+                  BlazeProjectDataSerializer.saveToDisk(file, blazeProjectData);
                 } catch (IOException e) {
                   logger.error(
                       "Could not save cache data file to disk. Please resync project. Error: "
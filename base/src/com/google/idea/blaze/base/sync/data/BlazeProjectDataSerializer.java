@@ -0,0 +1,458 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CountingOutputStream;
+import com.google.idea.blaze.base.command.info.BlazeInfo;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.BlazeVersionData;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.util.SerializationUtil;
+import com.google.idea.blaze.base.util.SerializationUtil.ClassLoaderObjectInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads and writes {@link BlazeProjectData} in a compact, versioned binary format.
+ *
+ * <p>The target map, reverse dependencies and sync state make up almost all of the project data, so
+ * these are written field-by-field with every string stored once in a trailing string table. Sync
+ * state entries are written by their {@link SyncStateCodec}, falling back to Java serialization for
+ * entries without one. The remaining (small) project data is still written via Java serialization.
+ *
+ * <p>Layout: header (magic, schema version, sync time), length-prefixed target records, reverse
+ * dependencies, Java-serialized remainder, length-prefixed sync state entries, string table, and
+ * finally the string table's file offset.
+ */
+public final class BlazeProjectDataSerializer {
+
+  private static final int MAGIC = 0x424c5a44; // "BLZD"
+
+  /**
+   * The current schema version. Increment this whenever the format changes, keeping a reader for
+   * the previous version in {@link #READERS}.
+   */
+  static final int SCHEMA_VERSION = 1;
+
+  /** Reads everything following the header of a file written with a particular schema version. */
+  @FunctionalInterface
+  private interface BodyReader {
+    /**
+     * @param mappedBody if non-null, the buffer {@code in} is reading from. Readers for older
+     *     schema versions may ignore it and decode all targets eagerly.
+     */
+    BlazeProjectData read(
+        CompactDataInput in, @Nullable ByteBuffer mappedBody, Iterable<ClassLoader> classLoaders)
+        throws IOException;
+  }
+
+  /**
+   * The reader for each supported schema version. When the format changes, the previous version's
+   * reader stays here and upgrades what it reads to the current model, so existing cache files
+   * survive the plugin update. Files with any other schema version are rejected, triggering a full
+   * sync.
+   */
+  private static final ImmutableMap<Integer, BodyReader> READERS =
+      ImmutableMap.of(SCHEMA_VERSION, BlazeProjectDataSerializer::read);
+
+  /** Stands in for the project's target map within Java-serialized state. */
+  private enum TargetMapPlaceholder {
+    INSTANCE
+  }
+
+  private BlazeProjectDataSerializer() {}
+
+  /**
+   * Writes project data to disk. The data is written to a temporary file which then replaces the
+   * existing file, so a previously loaded {@link LazyTargetMap} still mapping the old file remains
+   * valid.
+   */
+  public static void saveToDisk(File file, BlazeProjectData projectData) throws IOException {
+    SerializationUtil.ensureExists(file.getParentFile());
+    File tempFile = new File(file.getPath() + ".tmp");
+    write(tempFile, projectData);
+    Files.move(
+        tempFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void write(File file, BlazeProjectData projectData) throws IOException {
+    try (CountingOutputStream counting =
+        new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      CompactDataOutput.StringTable stringTable = new CompactDataOutput.StringTable();
+      CompactDataOutput out = new CompactDataOutput(counting, stringTable);
+      out.writeLong(((long) MAGIC << 32) | SCHEMA_VERSION);
+      out.writeLong(projectData.syncTime);
+
+      TargetIdeInfoCodec.Encoder encoder = new TargetIdeInfoCodec.Encoder(out, stringTable);
+      // for lazily loaded target maps, this holds the decoded targets until we're done
+      ImmutableMap<TargetKey, TargetIdeInfo> targets = projectData.targetMap.map();
+      out.writeVarInt(targets.size());
+      for (TargetIdeInfo target : targets.values()) {
+        encoder.write(target);
+      }
+
+      ReverseDependencyMap rdeps = projectData.reverseDependencies;
+      out.writeVarInt(rdeps.entryCount());
+      try {
+        rdeps.forEachEntry(
+            (key, values) -> {
+              try {
+                out.writeTargetKey(key);
+                out.writeVarInt(values.size());
+                for (TargetKey value : values) {
+                  out.writeTargetKey(value);
+                }
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      byte[] remainder =
+          javaSerialize(
+              new Object[] {
+                projectData.blazeInfo,
+                projectData.blazeVersionData,
+                projectData.workspacePathResolver,
+                projectData.artifactLocationDecoder,
+                projectData.workspaceLanguageSettings
+              },
+              targets);
+      out.writeVarInt(remainder.length);
+      out.writeBytes(remainder, remainder.length);
+
+      writeSyncState(out, stringTable, projectData.syncState, projectData.targetMap, targets);
+
+      out.flush();
+      long stringTableOffset = counting.getCount();
+      stringTable.writeTo(out);
+      out.writeLong(stringTableOffset);
+      out.flush();
+    }
+  }
+
+  /**
+   * Reads project data from disk. Returns null if the file doesn't exist. Cache files written with
+   * plain Java serialization by earlier plugin versions are still readable.
+   *
+   * @throws IOException if the file is corrupt or its schema version is unsupported.
+   */
+  @Nullable
+  public static BlazeProjectData loadFromDisk(File file, Iterable<ClassLoader> classLoaders)
+      throws IOException {
+    return loadFromDisk(file, classLoaders, /* lazyTargetMap */ false);
+  }
+
+  /**
+   * Reads project data from disk. Returns null if the file doesn't exist.
+   *
+   * @param lazyTargetMap if true, the file is memory-mapped and targets are decoded on demand
+   * @throws IOException if the file is corrupt or its schema version is unsupported.
+   */
+  @Nullable
+  public static BlazeProjectData loadFromDisk(
+      File file, Iterable<ClassLoader> classLoaders, boolean lazyTargetMap) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() < 8 + 8 + 8) {
+        throw new IOException("Project data file is truncated");
+      }
+      long header = raf.readLong();
+      if ((int) (header >>> 32) != MAGIC) {
+        raf.close();
+        return loadLegacy(file, classLoaders);
+      }
+      int version = (int) header;
+      BodyReader reader = READERS.get(version);
+      if (reader == null) {
+        throw new IOException("Unsupported project data schema version: " + version);
+      }
+      raf.seek(raf.length() - 8);
+      long stringTableOffset = raf.readLong();
+      if (stringTableOffset < 16 || stringTableOffset > raf.length() - 8) {
+        throw new IOException("Invalid string table offset: " + stringTableOffset);
+      }
+
+      FileChannel channel = raf.getChannel();
+      CompactDataInput.StringTable stringTable =
+          CompactDataInput.StringTable.readFrom(bufferedStream(channel, stringTableOffset));
+      if (lazyTargetMap && stringTableOffset <= Integer.MAX_VALUE) {
+        // the mapping remains valid after the channel is closed
+        ByteBuffer body =
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, stringTableOffset).asReadOnlyBuffer();
+        body.position(8);
+        return reader.read(new CompactDataInput(body, stringTable), body, classLoaders);
+      }
+      CompactDataInput in = new CompactDataInput(bufferedStream(channel, 8), stringTable);
+      return reader.read(in, null, classLoaders);
+    } catch (RuntimeException e) {
+      // e.g. malformed labels; handled by callers in the same way as any other corrupt file
+      throw new IOException(e);
+    }
+  }
+
+  private static InputStream bufferedStream(FileChannel channel, long position)
+      throws IOException {
+    channel.position(position);
+    return new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+  }
+
+  /**
+   * Reads a file written with the current {@link #SCHEMA_VERSION}.
+   *
+   * @param mappedBody if non-null, the buffer {@code in} is reading from. Targets will be decoded
+   *     lazily from this buffer.
+   */
+  private static BlazeProjectData read(
+      CompactDataInput in, @Nullable ByteBuffer mappedBody, Iterable<ClassLoader> classLoaders)
+      throws IOException {
+    long syncTime = in.readLong();
+    TargetMap targetMap = mappedBody != null ? indexTargets(in, mappedBody) : readTargets(in);
+
+    int rdepsKeyCount = in.readVarInt();
+    ReverseDependencyMap.Builder rdeps = ReverseDependencyMap.builder(targetMap);
+    for (int i = 0; i < rdepsKeyCount; i++) {
+      TargetKey key = in.readTargetKey();
+      int valueCount = in.readVarInt();
+      for (int j = 0; j < valueCount; j++) {
+        rdeps.put(key, in.readTargetKey());
+      }
+    }
+
+    byte[] remainderBytes = new byte[in.readVarInt()];
+    in.readFully(remainderBytes, remainderBytes.length);
+    Object remainder = javaDeserialize(remainderBytes, targetMap, classLoaders);
+    if (remainder == null) {
+      throw new IOException("Project data references classes which aren't available");
+    }
+    SyncState syncState = readSyncState(in, targetMap, classLoaders);
+    try {
+      Object[] fields = (Object[]) remainder;
+      return new BlazeProjectData(
+          syncTime,
+          targetMap,
+          (BlazeInfo) fields[0],
+          (BlazeVersionData) fields[1],
+          (WorkspacePathResolver) fields[2],
+          (ArtifactLocationDecoder) fields[3],
+          (WorkspaceLanguageSettings) fields[4],
+          syncState,
+          rdeps.build());
+    } catch (ClassCastException | ArrayIndexOutOfBoundsException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static TargetMap readTargets(CompactDataInput in) throws IOException {
+    int targetCount = in.readVarInt();
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> targets = ImmutableMap.builder();
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo target = TargetIdeInfoCodec.read(in);
+      targets.put(target.key, target);
+    }
+    return new TargetMap(targets.build());
+  }
+
+  /** Reads only the key of each target record, recording its position for later decoding. */
+  private static TargetMap indexTargets(CompactDataInput in, ByteBuffer mappedBody)
+      throws IOException {
+    int targetCount = in.readVarInt();
+    ImmutableMap.Builder<TargetKey, Integer> offsets = ImmutableMap.builder();
+    ImmutableMap.Builder<TargetKey, ImmutableList<Dependency>> dependencies =
+        ImmutableMap.builder();
+    for (int i = 0; i < targetCount; i++) {
+      int length = in.readVarInt();
+      int offset = mappedBody.position();
+      TargetKey key = in.readTargetKey();
+      offsets.put(key, offset);
+      // dependencies are kept resident, so the dependency graph can be walked without decoding
+      ImmutableList<Dependency> deps = TargetIdeInfoCodec.readRecordDependencies(in);
+      if (!deps.isEmpty()) {
+        dependencies.put(key, deps);
+      }
+      mappedBody.position(offset + length);
+    }
+    return new LazyTargetMap(
+        mappedBody.duplicate(), offsets.build(), dependencies.build(), in.getStringTable());
+  }
+
+  /**
+   * Writes each sync state entry as a length-prefixed record, so entries can be skipped if their
+   * codec is no longer available when the file is read.
+   */
+  private static void writeSyncState(
+      CompactDataOutput out,
+      CompactDataOutput.StringTable stringTable,
+      SyncState syncState,
+      TargetMap targetMap,
+      ImmutableMap<TargetKey, TargetIdeInfo> targets)
+      throws IOException {
+    Map<String, SyncStateCodec<?>> codecs = codecsByStateClassName();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    CompactDataOutput entryOut = new CompactDataOutput(buffer, stringTable);
+    entryOut.setProjectTargetMap(targetMap);
+    ImmutableMap<String, Serializable> entries = syncState.entries();
+    out.writeVarInt(entries.size());
+    for (Map.Entry<String, Serializable> entry : entries.entrySet()) {
+      SyncStateCodec<?> codec = codecs.get(entry.getKey());
+      if (codec != null) {
+        writeEntry(codec, entry.getValue(), entryOut);
+        entryOut.flush();
+      } else {
+        buffer.write(javaSerialize(entry.getValue(), targets));
+      }
+      out.writeString(entry.getKey());
+      out.writeBoolean(codec != null);
+      out.writeVarInt(buffer.size());
+      out.writeBytes(buffer.toByteArray(), buffer.size());
+      buffer.reset();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Serializable> void writeEntry(
+      SyncStateCodec<T> codec, Serializable state, CompactDataOutput out) throws IOException {
+    codec.write((T) state, out);
+  }
+
+  private static SyncState readSyncState(
+      CompactDataInput in, TargetMap targetMap, Iterable<ClassLoader> classLoaders)
+      throws IOException {
+    Map<String, SyncStateCodec<?>> codecs = codecsByStateClassName();
+    int entryCount = in.readVarInt();
+    Map<String, Serializable> entries = new LinkedHashMap<>();
+    for (int i = 0; i < entryCount; i++) {
+      String name = in.readNonNullString();
+      boolean hasCodec = in.readBoolean();
+      byte[] bytes = new byte[in.readVarInt()];
+      in.readFully(bytes, bytes.length);
+      Object state;
+      if (hasCodec) {
+        SyncStateCodec<?> codec = codecs.get(name);
+        if (codec == null) {
+          continue; // e.g. the plugin which wrote this entry was uninstalled
+        }
+        CompactDataInput entryIn =
+            new CompactDataInput(ByteBuffer.wrap(bytes), in.getStringTable());
+        entryIn.setProjectTargetMap(targetMap);
+        state = codec.read(entryIn);
+      } else {
+        state = javaDeserialize(bytes, targetMap, classLoaders);
+      }
+      if (state instanceof Serializable) {
+        entries.put(name, (Serializable) state);
+      }
+    }
+    return SyncState.fromEntries(entries);
+  }
+
+  private static Map<String, SyncStateCodec<?>> codecsByStateClassName() {
+    Map<String, SyncStateCodec<?>> codecs = new HashMap<>();
+    for (SyncStateCodec<?> codec : SyncStateCodec.EP_NAME.getExtensions()) {
+      codecs.put(codec.stateClass().getName(), codec);
+    }
+    return codecs;
+  }
+
+  private static byte[] javaSerialize(
+      Object object, ImmutableMap<TargetKey, TargetIdeInfo> targets) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos =
+        new ObjectOutputStream(bytes) {
+          {
+            enableReplaceObject(true);
+          }
+
+          @Override
+          protected Object replaceObject(Object obj) {
+            // sync state references the same target map; don't write it a second time. Compare the
+            // underlying maps, as lazy target maps replace themselves when serialized.
+            return obj instanceof TargetMap && ((TargetMap) obj).map() == targets
+                ? TargetMapPlaceholder.INSTANCE
+                : obj;
+          }
+        }) {
+      oos.writeObject(object);
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Returns null if the serialized object references a class which is no longer available. */
+  @Nullable
+  private static Object javaDeserialize(
+      byte[] bytes, TargetMap targetMap, Iterable<ClassLoader> classLoaders) throws IOException {
+    try (ClassLoaderObjectInputStream ois =
+        new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), classLoaders) {
+          {
+            enableResolveObject(true);
+          }
+
+          @Override
+          protected Object resolveObject(Object obj) {
+            return obj == TargetMapPlaceholder.INSTANCE ? targetMap : obj;
+          }
+        }) {
+      return ois.readObject();
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static BlazeProjectData loadLegacy(File file, Iterable<ClassLoader> classLoaders)
+      throws IOException {
+    try {
+      return (BlazeProjectData) SerializationUtil.loadFromDisk(file, classLoaders);
+    } catch (ClassCastException e) {
+      throw new IOException(e);
+    }
+  }
+}
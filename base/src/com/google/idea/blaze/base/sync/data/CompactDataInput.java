@@ -0,0 +1,402 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+
+/**
+ * Reads primitives written by {@link CompactDataOutput}.
+ *
+ * <p>Decoded strings, labels and plain target keys are shared between all occurrences of the same
+ * string table entry. Labels, target keys and artifact locations are also passed through {@link
+ * IdeInfoInterner}, so they're shared with values created elsewhere (e.g. during the next sync).
+ */
+public final class CompactDataInput {
+
+  /** The decoded string table, shared by every stream reading from the same file. */
+  static final class StringTable {
+    private final String[] strings;
+    private final Label[] labels;
+    private final TargetKey[] plainTargetKeys;
+
+    private StringTable(String[] strings) {
+      this.strings = strings;
+      this.labels = new Label[strings.length];
+      this.plainTargetKeys = new TargetKey[strings.length];
+    }
+
+    static StringTable readFrom(InputStream stream) throws IOException {
+      CompactDataInput in = new CompactDataInput(stream, new StringTable(new String[1]));
+      int size = in.readVarInt();
+      String[] strings = new String[size + 1];
+      byte[] buffer = new byte[256];
+      for (int i = 1; i <= size; i++) {
+        int length = in.readVarInt();
+        if (length > buffer.length) {
+          buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        in.in.readFully(buffer, 0, length);
+        strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+      }
+      return new StringTable(strings);
+    }
+
+    int size() {
+      return strings.length - 1;
+    }
+  }
+
+  private final DataInputStream in;
+  private final StringTable stringTable;
+  @Nullable private TargetMap projectTargetMap;
+
+  CompactDataInput(InputStream in, StringTable stringTable) {
+    this.in = new DataInputStream(in);
+    this.stringTable = stringTable;
+  }
+
+  /** Reads from the given buffer, advancing its position. */
+  CompactDataInput(ByteBuffer buffer, StringTable stringTable) {
+    this(new ByteBufferInputStream(buffer), stringTable);
+  }
+
+  StringTable getStringTable() {
+    return stringTable;
+  }
+
+  /** Sets the target map {@link #readTargetMap} returns for references to the project's targets. */
+  void setProjectTargetMap(@Nullable TargetMap projectTargetMap) {
+    this.projectTargetMap = projectTargetMap;
+  }
+
+  public int readByte() throws IOException {
+    return in.readUnsignedByte();
+  }
+
+  public boolean readBoolean() throws IOException {
+    return in.readBoolean();
+  }
+
+  public long readLong() throws IOException {
+    return in.readLong();
+  }
+
+  public void readFully(byte[] bytes, int length) throws IOException {
+    in.readFully(bytes, 0, length);
+  }
+
+  public void skipFully(int length) throws IOException {
+    int skipped = 0;
+    while (skipped < length) {
+      int n = in.skipBytes(length - skipped);
+      if (n <= 0) {
+        throw new IOException("Unexpected end of project data");
+      }
+      skipped += n;
+    }
+  }
+
+  public int readVarInt() throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      result |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint in project data");
+  }
+
+  @Nullable
+  public String readString() throws IOException {
+    int index = readVarInt();
+    if (index >= stringTable.strings.length) {
+      throw new IOException("Invalid string table index: " + index);
+    }
+    return stringTable.strings[index];
+  }
+
+  /** Reads a string, throwing an exception if it's null. */
+  public String readNonNullString() throws IOException {
+    String string = readString();
+    if (string == null) {
+      throw new IOException("Unexpected null string in project data");
+    }
+    return string;
+  }
+
+  public ImmutableList<String> readStrings() throws IOException {
+    int size = readVarInt();
+    if (size == 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> strings = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      strings.add(readNonNullString());
+    }
+    return strings.build();
+  }
+
+  @Nullable
+  public Label readLabel() throws IOException {
+    int index = readVarInt();
+    if (index == 0) {
+      return null;
+    }
+    if (index >= stringTable.strings.length) {
+      throw new IOException("Invalid string table index: " + index);
+    }
+    return labelAt(index);
+  }
+
+  public TargetKey readTargetKey() throws IOException {
+    int index = readVarInt();
+    if (index == 0 || index >= stringTable.strings.length) {
+      throw new IOException("Invalid target key label index: " + index);
+    }
+    ImmutableList<String> aspectIds = readStrings();
+    if (!aspectIds.isEmpty()) {
+      return IdeInfoInterner.intern(TargetKey.forGeneralTarget(labelAt(index), aspectIds));
+    }
+    TargetKey key = stringTable.plainTargetKeys[index];
+    if (key == null) {
+      key = IdeInfoInterner.intern(TargetKey.forPlainTarget(labelAt(index)));
+      stringTable.plainTargetKeys[index] = key;
+    }
+    return key;
+  }
+
+  private Label labelAt(int index) {
+    Label label = stringTable.labels[index];
+    if (label == null) {
+      label = IdeInfoInterner.intern(Label.create(stringTable.strings[index]));
+      stringTable.labels[index] = label;
+    }
+    return label;
+  }
+
+  @Nullable
+  public ArtifactLocation readArtifactLocation() throws IOException {
+    int flags = readByte();
+    if (flags == 0) {
+      return null;
+    }
+    String root = readNonNullString();
+    String directory = readNonNullString();
+    String name = readNonNullString();
+    return IdeInfoInterner.intern(
+        ArtifactLocation.builder()
+            .setRootExecutionPathFragment(root)
+            .setRelativePath(directory.isEmpty() ? name : directory + "/" + name)
+            .setIsSource((flags & 2) != 0)
+            .setIsExternal((flags & 4) != 0)
+            .build());
+  }
+
+  public ImmutableList<ArtifactLocation> readArtifactLocations() throws IOException {
+    int size = readVarInt();
+    if (size == 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<ArtifactLocation> locations = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      ArtifactLocation location = readArtifactLocation();
+      if (location == null) {
+        throw new IOException("Unexpected null artifact location in project data");
+      }
+      locations.add(location);
+    }
+    return locations.build();
+  }
+
+  @Nullable
+  public ExecutionRootPath readExecutionRootPath() throws IOException {
+    String path = readString();
+    return path != null ? new ExecutionRootPath(path) : null;
+  }
+
+  public ImmutableList<ExecutionRootPath> readExecutionRootPaths() throws IOException {
+    int size = readVarInt();
+    if (size == 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<ExecutionRootPath> paths = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      ExecutionRootPath path = readExecutionRootPath();
+      if (path == null) {
+        throw new IOException("Unexpected null execution root path in project data");
+      }
+      paths.add(path);
+    }
+    return paths.build();
+  }
+
+  public ImmutableList<TargetKey> readTargetKeys() throws IOException {
+    int size = readVarInt();
+    if (size == 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> keys = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      keys.add(readTargetKey());
+    }
+    return keys.build();
+  }
+
+  @Nullable
+  public File readFile() throws IOException {
+    String parent = readString();
+    if (parent == null) {
+      return null;
+    }
+    String name = readNonNullString();
+    return parent.isEmpty() ? new File(name) : new File(parent, name);
+  }
+
+  /** Reads a file, throwing an exception if it's null. */
+  public File readNonNullFile() throws IOException {
+    File file = readFile();
+    if (file == null) {
+      throw new IOException("Unexpected null file in project data");
+    }
+    return file;
+  }
+
+  /** Reads a map written by {@link CompactDataOutput#writeFileState}. */
+  public ImmutableMap<File, Long> readFileState() throws IOException {
+    int size = readVarInt();
+    ImmutableMap.Builder<File, Long> fileState = ImmutableMap.builder();
+    for (int i = 0; i < size; i++) {
+      fileState.put(readNonNullFile(), readLong());
+    }
+    return fileState.build();
+  }
+
+  /**
+   * Reads a nullable enum value written by {@link CompactDataOutput#writeEnum}.
+   *
+   * @throws IOException if the value is no longer a constant of the given enum
+   */
+  @Nullable
+  public <E extends Enum<E>> E readEnum(Class<E> enumClass) throws IOException {
+    String name = readString();
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(enumClass, name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unrecognized " + enumClass.getSimpleName() + ": " + name, e);
+    }
+  }
+
+  @Nullable
+  public LibraryArtifact readLibraryArtifact() throws IOException {
+    if (!readBoolean()) {
+      return null;
+    }
+    return new LibraryArtifact(
+        readArtifactLocation(), readArtifactLocation(), readArtifactLocations());
+  }
+
+  public ImmutableList<LibraryArtifact> readLibraryArtifacts() throws IOException {
+    int size = readVarInt();
+    if (size == 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<LibraryArtifact> artifacts = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      LibraryArtifact artifact = readLibraryArtifact();
+      if (artifact == null) {
+        throw new IOException("Unexpected null library artifact in project data");
+      }
+      artifacts.add(artifact);
+    }
+    return artifacts.build();
+  }
+
+  /** Reads a target map written by {@link CompactDataOutput#writeTargetMap}. */
+  public TargetMap readTargetMap() throws IOException {
+    if (readBoolean()) {
+      if (projectTargetMap == null) {
+        throw new IOException("Unexpected project target map reference");
+      }
+      return projectTargetMap;
+    }
+    int size = readVarInt();
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> targets = ImmutableMap.builder();
+    for (int i = 0; i < size; i++) {
+      TargetIdeInfo target = TargetIdeInfoCodec.read(this);
+      targets.put(target.key, target);
+    }
+    return new TargetMap(targets.build());
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
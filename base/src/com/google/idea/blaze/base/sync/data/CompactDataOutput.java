@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.idea.blaze.base.filecache.FileDiffer;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Writes primitives in the compact project data format.
+ *
+ * <p>Integers are varint-encoded, and all strings are written as indices into a {@link
+ * StringTable} shared by every stream writing to the same file.
+ */
+public final class CompactDataOutput {
+
+  /** Assigns a stable index to each distinct string. Index 0 is reserved for null. */
+  static final class StringTable {
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    int indexOf(@Nullable String string) {
+      if (string == null) {
+        return 0;
+      }
+      Integer index = indices.get(string);
+      if (index == null) {
+        strings.add(string);
+        index = strings.size();
+        indices.put(string, index);
+      }
+      return index;
+    }
+
+    int size() {
+      return strings.size();
+    }
+
+    /** Writes the string table, in index order. */
+    void writeTo(CompactDataOutput out) throws IOException {
+      out.writeVarInt(strings.size());
+      for (String string : strings) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeVarInt(bytes.length);
+        out.out.write(bytes);
+      }
+    }
+  }
+
+  private final DataOutputStream out;
+  private final StringTable stringTable;
+  @Nullable private TargetMap projectTargetMap;
+
+  CompactDataOutput(OutputStream out, StringTable stringTable) {
+    this.out = new DataOutputStream(out);
+    this.stringTable = stringTable;
+  }
+
+  /** Sets the target map {@link #writeTargetMap} writes as a reference rather than inline. */
+  void setProjectTargetMap(@Nullable TargetMap projectTargetMap) {
+    this.projectTargetMap = projectTargetMap;
+  }
+
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  public void writeByte(int value) throws IOException {
+    out.writeByte(value);
+  }
+
+  public void writeBoolean(boolean value) throws IOException {
+    out.writeBoolean(value);
+  }
+
+  public void writeLong(long value) throws IOException {
+    out.writeLong(value);
+  }
+
+  public void writeBytes(byte[] bytes, int length) throws IOException {
+    out.write(bytes, 0, length);
+  }
+
+  /** Writes a non-negative int in 1-5 bytes. */
+  public void writeVarInt(int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  public void writeString(@Nullable String string) throws IOException {
+    writeVarInt(stringTable.indexOf(string));
+  }
+
+  public void writeStrings(Collection<String> strings) throws IOException {
+    writeVarInt(strings.size());
+    for (String string : strings) {
+      writeString(string);
+    }
+  }
+
+  public void writeLabel(@Nullable Label label) throws IOException {
+    writeString(label != null ? label.toString() : null);
+  }
+
+  public void writeTargetKey(TargetKey key) throws IOException {
+    writeLabel(key.label);
+    writeStrings(key.getAspectIds());
+  }
+
+  /**
+   * Writes a nullable artifact location. The relative path is split into its parent directory and
+   * file name, so that artifacts in the same package share string table entries.
+   */
+  public void writeArtifactLocation(@Nullable ArtifactLocation location) throws IOException {
+    if (location == null) {
+      writeByte(0);
+      return;
+    }
+    int flags = 1 | (location.isSource ? 2 : 0) | (location.isExternal ? 4 : 0);
+    writeByte(flags);
+    writeString(location.getRootExecutionPathFragment());
+    String relativePath = location.getRelativePath();
+    int separator = relativePath.lastIndexOf('/');
+    writeString(separator < 0 ? "" : relativePath.substring(0, separator));
+    writeString(separator < 0 ? relativePath : relativePath.substring(separator + 1));
+  }
+
+  public void writeArtifactLocations(Collection<ArtifactLocation> locations) throws IOException {
+    writeVarInt(locations.size());
+    for (ArtifactLocation location : locations) {
+      writeArtifactLocation(location);
+    }
+  }
+
+  public void writeExecutionRootPath(@Nullable ExecutionRootPath path) throws IOException {
+    writeString(path != null ? path.getAbsoluteOrRelativeFile().getPath() : null);
+  }
+
+  public void writeExecutionRootPaths(Collection<ExecutionRootPath> paths) throws IOException {
+    writeVarInt(paths.size());
+    for (ExecutionRootPath path : paths) {
+      writeExecutionRootPath(path);
+    }
+  }
+
+  public void writeTargetKeys(Collection<TargetKey> keys) throws IOException {
+    writeVarInt(keys.size());
+    for (TargetKey key : keys) {
+      writeTargetKey(key);
+    }
+  }
+
+  /**
+   * Writes a nullable file. Like artifact locations, the parent directory and file name are written
+   * separately, so files in the same directory share string table entries.
+   */
+  public void writeFile(@Nullable File file) throws IOException {
+    if (file == null) {
+      writeString(null);
+      return;
+    }
+    String parent = file.getParent();
+    writeString(parent != null ? parent : "");
+    writeString(parent != null ? file.getName() : file.getPath());
+  }
+
+  /** Writes a map of files to e.g. their modified times, as maintained by {@link FileDiffer}. */
+  public void writeFileState(Map<File, Long> fileState) throws IOException {
+    writeVarInt(fileState.size());
+    for (Map.Entry<File, Long> entry : fileState.entrySet()) {
+      writeFile(entry.getKey());
+      writeLong(entry.getValue());
+    }
+  }
+
+  public void writeEnum(@Nullable Enum<?> value) throws IOException {
+    writeString(value != null ? value.name() : null);
+  }
+
+  public void writeLibraryArtifact(@Nullable LibraryArtifact artifact) throws IOException {
+    writeBoolean(artifact != null);
+    if (artifact != null) {
+      writeArtifactLocation(artifact.interfaceJar);
+      writeArtifactLocation(artifact.classJar);
+      writeArtifactLocations(artifact.sourceJars);
+    }
+  }
+
+  public void writeLibraryArtifacts(Collection<LibraryArtifact> artifacts) throws IOException {
+    writeVarInt(artifacts.size());
+    for (LibraryArtifact artifact : artifacts) {
+      writeLibraryArtifact(artifact);
+    }
+  }
+
+  /**
+   * Writes a target map. The project's own target map is written as a reference to the targets
+   * earlier in the file; any other target map is written in full.
+   */
+  public void writeTargetMap(TargetMap targetMap) throws IOException {
+    writeBoolean(targetMap == projectTargetMap);
+    if (targetMap == projectTargetMap) {
+      return;
+    }
+    Collection<TargetIdeInfo> targets = targetMap.targets();
+    writeVarInt(targets.size());
+    TargetIdeInfoCodec.Encoder encoder = new TargetIdeInfoCodec.Encoder(this, stringTable);
+    for (TargetIdeInfo target : targets) {
+      encoder.write(target);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TargetMap} backed by the memory-mapped project data file.
+ *
+ * <p>Only the target keys, the offsets of their records and their dependencies are kept on-heap,
+ * so {@link #keys} and {@link #getDependencies} never decode a target. Each {@link TargetIdeInfo}
+ * is decoded the first time it's requested, and is only softly reachable from this map. Calling
+ * {@link #targets} or {@link #map} decodes every target; the resulting map is likewise softly
+ * referenced, so it can be reclaimed (and later decoded again) under memory pressure.
+ */
+final class LazyTargetMap extends TargetMap {
+  private static final long serialVersionUID = 1L;
+
+  private final ByteBuffer records;
+  private final ImmutableMap<TargetKey, Integer> offsets;
+  private final ImmutableMap<TargetKey, ImmutableList<Dependency>> dependencies;
+  private final CompactDataInput.StringTable stringTable;
+
+  private final Cache<TargetKey, TargetIdeInfo> decodedTargets =
+      CacheBuilder.newBuilder().softValues().build();
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> allTargets =
+      new SoftReference<>(null);
+
+  /**
+   * @param records a read-only buffer containing the target records. Its position is ignored.
+   * @param offsets the position in {@code records} of each target's record
+   * @param dependencies the dependencies of each target with at least one dependency
+   */
+  LazyTargetMap(
+      ByteBuffer records,
+      ImmutableMap<TargetKey, Integer> offsets,
+      ImmutableMap<TargetKey, ImmutableList<Dependency>> dependencies,
+      CompactDataInput.StringTable stringTable) {
+    this.records = records;
+    this.offsets = offsets;
+    this.dependencies = dependencies;
+    this.stringTable = stringTable;
+  }
+
+  @Nullable
+  @Override
+  public TargetIdeInfo get(TargetKey key) {
+    Integer offset = offsets.get(key);
+    if (offset == null) {
+      return null;
+    }
+    try {
+      return decodedTargets.get(key, () -> decode(offset));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // the file was already validated when it was indexed, so this is unexpected
+      throw new IllegalStateException("Failed to decode target " + key, e.getCause());
+    }
+  }
+
+  @Override
+  public boolean contains(TargetKey key) {
+    return offsets.containsKey(key);
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    return offsets.keySet();
+  }
+
+  @Override
+  public Collection<Dependency> getDependencies(TargetKey key) {
+    return dependencies.getOrDefault(key, ImmutableList.of());
+  }
+
+  @Override
+  public ImmutableCollection<TargetIdeInfo> targets() {
+    return map().values();
+  }
+
+  @Override
+  public ImmutableMap<TargetKey, TargetIdeInfo> map() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = allTargets.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+    for (Map.Entry<TargetKey, Integer> entry : offsets.entrySet()) {
+      builder.put(entry.getKey(), get(entry.getKey()));
+    }
+    map = builder.build();
+    allTargets = new SoftReference<>(map);
+    return map;
+  }
+
+  private TargetIdeInfo decode(int offset) throws IOException {
+    ByteBuffer buffer = records.duplicate();
+    buffer.position(offset);
+    return TargetIdeInfoCodec.readRecord(new CompactDataInput(buffer, stringTable));
+  }
+
+  /** Java serialization writes a fully materialized map. */
+  private Object writeReplace() {
+    return new TargetMap(map());
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.idea.blaze.base.model.SyncState;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes one kind of {@link SyncState} entry in the compact project data format.
+ *
+ * <p>Sync state entries without a codec are written with Java serialization. Entries written by a
+ * codec which is no longer available are dropped when the project data is loaded.
+ *
+ * <p>An entry's encoding is persisted; changing it requires bumping {@link
+ * BlazeProjectDataSerializer#SCHEMA_VERSION}.
+ */
+public interface SyncStateCodec<T extends Serializable> {
+  ExtensionPointName<SyncStateCodec> EP_NAME =
+      ExtensionPointName.create("com.google.idea.blaze.SyncStateCodec");
+
+  /** The class the entry is stored under, as passed to {@link SyncState.Builder#put}. */
+  Class<T> stateClass();
+
+  void write(T state, CompactDataOutput out) throws IOException;
+
+  T read(CompactDataInput in) throws IOException;
+}
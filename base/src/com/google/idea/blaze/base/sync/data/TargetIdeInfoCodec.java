@@ -0,0 +1,454 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.dependencies.TestSize;
+import com.google.idea.blaze.base.ideinfo.AndroidAarIdeInfo;
+import com.google.idea.blaze.base.ideinfo.AndroidIdeInfo;
+import com.google.idea.blaze.base.ideinfo.AndroidSdkIdeInfo;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.CIdeInfo;
+import com.google.idea.blaze.base.ideinfo.CToolchainIdeInfo;
+import com.google.idea.blaze.base.ideinfo.DartIdeInfo;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.Dependency.DependencyType;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.IdeInfoInterner;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.JavaToolchainIdeInfo;
+import com.google.idea.blaze.base.ideinfo.JsIdeInfo;
+import com.google.idea.blaze.base.ideinfo.KotlinToolchainIdeInfo;
+import com.google.idea.blaze.base.ideinfo.PyIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TestIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TsIdeInfo;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Encodes {@link TargetIdeInfo} in the compact project data format.
+ *
+ * <p>Each target is written as a length-prefixed record holding its key, kind, build file,
+ * dependencies, tags and sources, followed by one length-prefixed section per language-specific
+ * payload. Records and sections can be skipped without decoding them.
+ *
+ * <p>To change the encoding of a section, bump {@link BlazeProjectDataSerializer#SCHEMA_VERSION}.
+ * Files written with a different schema version are rejected, so the decoder only ever needs to
+ * handle the current encoding.
+ */
+final class TargetIdeInfoCodec {
+
+  // Section ids. These are persisted; never reuse or renumber them.
+  private static final int C_SECTION = 1;
+  private static final int C_TOOLCHAIN_SECTION = 2;
+  private static final int JAVA_SECTION = 3;
+  private static final int ANDROID_SECTION = 4;
+  private static final int ANDROID_SDK_SECTION = 5;
+  private static final int ANDROID_AAR_SECTION = 6;
+  private static final int PY_SECTION = 7;
+  private static final int GO_SECTION = 8;
+  private static final int JS_SECTION = 9;
+  private static final int TS_SECTION = 10;
+  private static final int DART_SECTION = 11;
+  private static final int TEST_SECTION = 12;
+  private static final int JAVA_TOOLCHAIN_SECTION = 13;
+  private static final int KOTLIN_TOOLCHAIN_SECTION = 14;
+
+  private TargetIdeInfoCodec() {}
+
+  /** Writes length-prefixed target records, reusing scratch buffers between targets. */
+  static final class Encoder {
+    private final CompactDataOutput out;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(4096);
+    private final CompactDataOutput record;
+    private final ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream(1024);
+    private final CompactDataOutput section;
+    private int sectionCount;
+    private final ByteArrayOutputStream sectionsBuffer = new ByteArrayOutputStream(4096);
+    private final CompactDataOutput sections;
+
+    Encoder(CompactDataOutput out, CompactDataOutput.StringTable stringTable) {
+      this.out = out;
+      this.record = new CompactDataOutput(recordBuffer, stringTable);
+      this.section = new CompactDataOutput(sectionBuffer, stringTable);
+      this.sections = new CompactDataOutput(sectionsBuffer, stringTable);
+    }
+
+    void write(TargetIdeInfo target) throws IOException {
+      record.writeTargetKey(target.key);
+      record.writeString(target.kind.toString());
+      record.writeArtifactLocation(target.buildFile);
+      record.writeVarInt(target.dependencies.size());
+      for (Dependency dep : target.dependencies) {
+        record.writeTargetKey(dep.targetKey);
+        record.writeByte(dep.dependencyType.ordinal());
+      }
+      record.writeStrings(target.tags);
+      record.writeArtifactLocations(target.sources);
+
+      sectionCount = 0;
+      sectionsBuffer.reset();
+      if (target.cIdeInfo != null) {
+        writeC(section, target.cIdeInfo);
+        endSection(C_SECTION);
+      }
+      if (target.cToolchainIdeInfo != null) {
+        writeCToolchain(section, target.cToolchainIdeInfo);
+        endSection(C_TOOLCHAIN_SECTION);
+      }
+      if (target.javaIdeInfo != null) {
+        writeJava(section, target.javaIdeInfo);
+        endSection(JAVA_SECTION);
+      }
+      if (target.androidIdeInfo != null) {
+        writeAndroid(section, target.androidIdeInfo);
+        endSection(ANDROID_SECTION);
+      }
+      if (target.androidSdkIdeInfo != null) {
+        section.writeArtifactLocation(target.androidSdkIdeInfo.androidJar);
+        endSection(ANDROID_SDK_SECTION);
+      }
+      if (target.androidAarIdeInfo != null) {
+        section.writeArtifactLocation(target.androidAarIdeInfo.aar);
+        endSection(ANDROID_AAR_SECTION);
+      }
+      if (target.pyIdeInfo != null) {
+        section.writeArtifactLocations(target.pyIdeInfo.sources);
+        endSection(PY_SECTION);
+      }
+      if (target.goIdeInfo != null) {
+        section.writeArtifactLocations(target.goIdeInfo.sources);
+        section.writeString(target.goIdeInfo.importPath);
+        endSection(GO_SECTION);
+      }
+      if (target.jsIdeInfo != null) {
+        section.writeArtifactLocations(target.jsIdeInfo.sources);
+        endSection(JS_SECTION);
+      }
+      if (target.tsIdeInfo != null) {
+        section.writeArtifactLocations(target.tsIdeInfo.sources);
+        endSection(TS_SECTION);
+      }
+      if (target.dartIdeInfo != null) {
+        section.writeArtifactLocations(target.dartIdeInfo.sources);
+        endSection(DART_SECTION);
+      }
+      if (target.testIdeInfo != null) {
+        section.writeString(target.testIdeInfo.testSize.name());
+        endSection(TEST_SECTION);
+      }
+      if (target.javaToolchainIdeInfo != null) {
+        JavaToolchainIdeInfo toolchain = target.javaToolchainIdeInfo;
+        section.writeString(toolchain.sourceVersion);
+        section.writeString(toolchain.targetVersion);
+        section.writeArtifactLocation(toolchain.javacJar);
+        endSection(JAVA_TOOLCHAIN_SECTION);
+      }
+      if (target.kotlinToolchainIdeInfo != null) {
+        KotlinToolchainIdeInfo toolchain = target.kotlinToolchainIdeInfo;
+        section.writeString(toolchain.languageVersion);
+        section.writeVarInt(toolchain.sdkTargets.size());
+        for (Label label : toolchain.sdkTargets) {
+          section.writeLabel(label);
+        }
+        endSection(KOTLIN_TOOLCHAIN_SECTION);
+      }
+      sections.flush();
+      record.writeVarInt(sectionCount);
+      record.writeBytes(sectionsBuffer.toByteArray(), sectionsBuffer.size());
+      record.flush();
+      out.writeVarInt(recordBuffer.size());
+      out.writeBytes(recordBuffer.toByteArray(), recordBuffer.size());
+      recordBuffer.reset();
+    }
+
+    private void endSection(int sectionId) throws IOException {
+      section.flush();
+      sections.writeVarInt(sectionId);
+      sections.writeVarInt(sectionBuffer.size());
+      sections.writeBytes(sectionBuffer.toByteArray(), sectionBuffer.size());
+      sectionBuffer.reset();
+      sectionCount++;
+    }
+  }
+
+  /** Reads a target record, including its length prefix. */
+  static TargetIdeInfo read(CompactDataInput in) throws IOException {
+    in.readVarInt(); // record length, only needed for random access
+    return readRecord(in);
+  }
+
+  /**
+   * Reads only the dependencies of a target record, given an input positioned just after the
+   * record's target key. The rest of the record is left undecoded.
+   */
+  static ImmutableList<Dependency> readRecordDependencies(CompactDataInput in) throws IOException {
+    in.readNonNullString(); // kind
+    in.readArtifactLocation(); // build file
+    return readDependencies(in);
+  }
+
+  private static ImmutableList<Dependency> readDependencies(CompactDataInput in)
+      throws IOException {
+    int depCount = in.readVarInt();
+    ImmutableList.Builder<Dependency> dependencies = ImmutableList.builder();
+    DependencyType[] dependencyTypes = DependencyType.values();
+    for (int i = 0; i < depCount; i++) {
+      TargetKey depKey = in.readTargetKey();
+      int type = in.readByte();
+      if (type >= dependencyTypes.length) {
+        throw new IOException("Unrecognized dependency type: " + type);
+      }
+      dependencies.add(IdeInfoInterner.intern(new Dependency(depKey, dependencyTypes[type])));
+    }
+    return dependencies.build();
+  }
+
+  /**
+   * Reads the body of a target record. Records start with the target key, so {@link
+   * CompactDataInput#readTargetKey} can be used to index records without decoding them.
+   */
+  static TargetIdeInfo readRecord(CompactDataInput in) throws IOException {
+    TargetKey key = in.readTargetKey();
+    String kindString = in.readNonNullString();
+    Kind kind = Kind.fromString(kindString);
+    if (kind == null) {
+      throw new IOException("Unrecognized target kind: " + kindString);
+    }
+    ArtifactLocation buildFile = in.readArtifactLocation();
+    ImmutableList<Dependency> dependencies = readDependencies(in);
+    ImmutableList<String> tags = IdeInfoInterner.internStrings(in.readStrings());
+    // preserve the persisted source order
+    Set<ArtifactLocation> sources = new LinkedHashSet<>(in.readArtifactLocations());
+
+    CIdeInfo cIdeInfo = null;
+    CToolchainIdeInfo cToolchainIdeInfo = null;
+    JavaIdeInfo javaIdeInfo = null;
+    AndroidIdeInfo androidIdeInfo = null;
+    AndroidSdkIdeInfo androidSdkIdeInfo = null;
+    AndroidAarIdeInfo androidAarIdeInfo = null;
+    PyIdeInfo pyIdeInfo = null;
+    GoIdeInfo goIdeInfo = null;
+    JsIdeInfo jsIdeInfo = null;
+    TsIdeInfo tsIdeInfo = null;
+    DartIdeInfo dartIdeInfo = null;
+    TestIdeInfo testIdeInfo = null;
+    JavaToolchainIdeInfo javaToolchainIdeInfo = null;
+    KotlinToolchainIdeInfo kotlinToolchainIdeInfo = null;
+
+    int sectionCount = in.readVarInt();
+    for (int i = 0; i < sectionCount; i++) {
+      int sectionId = in.readVarInt();
+      int length = in.readVarInt();
+      switch (sectionId) {
+        case C_SECTION:
+          cIdeInfo = readC(in);
+          break;
+        case C_TOOLCHAIN_SECTION:
+          cToolchainIdeInfo = readCToolchain(in);
+          break;
+        case JAVA_SECTION:
+          javaIdeInfo = readJava(in);
+          break;
+        case ANDROID_SECTION:
+          androidIdeInfo = readAndroid(in);
+          break;
+        case ANDROID_SDK_SECTION:
+          androidSdkIdeInfo = new AndroidSdkIdeInfo(in.readArtifactLocation());
+          break;
+        case ANDROID_AAR_SECTION:
+          androidAarIdeInfo = new AndroidAarIdeInfo(in.readArtifactLocation());
+          break;
+        case PY_SECTION:
+          pyIdeInfo = new PyIdeInfo(in.readArtifactLocations());
+          break;
+        case GO_SECTION:
+          goIdeInfo = new GoIdeInfo(in.readArtifactLocations(), in.readString());
+          break;
+        case JS_SECTION:
+          jsIdeInfo = new JsIdeInfo(in.readArtifactLocations());
+          break;
+        case TS_SECTION:
+          tsIdeInfo = new TsIdeInfo(in.readArtifactLocations());
+          break;
+        case DART_SECTION:
+          dartIdeInfo = new DartIdeInfo(in.readArtifactLocations());
+          break;
+        case TEST_SECTION:
+          testIdeInfo = new TestIdeInfo(readTestSize(in));
+          break;
+        case JAVA_TOOLCHAIN_SECTION:
+          javaToolchainIdeInfo =
+              new JavaToolchainIdeInfo(
+                  in.readString(), in.readString(), in.readArtifactLocation());
+          break;
+        case KOTLIN_TOOLCHAIN_SECTION:
+          kotlinToolchainIdeInfo = readKotlinToolchain(in);
+          break;
+        default:
+          // a section we don't know how to decode; it's self-delimiting, so just skip it
+          in.skipFully(length);
+          break;
+      }
+    }
+    return new TargetIdeInfo(
+        key,
+        kind,
+        buildFile,
+        dependencies,
+        tags,
+        sources,
+        cIdeInfo,
+        cToolchainIdeInfo,
+        javaIdeInfo,
+        androidIdeInfo,
+        androidSdkIdeInfo,
+        androidAarIdeInfo,
+        pyIdeInfo,
+        goIdeInfo,
+        jsIdeInfo,
+        tsIdeInfo,
+        dartIdeInfo,
+        testIdeInfo,
+        javaToolchainIdeInfo,
+        kotlinToolchainIdeInfo);
+  }
+
+  private static void writeJava(CompactDataOutput out, JavaIdeInfo info) throws IOException {
+    out.writeLibraryArtifacts(info.jars);
+    out.writeLibraryArtifacts(info.generatedJars);
+    out.writeLibraryArtifact(info.filteredGenJar);
+    out.writeArtifactLocation(info.packageManifest);
+    out.writeArtifactLocation(info.jdepsFile);
+    out.writeString(info.javaBinaryMainClass);
+    out.writeString(info.testClass);
+  }
+
+  private static JavaIdeInfo readJava(CompactDataInput in) throws IOException {
+    return new JavaIdeInfo(
+        in.readLibraryArtifacts(),
+        in.readLibraryArtifacts(),
+        in.readLibraryArtifact(),
+        in.readArtifactLocation(),
+        in.readArtifactLocation(),
+        in.readString(),
+        in.readString());
+  }
+
+  private static void writeAndroid(CompactDataOutput out, AndroidIdeInfo info)
+      throws IOException {
+    out.writeArtifactLocations(info.resources);
+    out.writeString(info.resourceJavaPackage);
+    out.writeBoolean(info.generateResourceClass);
+    out.writeArtifactLocation(info.manifest);
+    out.writeLibraryArtifact(info.idlJar);
+    out.writeLibraryArtifact(info.resourceJar);
+    out.writeBoolean(info.hasIdlSources);
+    out.writeLabel(info.legacyResources);
+  }
+
+  private static AndroidIdeInfo readAndroid(CompactDataInput in) throws IOException {
+    return new AndroidIdeInfo(
+        in.readArtifactLocations(),
+        in.readString(),
+        in.readBoolean(),
+        in.readArtifactLocation(),
+        in.readLibraryArtifact(),
+        in.readLibraryArtifact(),
+        in.readBoolean(),
+        in.readLabel());
+  }
+
+  private static void writeC(CompactDataOutput out, CIdeInfo info) throws IOException {
+    out.writeArtifactLocations(info.sources);
+    out.writeArtifactLocations(info.headers);
+    out.writeArtifactLocations(info.textualHeaders);
+    out.writeStrings(info.localDefines);
+    out.writeExecutionRootPaths(info.localIncludeDirectories);
+    out.writeExecutionRootPaths(info.transitiveIncludeDirectories);
+    out.writeExecutionRootPaths(info.transitiveQuoteIncludeDirectories);
+    out.writeStrings(info.transitiveDefines);
+    out.writeExecutionRootPaths(info.transitiveSystemIncludeDirectories);
+  }
+
+  private static CIdeInfo readC(CompactDataInput in) throws IOException {
+    return new CIdeInfo(
+        in.readArtifactLocations(),
+        in.readArtifactLocations(),
+        in.readArtifactLocations(),
+        in.readStrings(),
+        in.readExecutionRootPaths(),
+        in.readExecutionRootPaths(),
+        in.readExecutionRootPaths(),
+        in.readStrings(),
+        in.readExecutionRootPaths());
+  }
+
+  private static void writeCToolchain(CompactDataOutput out, CToolchainIdeInfo info)
+      throws IOException {
+    out.writeStrings(info.baseCompilerOptions);
+    out.writeStrings(info.cCompilerOptions);
+    out.writeStrings(info.cppCompilerOptions);
+    out.writeExecutionRootPaths(info.builtInIncludeDirectories);
+    out.writeExecutionRootPath(info.cppExecutable);
+    out.writeString(info.targetName);
+    out.writeStrings(info.unfilteredCompilerOptions);
+    out.writeExecutionRootPaths(info.unfilteredToolchainSystemIncludes);
+  }
+
+  private static CToolchainIdeInfo readCToolchain(CompactDataInput in) throws IOException {
+    return new CToolchainIdeInfo(
+        in.readStrings(),
+        in.readStrings(),
+        in.readStrings(),
+        in.readExecutionRootPaths(),
+        in.readExecutionRootPath(),
+        in.readString(),
+        in.readStrings(),
+        in.readExecutionRootPaths());
+  }
+
+  private static TestSize readTestSize(CompactDataInput in) throws IOException {
+    String name = in.readNonNullString();
+    try {
+      return TestSize.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unrecognized test size: " + name, e);
+    }
+  }
+
+  private static KotlinToolchainIdeInfo readKotlinToolchain(CompactDataInput in)
+      throws IOException {
+    String languageVersion = in.readString();
+    int size = in.readVarInt();
+    ImmutableList.Builder<Label> sdkTargets = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      Label label = in.readLabel();
+      if (label == null) {
+        throw new IOException("Unexpected null label in project data");
+      }
+      sdkTargets.add(label);
+    }
+    return new KotlinToolchainIdeInfo(languageVersion, sdkTargets.build());
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.sync.sharding;
 
 import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.model.SyncState;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
@@ -33,11 +34,13 @@ import com.google.idea.blaze.base.sync.sharding.WildcardTargetExpander.ExpandedT
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.common.experiments.IntExperiment;
 import com.intellij.openapi.project.Project;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** Utility methods for sharding blaze build invocations. */
 public class BlazeBuildTargetSharder {
@@ -85,19 +88,62 @@ public class BlazeBuildTargetSharder {
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
       List<TargetExpression> targets) {
+    return expandAndShardTargets(
+        project,
+        context,
+        workspaceRoot,
+        projectViewSet,
+        pathResolver,
+        targets,
+        ImmutableList.of(),
+        null,
+        null);
+  }
+
+  /**
+   * Expand wildcard target patterns and partition the resulting target list.
+   *
+   * <p>If a sync state builder is provided, the per-package query results are cached in the sync
+   * state, and reused for packages which are unchanged since the previous sync. If additional
+   * output bases are provided, wildcard patterns are expanded by concurrent queries against them.
+   */
+  public static ShardedTargetsResult expandAndShardTargets(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      WorkspacePathResolver pathResolver,
+      List<TargetExpression> targets,
+      List<File> parallelOutputBases,
+      @Nullable SyncState previousSyncState,
+      @Nullable SyncState.Builder syncStateBuilder) {
     if (!shardingEnabled(projectViewSet)) {
+      if (syncStateBuilder != null) {
+        PackageQueryCache.carryOver(previousSyncState, syncStateBuilder);
+      }
       return new ShardedTargetsResult(
           new ShardedTargetList(ImmutableList.of(targets)), BuildResult.SUCCESS);
     }
 
     List<WildcardTargetPattern> wildcardIncludes = getWildcardPatterns(targets);
     if (wildcardIncludes.isEmpty()) {
+      if (syncStateBuilder != null) {
+        PackageQueryCache.carryOver(previousSyncState, syncStateBuilder);
+      }
       return new ShardedTargetsResult(
           new ShardedTargetList(ImmutableList.of(targets)), BuildResult.SUCCESS);
     }
     ExpandedTargetsResult expandedTargets =
         expandWildcardTargets(
-            project, context, workspaceRoot, projectViewSet, pathResolver, targets);
+            project,
+            context,
+            workspaceRoot,
+            projectViewSet,
+            pathResolver,
+            targets,
+            parallelOutputBases,
+            previousSyncState,
+            syncStateBuilder);
     if (expandedTargets.buildResult.status == BuildResult.Status.FATAL_ERROR) {
       return new ShardedTargetsResult(
           new ShardedTargetList(ImmutableList.of()), expandedTargets.buildResult);
@@ -114,7 +160,10 @@ public class BlazeBuildTargetSharder {
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
-      List<TargetExpression> targets) {
+      List<TargetExpression> targets,
+      List<File> parallelOutputBases,
+      @Nullable SyncState previousSyncState,
+      @Nullable SyncState.Builder syncStateBuilder) {
     return Scope.push(
         parentContext,
         context -> {
@@ -122,7 +171,15 @@ public class BlazeBuildTargetSharder {
           context.output(new StatusOutput("Sharding: expanding wildcard target patterns..."));
           context.setPropagatesErrors(false);
           return doExpandWildcardTargets(
-              project, context, workspaceRoot, projectViewSet, pathResolver, targets);
+              project,
+              context,
+              workspaceRoot,
+              projectViewSet,
+              pathResolver,
+              targets,
+              parallelOutputBases,
+              previousSyncState,
+              syncStateBuilder);
         });
   }
 
@@ -132,7 +189,10 @@ public class BlazeBuildTargetSharder {
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
-      List<TargetExpression> targets) {
+      List<TargetExpression> targets,
+      List<File> parallelOutputBases,
+      @Nullable SyncState previousSyncState,
+      @Nullable SyncState.Builder syncStateBuilder) {
     List<WildcardTargetPattern> includes = getWildcardPatterns(targets);
     if (includes.isEmpty()) {
       return new ExpandedTargetsResult(targets, BuildResult.SUCCESS);
@@ -154,8 +214,20 @@ public class BlazeBuildTargetSharder {
         fullList.addAll(expanded);
       }
     }
+    if (syncStateBuilder == null) {
+      return WildcardTargetExpander.expandToSingleTargets(
+          project, context, workspaceRoot, projectViewSet, fullList, parallelOutputBases);
+    }
     return WildcardTargetExpander.expandToSingleTargets(
-        project, context, workspaceRoot, projectViewSet, fullList);
+        project,
+        context,
+        workspaceRoot,
+        projectViewSet,
+        pathResolver,
+        fullList,
+        parallelOutputBases,
+        previousSyncState,
+        syncStateBuilder);
   }
 
   /**
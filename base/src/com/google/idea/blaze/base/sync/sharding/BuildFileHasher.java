@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Computes a hash of everything which can affect the rules defined by a blaze package: the BUILD
+ * file, the workspace .bzl files it transitively loads, and the names of the files in the package
+ * (which determine the results of any globs).
+ *
+ * <p>.bzl files loaded from external repositories aren't hashed; they're covered by the hash of
+ * the WORKSPACE file. Labels referring to the main repository explicitly (via '@//' or the name
+ * declared in the WORKSPACE file) are resolved to workspace paths. Thread-safe; .bzl file hashes
+ * are memoized.
+ */
+class BuildFileHasher {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+  private static final Pattern LOAD_PATTERN = Pattern.compile("\\bload\\(\\s*[\"']([^\"']+)[\"']");
+  private static final Pattern WORKSPACE_NAME_PATTERN =
+      Pattern.compile("\\bworkspace\\(\\s*name\\s*=\\s*[\"']([^\"']+)[\"']");
+
+  /** Stands in for the hash of files which can't be read, or which are part of a load cycle. */
+  private static final long MISSING_FILE_HASH = -1;
+
+  private final BuildSystemProvider buildSystemProvider;
+  private final WorkspacePathResolver pathResolver;
+  /** The name the main repository declares for itself in its WORKSPACE file, if any. */
+  @Nullable private final String mainRepositoryName;
+  private final Map<File, Long> bzlHashes = new ConcurrentHashMap<>();
+
+  BuildFileHasher(BuildSystemProvider buildSystemProvider, WorkspacePathResolver pathResolver) {
+    this.buildSystemProvider = buildSystemProvider;
+    this.pathResolver = pathResolver;
+    this.mainRepositoryName =
+        readWorkspaceName(pathResolver.resolveToFile(new WorkspacePath("WORKSPACE")));
+  }
+
+  /** Returns the name declared by the given WORKSPACE file, or null if it doesn't declare one. */
+  @Nullable
+  static String readWorkspaceName(File workspaceFile) {
+    String contents;
+    try {
+      contents = Files.asCharSource(workspaceFile, StandardCharsets.UTF_8).read();
+    } catch (IOException e) {
+      return null;
+    }
+    Matcher matcher = WORKSPACE_NAME_PATTERN.matcher(contents);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /** Returns a hash of the given file's contents, or 0 if it doesn't exist. */
+  static long hashFile(File file) {
+    try {
+      return Files.asByteSource(file).hash(HASH_FUNCTION).asLong();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /** Returns a hash of the given package, or null if it has no BUILD file. */
+  @Nullable
+  Long hashPackage(WorkspacePath packagePath) {
+    File dir = pathResolver.resolveToFile(packagePath);
+    File buildFile = buildSystemProvider.findBuildFileInDirectory(dir);
+    if (buildFile == null) {
+      return null;
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hasher.putString(buildFile.getName(), StandardCharsets.UTF_8);
+    hashContentsAndLoads(buildFile, packagePath, hasher, new HashSet<>());
+    hashPackageFileNames(dir, "", hasher);
+    return hasher.hash().asLong();
+  }
+
+  private long hashBzlFile(File file, WorkspacePath packagePath, Set<File> loading) {
+    Long hash = bzlHashes.get(file);
+    if (hash != null) {
+      return hash;
+    }
+    if (!loading.add(file)) {
+      return MISSING_FILE_HASH;
+    }
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    hashContentsAndLoads(file, packagePath, hasher, loading);
+    loading.remove(file);
+    hash = hasher.hash().asLong();
+    bzlHashes.put(file, hash);
+    return hash;
+  }
+
+  private void hashContentsAndLoads(
+      File file, WorkspacePath packagePath, Hasher hasher, Set<File> loading) {
+    byte[] contents;
+    try {
+      contents = Files.toByteArray(file);
+    } catch (IOException e) {
+      hasher.putLong(MISSING_FILE_HASH);
+      return;
+    }
+    hasher.putBytes(contents);
+    Matcher matcher = LOAD_PATTERN.matcher(new String(contents, StandardCharsets.UTF_8));
+    while (matcher.find()) {
+      String label = mainRepositoryLabel(matcher.group(1), mainRepositoryName);
+      if (label == null) {
+        continue;
+      }
+      WorkspacePath bzlPackage = loadedPackage(label, packagePath);
+      WorkspacePath bzlPath = loadedFile(label, packagePath);
+      if (bzlPackage == null || bzlPath == null) {
+        continue;
+      }
+      hasher.putLong(hashBzlFile(pathResolver.resolveToFile(bzlPath), bzlPackage, loading));
+    }
+  }
+
+  /**
+   * Hashes the names of all files in the package, in a deterministic order, stopping at
+   * subpackage boundaries.
+   */
+  private void hashPackageFileNames(File dir, String relativePath, Hasher hasher) {
+    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    File[] children = fileOperationProvider.listFiles(dir);
+    if (children == null) {
+      return;
+    }
+    List<File> sorted = new ArrayList<>(children.length);
+    for (File child : children) {
+      sorted.add(child);
+    }
+    sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+    for (File child : sorted) {
+      String childPath = relativePath + child.getName();
+      if (!fileOperationProvider.isDirectory(child)) {
+        hasher.putString(childPath, StandardCharsets.UTF_8).putByte((byte) 0);
+      } else if (buildSystemProvider.findBuildFileInDirectory(child) == null) {
+        hashPackageFileNames(child, childPath + "/", hasher);
+      }
+    }
+  }
+
+  /**
+   * Strips an explicit main repository prefix ('@//' or '@name//') from the given label. Returns
+   * null if the label refers to an external repository.
+   */
+  @Nullable
+  static String mainRepositoryLabel(String label, @Nullable String mainRepositoryName) {
+    if (!label.startsWith("@")) {
+      return label;
+    }
+    if (label.startsWith("@//")) {
+      return label.substring(1);
+    }
+    if (mainRepositoryName != null && label.startsWith("@" + mainRepositoryName + "//")) {
+      return label.substring(mainRepositoryName.length() + 1);
+    }
+    return null;
+  }
+
+  /** Returns the package of a loaded .bzl file, or null if it's not in the main workspace. */
+  @Nullable
+  static WorkspacePath loadedPackage(String label, WorkspacePath currentPackage) {
+    if (label.startsWith("@")) {
+      return null;
+    }
+    if (!label.startsWith("//")) {
+      return currentPackage;
+    }
+    int colonIndex = label.indexOf(':');
+    return WorkspacePath.createIfValid(
+        colonIndex < 0 ? parentPath(label.substring(2)) : label.substring(2, colonIndex));
+  }
+
+  /**
+   * Returns the workspace path of a loaded .bzl file, or null if it's not in the main workspace.
+   * Handles both labels and the deprecated path-style loads.
+   */
+  @Nullable
+  static WorkspacePath loadedFile(String label, WorkspacePath currentPackage) {
+    if (label.startsWith("@")) {
+      return null;
+    }
+    String path;
+    if (label.startsWith("//")) {
+      path = label.substring(2).replace(':', '/');
+    } else if (label.startsWith("/")) {
+      path = label.substring(1);
+    } else {
+      String name = label.startsWith(":") ? label.substring(1) : label;
+      path = currentPackage.isWorkspaceRoot() ? name : currentPackage.relativePath() + "/" + name;
+    }
+    if (path.startsWith("/")) {
+      path = path.substring(1);
+    }
+    if (!path.endsWith(".bzl")) {
+      path += ".bzl";
+    }
+    return WorkspacePath.createIfValid(path);
+  }
+
+  private static String parentPath(String path) {
+    int slashIndex = path.lastIndexOf('/');
+    return slashIndex < 0 ? "" : path.substring(0, slashIndex);
+  }
+}
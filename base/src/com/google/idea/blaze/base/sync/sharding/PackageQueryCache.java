@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The non-manual rules in each blaze package, as output by 'blaze query --output label_kind', keyed
+ * on a hash of the package's BUILD file, the .bzl files it loads, and the files it can glob.
+ * Persisted with the sync state, so wildcard target patterns only need to be re-queried for
+ * packages which changed since the previous sync.
+ */
+final class PackageQueryCache implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  static final PackageQueryCache EMPTY = new PackageQueryCache(0, ImmutableMap.of());
+
+  /** The cached rules of a single package. */
+  static final class PackageRules implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long packageHash;
+    /** The rule type of each label in the package, in query output order. */
+    final ImmutableMap<String, String> ruleTypes;
+
+    PackageRules(long packageHash, ImmutableMap<String, String> ruleTypes) {
+      this.packageHash = packageHash;
+      this.ruleTypes = ruleTypes;
+    }
+  }
+
+  /**
+   * A hash of the WORKSPACE file. Loads from external repositories aren't hashed individually, so
+   * all entries are dropped when this changes.
+   */
+  private final long workspaceHash;
+
+  private final ImmutableMap<WorkspacePath, PackageRules> packages;
+
+  private PackageQueryCache(
+      long workspaceHash, ImmutableMap<WorkspacePath, PackageRules> packages) {
+    this.workspaceHash = workspaceHash;
+    this.packages = packages;
+  }
+
+  /** Returns the cache from the previous sync, or an empty cache. */
+  static PackageQueryCache fromSyncState(@Nullable SyncState syncState) {
+    PackageQueryCache cache = syncState != null ? syncState.get(PackageQueryCache.class) : null;
+    return cache != null ? cache : EMPTY;
+  }
+
+  /** Stores the cache from the previous sync unchanged, if there was one. */
+  static void carryOver(@Nullable SyncState previousSyncState, SyncState.Builder syncStateBuilder) {
+    PackageQueryCache cache = fromSyncState(previousSyncState);
+    if (cache != EMPTY) {
+      syncStateBuilder.put(PackageQueryCache.class, cache);
+    }
+  }
+
+  /** Returns the cached rules of the given package, if its hash is unchanged. */
+  @Nullable
+  PackageRules get(long workspaceHash, WorkspacePath packagePath, long packageHash) {
+    if (workspaceHash != this.workspaceHash) {
+      return null;
+    }
+    PackageRules rules = packages.get(packagePath);
+    return rules != null && rules.packageHash == packageHash ? rules : null;
+  }
+
+  /**
+   * Returns a new cache with the given entries added, keeping only the entries of the given
+   * packages. Existing entries are kept if the WORKSPACE file is unchanged; stale entries are
+   * harmless, since they're keyed on the package hash.
+   *
+   * @param retainedPackages the packages referenced by the current sync. Entries for all other
+   *     packages are dropped, so the cache doesn't grow without bound.
+   */
+  PackageQueryCache update(
+      long workspaceHash,
+      Map<WorkspacePath, PackageRules> entries,
+      Set<WorkspacePath> retainedPackages) {
+    Map<WorkspacePath, PackageRules> merged =
+        workspaceHash == this.workspaceHash ? new HashMap<>(packages) : new HashMap<>();
+    merged.putAll(entries);
+    merged.keySet().retainAll(retainedPackages);
+    return new PackageQueryCache(workspaceHash, ImmutableMap.copyOf(merged));
+  }
+
+  int size() {
+    return packages.size();
+  }
+
+  /** Writes the cache in the compact project data format. */
+  static final class Codec implements SyncStateCodec<PackageQueryCache> {
+    @Override
+    public Class<PackageQueryCache> stateClass() {
+      return PackageQueryCache.class;
+    }
+
+    @Override
+    public void write(PackageQueryCache cache, CompactDataOutput out) throws IOException {
+      out.writeLong(cache.workspaceHash);
+      out.writeVarInt(cache.packages.size());
+      for (Map.Entry<WorkspacePath, PackageRules> entry : cache.packages.entrySet()) {
+        out.writeString(entry.getKey().relativePath());
+        out.writeLong(entry.getValue().packageHash);
+        out.writeVarInt(entry.getValue().ruleTypes.size());
+        for (Map.Entry<String, String> rule : entry.getValue().ruleTypes.entrySet()) {
+          out.writeString(rule.getKey());
+          out.writeString(rule.getValue());
+        }
+      }
+    }
+
+    @Override
+    public PackageQueryCache read(CompactDataInput in) throws IOException {
+      long workspaceHash = in.readLong();
+      int packageCount = in.readVarInt();
+      ImmutableMap.Builder<WorkspacePath, PackageRules> packages = ImmutableMap.builder();
+      for (int i = 0; i < packageCount; i++) {
+        WorkspacePath packagePath = new WorkspacePath(in.readNonNullString());
+        long packageHash = in.readLong();
+        int ruleCount = in.readVarInt();
+        ImmutableMap.Builder<String, String> ruleTypes = ImmutableMap.builder();
+        for (int j = 0; j < ruleCount; j++) {
+          ruleTypes.put(in.readNonNullString(), in.readNonNullString());
+        }
+        packages.put(packagePath, new PackageRules(packageHash, ruleTypes.build()));
+      }
+      return new PackageQueryCache(workspaceHash, packages.build());
+    }
+  }
+}
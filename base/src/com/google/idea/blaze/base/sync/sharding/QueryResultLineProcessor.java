@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.sync.sharding;
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -29,7 +30,7 @@ class QueryResultLineProcessor implements LineProcessingOutputStream.LineProcess
     final String ruleType;
     final String label;
 
-    private RuleTypeAndLabel(String ruleType, String label) {
+    RuleTypeAndLabel(String ruleType, String label) {
       this.ruleType = ruleType;
       this.label = label;
     }
@@ -37,8 +38,7 @@ class QueryResultLineProcessor implements LineProcessingOutputStream.LineProcess
 
   private static final Pattern RULE_PATTERN = Pattern.compile("^([^\\s]*) rule ([^\\s]*)$");
 
-  private ImmutableList.Builder<TargetExpression> outputList;
-  private final Predicate<RuleTypeAndLabel> targetFilter;
+  private final Consumer<RuleTypeAndLabel> consumer;
 
   /**
    * @param outputList Parsed target expressions are added to this list
@@ -47,24 +47,35 @@ class QueryResultLineProcessor implements LineProcessingOutputStream.LineProcess
   QueryResultLineProcessor(
       ImmutableList.Builder<TargetExpression> outputList,
       Predicate<RuleTypeAndLabel> targetFilter) {
-    this.outputList = outputList;
-    this.targetFilter = targetFilter;
+    this(
+        rule -> {
+          if (targetFilter.test(rule)) {
+            TargetExpression target = TargetExpression.fromStringSafe(rule.label);
+            if (target != null) {
+              outputList.add(target);
+            }
+          }
+        });
+  }
+
+  /** @param consumer Passed the rule type and label of every rule output by the query */
+  QueryResultLineProcessor(Consumer<RuleTypeAndLabel> consumer) {
+    this.consumer = consumer;
   }
 
   @Override
   public boolean processLine(String line) {
+    return processLine((CharSequence) line);
+  }
+
+  /** Matches the line in place, only copying the rule type and label of matching lines. */
+  @Override
+  public boolean processLine(CharSequence line) {
     Matcher match = RULE_PATTERN.matcher(line);
     if (!match.find()) {
       return true;
     }
-    String ruleType = match.group(1);
-    String label = match.group(2);
-    if (targetFilter.test(new RuleTypeAndLabel(ruleType, label))) {
-      TargetExpression target = TargetExpression.fromStringSafe(label);
-      if (target != null) {
-        outputList.add(target);
-      }
-    }
+    consumer.accept(new RuleTypeAndLabel(match.group(1), match.group(2)));
     return true;
   }
 }
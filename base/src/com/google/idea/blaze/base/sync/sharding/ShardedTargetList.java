@@ -15,23 +15,70 @@
  */
 package com.google.idea.blaze.base.sync.sharding;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
+import com.google.idea.blaze.base.scope.scopes.TimingScope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.ConcurrencyUtil;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /** Partitioned list of blaze targets. */
 public class ShardedTargetList {
 
+  private static final long CANCELLATION_POLL_INTERVAL_MILLIS = 100;
+
   public final List<List<TargetExpression>> shardedTargets;
 
+  /**
+   * Output bases, in addition to the default one, against which shards can be built concurrently.
+   */
+  private final ImmutableList<File> parallelOutputBases;
+
   public ShardedTargetList(List<List<TargetExpression>> shardedTargets) {
+    this(shardedTargets, ImmutableList.of());
+  }
+
+  private ShardedTargetList(
+      List<List<TargetExpression>> shardedTargets, ImmutableList<File> parallelOutputBases) {
     this.shardedTargets = shardedTargets;
+    this.parallelOutputBases = parallelOutputBases;
+  }
+
+  /**
+   * Returns a copy of this list which builds shards concurrently in {@link
+   * #runShardedCommandInParallel}, using the given output bases in addition to the default one.
+   */
+  public ShardedTargetList withParallelOutputBases(List<File> outputBases) {
+    return new ShardedTargetList(shardedTargets, ImmutableList.copyOf(outputBases));
+  }
+
+  /** The maximum number of shards built concurrently. */
+  public int getParallelism() {
+    return Math.min(parallelOutputBases.size() + 1, Math.max(shardedTargets.size(), 1));
   }
 
   public boolean isEmpty() {
@@ -73,6 +120,170 @@ public class ShardedTargetList {
     return output;
   }
 
+  /** A blaze invocation building a single shard. */
+  public interface ShardInvocation<T> {
+    /**
+     * Builds the given targets against the given output base, or the default output base if null.
+     */
+    T build(BlazeContext context, List<TargetExpression> targets, @Nullable File outputBase);
+  }
+
+  /**
+   * Runs the provided blaze invocation on each target list shard, building up to {@link
+   * #getParallelism} shards at once, each against a different output base. Each shard's result is
+   * passed to {@code resultHandler} on the calling thread, in shard order regardless of the order
+   * in which the shards finish, so the combined {@link BuildResult} is deterministic.
+   *
+   * <p>Shard {@code i} is always built against output base {@code i % parallelism} (the default
+   * output base first), and each output base builds its shards in order, so a given shard reuses
+   * the same server's analysis cache from sync to sync. As in {@link #runShardedCommand}, a shard
+   * whose server ran out of memory (per {@code outOfMemory}) is retried once, unless it was the
+   * first shard built by that server.
+   *
+   * <p>Each shard's timing is recorded in its own {@link TimingScope}. If the context is cancelled,
+   * all outstanding shards are cancelled. Falls back to {@link #runShardedCommand} if shards can't
+   * be built concurrently.
+   */
+  public <T> BuildResult runShardedCommandInParallel(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      ShardInvocation<T> invocation,
+      Predicate<T> outOfMemory,
+      Function<T, BuildResult> resultHandler) {
+    int parallelism = getParallelism();
+    if (isEmpty() || parallelism <= 1) {
+      return runShardedCommand(
+          project,
+          context,
+          progressMessage,
+          targets -> resultHandler.apply(invocation.build(context, targets, null)));
+    }
+    List<SettableFuture<T>> results = new ArrayList<>();
+    for (int i = 0; i < shardedTargets.size(); i++) {
+      results.add(SettableFuture.create());
+    }
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            parallelism, ConcurrencyUtil.namedDaemonThreadPoolFactory(ShardedTargetList.class));
+    List<Future<?>> lanes = new ArrayList<>();
+    try {
+      for (int i = 0; i < parallelism; i++) {
+        int lane = i;
+        Optional<File> outputBase =
+            lane == 0 ? Optional.empty() : Optional.of(parallelOutputBases.get(lane - 1));
+        lanes.add(
+            executor.submit(
+                () ->
+                    buildLane(
+                        project,
+                        context,
+                        progressMessage,
+                        invocation,
+                        outOfMemory,
+                        lane,
+                        parallelism,
+                        outputBase,
+                        results)));
+      }
+      BuildResult output = null;
+      for (ListenableFuture<T> future : results) {
+        BuildResult buildResult = BuildResult.FATAL_ERROR;
+        if (awaitCancellably(context, future)) {
+          FutureResult<T> result = FutureUtil.waitForFuture(context, future).run();
+          if (result.success()) {
+            buildResult = resultHandler.apply(result.result());
+          }
+        }
+        output = output == null ? buildResult : BuildResult.combine(output, buildResult);
+        if (output.status == BuildResult.Status.FATAL_ERROR) {
+          // interrupting the shards destroys their blaze processes
+          lanes.forEach(f -> f.cancel(true));
+          results.forEach(f -> f.cancel(false));
+          return output;
+        }
+      }
+      return output;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Builds every {@code parallelism}th shard, starting at {@code lane}, in order against the given
+   * output base, completing each shard's future as it's built.
+   */
+  private <T> void buildLane(
+      Project project,
+      BlazeContext context,
+      Function<Integer, String> progressMessage,
+      ShardInvocation<T> invocation,
+      Predicate<T> outOfMemory,
+      int lane,
+      int parallelism,
+      Optional<File> outputBase,
+      List<SettableFuture<T>> results) {
+    for (int shard = lane; shard < shardedTargets.size(); shard += parallelism) {
+      SettableFuture<T> result = results.get(shard);
+      if (Thread.currentThread().isInterrupted()) {
+        result.cancel(false);
+        continue;
+      }
+      try {
+        T shardResult = buildShard(context, progressMessage, invocation, shard, outputBase);
+        if (shard != lane && outOfMemory.test(shardResult)) {
+          // re-try now that blaze server has restarted
+          IssueOutput.warn(retryOnOomMessage(project, shard)).submit(context);
+          shardResult = buildShard(context, progressMessage, invocation, shard, outputBase);
+        }
+        result.set(shardResult);
+      } catch (Throwable t) {
+        result.setException(t);
+      }
+    }
+  }
+
+  /**
+   * Waits for the future to complete, returning false if the context (or one of the shards running
+   * in a child context) is cancelled first.
+   */
+  private static boolean awaitCancellably(BlazeContext context, Future<?> future) {
+    while (!context.isCancelled()) {
+      try {
+        future.get(CANCELLATION_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
+      } catch (TimeoutException e) {
+        // check for cancellation, then keep waiting
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        context.setCancelled();
+        return false;
+      } catch (ExecutionException | CancellationException e) {
+        // reported when the result is retrieved
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private <T> T buildShard(
+      BlazeContext parentContext,
+      Function<Integer, String> progressMessage,
+      ShardInvocation<T> invocation,
+      int shard,
+      Optional<File> outputBase) {
+    return Scope.push(
+        parentContext,
+        context -> {
+          context.push(
+              new TimingScope(
+                  String.format("Shard%sOf%s", shard + 1, shardedTargets.size()),
+                  EventType.BlazeInvocation));
+          context.output(new StatusOutput(progressMessage.apply(shard + 1)));
+          return invocation.build(context, shardedTargets.get(shard), outputBase.orElse(null));
+        });
+  }
+
   private String retryOnOomMessage(Project project, int shardIndex) {
     String buildSystem = Blaze.buildSystemName(project);
     return String.format(
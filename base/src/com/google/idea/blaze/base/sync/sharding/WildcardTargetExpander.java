@@ -16,9 +16,14 @@
 package com.google.idea.blaze.base.sync.sharding;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.async.process.ExternalTask;
 import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
@@ -26,15 +31,19 @@ import com.google.idea.blaze.base.command.BlazeCommand;
 import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.console.BlazeConsoleLineProcessorProvider;
+import com.google.idea.blaze.base.model.SyncState;
 import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
@@ -42,12 +51,16 @@ import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
+import com.google.idea.blaze.base.sync.sharding.PackageQueryCache.PackageRules;
 import com.google.idea.blaze.base.sync.sharding.QueryResultLineProcessor.RuleTypeAndLabel;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,6 +74,18 @@ public class WildcardTargetExpander {
   private static final BoolExperiment filterByRuleType =
       new BoolExperiment("blaze.build.filter.by.rule.type", true);
 
+  private static final BoolExperiment cachePackageQueries =
+      new BoolExperiment("blaze.sync.cache.package.queries", false);
+
+  // number of packages hashed per task
+  private static final int HASH_BATCH_SIZE = 100;
+
+  private static final BoolExperiment parallelQueries =
+      new BoolExperiment("blaze.sync.parallel.query.shards", true);
+
+  /** The minimum number of target patterns per query shard, when querying in parallel. */
+  private static final int MIN_PARALLEL_QUERY_SHARD_SIZE = 100;
+
   static class ExpandedTargetsResult {
     final List<TargetExpression> singleTargets;
     final BuildResult buildResult;
@@ -134,13 +159,29 @@ public class WildcardTargetExpander {
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       List<TargetExpression> allTargets) {
+    return expandToSingleTargets(
+        project, parentContext, workspaceRoot, projectViewSet, allTargets, ImmutableList.of());
+  }
+
+  /**
+   * Runs a sharded blaze query to expand wildcard targets to individual blaze targets. If
+   * additional output bases are provided, shards are queried concurrently, each against its own
+   * blaze server.
+   */
+  static ExpandedTargetsResult expandToSingleTargets(
+      Project project,
+      BlazeContext parentContext,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      List<TargetExpression> allTargets,
+      List<File> parallelOutputBases) {
     return Scope.push(
         parentContext,
         context -> {
           context.push(new TimingScope("ExpandTargetsQuery", EventType.BlazeInvocation));
           context.setPropagatesErrors(false);
           return doExpandToSingleTargets(
-              project, context, workspaceRoot, projectViewSet, allTargets);
+              project, context, workspaceRoot, projectViewSet, allTargets, parallelOutputBases);
         });
   }
 
@@ -149,11 +190,19 @@ public class WildcardTargetExpander {
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
-      List<TargetExpression> allTargets) {
+      List<TargetExpression> allTargets,
+      List<File> parallelOutputBases) {
+    ImmutableSet<String> handledRuleTypes = handledRuleTypes(projectViewSet);
+    if (parallelQueries.getValue()
+        && !parallelOutputBases.isEmpty()
+        && allTargets.size() > MIN_PARALLEL_QUERY_SHARD_SIZE) {
+      return queryShardsInParallel(
+          project, context, workspaceRoot, handledRuleTypes, allTargets, parallelOutputBases);
+    }
+    // small target lists are queried in a single combined invocation
     ShardedTargetList shards =
         BlazeBuildTargetSharder.shardTargets(
             allTargets, BlazeBuildTargetSharder.PACKAGE_SHARD_SIZE);
-    ImmutableSet<String> handledRuleTypes = handledRuleTypes(projectViewSet);
     ExpandedTargetsResult output = null;
     for (int i = 0; i < shards.shardedTargets.size(); i++) {
       List<TargetExpression> shard = shards.shardedTargets.get(i);
@@ -163,7 +212,7 @@ public class WildcardTargetExpander {
                   "Expanding wildcard target patterns, shard %s of %s",
                   i + 1, shards.shardedTargets.size())));
       ExpandedTargetsResult result =
-          queryIndividualTargets(project, context, workspaceRoot, handledRuleTypes, shard);
+          queryIndividualTargets(project, context, workspaceRoot, handledRuleTypes, shard, null);
       output = output == null ? result : ExpandedTargetsResult.merge(output, result);
       if (output.buildResult.status == Status.FATAL_ERROR) {
         return output;
@@ -172,47 +221,398 @@ public class WildcardTargetExpander {
     return output;
   }
 
+  /**
+   * Runs the query shards concurrently, at most one per output base, merging the results in shard
+   * order. Shards are sized to spread the targets across all servers, but no smaller than {@link
+   * #MIN_PARALLEL_QUERY_SHARD_SIZE}, since each query pays the cost of loading packages on a cold
+   * server.
+   *
+   * <p>Shards are pinned to output bases (see {@link
+   * ShardedTargetList#runShardedCommandInParallel}), so for an unchanged target list the same
+   * packages are loaded on the same server every sync. Queries which run out of memory are retried
+   * like builds.
+   */
+  private static ExpandedTargetsResult queryShardsInParallel(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ImmutableSet<String> handledRuleTypes,
+      List<TargetExpression> allTargets,
+      List<File> parallelOutputBases) {
+    int parallelism = parallelOutputBases.size() + 1;
+    int shardSize =
+        Math.max(
+            MIN_PARALLEL_QUERY_SHARD_SIZE,
+            Math.min(
+                BlazeBuildTargetSharder.PACKAGE_SHARD_SIZE,
+                (allTargets.size() + parallelism - 1) / parallelism));
+    ShardedTargetList shards =
+        BlazeBuildTargetSharder.shardTargets(allTargets, shardSize)
+            .withParallelOutputBases(parallelOutputBases);
+    // results are handled on this thread, in shard order
+    ImmutableList.Builder<TargetExpression> targets = ImmutableList.builder();
+    BuildResult buildResult =
+        shards.runShardedCommandInParallel(
+            project,
+            context,
+            shard ->
+                String.format(
+                    "Expanding wildcard target patterns, shard %s of %s",
+                    shard, shards.shardedTargets.size()),
+            (shardContext, shardTargets, outputBase) ->
+                queryIndividualTargets(
+                    project,
+                    shardContext,
+                    workspaceRoot,
+                    handledRuleTypes,
+                    shardTargets,
+                    outputBase),
+            result -> result.buildResult.outOfMemory(),
+            result -> {
+              targets.addAll(result.singleTargets);
+              return result.buildResult;
+            });
+    return new ExpandedTargetsResult(targets.build(), buildResult);
+  }
+
+  /**
+   * Expands wildcard targets to individual blaze targets, reusing the query results of packages
+   * which haven't changed since the previous sync. Only the remaining packages are queried.
+   *
+   * <p>Falls back to querying everything if the target list contains patterns which can't be
+   * evaluated from per-package results (e.g. recursive or external patterns).
+   */
+  static ExpandedTargetsResult expandToSingleTargets(
+      Project project,
+      BlazeContext parentContext,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      WorkspacePathResolver pathResolver,
+      List<TargetExpression> allTargets,
+      List<File> parallelOutputBases,
+      @Nullable SyncState previousSyncState,
+      SyncState.Builder syncStateBuilder) {
+    Set<WorkspacePath> packages =
+        cachePackageQueries.getValue() ? getReferencedPackages(allTargets) : null;
+    if (packages == null) {
+      PackageQueryCache.carryOver(previousSyncState, syncStateBuilder);
+      return expandToSingleTargets(
+          project, parentContext, workspaceRoot, projectViewSet, allTargets, parallelOutputBases);
+    }
+    return Scope.push(
+        parentContext,
+        context -> {
+          context.push(new TimingScope("ExpandTargetsQuery", EventType.BlazeInvocation));
+          context.setPropagatesErrors(false);
+          ExpandedTargetsResult result =
+              doExpandWithCache(
+                  project,
+                  context,
+                  workspaceRoot,
+                  projectViewSet,
+                  pathResolver,
+                  allTargets,
+                  packages,
+                  previousSyncState,
+                  syncStateBuilder);
+          if (result != null) {
+            return result;
+          }
+          PackageQueryCache.carryOver(previousSyncState, syncStateBuilder);
+          return doExpandToSingleTargets(
+              project, context, workspaceRoot, projectViewSet, allTargets, parallelOutputBases);
+        });
+  }
+
+  /** Returns null if some packages have no BUILD file, in which case nothing is cached. */
+  @Nullable
+  private static ExpandedTargetsResult doExpandWithCache(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      WorkspacePathResolver pathResolver,
+      List<TargetExpression> allTargets,
+      Set<WorkspacePath> packages,
+      @Nullable SyncState previousSyncState,
+      SyncState.Builder syncStateBuilder) {
+    BuildFileHasher hasher =
+        new BuildFileHasher(Blaze.getBuildSystemProvider(project), pathResolver);
+    List<ListenableFuture<Map<WorkspacePath, Long>>> futures = new ArrayList<>();
+    for (List<WorkspacePath> batch : Iterables.partition(packages, HASH_BATCH_SIZE)) {
+      futures.add(FetchExecutor.EXECUTOR.submit(() -> hashPackages(hasher, batch)));
+    }
+    FutureResult<List<Map<WorkspacePath, Long>>> hashResult =
+        FutureUtil.waitForFuture(context, Futures.allAsList(futures))
+            .withProgressMessage("Hashing BUILD files...")
+            .timed("HashBuildFiles", EventType.Other)
+            .onError("Hashing BUILD files failed")
+            .run();
+    if (!hashResult.success()) {
+      return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.FATAL_ERROR);
+    }
+    Map<WorkspacePath, Long> hashes = new HashMap<>();
+    hashResult.result().forEach(hashes::putAll);
+    if (hashes.size() != packages.size()) {
+      // let blaze report the missing packages
+      return null;
+    }
+
+    long workspaceHash =
+        BuildFileHasher.hashFile(workspaceRoot.fileForPath(new WorkspacePath("WORKSPACE")));
+    PackageQueryCache cache = PackageQueryCache.fromSyncState(previousSyncState);
+    Map<WorkspacePath, ImmutableMap<String, String>> packageRules = new HashMap<>();
+    Map<WorkspacePath, Map<String, String>> queried = new HashMap<>();
+    for (Map.Entry<WorkspacePath, Long> entry : hashes.entrySet()) {
+      PackageRules cached = cache.get(workspaceHash, entry.getKey(), entry.getValue());
+      if (cached != null) {
+        packageRules.put(entry.getKey(), cached.ruleTypes);
+      } else {
+        queried.put(entry.getKey(), new LinkedHashMap<>());
+      }
+    }
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Wildcard target expansion: %d of %d packages cached (%d%%), %d queried",
+                packageRules.size(),
+                packages.size(),
+                packages.isEmpty() ? 100 : 100 * packageRules.size() / packages.size(),
+                queried.size())));
+
+    BuildResult buildResult = queryPackages(project, context, workspaceRoot, queried);
+    if (buildResult.status == Status.FATAL_ERROR) {
+      return new ExpandedTargetsResult(ImmutableList.of(), buildResult);
+    }
+    Map<WorkspacePath, PackageRules> newEntries = new HashMap<>();
+    for (Map.Entry<WorkspacePath, Map<String, String>> entry : queried.entrySet()) {
+      ImmutableMap<String, String> rules = ImmutableMap.copyOf(entry.getValue());
+      packageRules.put(entry.getKey(), rules);
+      newEntries.put(entry.getKey(), new PackageRules(hashes.get(entry.getKey()), rules));
+    }
+    // with --keep_going, a failed query can still have partial results, which aren't cached
+    syncStateBuilder.put(
+        PackageQueryCache.class,
+        buildResult.status == Status.SUCCESS
+            ? cache.update(workspaceHash, newEntries, hashes.keySet())
+            : cache.update(workspaceHash, ImmutableMap.of(), hashes.keySet()));
+
+    Predicate<RuleTypeAndLabel> filter =
+        ruleFilter(handledRuleTypes(projectViewSet), allTargets);
+    return new ExpandedTargetsResult(
+        evaluateTargetList(allTargets, packageRules, filter), buildResult);
+  }
+
+  private static Map<WorkspacePath, Long> hashPackages(
+      BuildFileHasher hasher, List<WorkspacePath> packages) {
+    Map<WorkspacePath, Long> hashes = new HashMap<>();
+    for (WorkspacePath packagePath : packages) {
+      Long hash = hasher.hashPackage(packagePath);
+      if (hash != null) {
+        hashes.put(packagePath, hash);
+      }
+    }
+    return hashes;
+  }
+
+  /**
+   * Queries all rules in the given packages, in a single blaze invocation unless there are more
+   * than {@link BlazeBuildTargetSharder#PACKAGE_SHARD_SIZE} packages.
+   */
+  private static BuildResult queryPackages(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      Map<WorkspacePath, Map<String, String>> output) {
+    List<TargetExpression> targets =
+        output
+            .keySet()
+            .stream()
+            .map(TargetExpression::allFromPackageNonRecursive)
+            .collect(Collectors.toList());
+    List<List<TargetExpression>> shards =
+        Lists.partition(targets, BlazeBuildTargetSharder.PACKAGE_SHARD_SIZE);
+    BuildResult result = BuildResult.SUCCESS;
+    for (int i = 0; i < shards.size(); i++) {
+      if (shards.size() > 1) {
+        context.output(
+            new StatusOutput(
+                String.format(
+                    "Querying changed packages, shard %s of %s", i + 1, shards.size())));
+      }
+      BuildResult shardResult =
+          runQuery(
+              project,
+              context,
+              workspaceRoot,
+              null,
+              queryString(shards.get(i)),
+              new QueryResultLineProcessor(
+                  rule -> {
+                    Label label = Label.createIfValid(rule.label);
+                    Map<String, String> rules =
+                        label != null ? output.get(label.blazePackage()) : null;
+                    if (rules != null) {
+                      rules.put(rule.label, rule.ruleType);
+                    }
+                  }));
+      result = BuildResult.combine(result, shardResult);
+      if (result.status == Status.FATAL_ERROR) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the packages whose rules are needed to evaluate the target list, or null if it
+   * contains patterns which can't be evaluated from per-package query results.
+   */
+  @Nullable
+  static Set<WorkspacePath> getReferencedPackages(List<TargetExpression> targets) {
+    Set<WorkspacePath> packages = new LinkedHashSet<>();
+    for (TargetExpression target : targets) {
+      WildcardTargetPattern pattern = WildcardTargetPattern.fromExpression(target);
+      if (pattern != null) {
+        if (target.isExcluded()) {
+          continue;
+        }
+        if (pattern.isRecursive()) {
+          return null;
+        }
+        packages.add(pattern.getBasePackage());
+        continue;
+      }
+      Label label = toLabel(target);
+      if (label == null || label.isExternal()) {
+        return null;
+      }
+      if (!target.isExcluded()) {
+        packages.add(label.blazePackage());
+      }
+    }
+    return packages;
+  }
+
+  /**
+   * Evaluates a target list of single-package wildcard patterns and labels, given all non-manual
+   * rules in the referenced packages. As with blaze query, targets are evaluated in order, so
+   * excluded targets only remove rules added before them.
+   */
+  static ImmutableList<TargetExpression> evaluateTargetList(
+      List<TargetExpression> targets,
+      Map<WorkspacePath, ImmutableMap<String, String>> packageRules,
+      Predicate<RuleTypeAndLabel> filter) {
+    Map<String, String> ruleTypes = new LinkedHashMap<>();
+    for (TargetExpression target : targets) {
+      WildcardTargetPattern pattern = WildcardTargetPattern.fromExpression(target);
+      if (pattern != null && target.isExcluded()) {
+        ruleTypes
+            .keySet()
+            .removeIf(label -> pattern.coversPackage(Label.create(label).blazePackage()));
+      } else if (pattern != null) {
+        ruleTypes.putAll(
+            packageRules.getOrDefault(pattern.getBasePackage(), ImmutableMap.of()));
+      } else {
+        Label label = toLabel(target);
+        if (label == null) {
+          continue;
+        }
+        if (target.isExcluded()) {
+          ruleTypes.remove(label.toString());
+          continue;
+        }
+        ImmutableMap<String, String> rules = packageRules.get(label.blazePackage());
+        String ruleType = rules != null ? rules.get(label.toString()) : null;
+        if (ruleType != null) {
+          ruleTypes.put(label.toString(), ruleType);
+        }
+      }
+    }
+    ImmutableList.Builder<TargetExpression> output = ImmutableList.builder();
+    for (Map.Entry<String, String> entry : ruleTypes.entrySet()) {
+      if (filter.test(new RuleTypeAndLabel(entry.getValue(), entry.getKey()))) {
+        TargetExpression target = TargetExpression.fromStringSafe(entry.getKey());
+        if (target != null) {
+          output.add(target);
+        }
+      }
+    }
+    return output.build();
+  }
+
+  @Nullable
+  private static Label toLabel(TargetExpression target) {
+    String label = target.toString();
+    return Label.createIfValid(target.isExcluded() ? label.substring(1) : label);
+  }
+
   /** Runs a blaze query to expand the input target patterns to individual blaze targets. */
   private static ExpandedTargetsResult queryIndividualTargets(
       Project project,
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ImmutableSet<String> handledRuleTypes,
-      List<TargetExpression> targetPatterns) {
+      List<TargetExpression> targetPatterns,
+      @Nullable File outputBase) {
     String query = queryString(targetPatterns);
     if (query.isEmpty()) {
       // will be empty if there are no non-excluded targets
       return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.SUCCESS);
     }
+    ImmutableList.Builder<TargetExpression> output = ImmutableList.builder();
+    Predicate<RuleTypeAndLabel> filter = ruleFilter(handledRuleTypes, targetPatterns);
+    BuildResult buildResult =
+        runQuery(
+            project,
+            context,
+            workspaceRoot,
+            outputBase,
+            query,
+            new QueryResultLineProcessor(output, filter));
+    return new ExpandedTargetsResult(output.build(), buildResult);
+  }
+
+  private static BuildResult runQuery(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      @Nullable File outputBase,
+      String query,
+      QueryResultLineProcessor lineProcessor) {
     BlazeCommand.Builder builder =
         BlazeCommand.builder(getBinaryPath(project), BlazeCommandName.QUERY)
+            .addStartupFlags(BlazeFlags.outputBaseFlags(outputBase))
             .addBlazeFlags(BlazeFlags.KEEP_GOING)
             .addBlazeFlags("--output=label_kind")
             .addBlazeFlags(query);
 
-    ImmutableList.Builder<TargetExpression> output = ImmutableList.builder();
-
-    // it's fine to include wildcards here; they're guaranteed not to clash with actual labels.
-    Set<String> explicitTargets =
-        targetPatterns.stream().map(TargetExpression::toString).collect(Collectors.toSet());
-    Predicate<RuleTypeAndLabel> filter =
-        !filterByRuleType.getValue()
-            ? t -> true
-            : t -> handledRuleTypes.contains(t.ruleType) || explicitTargets.contains(t.label);
-
     int retVal =
         ExternalTask.builder(workspaceRoot)
             .addBlazeCommand(builder.build())
             .context(context)
-            .stdout(LineProcessingOutputStream.of(new QueryResultLineProcessor(output, filter)))
+            .stdout(LineProcessingOutputStream.of(lineProcessor))
             .stderr(
                 LineProcessingOutputStream.of(
                     BlazeConsoleLineProcessorProvider.getAllStderrLineProcessors(context)))
             .build()
             .run();
+    return BuildResult.fromExitCode(retVal);
+  }
 
-    BuildResult buildResult = BuildResult.fromExitCode(retVal);
-    return new ExpandedTargetsResult(output.build(), buildResult);
+  /**
+   * Rules of unhandled types are ignored, unless they were explicitly listed in the target
+   * patterns.
+   */
+  private static Predicate<RuleTypeAndLabel> ruleFilter(
+      ImmutableSet<String> handledRuleTypes, List<TargetExpression> targetPatterns) {
+    if (!filterByRuleType.getValue()) {
+      return t -> true;
+    }
+    // it's fine to include wildcards here; they're guaranteed not to clash with actual labels.
+    Set<String> explicitTargets =
+        targetPatterns.stream().map(TargetExpression::toString).collect(Collectors.toSet());
+    return t -> handledRuleTypes.contains(t.ruleType) || explicitTargets.contains(t.label);
   }
 
   private static ImmutableSet<String> handledRuleTypes(ProjectViewSet projectViewSet) {
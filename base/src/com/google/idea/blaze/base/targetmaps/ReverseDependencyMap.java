@@ -15,25 +15,335 @@
  */
 package com.google.idea.blaze.base.targetmaps;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.idea.blaze.base.ideinfo.Dependency;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The reverse dependencies of every target in a {@link TargetMap}.
+ *
+ * <p>Each target key is assigned an int id, and the reverse dependencies of a key are stored as a
+ * sorted int array. Edges are kept for dependencies which aren't in the target map too (they're
+ * just not returned by {@link #get}), so the map can be updated from the set of changed targets
+ * alone, rather than rebuilt from the whole target map every sync.
+ *
+ * <p>Instances are immutable. {@link #update} returns a new map, sharing the key to id assignment
+ * (which only ever grows) and the unchanged adjacency arrays with this one.
+ */
+public final class ReverseDependencyMap implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final int[] NO_IDS = new int[0];
+
+  /**
+   * {@link #update} rebuilds the map from scratch once the number of ids which aren't targets
+   * exceeds both this and the number of targets.
+   */
+  private static final int MAX_UNUSED_IDS = 1 << 14;
+
+  /** Shared between all maps derived from the same original map. Never shrinks. */
+  private final KeyIds keyIds;
+  /** The key for each id. May be longer than {@link #rdeps}. */
+  private final TargetKey[] keys;
+  /** The sorted ids of each id's reverse dependencies, whether or not it's in the target map. */
+  private final int[][] rdeps;
+  /** The ids which are in the target map. */
+  private final BitSet targets;
+
+  private ReverseDependencyMap(KeyIds keyIds, int[][] rdeps, BitSet targets) {
+    this.keyIds = keyIds;
+    this.keys = keyIds.keys();
+    this.rdeps = rdeps;
+    this.targets = targets;
+  }
+
+  /** Creates a reverse dependency map for all targets in the given target map. */
+  public static ReverseDependencyMap create(TargetMap targetMap) {
+    Builder builder = new Builder();
+    for (TargetKey key : targetMap.keys()) {
+      int id = builder.keyIds.idFor(key);
+      builder.targets.set(id);
+      for (Dependency dep : targetMap.getDependencies(key)) {
+        builder.add(builder.keyIds.idFor(dep.targetKey), id);
+      }
+    }
+    return builder.build();
+  }
 
-/** Handy class to create an reverse dep map of all targets */
-public class ReverseDependencyMap {
   public static ImmutableMultimap<TargetKey, TargetKey> createRdepsMap(TargetMap targetMap) {
+    return create(targetMap).toMultimap();
+  }
+
+  /** Returns a builder used to restore a map previously written out via {@link #forEachEntry}. */
+  public static Builder builder(TargetMap targetMap) {
+    return new Builder(targetMap);
+  }
+
+  /** The targets in the target map which directly depend on the given key. */
+  public ImmutableList<TargetKey> get(TargetKey key) {
+    int id = idOf(key);
+    if (id < 0 || !targets.get(id)) {
+      return ImmutableList.of();
+    }
+    int[] rdepIds = rdeps[id];
+    TargetKey[] result = new TargetKey[rdepIds.length];
+    for (int i = 0; i < rdepIds.length; i++) {
+      result[i] = keys[rdepIds[i]];
+    }
+    return ImmutableList.copyOf(result);
+  }
+
+  /** Returns the number of targets which directly depend on the given key. */
+  public int count(TargetKey key) {
+    int id = idOf(key);
+    return id < 0 || !targets.get(id) ? 0 : rdeps[id].length;
+  }
+
+  public ImmutableMultimap<TargetKey, TargetKey> toMultimap() {
     ImmutableMultimap.Builder<TargetKey, TargetKey> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      TargetKey key = target.key;
-      for (Dependency dep : target.dependencies) {
-        TargetKey depKey = dep.targetKey;
-        if (targetMap.contains(depKey)) {
-          builder.put(depKey, key);
-        }
+    for (int id = targets.nextSetBit(0); id >= 0; id = targets.nextSetBit(id + 1)) {
+      for (int rdep : rdeps[id]) {
+        builder.put(keys[id], keys[rdep]);
       }
     }
     return builder.build();
   }
+
+  /**
+   * Calls the consumer with the reverse dependencies of every key with at least one, including
+   * keys outside the target map. Used to serialize this map.
+   */
+  public void forEachEntry(BiConsumer<TargetKey, Collection<TargetKey>> consumer) {
+    for (int id = 0; id < rdeps.length; id++) {
+      int[] rdepIds = rdeps[id];
+      if (rdepIds.length == 0) {
+        continue;
+      }
+      TargetKey[] values = new TargetKey[rdepIds.length];
+      for (int i = 0; i < rdepIds.length; i++) {
+        values[i] = keys[rdepIds[i]];
+      }
+      consumer.accept(keys[id], Arrays.asList(values));
+    }
+  }
+
+  /** The number of keys which {@link #forEachEntry} will visit. */
+  public int entryCount() {
+    int count = 0;
+    for (int[] rdepIds : rdeps) {
+      if (rdepIds.length > 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the reverse dependency map for a new target map, given the target map this map was
+   * built from and the keys of all targets which were added, removed or modified since.
+   *
+   * <p>The cost is proportional to the number of changed targets and their dependencies, plus a
+   * copy of this map's arrays of references. Falls back to rebuilding the map from scratch if too
+   * many ids are no longer in use.
+   */
+  public ReverseDependencyMap update(
+      TargetMap previousTargetMap, TargetMap targetMap, Collection<TargetKey> changedTargets) {
+    int targetCount = targets.cardinality();
+    if (rdeps.length - targetCount > Math.max(MAX_UNUSED_IDS, targetCount)) {
+      return create(targetMap);
+    }
+    Map<Integer, IdSet> removed = new HashMap<>();
+    Map<Integer, IdSet> added = new HashMap<>();
+    BitSet newTargets = (BitSet) targets.clone();
+    for (TargetKey key : changedTargets) {
+      int id = keyIds.idFor(key);
+      for (Dependency dep : previousTargetMap.getDependencies(key)) {
+        int depId = idOf(dep.targetKey);
+        if (depId >= 0) {
+          removed.computeIfAbsent(depId, i -> new IdSet()).add(id);
+        }
+      }
+      for (Dependency dep : targetMap.getDependencies(key)) {
+        added.computeIfAbsent(keyIds.idFor(dep.targetKey), i -> new IdSet()).add(id);
+      }
+      newTargets.set(id, targetMap.contains(key));
+    }
+
+    // ids assigned since this map was built (possibly by other updates) start out unconnected
+    int[][] newRdeps = Arrays.copyOf(rdeps, keyIds.size());
+    Arrays.fill(newRdeps, rdeps.length, newRdeps.length, NO_IDS);
+    for (Map.Entry<Integer, IdSet> entry : removed.entrySet()) {
+      int id = entry.getKey();
+      newRdeps[id] = entry.getValue().removeFrom(newRdeps[id]);
+    }
+    for (Map.Entry<Integer, IdSet> entry : added.entrySet()) {
+      int id = entry.getKey();
+      newRdeps[id] = entry.getValue().addTo(newRdeps[id]);
+    }
+    return new ReverseDependencyMap(keyIds, newRdeps, newTargets);
+  }
+
+  /** Returns the id of the given key, or -1 if it isn't known to this map. */
+  private int idOf(TargetKey key) {
+    Integer id = keyIds.ids.get(key);
+    // ids assigned by later versions of this map are outside our arrays
+    return id != null && id < rdeps.length ? id : -1;
+  }
+
+  /** Collects ids for a single adjacency array. */
+  private static final class IdSet {
+    private int[] ids = new int[4];
+    private int size;
+
+    void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+
+    /** Sorts and deduplicates the collected ids. */
+    int[] toSortedArray() {
+      if (size == 0) {
+        return NO_IDS;
+      }
+      int[] sorted = Arrays.copyOf(ids, size);
+      Arrays.sort(sorted);
+      int count = 1;
+      for (int i = 1; i < sorted.length; i++) {
+        if (sorted[i] != sorted[count - 1]) {
+          sorted[count++] = sorted[i];
+        }
+      }
+      return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    /** Returns a copy of the sorted array without the collected ids. */
+    int[] removeFrom(int[] sortedIds) {
+      int[] toRemove = toSortedArray();
+      int[] result = new int[sortedIds.length];
+      int count = 0;
+      int j = 0;
+      for (int id : sortedIds) {
+        while (j < toRemove.length && toRemove[j] < id) {
+          j++;
+        }
+        if (j == toRemove.length || toRemove[j] != id) {
+          result[count++] = id;
+        }
+      }
+      return count == 0 ? NO_IDS : Arrays.copyOf(result, count);
+    }
+
+    /** Returns the sorted union of the given sorted array and the collected ids. */
+    int[] addTo(int[] sortedIds) {
+      int[] toAdd = toSortedArray();
+      int[] result = new int[sortedIds.length + toAdd.length];
+      int count = 0;
+      int i = 0;
+      int j = 0;
+      while (i < sortedIds.length || j < toAdd.length) {
+        int next;
+        if (j == toAdd.length || (i < sortedIds.length && sortedIds[i] < toAdd[j])) {
+          next = sortedIds[i++];
+        } else if (i == sortedIds.length || toAdd[j] < sortedIds[i]) {
+          next = toAdd[j++];
+        } else {
+          next = sortedIds[i++];
+          j++;
+        }
+        result[count++] = next;
+      }
+      return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+  }
+
+  /**
+   * The id assignment shared by a map and all maps derived from it. Ids are never reassigned, so
+   * older maps stay valid while newer ones add ids.
+   */
+  private static final class KeyIds implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentHashMap<TargetKey, Integer> ids = new ConcurrentHashMap<>();
+    /** Guarded by this. Entries beyond {@link #size} are null. */
+    private TargetKey[] keys = new TargetKey[1024];
+
+    synchronized int idFor(TargetKey key) {
+      Integer existing = ids.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      int id = ids.size();
+      if (id == keys.length) {
+        keys = Arrays.copyOf(keys, id * 2);
+      }
+      keys[id] = key;
+      ids.put(key, id);
+      return id;
+    }
+
+    synchronized int size() {
+      return ids.size();
+    }
+
+    synchronized TargetKey[] keys() {
+      return keys;
+    }
+  }
+
+  /** Assigns ids and collects edges for a new map. */
+  public static final class Builder {
+    private final KeyIds keyIds = new KeyIds();
+    private IdSet[] edges = new IdSet[1024];
+    private final BitSet targets = new BitSet();
+
+    private Builder() {}
+
+    /**
+     * Every target in the map is a member of the built map, including targets which have neither
+     * dependencies nor reverse dependencies, and so never appear in a persisted entry.
+     */
+    private Builder(TargetMap targetMap) {
+      for (TargetKey key : targetMap.keys()) {
+        targets.set(keyIds.idFor(key));
+      }
+    }
+
+    /** Records that {@code rdep} directly depends on {@code key}. */
+    public Builder put(TargetKey key, TargetKey rdep) {
+      add(keyIds.idFor(key), keyIds.idFor(rdep));
+      return this;
+    }
+
+    private void add(int id, int rdep) {
+      if (id >= edges.length) {
+        edges = Arrays.copyOf(edges, Math.max(id + 1, edges.length * 2));
+      }
+      IdSet set = edges[id];
+      if (set == null) {
+        set = edges[id] = new IdSet();
+      }
+      set.add(rdep);
+    }
+
+    public ReverseDependencyMap build() {
+      int size = keyIds.size();
+      int[][] rdeps = new int[size][];
+      for (int id = 0; id < size; id++) {
+        rdeps[id] = id < edges.length && edges[id] != null ? edges[id].toSortedArray() : NO_IDS;
+      }
+      return new ReverseDependencyMap(keyIds, rdeps, (BitSet) targets.clone());
+    }
+  }
 }
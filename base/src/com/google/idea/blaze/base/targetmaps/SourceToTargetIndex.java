@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable index from source files to the targets containing them, stored with the sync state
+ * and updated from the targets which changed during each sync.
+ *
+ * <p>Sources in the main workspace are indexed by their workspace-relative path. All other sources
+ * (external or generated) are indexed by their absolute path. The paths are held in a sorted
+ * array, alongside a flat array of int target ids, so lookups are a binary search and all sources
+ * under a directory are a contiguous range.
+ */
+public final class SourceToTargetIndex implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Once more than this fraction of target ids is unused, {@link #update} starts from scratch. */
+  private static final double MAX_UNUSED_TARGET_FRACTION = 0.5;
+
+  /** Used to detect changes which invalidate the paths of non-workspace sources. */
+  @Nullable private final String executionRoot;
+  /** The key of each target id. Null for targets which have since been removed. */
+  private final TargetKey[] targets;
+  private final int unusedTargetIds;
+  /** The distinct source paths, sorted. */
+  private final String[] paths;
+  /** The targets of paths[i] are targetIds[offsets[i]] to targetIds[offsets[i + 1]]. */
+  private final int[] offsets;
+  private final int[] targetIds;
+
+  private SourceToTargetIndex(
+      @Nullable String executionRoot,
+      TargetKey[] targets,
+      int unusedTargetIds,
+      String[] paths,
+      int[] offsets,
+      int[] targetIds) {
+    this.executionRoot = executionRoot;
+    this.targets = targets;
+    this.unusedTargetIds = unusedTargetIds;
+    this.paths = paths;
+    this.offsets = offsets;
+    this.targetIds = targetIds;
+  }
+
+  /**
+   * Builds an index of all sources in the target map.
+   *
+   * @param executionRoot the execution root the decoder resolves non-workspace artifacts against
+   */
+  public static SourceToTargetIndex create(
+      TargetMap targetMap, ArtifactLocationDecoder decoder, @Nullable String executionRoot) {
+    List<TargetKey> targets = new ArrayList<>();
+    List<Entry> entries = new ArrayList<>();
+    // decode targets one at a time, rather than materializing the whole map
+    for (TargetKey key : targetMap.keys()) {
+      TargetIdeInfo target = targetMap.get(key);
+      if (target == null) {
+        continue;
+      }
+      int id = targets.size();
+      targets.add(key);
+      addEntries(target, id, decoder, entries);
+    }
+    return fromEntries(executionRoot, targets.toArray(new TargetKey[0]), 0, entries);
+  }
+
+  /**
+   * Returns the index for a new target map, given the keys of all targets which were added, removed
+   * or modified since this index was built. Only the sources of the changed targets are decoded.
+   */
+  public SourceToTargetIndex update(
+      TargetMap targetMap,
+      Collection<TargetKey> changedTargets,
+      ArtifactLocationDecoder decoder,
+      @Nullable String executionRoot) {
+    if (!Objects.equals(this.executionRoot, executionRoot)
+        || unusedTargetIds + changedTargets.size()
+            > MAX_UNUSED_TARGET_FRACTION * (targets.length + changedTargets.size())) {
+      return create(targetMap, decoder, executionRoot);
+    }
+    Set<TargetKey> changed = new HashSet<>(changedTargets);
+    Map<TargetKey, Integer> previousIds = new HashMap<>();
+    BitSet removedIds = new BitSet(targets.length);
+    for (int id = 0; id < targets.length; id++) {
+      if (targets[id] != null && changed.contains(targets[id])) {
+        previousIds.put(targets[id], id);
+      }
+    }
+
+    // changed targets are given new ids, so their previous entries are easily dropped
+    TargetKey[] newTargets = Arrays.copyOf(targets, targets.length + changed.size());
+    int nextId = targets.length;
+    int unused = unusedTargetIds;
+    List<Entry> added = new ArrayList<>();
+    for (TargetKey key : changed) {
+      Integer previousId = previousIds.get(key);
+      if (previousId != null) {
+        newTargets[previousId] = null;
+        removedIds.set(previousId);
+        unused++;
+      }
+      TargetIdeInfo target = targetMap.get(key);
+      if (target == null) {
+        continue;
+      }
+      int id = nextId++;
+      newTargets[id] = key;
+      addEntries(target, id, decoder, added);
+    }
+    newTargets = Arrays.copyOf(newTargets, nextId);
+    added.sort(Entry.ORDER);
+
+    // merge the remaining entries with the new ones
+    List<String> newPaths = new ArrayList<>(paths.length + added.size());
+    int[] newOffsets = new int[paths.length + added.size() + 1];
+    int[] newTargetIds = new int[targetIds.length + added.size()];
+    int pathCount = 0;
+    int idCount = 0;
+    int i = 0;
+    int j = 0;
+    while (i < paths.length || j < added.size()) {
+      String path;
+      if (j == added.size()
+          || (i < paths.length && paths[i].compareTo(added.get(j).path) <= 0)) {
+        path = paths[i];
+      } else {
+        path = added.get(j).path;
+      }
+      int start = idCount;
+      if (i < paths.length && paths[i].equals(path)) {
+        for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+          if (!removedIds.get(targetIds[k])) {
+            newTargetIds[idCount++] = targetIds[k];
+          }
+        }
+        i++;
+      }
+      while (j < added.size() && added.get(j).path.equals(path)) {
+        int id = added.get(j++).targetId;
+        // a target may list the same source more than once
+        if (idCount == start || newTargetIds[idCount - 1] != id) {
+          newTargetIds[idCount++] = id;
+        }
+      }
+      if (idCount > start) {
+        newPaths.add(path);
+        newOffsets[pathCount++] = start;
+      }
+    }
+    newOffsets[pathCount] = idCount;
+    return new SourceToTargetIndex(
+        executionRoot,
+        newTargets,
+        unused,
+        newPaths.toArray(new String[0]),
+        Arrays.copyOf(newOffsets, pathCount + 1),
+        Arrays.copyOf(newTargetIds, idCount));
+  }
+
+  /** Returns the targets containing the source with the given path. */
+  public ImmutableList<TargetKey> get(String path) {
+    int index = Arrays.binarySearch(paths, path);
+    if (index < 0) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> result = ImmutableList.builder();
+    for (int k = offsets[index]; k < offsets[index + 1]; k++) {
+      result.add(targets[targetIds[k]]);
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns all targets containing a source under the given directory path (e.g. a package), or all
+   * targets with sources if the path is empty.
+   */
+  public ImmutableSet<TargetKey> getUnderDirectory(String directory) {
+    String prefix = directory.isEmpty() || directory.endsWith("/") ? directory : directory + "/";
+    int index = Arrays.binarySearch(paths, prefix);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    ImmutableSet.Builder<TargetKey> result = ImmutableSet.builder();
+    for (; index < paths.length && paths[index].startsWith(prefix); index++) {
+      for (int k = offsets[index]; k < offsets[index + 1]; k++) {
+        result.add(targets[targetIds[k]]);
+      }
+    }
+    return result.build();
+  }
+
+  /** The number of distinct source paths in this index. */
+  public int size() {
+    return paths.length;
+  }
+
+  /** Returns the path under which the given source is indexed. */
+  public static String pathFor(ArtifactLocation source, ArtifactLocationDecoder decoder) {
+    return source.isMainWorkspaceSourceArtifact()
+        ? source.getRelativePath()
+        : decoder.decode(source).getPath();
+  }
+
+  private static void addEntries(
+      TargetIdeInfo target, int id, ArtifactLocationDecoder decoder, List<Entry> entries) {
+    for (ArtifactLocation source : target.sources) {
+      entries.add(new Entry(pathFor(source, decoder), id));
+    }
+  }
+
+  private static SourceToTargetIndex fromEntries(
+      @Nullable String executionRoot,
+      TargetKey[] targets,
+      int unusedTargetIds,
+      List<Entry> entries) {
+    entries.sort(Entry.ORDER);
+    List<String> paths = new ArrayList<>();
+    int[] offsets = new int[entries.size() + 1];
+    int[] targetIds = new int[entries.size()];
+    int idCount = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      boolean newPath = i == 0 || !entry.path.equals(entries.get(i - 1).path);
+      if (newPath) {
+        offsets[paths.size()] = idCount;
+        paths.add(entry.path);
+      } else if (targetIds[idCount - 1] == entry.targetId) {
+        continue;
+      }
+      targetIds[idCount++] = entry.targetId;
+    }
+    offsets[paths.size()] = idCount;
+    return new SourceToTargetIndex(
+        executionRoot,
+        targets,
+        unusedTargetIds,
+        paths.toArray(new String[0]),
+        Arrays.copyOf(offsets, paths.size() + 1),
+        Arrays.copyOf(targetIds, idCount));
+  }
+
+  /** Writes the index in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<SourceToTargetIndex> {
+    @Override
+    public Class<SourceToTargetIndex> stateClass() {
+      return SourceToTargetIndex.class;
+    }
+
+    @Override
+    public void write(SourceToTargetIndex index, CompactDataOutput out) throws IOException {
+      out.writeString(index.executionRoot);
+      out.writeVarInt(index.targets.length);
+      for (TargetKey target : index.targets) {
+        out.writeBoolean(target != null);
+        if (target != null) {
+          out.writeTargetKey(target);
+        }
+      }
+      out.writeVarInt(index.unusedTargetIds);
+      out.writeVarInt(index.paths.length);
+      for (int i = 0; i < index.paths.length; i++) {
+        out.writeString(index.paths[i]);
+        out.writeVarInt(index.offsets[i + 1] - index.offsets[i]);
+        for (int k = index.offsets[i]; k < index.offsets[i + 1]; k++) {
+          out.writeVarInt(index.targetIds[k]);
+        }
+      }
+    }
+
+    @Override
+    public SourceToTargetIndex read(CompactDataInput in) throws IOException {
+      String executionRoot = in.readString();
+      TargetKey[] targets = new TargetKey[in.readVarInt()];
+      for (int id = 0; id < targets.length; id++) {
+        targets[id] = in.readBoolean() ? in.readTargetKey() : null;
+      }
+      int unusedTargetIds = in.readVarInt();
+      String[] paths = new String[in.readVarInt()];
+      int[] offsets = new int[paths.length + 1];
+      int[] targetIds = new int[paths.length];
+      int idCount = 0;
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = in.readNonNullString();
+        int count = in.readVarInt();
+        if (idCount + count > targetIds.length) {
+          targetIds = Arrays.copyOf(targetIds, Math.max(idCount + count, targetIds.length * 2));
+        }
+        for (int k = 0; k < count; k++) {
+          int id = in.readVarInt();
+          if (id >= targets.length || targets[id] == null) {
+            throw new IOException("Invalid source target id: " + id);
+          }
+          targetIds[idCount++] = id;
+        }
+        offsets[i + 1] = idCount;
+      }
+      return new SourceToTargetIndex(
+          executionRoot,
+          targets,
+          unusedTargetIds,
+          paths,
+          offsets,
+          Arrays.copyOf(targetIds, idCount));
+    }
+  }
+
+  private static final class Entry {
+    static final Comparator<Entry> ORDER =
+        Comparator.<Entry, String>comparing(e -> e.path).thenComparingInt(e -> e.targetId);
+
+    final String path;
+    final int targetId;
+
+    Entry(String path, int targetId) {
+      this.path = path;
+      this.targetId = targetId;
+    }
+  }
+}
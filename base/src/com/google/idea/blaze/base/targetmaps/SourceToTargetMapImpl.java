@@ -19,15 +19,13 @@ import static com.google.idea.common.guava.GuavaHelper.toImmutableList;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
-import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
-import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Objects;
@@ -61,30 +59,46 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
 
   @Override
   public ImmutableCollection<TargetKey> getRulesForSourceFile(File sourceFile) {
-    ImmutableMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap();
-    if (sourceToTargetMap == null) {
+    BlazeProjectData blazeProjectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    SourceToTargetIndex index = getIndex(blazeProjectData);
+    if (index == null) {
       return ImmutableList.of();
     }
-    return sourceToTargetMap.get(sourceFile);
+    WorkspacePath workspacePath =
+        blazeProjectData.workspacePathResolver.getWorkspacePath(sourceFile);
+    if (workspacePath != null) {
+      ImmutableList<TargetKey> targets = index.get(workspacePath.relativePath());
+      if (!targets.isEmpty()) {
+        return targets;
+      }
+    }
+    return index.get(sourceFile.getPath());
   }
 
+  /**
+   * Returns the index persisted with the project data. The first query after loading project data
+   * from an older plugin version builds it from scratch.
+   */
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+  private SourceToTargetIndex getIndex(@Nullable BlazeProjectData blazeProjectData) {
+    if (blazeProjectData == null) {
+      return null;
+    }
+    SourceToTargetIndex index = blazeProjectData.syncState.get(SourceToTargetIndex.class);
+    if (index != null) {
+      return index;
+    }
     return SyncCache.getInstance(project)
-        .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
+        .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetIndex);
   }
 
   @SuppressWarnings("unused")
-  private static ImmutableMultimap<File, TargetKey> computeSourceToTargetMap(
+  private static SourceToTargetIndex computeSourceToTargetIndex(
       Project project, BlazeProjectData blazeProjectData) {
-    ArtifactLocationDecoder artifactLocationDecoder = blazeProjectData.artifactLocationDecoder;
-    ImmutableMultimap.Builder<File, TargetKey> sourceToTargetMap = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : blazeProjectData.targetMap.targets()) {
-      TargetKey key = target.key;
-      for (ArtifactLocation sourceArtifact : target.sources) {
-        sourceToTargetMap.put(artifactLocationDecoder.decode(sourceArtifact), key);
-      }
-    }
-    return sourceToTargetMap.build();
+    return SourceToTargetIndex.create(
+        blazeProjectData.targetMap,
+        blazeProjectData.artifactLocationDecoder,
+        blazeProjectData.blazeInfo.getExecutionRoot().getPath());
   }
 }
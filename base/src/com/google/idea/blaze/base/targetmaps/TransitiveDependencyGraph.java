@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable snapshot of the dependency graph of a {@link TargetMap}, with each key assigned a
+ * dense int id, used to answer transitive dependency queries.
+ *
+ * <p>Closures are memoized in a cache bounded by their total size, and reused when computing the
+ * closures of targets depending on them. Large closures are stored as bitsets.
+ */
+final class TransitiveDependencyGraph {
+
+  /** The maximum total size of the memoized closures, in ints. */
+  private static final long MAX_CACHED_WEIGHT = 4 << 20;
+
+  private final ImmutableMap<TargetKey, Integer> ids;
+  private final TargetKey[] keys;
+  /** The ids of the direct dependencies of each target, as plain target keys. */
+  private final int[][] deps;
+
+  private final Cache<Integer, Closure> closures;
+
+  private TransitiveDependencyGraph(
+      ImmutableMap<TargetKey, Integer> ids, TargetKey[] keys, int[][] deps, long maxCachedWeight) {
+    this.ids = ids;
+    this.keys = keys;
+    this.deps = deps;
+    this.closures =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxCachedWeight)
+            .weigher((Integer id, Closure closure) -> closure.weight())
+            .build();
+  }
+
+  static TransitiveDependencyGraph create(TargetMap targetMap) {
+    return create(targetMap, MAX_CACHED_WEIGHT);
+  }
+
+  static TransitiveDependencyGraph create(TargetMap targetMap, long maxCachedWeight) {
+    Map<TargetKey, Integer> ids = new HashMap<>();
+    List<TargetKey> keys = new ArrayList<>();
+    List<int[]> deps = new ArrayList<>();
+    for (TargetKey key : targetMap.keys()) {
+      Collection<Dependency> dependencies = targetMap.getDependencies(key);
+      int id = idFor(key, ids, keys, deps);
+      int[] targetDeps = new int[dependencies.size()];
+      int count = 0;
+      for (Dependency dep : dependencies) {
+        // dependencies are always followed via their plain target key
+        targetDeps[count++] = idFor(TargetKey.forPlainTarget(dep.targetKey.label), ids, keys, deps);
+      }
+      Arrays.sort(targetDeps);
+      deps.set(id, dedupe(targetDeps));
+    }
+    return new TransitiveDependencyGraph(
+        ImmutableMap.copyOf(ids),
+        keys.toArray(new TargetKey[0]),
+        deps.toArray(new int[0][]),
+        maxCachedWeight);
+  }
+
+  private static int idFor(
+      TargetKey key, Map<TargetKey, Integer> ids, List<TargetKey> keys, List<int[]> deps) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = keys.size();
+      ids.put(key, id);
+      keys.add(key);
+      deps.add(new int[0]);
+    }
+    return id;
+  }
+
+  private static int[] dedupe(int[] sorted) {
+    int count = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (count == 0 || sorted[i] != sorted[count - 1]) {
+        sorted[count++] = sorted[i];
+      }
+    }
+    return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+  }
+
+  /** Returns the transitive dependencies of the given target. */
+  ImmutableSet<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
+    Integer id = ids.get(targetKey);
+    return id != null ? toKeys(closure(id)) : ImmutableSet.of();
+  }
+
+  /** Returns the union of the transitive dependencies of the given targets. */
+  ImmutableSet<TargetKey> getTransitiveDependencies(Collection<TargetKey> targetKeys) {
+    BitSet union = new BitSet(keys.length);
+    for (TargetKey key : targetKeys) {
+      Integer id = ids.get(key);
+      if (id != null) {
+        closure(id).addTo(union);
+      }
+    }
+    return toKeys(union);
+  }
+
+  /** Returns the transitive dependencies of each of the given targets. */
+  ImmutableMap<TargetKey, ImmutableSet<TargetKey>> getTransitiveDependenciesForEach(
+      Collection<TargetKey> targetKeys) {
+    ImmutableMap.Builder<TargetKey, ImmutableSet<TargetKey>> result = ImmutableMap.builder();
+    for (TargetKey key : ImmutableSet.copyOf(targetKeys)) {
+      result.put(key, getTransitiveDependencies(key));
+    }
+    return result.build();
+  }
+
+  /** Returns the memoized closure of the given id, computing it if necessary. */
+  private Closure closure(int root) {
+    Closure cached = closures.getIfPresent(root);
+    if (cached != null) {
+      return cached;
+    }
+    BitSet reached = new BitSet(keys.length);
+    int[] stack = new int[16];
+    int size = 0;
+    stack[size++] = root;
+    while (size > 0) {
+      int id = stack[--size];
+      for (int dep : deps[id]) {
+        if (reached.get(dep)) {
+          continue;
+        }
+        reached.set(dep);
+        Closure memoized = dep != root ? closures.getIfPresent(dep) : null;
+        if (memoized != null) {
+          // no need to traverse further, the memoized closure covers everything it reaches
+          memoized.addTo(reached);
+          continue;
+        }
+        if (size == stack.length) {
+          stack = Arrays.copyOf(stack, size * 2);
+        }
+        stack[size++] = dep;
+      }
+    }
+    Closure closure = Closure.of(reached, keys.length);
+    closures.put(root, closure);
+    return closure;
+  }
+
+  private ImmutableSet<TargetKey> toKeys(Closure closure) {
+    if (closure.bits != null) {
+      return toKeys(closure.bits);
+    }
+    ImmutableSet.Builder<TargetKey> result = ImmutableSet.builder();
+    for (int id : closure.ids) {
+      result.add(keys[id]);
+    }
+    return result.build();
+  }
+
+  private ImmutableSet<TargetKey> toKeys(BitSet bits) {
+    ImmutableSet.Builder<TargetKey> result = ImmutableSet.builder();
+    for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+      result.add(keys[id]);
+    }
+    return result.build();
+  }
+
+  /**
+   * A memoized closure. Stored as a sorted int array, or as a bitset once that's smaller (i.e. for
+   * closures covering more than 1/32 of the graph).
+   */
+  private static final class Closure {
+    @Nullable private final int[] ids;
+    @Nullable private final BitSet bits;
+    private final int weight;
+
+    private Closure(@Nullable int[] ids, @Nullable BitSet bits, int weight) {
+      this.ids = ids;
+      this.bits = bits;
+      this.weight = weight;
+    }
+
+    static Closure of(BitSet reached, int graphSize) {
+      int cardinality = reached.cardinality();
+      int bitsetWeight = graphSize / 32 + 1;
+      if (cardinality > bitsetWeight) {
+        return new Closure(null, reached, bitsetWeight);
+      }
+      return new Closure(reached.stream().toArray(), null, Math.max(cardinality, 1));
+    }
+
+    int weight() {
+      return weight;
+    }
+
+    void addTo(BitSet target) {
+      if (bits != null) {
+        target.or(bits);
+        return;
+      }
+      for (int id : ids) {
+        target.set(id);
+      }
+    }
+  }
+}
@@ -17,14 +17,14 @@ package com.google.idea.blaze.base.targetmaps;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
-import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 import java.util.Collection;
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** Handy class to find all transitive dependencies of a given target */
 public class TransitiveDependencyMap {
@@ -46,13 +47,34 @@ public class TransitiveDependencyMap {
   }
 
   public ImmutableCollection<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
-      return ImmutableSet.of();
+    TransitiveDependencyGraph graph = getGraph();
+    return graph != null ? graph.getTransitiveDependencies(targetKey) : ImmutableSet.of();
+  }
+
+  /** Returns the union of the transitive dependencies of the given targets. */
+  public ImmutableCollection<TargetKey> getTransitiveDependencies(
+      Collection<TargetKey> targetKeys) {
+    TransitiveDependencyGraph graph = getGraph();
+    return graph != null ? graph.getTransitiveDependencies(targetKeys) : ImmutableSet.of();
+  }
+
+  /** Returns the transitive dependencies of each of the given targets. */
+  public ImmutableMap<TargetKey, ImmutableSet<TargetKey>> getTransitiveDependenciesForEach(
+      Collection<TargetKey> targetKeys) {
+    TransitiveDependencyGraph graph = getGraph();
+    if (graph == null) {
+      return ImmutableMap.of();
     }
-    // TODO: see if we need caching.
-    return getTransitiveDependencies(targetKey, blazeProjectData.targetMap);
+    return graph.getTransitiveDependenciesForEach(targetKeys);
+  }
+
+  /** The dependency graph of the current project data, rebuilt once after each sync. */
+  @Nullable
+  private TransitiveDependencyGraph getGraph() {
+    return SyncCache.getInstance(project)
+        .get(
+            TransitiveDependencyMap.class,
+            (p, projectData) -> TransitiveDependencyGraph.create(projectData.targetMap));
   }
 
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
@@ -63,22 +64,7 @@ public class SerializationUtil {
       return null;
     }
     try (FileInputStream fin = new FileInputStream(file)) {
-      ObjectInputStream ois =
-          new ObjectInputStream(fin) {
-            @Override
-            protected Class<?> resolveClass(ObjectStreamClass desc)
-                throws IOException, ClassNotFoundException {
-              String name = desc.getName();
-              for (ClassLoader loader : classLoaders) {
-                try {
-                  return Class.forName(name, false, loader);
-                } catch (ClassNotFoundException e) {
-                  // Ignore - will throw eventually in super
-                }
-              }
-              return super.resolveClass(desc);
-            }
-          };
+      ObjectInputStream ois = new ClassLoaderObjectInputStream(fin, classLoaders);
       try {
         return ois.readObject();
       } finally {
@@ -90,7 +76,32 @@ public class SerializationUtil {
     }
   }
 
-  private static void ensureExists(File dir) throws IOException {
+  /** An {@link ObjectInputStream} which resolves classes using the given class loaders. */
+  public static class ClassLoaderObjectInputStream extends ObjectInputStream {
+    private final Iterable<ClassLoader> classLoaders;
+
+    public ClassLoaderObjectInputStream(InputStream in, Iterable<ClassLoader> classLoaders)
+        throws IOException {
+      super(in);
+      this.classLoaders = classLoaders;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      String name = desc.getName();
+      for (ClassLoader loader : classLoaders) {
+        try {
+          return Class.forName(name, false, loader);
+        } catch (ClassNotFoundException e) {
+          // Ignore - will throw eventually in super
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+
+  public static void ensureExists(File dir) throws IOException {
     if (!dir.exists() && !dir.mkdirs()) {
       throw new IOException(
           CommonBundle.message("exception.directory.can.not.create", dir.getPath()));
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeIntegrationTestCase;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link VirtualFileGlob} on a synthetic package of 100k files, against {@link UnixGlob}
+ * listing the same directories on disk.
+ *
+ * <p>Not part of the integration test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class VirtualFileGlobBenchmark extends BlazeIntegrationTestCase {
+
+  private static final int TOP_LEVEL_DIRECTORIES = 100;
+  private static final int SUBDIRECTORIES = 10;
+  private static final int FILES_PER_DIRECTORY = 100;
+  private static final int ITERATIONS = 10;
+
+  /** Include patterns, each with an optional exclude pattern. */
+  private static final String[][] GLOBS = {
+    {"**/*.java"}, {"**/*.java", "**/testdata/**"}, {"dir7/**/*.java"}, {"*/sub3/File1*.java"}
+  };
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void compareWithUnixGlob() throws Exception {
+    File packageDir = createPackage(folder.newFolder("pkg"));
+    // glob the real file system, rather than the in-memory one used by integration tests
+    registerApplicationService(FileOperationProvider.class, new FileOperationProvider());
+    VirtualFile vf = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(packageDir);
+    assertThat(vf).isNotNull();
+    VfsUtil.markDirtyAndRefresh(false, true, true, vf);
+
+    for (String[] glob : GLOBS) {
+      String include = glob[0];
+      String exclude = glob.length > 1 ? glob[1] : null;
+      // warm up all code paths
+      int expected = unixGlob(packageDir, include, exclude).size();
+      assertThat(virtualFileGlob(vf, include, exclude, false)).hasSize(expected);
+      assertThat(virtualFileGlob(vf, include, exclude, true)).hasSize(expected);
+
+      long unix = 0;
+      long vfsInThread = 0;
+      long vfsParallel = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        unixGlob(packageDir, include, exclude);
+        unix += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        virtualFileGlob(vf, include, exclude, false);
+        vfsInThread += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        virtualFileGlob(vf, include, exclude, true);
+        vfsParallel += System.nanoTime() - start;
+      }
+      System.out.println(
+          String.format(
+              "glob(['%s'], exclude = [%s]), %d matches: UnixGlob %d ms, "
+                  + "VirtualFileGlob in-thread %d ms, VirtualFileGlob parallel %d ms",
+              include,
+              exclude != null ? "'" + exclude + "'" : "",
+              expected,
+              unix / ITERATIONS / 1000000,
+              vfsInThread / ITERATIONS / 1000000,
+              vfsParallel / ITERATIONS / 1000000));
+    }
+  }
+
+  private static List<File> unixGlob(File packageDir, String include, String exclude)
+      throws Exception {
+    UnixGlob.Builder builder = UnixGlob.forPath(packageDir).addPattern(include);
+    if (exclude != null) {
+      builder.addExcludes(exclude);
+    }
+    return builder.glob();
+  }
+
+  private static List<VirtualFile> virtualFileGlob(
+      VirtualFile packageDir, String include, String exclude, boolean parallel)
+      throws Exception {
+    VirtualFileGlob.Builder builder = VirtualFileGlob.forPath(packageDir).addPatterns(include);
+    if (exclude != null) {
+      builder.addExcludes(exclude);
+    }
+    if (!parallel) {
+      builder.setExecutor(null);
+    }
+    return builder.glob();
+  }
+
+  /** Creates a two-level directory tree, with a mix of source, test data and other files. */
+  private static File createPackage(File packageDir) throws IOException {
+    for (int i = 0; i < TOP_LEVEL_DIRECTORIES; i++) {
+      for (int j = 0; j < SUBDIRECTORIES; j++) {
+        File dir = new File(packageDir, "dir" + i + (j == 0 ? "/testdata" : "/sub" + j));
+        if (!dir.mkdirs()) {
+          throw new IOException("Couldn't create " + dir);
+        }
+        for (int k = 0; k < FILES_PER_DIRECTORY; k++) {
+          String extension = k % 4 == 0 ? ".txt" : ".java";
+          if (!new File(dir, "File" + k + extension).createNewFile()) {
+            throw new IOException("Couldn't create file in " + dir);
+          }
+        }
+      }
+    }
+    return packageDir;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeIntegrationTestCase;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link VirtualFileGlob}, checking it returns the same results as {@link UnixGlob}. */
+@RunWith(JUnit4.class)
+public class VirtualFileGlobTest extends BlazeIntegrationTestCase {
+
+  private static final ImmutableList<String> INCLUDES =
+      ImmutableList.of(
+          "**",
+          "*",
+          "*.java",
+          "**/*.java",
+          "sub/*",
+          "sub/**",
+          "**/x/**",
+          "foo/*/*.java",
+          "lit/a/b.c",
+          "lit/*/b.c",
+          "*/bar",
+          "s?b/*.txt",
+          ".*",
+          "t*/**/*.java");
+
+  private static final ImmutableList<String> EXCLUDES =
+      ImmutableList.of(
+          "tests/**", "**/*.txt", "sub/x/**", "*", "sub", "foo/bar/**", "lit/a/b.c", "**");
+
+  private VirtualFile base;
+
+  @Before
+  public final void before() {
+    for (String path :
+        ImmutableList.of(
+            "a.java",
+            "b.txt",
+            ".hidden.java",
+            "sub/c.java",
+            "sub/d.txt",
+            "sub/x/e.java",
+            "tests/t.java",
+            "tests/deep/u.java",
+            "foo/bar/baz.java",
+            "foo/bar/q.txt",
+            "lit/a/b.c")) {
+      workspace.createFile(new WorkspacePath("pkg/" + path));
+    }
+    workspace.createDirectory(new WorkspacePath("pkg/empty"));
+    base = workspace.createDirectory(new WorkspacePath("pkg"));
+  }
+
+  @Test
+  public void testMatchesUnixGlob() throws Exception {
+    for (String include : INCLUDES) {
+      for (String exclude : EXCLUDES) {
+        for (boolean excludeDirectories : new boolean[] {false, true}) {
+          assertEquals(
+              String.format(
+                  "glob(['%s'], exclude = ['%s'], exclude_directories = %s)",
+                  include, exclude, excludeDirectories),
+              unixGlob(include, exclude, excludeDirectories),
+              virtualFileGlob(include, exclude, excludeDirectories));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testExcludedSubtreeIsNotTraversed() throws Exception {
+    List<String> visited =
+        VirtualFileGlob.forPath(base)
+            .addPatterns("**/*.java")
+            .addExcludes("tests/**")
+            .setDirectoryFilter(
+                dir -> {
+                  assertThat(dir.getName()).isNotEqualTo("deep");
+                  return true;
+                })
+            .glob()
+            .stream()
+            .map(VirtualFile::getName)
+            .collect(Collectors.toList());
+    assertThat(visited).containsExactly("a.java", "c.java", "e.java", "baz.java");
+  }
+
+  @Test
+  public void testDirectoryFilter() throws Exception {
+    List<String> files =
+        VirtualFileGlob.forPath(base)
+            .addPatterns("**/*.java")
+            .setDirectoryFilter(dir -> !dir.getName().equals("sub"))
+            .setExecutor(null)
+            .glob()
+            .stream()
+            .map(VirtualFile::getName)
+            .collect(Collectors.toList());
+    assertThat(files).containsExactly("a.java", "t.java", "u.java", "baz.java");
+  }
+
+  private List<String> unixGlob(String include, String exclude, boolean excludeDirectories)
+      throws Exception {
+    return UnixGlob.forPath(new File(base.getPath()))
+        .addPattern(include)
+        .addExcludes(exclude)
+        .setExcludeDirectories(excludeDirectories)
+        .glob()
+        .stream()
+        .map(File::getPath)
+        .collect(Collectors.toList());
+  }
+
+  private List<String> virtualFileGlob(String include, String exclude, boolean excludeDirectories)
+      throws Exception {
+    return VirtualFileGlob.forPath(base)
+        .addPatterns(include)
+        .addExcludes(exclude)
+        .setExcludeDirectories(excludeDirectories)
+        .glob()
+        .stream()
+        .map(VirtualFile::getPath)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import java.util.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the BUILD file stub tree and stub indices. */
+@RunWith(JUnit4.class)
+public class BuildFileStubTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testTopLevelRulesInStubTree() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_test(name = 'test', deps = [':lib'])");
+
+    assertThat(file.getTopLevelFuncalls()).hasLength(2);
+    assertThat(file.findRule("lib")).isNotNull();
+    assertThat(file.findRule("test")).isNotNull();
+    assertThat(file.findRule("missing")).isNull();
+  }
+
+  @Test
+  public void testNestedFuncallsNotInStubTree() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "def macro(name):",
+            "  native.java_library(name = 'inner')");
+
+    assertThat(file.getTopLevelFuncalls()).isEmpty();
+    assertThat(file.findRule("inner")).isNull();
+    assertThat(file.findDeclaredFunction("macro")).isNotNull();
+  }
+
+  @Test
+  public void testLoadStatementsIndexedByLoadedSymbol() {
+    createBuildFile(new WorkspacePath("java/com/google/build_defs.bzl"), "def fn(name):", "  pass");
+    BuildFile buildFile =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "load('//java/com/google:build_defs.bzl', alias = 'fn')",
+            "alias(name = 'target')");
+
+    LoadStatement load = buildFile.firstChildOfClass(LoadStatement.class);
+    assertThat(getElements(LoadedSymbolIndex.KEY, "fn", LoadStatement.class))
+        .containsExactly(load);
+    assertThat(getElements(LoadedSymbolIndex.KEY, "alias", LoadStatement.class)).isEmpty();
+    assertThat(load.getLoadedSymbolName("alias")).isEqualTo("fn");
+    assertThat(load.getLoadedSymbolName("fn")).isNull();
+  }
+
+  @Test
+  public void testLoadedFunctionResolvedThroughReexport() {
+    BuildFile definingFile =
+        createBuildFile(new WorkspacePath("java/com/google/defs.bzl"), "def fn(name):", "  pass");
+    createBuildFile(
+        new WorkspacePath("java/com/google/reexport.bzl"),
+        "load('//java/com/google:defs.bzl', 'fn')");
+    BuildFile buildFile =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "load('//java/com/google:reexport.bzl', my_fn = 'fn')",
+            "my_fn(name = 'target')");
+
+    FunctionStatement function = definingFile.findDeclaredFunction("fn");
+    assertThat(function).isNotNull();
+    assertThat(buildFile.findLoadedFunction("my_fn")).isEqualTo(function);
+    assertThat(buildFile.findFunctionInScope("fn")).isNull();
+  }
+
+  @Test
+  public void testCyclicLoadsDoNotResolve() {
+    createBuildFile(
+        new WorkspacePath("java/com/google/a.bzl"), "load('//java/com/google:b.bzl', 'fn')");
+    BuildFile b =
+        createBuildFile(
+            new WorkspacePath("java/com/google/b.bzl"), "load('//java/com/google:a.bzl', 'fn')");
+
+    assertThat(b.findLoadedFunction("fn")).isNull();
+  }
+
+  private <T extends PsiElement> Collection<T> getElements(
+      StubIndexKey<String, T> key, String name, Class<T> psiClass) {
+    return StubIndex.getElements(
+        key, name, getProject(), GlobalSearchScope.allScope(getProject()), psiClass);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.async.process.LineProcessingOutputStream.LineProcessor;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link LineProcessingOutputStream} throughput on several MB of 'blaze query --output
+ * label_kind' output, written in chunks as a process would produce it, against the previous
+ * String-based implementation.
+ *
+ * <p>Not part of the unit test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamBenchmark {
+
+  private static final int LINE_COUNT = 200000;
+  private static final int ITERATIONS = 10;
+
+  @Test
+  public void compareWithStringBuffer() throws IOException {
+    byte[] output = createQueryOutput(LINE_COUNT);
+    for (int chunkSize : new int[] {1024, 8192, 65536}) {
+      // warm up both code paths
+      run(new StringBufferLineProcessingOutputStream(processor()), output, chunkSize);
+      run(LineProcessingOutputStream.of(processor()), output, chunkSize);
+      run(LineProcessingOutputStream.of(charSequenceProcessor()), output, chunkSize);
+
+      long legacy = 0;
+      long strings = 0;
+      long charSequences = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        legacy += run(new StringBufferLineProcessingOutputStream(processor()), output, chunkSize);
+        strings += run(LineProcessingOutputStream.of(processor()), output, chunkSize);
+        charSequences +=
+            run(LineProcessingOutputStream.of(charSequenceProcessor()), output, chunkSize);
+      }
+      System.out.println(
+          String.format(
+              "%d KB in %d byte chunks: StringBuffer %d ms, byte buffer %d ms, "
+                  + "byte buffer without Strings %d ms",
+              output.length / 1024,
+              chunkSize,
+              legacy / ITERATIONS / 1000000,
+              strings / ITERATIONS / 1000000,
+              charSequences / ITERATIONS / 1000000));
+    }
+  }
+
+  private static long run(OutputStream stream, byte[] output, int chunkSize) throws IOException {
+    long start = System.nanoTime();
+    for (int offset = 0; offset < output.length; offset += chunkSize) {
+      stream.write(output, offset, Math.min(chunkSize, output.length - offset));
+    }
+    return System.nanoTime() - start;
+  }
+
+  /** A cheap processor, so the benchmark measures line splitting. */
+  private static LineProcessor processor() {
+    AtomicInteger count = new AtomicInteger();
+    return line -> {
+      count.addAndGet(line.length());
+      return true;
+    };
+  }
+
+  /** A cheap processor which doesn't need each line as a String. */
+  private static LineProcessor charSequenceProcessor() {
+    AtomicInteger count = new AtomicInteger();
+    return new LineProcessor() {
+      @Override
+      public boolean processLine(String line) {
+        return processLine((CharSequence) line);
+      }
+
+      @Override
+      public boolean processLine(CharSequence line) {
+        count.addAndGet(line.length());
+        return true;
+      }
+    };
+  }
+
+  private static byte[] createQueryOutput(int lineCount) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < lineCount; i++) {
+      String line =
+          String.format(
+              "java_library rule //java/com/example/pkg%d/subpackage:target%d\n", i / 20, i);
+      out.write(line.getBytes(UTF_8));
+    }
+    return out.toByteArray();
+  }
+
+  /** The previous implementation, which rescans a StringBuffer from the start for each line. */
+  private static class StringBufferLineProcessingOutputStream extends OutputStream {
+    private final StringBuffer stringBuffer = new StringBuffer();
+    private final ImmutableList<LineProcessor> lineProcessors;
+
+    StringBufferLineProcessingOutputStream(LineProcessor... lineProcessors) {
+      this.lineProcessors = ImmutableList.copyOf(lineProcessors);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      stringBuffer.append(new String(b, off, len, UTF_8));
+      while (true) {
+        int lineBreakIndex = -1;
+        int lineBreakLength = 0;
+        for (int i = 0; i < stringBuffer.length(); ++i) {
+          char c = stringBuffer.charAt(i);
+          if (c == '\r' || c == '\n') {
+            lineBreakIndex = i;
+            lineBreakLength = 1;
+            if (c == '\r'
+                && (i + 1) < stringBuffer.length()
+                && stringBuffer.charAt(i + 1) == '\n') {
+              ++lineBreakLength;
+            }
+            break;
+          }
+        }
+        if (lineBreakIndex == -1) {
+          return;
+        }
+        String line = stringBuffer.substring(0, lineBreakIndex);
+        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
+        for (LineProcessor lineProcessor : lineProcessors) {
+          if (!lineProcessor.processLine(line)) {
+            break;
+          }
+        }
+      }
+    }
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.async.process.LineProcessingOutputStream.LineProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamTest {
+
+  @Test
+  public void testLinesSplitAcrossWrites() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+
+    write(stream, "first li");
+    write(stream, "ne\nsecond line\nthi");
+    assertThat(lines).containsExactly("first line", "second line").inOrder();
+
+    write(stream, "rd line\n");
+    assertThat(lines).containsExactly("first line", "second line", "third line").inOrder();
+  }
+
+  @Test
+  public void testLineBreakVariants() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+
+    write(stream, "unix\nwindows\r\nmac\r\nempty\n\n");
+    assertThat(lines).containsExactly("unix", "windows", "mac", "empty", "").inOrder();
+  }
+
+  @Test
+  public void testCarriageReturnAndLineFeedInSeparateWrites() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+
+    write(stream, "line\r");
+    write(stream, "\nnext\n");
+    assertThat(lines).containsExactly("line", "next").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharacterSplitAcrossWrites() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+
+    byte[] bytes = "caf\u00e9 \u65e5\u672c\n".getBytes(UTF_8);
+    for (byte b : bytes) {
+      stream.write(b);
+    }
+    assertThat(lines).containsExactly("caf\u00e9 \u65e5\u672c");
+  }
+
+  @Test
+  public void testCharSequenceProcessorsAndShortCircuit() {
+    List<String> chars = new ArrayList<>();
+    List<String> strings = new ArrayList<>();
+    LineProcessor charSequenceProcessor =
+        new LineProcessor() {
+          @Override
+          public boolean processLine(String line) {
+            throw new AssertionError("String form shouldn't be requested");
+          }
+
+          @Override
+          public boolean processLine(CharSequence line) {
+            chars.add(line.toString());
+            return !line.toString().equals("stop");
+          }
+        };
+    LineProcessingOutputStream stream =
+        LineProcessingOutputStream.of(charSequenceProcessor, collect(strings));
+
+    write(stream, "go\nstop\n\u00fcber\n");
+    assertThat(chars).containsExactly("go", "stop", "\u00fcber").inOrder();
+    assertThat(strings).containsExactly("go", "\u00fcber").inOrder();
+  }
+
+  @Test
+  public void testLongLines() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      longLine.append((char) ('a' + i % 26));
+    }
+
+    for (int i = 0; i < longLine.length(); i += 1000) {
+      write(stream, longLine.substring(i, i + 1000));
+    }
+    write(stream, "\nshort\n");
+    assertThat(lines).containsExactly(longLine.toString(), "short").inOrder();
+  }
+
+  @Test
+  public void testNoOutputAfterClose() throws Exception {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(collect(lines));
+    stream.close();
+    write(stream, "ignored\n");
+    assertThat(lines).isEmpty();
+  }
+
+  private static LineProcessor collect(List<String> lines) {
+    return line -> {
+      lines.add(line);
+      return true;
+    };
+  }
+
+  private static void write(LineProcessingOutputStream stream, String text) {
+    byte[] bytes = text.getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.idea.common.guava.GuavaHelper.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetCompletedId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetComplete;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BuildEventProtocolStreamReader}. */
+@RunWith(JUnit4.class)
+public class BuildEventProtocolStreamReaderTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private ExecutorService executor;
+  private File bepFile;
+  private final List<File> reportedFiles = Collections.synchronizedList(new ArrayList<>());
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+    bepFile = new File(tmpFolder.getRoot(), "bep_output");
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void outputGroupFiles_reportedWhenTargetCompletes() throws IOException {
+    BuildEventProtocolStreamReader reader = createReader(ImmutableSet.of("intellij-info-java"));
+    reader.start(executor);
+
+    writeEvents(
+        namedSetEvent("1", ImmutableList.of("/bin/a.intellij-info.txt"), ImmutableList.of()),
+        namedSetEvent("2", ImmutableList.of("/bin/b.intellij-info.txt"), ImmutableList.of("1")),
+        namedSetEvent("3", ImmutableList.of("/bin/c.jar"), ImmutableList.of()),
+        targetCompletedEvent(
+            "//foo:bar",
+            outputGroup("intellij-info-java", "2"),
+            outputGroup("intellij-compile-java", "3")));
+    reader.buildComplete();
+
+    assertThat(reader.awaitCompletion()).isTrue();
+    assertThat(reportedFiles)
+        .containsExactly(
+            new File("/bin/b.intellij-info.txt"), new File("/bin/a.intellij-info.txt"));
+    assertThat(reader.getOutputGroupFiles()).containsExactlyElementsIn(reportedFiles);
+    assertThat(reader.getAllOutputFiles())
+        .containsExactly(
+            new File("/bin/a.intellij-info.txt"),
+            new File("/bin/b.intellij-info.txt"),
+            new File("/bin/c.jar"))
+        .inOrder();
+  }
+
+  @Test
+  public void eventsSplitAcrossWrites_allEventsRead() throws Exception {
+    BuildEventProtocolStreamReader reader = createReader(ImmutableSet.of());
+    reader.start(executor);
+
+    byte[] bytes =
+        toBytes(
+            namedSetEvent("1", ImmutableList.of("/bin/a.jar"), ImmutableList.of()),
+            targetCompletedEvent("//foo:a", outputGroup("default", "1")),
+            namedSetEvent("2", ImmutableList.of("/bin/b.jar"), ImmutableList.of()),
+            targetCompletedEvent("//foo:b", outputGroup("default", "2")));
+    int split = bytes.length / 2 + 1;
+    try (FileOutputStream out = new FileOutputStream(bepFile, true)) {
+      out.write(Arrays.copyOfRange(bytes, 0, split));
+      out.flush();
+      Thread.sleep(200);
+      out.write(Arrays.copyOfRange(bytes, split, bytes.length));
+    }
+    reader.buildComplete();
+
+    assertThat(reader.awaitCompletion()).isTrue();
+    assertThat(reportedFiles).containsExactly(new File("/bin/a.jar"), new File("/bin/b.jar"));
+  }
+
+  @Test
+  public void lastMessage_stopsReadingBeforeBuildCompletes() throws IOException {
+    BuildEventProtocolStreamReader reader = createReader(ImmutableSet.of());
+    reader.start(executor);
+
+    writeEvents(
+        namedSetEvent("1", ImmutableList.of("/bin/a.jar"), ImmutableList.of()),
+        targetCompletedEvent("//foo:a", outputGroup("default", "1")),
+        BuildEvent.newBuilder().setLastMessage(true));
+
+    assertThat(reader.awaitCompletion()).isTrue();
+    assertThat(reportedFiles).containsExactly(new File("/bin/a.jar"));
+  }
+
+  @Test
+  public void truncatedStream_readFails() throws IOException {
+    BuildEventProtocolStreamReader reader = createReader(ImmutableSet.of());
+    reader.start(executor);
+
+    byte[] bytes =
+        toBytes(namedSetEvent("1", ImmutableList.of("/bin/a.jar"), ImmutableList.of()));
+    try (FileOutputStream out = new FileOutputStream(bepFile)) {
+      out.write(Arrays.copyOfRange(bytes, 0, bytes.length - 1));
+    }
+    reader.buildComplete();
+
+    assertThat(reader.awaitCompletion()).isFalse();
+  }
+
+  private BuildEventProtocolStreamReader createReader(ImmutableSet<String> outputGroups) {
+    return new BuildEventProtocolStreamReader(
+        bepFile, path -> true, outputGroups, reportedFiles::addAll);
+  }
+
+  private void writeEvents(BuildEvent.Builder... events) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(bepFile, true)) {
+      out.write(toBytes(events));
+    }
+  }
+
+  private static byte[] toBytes(BuildEvent.Builder... events) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (BuildEvent.Builder event : events) {
+      event.build().writeDelimitedTo(output);
+    }
+    return output.toByteArray();
+  }
+
+  private static BuildEvent.Builder namedSetEvent(
+      String id, List<String> filePaths, List<String> childSets) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setNamedSet(NamedSetOfFilesId.newBuilder().setId(id)))
+        .setNamedSetOfFiles(
+            NamedSetOfFiles.newBuilder()
+                .addAllFiles(
+                    filePaths
+                        .stream()
+                        .map(
+                            path ->
+                                BuildEventStreamProtos.File.newBuilder()
+                                    .setUri(new File(path).toURI().toString())
+                                    .build())
+                        .collect(toImmutableList()))
+                .addAllFileSets(
+                    childSets
+                        .stream()
+                        .map(child -> NamedSetOfFilesId.newBuilder().setId(child).build())
+                        .collect(toImmutableList())));
+  }
+
+  private static OutputGroup outputGroup(String name, String fileSetId) {
+    return OutputGroup.newBuilder()
+        .setName(name)
+        .addFileSets(NamedSetOfFilesId.newBuilder().setId(fileSetId))
+        .build();
+  }
+
+  private static BuildEvent.Builder targetCompletedEvent(String label, OutputGroup... groups) {
+    return BuildEvent.newBuilder()
+        .setId(
+            BuildEventId.newBuilder()
+                .setTargetCompleted(TargetCompletedId.newBuilder().setLabel(label)))
+        .setCompleted(TargetComplete.newBuilder().addAllOutputGroup(Arrays.asList(groups)));
+  }
+}
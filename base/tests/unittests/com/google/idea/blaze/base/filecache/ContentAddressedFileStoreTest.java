@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ContentAddressedFileStore} */
+@RunWith(JUnit4.class)
+public class ContentAddressedFileStoreTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private File cacheDir;
+  private ContentAddressedFileStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmpFolder.newFolder("cache");
+    store = new ContentAddressedFileStore(new File(cacheDir, ".content"), ".jar");
+  }
+
+  @Test
+  public void testIdenticalFilesAreStoredOnce() throws IOException {
+    File first = sourceFile("first.jar", "contents");
+    File second = sourceFile("second.jar", "contents");
+
+    String firstDigest = store.store(first, new File(cacheDir, "first.jar"), false);
+    String secondDigest = store.store(second, new File(cacheDir, "second.jar"), false);
+
+    assertThat(secondDigest).isEqualTo(firstDigest);
+    assertThat(store.storedBytes()).isEqualTo("contents".length());
+    assertThat(read(new File(cacheDir, "first.jar"))).isEqualTo("contents");
+    assertThat(read(new File(cacheDir, "second.jar"))).isEqualTo("contents");
+    assertThat(store.getAndResetStats())
+        .isEqualTo("0 kB copied, 0 kB hard linked, 0 kB deduplicated");
+  }
+
+  @Test
+  public void testSourceIsOnlyLinkedWhenAllowed() throws IOException {
+    File linked = sourceFile("linked.jar", "linked");
+    File copied = sourceFile("copied.jar", "copied");
+
+    String linkedDigest = store.store(linked, new File(cacheDir, "linked.jar"), true);
+    String copiedDigest = store.store(copied, new File(cacheDir, "copied.jar"), false);
+
+    assertThat(isSameFile(store.storedFile(linkedDigest), linked)).isTrue();
+    assertThat(isSameFile(store.storedFile(copiedDigest), copied)).isFalse();
+    assertThat(isSameFile(store.storedFile(copiedDigest), new File(cacheDir, "copied.jar")))
+        .isTrue();
+  }
+
+  @Test
+  public void testUpdatedSourceReplacesCacheFile() throws IOException {
+    File source = sourceFile("source.jar", "old");
+    File cacheFile = new File(cacheDir, "source.jar");
+    String oldDigest = store.store(source, cacheFile, false);
+
+    Files.write(source.toPath(), "new".getBytes(UTF_8));
+    String newDigest = store.store(source, cacheFile, false);
+
+    assertThat(newDigest).isNotEqualTo(oldDigest);
+    assertThat(read(cacheFile)).isEqualTo("new");
+    assertThat(read(store.storedFile(oldDigest))).isEqualTo("old");
+  }
+
+  @Test
+  public void testRetainAllRemovesUnreferencedFiles() throws IOException {
+    String kept = store.store(sourceFile("kept.jar", "kept"), new File(cacheDir, "kept.jar"), false);
+    String removed =
+        store.store(sourceFile("removed.jar", "removed"), new File(cacheDir, "removed.jar"), false);
+
+    assertThat(store.retainAll(ImmutableList.of(kept))).isEqualTo(1);
+    assertThat(store.storedFile(kept).exists()).isTrue();
+    assertThat(store.storedFile(removed).exists()).isFalse();
+  }
+
+  private File sourceFile(String name, String contents) throws IOException {
+    File file = new File(tmpFolder.getRoot(), name);
+    Files.write(file.toPath(), contents.getBytes(UTF_8));
+    return file;
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+
+  private static boolean isSameFile(File a, File b) throws IOException {
+    return Files.isSameFile(a.toPath(), b.toPath());
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.filecache.FileCacheManifest.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileCacheManifest} */
+@RunWith(JUnit4.class)
+public class FileCacheManifestTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    file = new File(tmpFolder.getRoot(), "manifest");
+  }
+
+  @Test
+  public void testRecordedEntriesArePersisted() {
+    FileCacheManifest manifest = new FileCacheManifest(file);
+    manifest.record(
+        ImmutableMap.of("a.jar", new Entry(1, 10, "abc"), "b.jar", new Entry(2, 20, null)),
+        ImmutableList.of());
+    manifest.record(ImmutableMap.of("c.jar", new Entry(3, 30, null)), ImmutableList.of("b.jar"));
+
+    assertThat(new FileCacheManifest(file).getEntries())
+        .containsExactly("a.jar", new Entry(1, 10, "abc"), "c.jar", new Entry(3, 30, null));
+  }
+
+  @Test
+  public void testTruncatedLogKeepsCompleteRecords() throws IOException {
+    FileCacheManifest manifest = new FileCacheManifest(file);
+    manifest.record(ImmutableMap.of("a.jar", new Entry(1, 10, null)), ImmutableList.of());
+    manifest.record(ImmutableMap.of("b.jar", new Entry(2, 20, null)), ImmutableList.of());
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    assertThat(new FileCacheManifest(file).getSourceTimestamps()).containsExactly("a.jar", 1L);
+  }
+
+  @Test
+  public void testLogIsCompacted() {
+    FileCacheManifest manifest = new FileCacheManifest(file);
+    manifest.record(ImmutableMap.of("a.jar", new Entry(0, 10, null)), ImmutableList.of());
+    long initialLength = file.length();
+    for (int i = 1; i <= 5000; i++) {
+      manifest.record(ImmutableMap.of("a.jar", new Entry(i, 10, null)), ImmutableList.of());
+    }
+
+    assertThat(file.length()).isLessThan(initialLength * 2000);
+    assertThat(new FileCacheManifest(file).getSourceTimestamps()).containsExactly("a.jar", 5000L);
+  }
+
+  @Test
+  public void testVerificationSchedule() {
+    FileCacheManifest manifest = new FileCacheManifest(file);
+    // verified when first loaded
+    assertThat(manifest.startSynchronization()).isTrue();
+    for (int i = 0; i < FileCacheManifest.VERIFICATION_INTERVAL; i++) {
+      assertThat(manifest.startSynchronization()).isFalse();
+    }
+    assertThat(manifest.startSynchronization()).isTrue();
+
+    manifest.requestVerification();
+    assertThat(manifest.startSynchronization()).isTrue();
+    assertThat(manifest.startSynchronization()).isFalse();
+  }
+
+  @Test
+  public void testClearRemovesEntries() {
+    FileCacheManifest manifest = new FileCacheManifest(file);
+    manifest.record(ImmutableMap.of("a.jar", new Entry(1, 10, null)), ImmutableList.of());
+    manifest.clear();
+
+    assertThat(manifest.getEntries()).isEmpty();
+    assertThat(file.exists()).isFalse();
+  }
+}
@@ -82,4 +82,26 @@ public class FileDifferTest extends BlazeTestCase {
     assertThat(newFiles).containsExactly(new File("file2"));
     assertThat(removedFiles).containsExactly(new File("file3"));
   }
+
+  @Test
+  public void testFilterUnchangedContents() {
+    File rewritten = new File("rewritten");
+    File modified = new File("modified");
+    File added = new File("added");
+    ImmutableMap<File, Long> oldDigests = ImmutableMap.of(rewritten, 1L, modified, 2L);
+    ImmutableMap<File, Long> newDigests = ImmutableMap.of(rewritten, 1L, modified, 3L, added, 4L);
+
+    List<File> changed =
+        FileDiffer.filterUnchangedContents(
+            ImmutableList.of(rewritten, modified, added), oldDigests, newDigests);
+
+    assertThat(changed).containsExactly(modified, added).inOrder();
+  }
+
+  @Test
+  public void testFilterUnchangedContentsWithoutOldDigests() {
+    List<File> updated = ImmutableList.of(new File("file1"), new File("file2"));
+    assertThat(FileDiffer.filterUnchangedContents(updated, null, ImmutableMap.of()))
+        .containsExactlyElementsIn(updated);
+  }
 }
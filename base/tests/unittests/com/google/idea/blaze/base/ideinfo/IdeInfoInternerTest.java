@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.Dependency.DependencyType;
+import com.google.idea.blaze.base.model.primitives.Label;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link IdeInfoInterner}. */
+@RunWith(JUnit4.class)
+public class IdeInfoInternerTest {
+
+  @Test
+  public void testEqualValuesShareInstance() {
+    Label label = IdeInfoInterner.intern(Label.create("//foo:bar"));
+    assertThat(IdeInfoInterner.intern(Label.create("//foo:bar"))).isSameAs(label);
+
+    TargetKey key = IdeInfoInterner.intern(TargetKey.forPlainTarget(label));
+    assertThat(IdeInfoInterner.intern(TargetKey.forPlainTarget(Label.create("//foo:bar"))))
+        .isSameAs(key);
+
+    Dependency dep = IdeInfoInterner.intern(new Dependency(key, DependencyType.COMPILE_TIME));
+    assertThat(IdeInfoInterner.intern(new Dependency(key, DependencyType.COMPILE_TIME)))
+        .isSameAs(dep);
+    assertThat(IdeInfoInterner.intern(new Dependency(key, DependencyType.RUNTIME)))
+        .isNotSameAs(dep);
+
+    ArtifactLocation location =
+        IdeInfoInterner.intern(ArtifactLocation.builder().setRelativePath("foo/Bar.java").build());
+    assertThat(
+            IdeInfoInterner.intern(
+                ArtifactLocation.builder().setRelativePath("foo/Bar.java").build()))
+        .isSameAs(location);
+  }
+
+  @Test
+  public void testInternStrings() {
+    ImmutableList<String> first = IdeInfoInterner.internStrings(ImmutableList.of(tag("manual")));
+    ImmutableList<String> second = IdeInfoInterner.internStrings(ImmutableList.of(tag("manual")));
+    assertThat(second.get(0)).isSameAs(first.get(0));
+  }
+
+  @Test
+  public void testStatsReportedAndReset() {
+    IdeInfoInterner.getAndResetStats();
+    IdeInfoInterner.intern(tag("some-tag"));
+    IdeInfoInterner.intern(tag("some-tag"));
+
+    assertThat(IdeInfoInterner.getAndResetStats()).contains("strings: 2 total, 1 distinct");
+    assertThat(IdeInfoInterner.getAndResetStats()).contains("strings: 0 total, 0 distinct");
+  }
+
+  /** Returns a new string instance, so interning has something to deduplicate. */
+  private static String tag(String value) {
+    return new String(value.toCharArray());
+  }
+}
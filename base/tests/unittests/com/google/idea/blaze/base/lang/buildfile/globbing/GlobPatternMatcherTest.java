@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link GlobPatternMatcher}. */
+@RunWith(JUnit4.class)
+public class GlobPatternMatcherTest {
+
+  private static final ImmutableList<String> PATTERNS =
+      ImmutableList.of(
+          "*",
+          "**",
+          "*.java",
+          "**/*.java",
+          "Foo*",
+          "sub/**",
+          "sub/*/Test?.java",
+          ".hidden*",
+          "a.b+c",
+          "*.?s",
+          "foo(bar",
+          "",
+          "x/**/y/*.txt");
+
+  private static final ImmutableList<String> PATHS =
+      ImmutableList.of(
+          "",
+          "Foo.java",
+          "sub/Foo.java",
+          "sub/dir/Test1.java",
+          "sub/dir/Test12.java",
+          ".hidden",
+          ".hidden.java",
+          "a.b+c",
+          "axb+c",
+          "foo.?s",
+          "foo.js",
+          "foo(bar",
+          "x/y/a.txt",
+          "x/1/2/y/a.txt",
+          "Foobar");
+
+  @Test
+  public void testSinglePatternsMatchLikeUnixGlob() {
+    for (String pattern : PATTERNS) {
+      GlobPatternMatcher matcher = GlobPatternMatcher.forPatterns(ImmutableList.of(pattern));
+      for (String path : PATHS) {
+        assertEquals(
+            String.format("'%s' matches '%s'", pattern, path),
+            UnixGlob.matches(pattern, path),
+            matcher.matches(path));
+      }
+    }
+  }
+
+  @Test
+  public void testPatternSetMatchesIfAnyPatternMatches() {
+    for (int i = 0; i < PATTERNS.size(); i++) {
+      for (int j = i + 1; j < PATTERNS.size(); j++) {
+        ImmutableList<String> patterns = ImmutableList.of(PATTERNS.get(i), PATTERNS.get(j));
+        GlobPatternMatcher matcher = GlobPatternMatcher.forPatterns(patterns);
+        for (String path : PATHS) {
+          boolean expected = patterns.stream().anyMatch(p -> UnixGlob.matches(p, path));
+          assertEquals(
+              String.format("%s matches '%s'", patterns, path), expected, matcher.matches(path));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyPatternSetMatchesNothing() {
+    assertThat(GlobPatternMatcher.forPatterns(ImmutableList.of()).matches("Foo.java")).isFalse();
+  }
+}
@@ -38,6 +38,7 @@ import com.google.idea.blaze.base.projectview.section.sections.ExcludeTargetSect
 import com.google.idea.blaze.base.projectview.section.sections.ExcludedSourceSection;
 import com.google.idea.blaze.base.projectview.section.sections.ImportSection;
 import com.google.idea.blaze.base.projectview.section.sections.ImportTargetOutputSection;
+import com.google.idea.blaze.base.projectview.section.sections.ParallelShardBuildsSection;
 import com.google.idea.blaze.base.projectview.section.sections.RunConfigurationsSection;
 import com.google.idea.blaze.base.projectview.section.sections.Sections;
 import com.google.idea.blaze.base.projectview.section.sections.ShardBlazeBuildsSection;
@@ -100,6 +101,7 @@ public class ProjectViewSetTest extends BlazeTestCase {
                             .add(new WorkspacePath("test")))
                     .add(ScalarSection.builder(ShardBlazeBuildsSection.KEY).set(false))
                     .add(ScalarSection.builder(TargetShardSizeSection.KEY).set(500))
+                    .add(ScalarSection.builder(ParallelShardBuildsSection.KEY).set(4))
                     .build())
             .build();
 
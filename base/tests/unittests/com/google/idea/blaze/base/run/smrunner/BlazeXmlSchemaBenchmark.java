@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.smrunner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.Lists;
+import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestSuite;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlValue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link BlazeXmlSchema} parsing of large, sharded test.xml files with verbose output,
+ * against the previous JAXB-based implementation.
+ *
+ * <p>Not part of the unit test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class BlazeXmlSchemaBenchmark {
+
+  private static final int SHARDS = 4;
+  private static final int TEST_CASES_PER_SHARD = 2000;
+  private static final int OUTPUT_LINES_PER_TEST_CASE = 500;
+  private static final int ITERATIONS = 3;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void compareWithJaxb() throws Exception {
+    List<File> shards = new ArrayList<>();
+    Random random = new Random(0);
+    long totalSize = 0;
+    for (int i = 0; i < SHARDS; i++) {
+      File shard = createTestXml(folder.newFile("shard" + i + ".xml"), i, random);
+      shards.add(shard);
+      totalSize += shard.length();
+    }
+    JAXBContext context = JAXBContext.newInstance(JaxbTestSuite.class, JaxbTestSuites.class);
+
+    // warm up both code paths
+    parseWithJaxb(context, shards);
+    parseStreaming(shards);
+
+    long jaxb = 0;
+    long jaxbHeap = 0;
+    long streaming = 0;
+    long streamingHeap = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long heapBefore = usedHeap();
+      long start = System.nanoTime();
+      Object result = parseWithJaxb(context, shards);
+      jaxb += System.nanoTime() - start;
+      jaxbHeap += usedHeap() - heapBefore;
+      result.hashCode(); // keep the result reachable until the heap is measured
+
+      heapBefore = usedHeap();
+      start = System.nanoTime();
+      result = parseStreaming(shards);
+      streaming += System.nanoTime() - start;
+      streamingHeap += usedHeap() - heapBefore;
+      result.hashCode();
+    }
+    System.out.println(
+        String.format(
+            "%d shards, %d MB total: JAXB %d ms (%d MB retained), StAX %d ms (%d MB retained)",
+            SHARDS,
+            totalSize / (1024 * 1024),
+            jaxb / ITERATIONS / 1000000,
+            jaxbHeap / ITERATIONS / (1024 * 1024),
+            streaming / ITERATIONS / 1000000,
+            streamingHeap / ITERATIONS / (1024 * 1024)));
+  }
+
+  private static TestSuite parseStreaming(List<File> shards) throws IOException {
+    TestSuite merged = new TestSuite();
+    for (File shard : shards) {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(shard))) {
+        BlazeXmlSchema.parseAndMerge(input, merged);
+      }
+    }
+    return merged;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static File createTestXml(File file, int shard, Random random) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+      write(out, "<?xml version='1.0' encoding='UTF-8'?>\n<testsuites>\n");
+      write(
+          out, "<testsuite name='com.google.example.LargeTest' tests='%d'>\n", TEST_CASES_PER_SHARD);
+      for (int i = 0; i < TEST_CASES_PER_SHARD; i++) {
+        boolean failed = random.nextInt(20) == 0;
+        write(
+            out,
+            "<testcase name='testCase%d_%d' classname='com.google.example.LargeTest' "
+                + "status='run' result='completed' time='%.3f'>\n",
+            shard,
+            i,
+            random.nextDouble());
+        if (failed) {
+          write(
+              out,
+              "<failure message='expected:&lt;1&gt; but was:&lt;2&gt;' type='AssertionError'>"
+                  + "java.lang.AssertionError\n\tat com.google.example.LargeTest</failure>\n");
+        }
+        write(out, "<system-out>");
+        for (int line = 0; line < OUTPUT_LINES_PER_TEST_CASE; line++) {
+          write(
+              out,
+              "I1017 12:00:%02d.%06d thread-%d LargeTest.java:%d] verbose log &amp; more %d\n",
+              line % 60,
+              random.nextInt(1000000),
+              random.nextInt(16),
+              line,
+              random.nextLong());
+        }
+        write(out, "</system-out>\n</testcase>\n");
+      }
+      write(out, "</testsuite>\n</testsuites>\n");
+    }
+    return file;
+  }
+
+  private static void write(OutputStream out, String format, Object... args) throws IOException {
+    out.write(String.format(format, args).getBytes(UTF_8));
+  }
+
+  /** The previous implementation, unmarshalling each shard then merging them. */
+  private static Object parseWithJaxb(JAXBContext context, List<File> shards)
+      throws IOException, JAXBException {
+    List<Object> parsed = new ArrayList<>();
+    for (File shard : shards) {
+      try (InputStream input = new BufferedInputStream(new FileInputStream(shard))) {
+        parsed.add(context.createUnmarshaller().unmarshal(input));
+      }
+    }
+    return parsed;
+  }
+
+  @XmlRootElement(name = "testsuites")
+  static class JaxbTestSuites {
+    @XmlElement(name = "testsuite")
+    List<JaxbTestSuite> testSuites = Lists.newArrayList();
+  }
+
+  @XmlRootElement(name = "testsuite")
+  static class JaxbTestSuite {
+    @XmlAttribute String name;
+    @XmlAttribute int tests;
+    @XmlAttribute double time;
+
+    @XmlElement(name = "system-out")
+    String sysOut;
+
+    @XmlElement(name = "testsuite")
+    List<JaxbTestSuite> testSuites = Lists.newArrayList();
+
+    @XmlElement(name = "testcase")
+    List<JaxbTestCase> testCases = Lists.newArrayList();
+  }
+
+  static class JaxbTestCase {
+    @XmlAttribute String name;
+    @XmlAttribute String classname;
+    @XmlAttribute String status;
+    @XmlAttribute String result;
+    @XmlAttribute String time;
+
+    @XmlElement(name = "system-out")
+    String sysOut;
+
+    @XmlElement(name = "failure")
+    List<JaxbFailure> failures = Lists.newArrayList();
+  }
+
+  static class JaxbFailure {
+    @XmlValue String content;
+    @XmlAttribute String message;
+    @XmlAttribute String type;
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.run.smrunner;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -130,9 +131,156 @@ public class BlazeXmlSchemaTest {
         .containsExactly("testCase1", "testCase2", "testCase3", "testCase4");
   }
 
+  @Test
+  public void testParseAndMergeShardsMatchesMergeSuites() {
+    String[] shard1 = {
+      "<testsuites>",
+      "  <testsuite name='com.google.ConfigTest' time='10' tests='2' failures='1'>",
+      "    <testsuite name='param' tests='1'>",
+      "      <testcase name='testCase1' time='2.1' status='run' result='completed'/>",
+      "    </testsuite>",
+      "    <testcase name='testCase2' time='7.9' status='run' result='completed'>",
+      "      <failure message='failed'/>",
+      "    </testcase>",
+      "  </testsuite>",
+      "</testsuites>"
+    };
+    String[] shard2 = {
+      "<testsuites>",
+      "  <testsuite name='com.google.ConfigTest' time='5' tests='2' failures='1'>",
+      "    <testsuite name='param' tests='1'>",
+      "      <testcase name='testCase3' time='1' status='run' result='completed'/>",
+      "    </testsuite>",
+      "    <testsuite name='other' tests='1'/>",
+      "  </testsuite>",
+      "  <testsuite name='com.google.OtherTest' tests='1'/>",
+      "</testsuites>"
+    };
+    TestSuite expected =
+        BlazeXmlSchema.mergeSuites(ImmutableList.of(parseXml(shard1), parseXml(shard2)));
+
+    TestSuite merged = new TestSuite();
+    BlazeXmlSchema.parseAndMerge(toStream(shard1), merged);
+    BlazeXmlSchema.parseAndMerge(toStream(shard2), merged);
+
+    assertThat(describe(merged)).isEqualTo(describe(expected));
+    TestSuite config = merged.testSuites.get(0).testSuites.get(0);
+    assertThat(config.tests).isEqualTo(4);
+    assertThat(config.testSuites.stream().map(suite -> suite.name).collect(Collectors.toList()))
+        .containsExactly("param", "other")
+        .inOrder();
+    assertThat(config.testSuites.get(0).testCases).hasSize(2);
+  }
+
+  @Test
+  public void testTruncatedShardNotMerged() {
+    String[] shard = {
+      "<testsuites>",
+      "  <testsuite name='com.google.ConfigTest' tests='1'>",
+      "    <testcase name='testCase1' status='run' result='completed'/>",
+      "  </testsuite>",
+      "</testsuites>"
+    };
+    String[] truncated = {
+      "<testsuites>",
+      "  <testsuite name='com.google.ConfigTest' tests='2'>",
+      "    <testcase name='testCase2' status='run' result='completed'/>"
+    };
+    TestSuite merged = new TestSuite();
+    BlazeXmlSchema.parseAndMerge(toStream(shard), merged);
+    try {
+      BlazeXmlSchema.parseAndMerge(toStream(truncated), merged);
+      fail("Expected the truncated shard to fail to parse");
+    } catch (RuntimeException expected) {
+      // the merged results are left unchanged
+    }
+
+    assertThat(describe(merged))
+        .isEqualTo(describe(BlazeXmlSchema.mergeSuites(ImmutableList.of(parseXml(shard)))));
+  }
+
+  @Test
+  public void testOutputElementsParsed() {
+    TestSuite parsed =
+        parseXml(
+            "<testsuite name='foo'>",
+            "  <properties><property name='a' value='b'>ignored</property></properties>",
+            "  <testcase name='test' status='run'>",
+            "    <system-out><![CDATA[some <output>]]> &amp; more</system-out>",
+            "    <system-err>errors</system-err>",
+            "  </testcase>",
+            "  <system-out>suite output</system-out>",
+            "  <system-err/>",
+            "</testsuite>");
+
+    assertThat(parsed.sysOut).isEqualTo("suite output");
+    assertThat(parsed.sysErr).isNull();
+    TestCase testCase = parsed.testCases.get(0);
+    assertThat(testCase.sysOut).isEqualTo("some <output> & more");
+    assertThat(testCase.sysErr).isEqualTo("errors");
+  }
+
+  @Test
+  public void testLongOutputTruncated() {
+    int length = BlazeXmlStreamParser.MAX_TEXT_LENGTH * 3;
+    StringBuilder output = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      output.append((char) ('a' + i % 26));
+    }
+    TestSuite parsed =
+        parseXml(
+            "<testsuite name='foo'>",
+            "  <testcase name='test' status='run'>",
+            "    <system-out>" + output + "</system-out>",
+            "  </testcase>",
+            "</testsuite>");
+
+    String sysOut = parsed.testCases.get(0).sysOut;
+    int kept = BlazeXmlStreamParser.MAX_TEXT_LENGTH / 2;
+    assertThat(sysOut).startsWith(output.substring(0, kept));
+    assertThat(sysOut).endsWith(output.substring(length - kept));
+    assertThat(sysOut).contains("[" + (length - 2 * kept) + " characters truncated]");
+  }
+
+  @Test
+  public void testBoundedTextKeepsStartAndEnd() {
+    BlazeXmlStreamParser.BoundedText text = new BlazeXmlStreamParser.BoundedText(8);
+    for (char c : "abcdefghijklmnopqrstuvwxyz".toCharArray()) {
+      text.append(new char[] {c}, 0, 1);
+    }
+    assertThat(text.toString()).startsWith("abcd");
+    assertThat(text.toString()).endsWith("wxyz");
+    assertThat(text.toString()).contains("[18 characters truncated]");
+
+    text = new BlazeXmlStreamParser.BoundedText(8);
+    char[] chars = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+    text.append(chars, 0, 5);
+    text.append(chars, 5, 21);
+    assertThat(text.toString()).startsWith("abcd");
+    assertThat(text.toString()).endsWith("wxyz");
+    assertThat(text.toString()).contains("[18 characters truncated]");
+  }
+
+  /** A description of the suite tree, including all merged attributes. */
+  private static String describe(TestSuite suite) {
+    StringBuilder description =
+        new StringBuilder(
+            String.format(
+                "suite(%s tests=%d failures=%d time=%s cases=%s",
+                suite.name,
+                suite.tests,
+                suite.failures,
+                suite.time,
+                suite.testCases.stream().map(test -> test.name).collect(Collectors.toList())));
+    suite.testSuites.forEach(child -> description.append(' ').append(describe(child)));
+    return description.append(')').toString();
+  }
+
+  private static InputStream toStream(String... lines) {
+    return new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
+  }
+
   private static TestSuite parseXml(String... lines) {
-    InputStream stream =
-        new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
-    return BlazeXmlSchema.parse(stream);
+    return BlazeXmlSchema.parse(toStream(lines));
   }
 }
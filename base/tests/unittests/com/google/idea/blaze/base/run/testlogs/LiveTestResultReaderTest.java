@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.testlogs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TestResultId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TestSummaryId;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolOutputReader;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LiveTestResultReader}. */
+@RunWith(JUnit4.class)
+public class LiveTestResultReaderTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BlockingQueue<BlazeTestResults> reported = new LinkedBlockingQueue<>();
+
+  @Test
+  public void testResultsReportedOnceTargetSummaryIsWritten() throws Exception {
+    File bepFile = folder.newFile("bep_output");
+    LiveTestResultReader reader = new LiveTestResultReader(bepFile, reported::add);
+    reader.start();
+
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      out.write(delimited(testResultEvent("//foo:test", "shard1.xml")));
+      out.write(delimited(testResultEvent("//foo:test", "shard2.xml")));
+      out.write(delimited(testResultEvent("//bar:test", "bar.xml")));
+      // split an event between writes
+      byte[] summary = delimited(testSummaryEvent("//foo:test"));
+      out.write(summary, 0, 3);
+      out.flush();
+      assertThat(reported.poll(1, TimeUnit.SECONDS)).isNull();
+
+      out.write(summary, 3, summary.length - 3);
+      out.flush();
+      BlazeTestResults results = reported.poll(10, TimeUnit.SECONDS);
+      assertThat(results).isNotNull();
+      assertThat(results.perTargetResults.keySet()).containsExactly(Label.create("//foo:test"));
+      assertThat(results.perTargetResults.get(Label.create("//foo:test"))).hasSize(2);
+      assertThat(reader.getReportedLabels()).containsExactly(Label.create("//foo:test"));
+    }
+
+    // targets without a summary are reported when finishing
+    assertThat(reader.finish()).isTrue();
+    BlazeTestResults results = reported.poll();
+    assertThat(results).isNotNull();
+    assertThat(results.perTargetResults.keySet()).containsExactly(Label.create("//bar:test"));
+    assertThat(reported).isEmpty();
+  }
+
+  @Test
+  public void testReportedResultsMatchBatchResults() throws Exception {
+    ImmutableList<BuildEventStreamProtos.BuildEvent> events =
+        ImmutableList.of(
+            testResultEvent("//foo:test", "foo.xml"),
+            testResultEvent("//bar:test", "bar1.xml"),
+            testSummaryEvent("//foo:test"),
+            testResultEvent("//bar:test", "bar2.xml"),
+            testSummaryEvent("//bar:test"),
+            lastEvent());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (BuildEventStreamProtos.BuildEvent event : events) {
+      event.writeDelimitedTo(bytes);
+    }
+    File bepFile = folder.newFile("bep_output");
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      out.write(bytes.toByteArray());
+    }
+
+    LiveTestResultReader reader = new LiveTestResultReader(bepFile, reported::add);
+    reader.start();
+    assertThat(reader.finish()).isTrue();
+
+    BlazeTestResults batchResults =
+        BuildEventProtocolOutputReader.parseTestResults(
+            new ByteArrayInputStream(bytes.toByteArray()));
+    ImmutableList.Builder<BlazeTestResult> liveResults = ImmutableList.builder();
+    reported.forEach(results -> liveResults.addAll(results.perTargetResults.values()));
+    assertThat(BlazeTestResults.fromFlatList(liveResults.build()).perTargetResults)
+        .isEqualTo(batchResults.perTargetResults);
+  }
+
+  @Test
+  public void testFileCreatedAfterStarting() throws Exception {
+    File bepFile = new File(folder.getRoot(), "bep_output");
+    LiveTestResultReader reader = new LiveTestResultReader(bepFile, reported::add);
+    reader.start();
+    Thread.sleep(300);
+
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      out.write(delimited(testResultEvent("//foo:test", "foo.xml")));
+      out.write(delimited(testSummaryEvent("//foo:test")));
+    }
+    assertThat(reported.poll(10, TimeUnit.SECONDS)).isNotNull();
+    assertThat(reader.finish()).isTrue();
+  }
+
+  @Test
+  public void testMalformedOutputReportsFailure() throws Exception {
+    File bepFile = folder.newFile("bep_output");
+    byte[] malformed = new byte[16];
+    Arrays.fill(malformed, (byte) 0xff);
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      out.write(malformed);
+    }
+    LiveTestResultReader reader = new LiveTestResultReader(bepFile, reported::add);
+    reader.start();
+
+    assertThat(reader.finish()).isFalse();
+  }
+
+  @Test
+  public void testReadFailureDoesNotReportPartialResults() throws Exception {
+    File bepFile = folder.newFile("bep_output");
+    byte[] malformed = new byte[16];
+    Arrays.fill(malformed, (byte) 0xff);
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      out.write(delimited(testResultEvent("//foo:test", "foo.xml")));
+      out.write(delimited(testSummaryEvent("//foo:test")));
+      out.write(delimited(testResultEvent("//bar:test", "bar.xml")));
+      out.write(malformed);
+    }
+    LiveTestResultReader reader = new LiveTestResultReader(bepFile, reported::add);
+    reader.start();
+
+    assertThat(reader.finish()).isFalse();
+    // only completed targets are reported, so the fallback re-read picks up the rest
+    assertThat(reader.getReportedLabels()).containsExactly(Label.create("//foo:test"));
+    assertThat(reported).hasSize(1);
+  }
+
+  private static byte[] delimited(BuildEventStreamProtos.BuildEvent event) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    event.writeDelimitedTo(output);
+    return output.toByteArray();
+  }
+
+  private static BuildEventStreamProtos.BuildEvent testResultEvent(String label, String xmlPath) {
+    return BuildEventStreamProtos.BuildEvent.newBuilder()
+        .setId(
+            BuildEventStreamProtos.BuildEventId.newBuilder()
+                .setTestResult(TestResultId.newBuilder().setLabel(label)))
+        .setTestResult(
+            BuildEventStreamProtos.TestResult.newBuilder()
+                .setStatus(BuildEventStreamProtos.TestStatus.PASSED)
+                .addTestActionOutput(
+                    BuildEventStreamProtos.File.newBuilder().setUri("file:///tmp/" + xmlPath)))
+        .build();
+  }
+
+  private static BuildEventStreamProtos.BuildEvent testSummaryEvent(String label) {
+    return BuildEventStreamProtos.BuildEvent.newBuilder()
+        .setId(
+            BuildEventStreamProtos.BuildEventId.newBuilder()
+                .setTestSummary(TestSummaryId.newBuilder().setLabel(label)))
+        .build();
+  }
+
+  private static BuildEventStreamProtos.BuildEvent lastEvent() {
+    return BuildEventStreamProtos.BuildEvent.newBuilder().setLastMessage(true).build();
+  }
+}
@@ -268,7 +268,7 @@ public class TestMapTest extends BlazeTestCase {
       return MockBlazeProjectDataBuilder.builder(new WorkspaceRoot(new File("/")))
           .setTargetMap(targetMap)
           .setArtifactLocationDecoder(location -> new File("/", location.getRelativePath()))
-          .setReverseDependencies(ReverseDependencyMap.createRdepsMap(targetMap))
+          .setReverseDependencies(ReverseDependencyMap.create(targetMap))
           .build();
     }
   }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.Label;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link UpdatedTargetMap}. */
+@RunWith(JUnit4.class)
+public class UpdatedTargetMapTest extends BlazeTestCase {
+
+  private static final TargetKey L1 = TargetKey.forPlainTarget(Label.create("//l:l1"));
+  private static final TargetKey L2 = TargetKey.forPlainTarget(Label.create("//l:l2"));
+  private static final TargetKey L3 = TargetKey.forPlainTarget(Label.create("//l:l3"));
+
+  @Test
+  public void testUnchangedTargetsAreReadFromPreviousMap() {
+    TargetMap previous =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1").addDependency("//l:l2"))
+            .addTarget(target("//l:l2"))
+            .build();
+    TargetIdeInfo newL2 = target("//l:l2").addDependency("//l:l3").build();
+    TargetIdeInfo newL3 = target("//l:l3").build();
+
+    TargetMap updated =
+        UpdatedTargetMap.create(
+            previous, ImmutableSet.of(L1, L2, L3), ImmutableMap.of(L2, newL2, L3, newL3));
+
+    assertThat(updated.get(L1)).isSameAs(previous.get(L1));
+    assertThat(updated.get(L2)).isSameAs(newL2);
+    assertThat(updated.keys()).containsExactly(L1, L2, L3);
+    assertThat(updated.getDependencies(L1)).isEqualTo(previous.getDependencies(L1));
+    assertThat(updated.getDependencies(L2)).isEqualTo(newL2.dependencies);
+    assertThat(updated.map()).containsExactly(L1, previous.get(L1), L2, newL2, L3, newL3);
+  }
+
+  @Test
+  public void testRemovedTargetsAreHidden() {
+    TargetMap previous =
+        TargetMapBuilder.builder().addTarget(target("//l:l1")).addTarget(target("//l:l2")).build();
+
+    TargetMap updated = UpdatedTargetMap.create(previous, ImmutableSet.of(L1), ImmutableMap.of());
+
+    assertThat(updated.contains(L2)).isFalse();
+    assertThat(updated.get(L2)).isNull();
+    assertThat(updated.getDependencies(L2)).isEmpty();
+    assertThat(updated.targets()).containsExactly(previous.get(L1));
+  }
+
+  @Test
+  public void testRepeatedUpdatesShareTheOriginalMap() {
+    TargetMap previous =
+        TargetMapBuilder.builder().addTarget(target("//l:l1")).addTarget(target("//l:l2")).build();
+    TargetIdeInfo newL2 = target("//l:l2").addDependency("//l:l1").build();
+    TargetIdeInfo newL3 = target("//l:l3").build();
+
+    TargetMap first =
+        UpdatedTargetMap.create(previous, ImmutableSet.of(L1, L2), ImmutableMap.of(L2, newL2));
+    TargetMap second =
+        UpdatedTargetMap.create(first, ImmutableSet.of(L2, L3), ImmutableMap.of(L3, newL3));
+
+    assertThat(second.contains(L1)).isFalse();
+    assertThat(second.get(L2)).isSameAs(newL2);
+    assertThat(second.get(L3)).isSameAs(newL3);
+    assertThat(second.getDependencies(L2)).isEqualTo(newL2.dependencies);
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder().setLabel(label).setKind("java_library");
+  }
+}
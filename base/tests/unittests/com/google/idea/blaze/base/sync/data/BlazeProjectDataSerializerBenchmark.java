@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.util.SerializationUtil;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares load/save time and file size of {@link BlazeProjectDataSerializer} against plain Java
+ * serialization, for a synthetic project with a large target map.
+ *
+ * <p>Not part of the unit test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class BlazeProjectDataSerializerBenchmark {
+
+  private static final int TARGET_COUNT = 50000;
+  private static final int ITERATIONS = 5;
+
+  private static final ImmutableList<ClassLoader> CLASS_LOADERS =
+      ImmutableList.of(BlazeProjectDataSerializerBenchmark.class.getClassLoader());
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void compareWithJavaSerialization() throws IOException {
+    BlazeProjectData projectData = createProjectData(TARGET_COUNT);
+    File javaFile = new File(tmpFolder.getRoot(), "java.dat");
+    File compactFile = new File(tmpFolder.getRoot(), "compact.dat");
+
+    // warm up both code paths
+    SerializationUtil.saveToDisk(javaFile, projectData);
+    SerializationUtil.loadFromDisk(javaFile, CLASS_LOADERS);
+    BlazeProjectDataSerializer.saveToDisk(compactFile, projectData);
+    BlazeProjectDataSerializer.loadFromDisk(compactFile, CLASS_LOADERS);
+
+    long javaSave = 0;
+    long javaLoad = 0;
+    long compactSave = 0;
+    long compactLoad = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      SerializationUtil.saveToDisk(javaFile, projectData);
+      javaSave += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      SerializationUtil.loadFromDisk(javaFile, CLASS_LOADERS);
+      javaLoad += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      BlazeProjectDataSerializer.saveToDisk(compactFile, projectData);
+      compactSave += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      BlazeProjectDataSerializer.loadFromDisk(compactFile, CLASS_LOADERS);
+      compactLoad += System.nanoTime() - start;
+    }
+    report("Java serialization", javaFile, javaSave, javaLoad);
+    report("Compact format", compactFile, compactSave, compactLoad);
+  }
+
+  private static void report(String name, File file, long saveNanos, long loadNanos) {
+    System.out.println(
+        String.format(
+            "%s: %d KB, save %d ms, load %d ms",
+            name,
+            file.length() / 1024,
+            saveNanos / ITERATIONS / 1000000,
+            loadNanos / ITERATIONS / 1000000));
+  }
+
+  private static BlazeProjectData createProjectData(int targetCount) {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (int i = 0; i < targetCount; i++) {
+      String pkg = String.format("java/com/example/pkg%d", i / 10);
+      TargetIdeInfo.Builder target =
+          TargetIdeInfo.builder()
+              .setLabel(String.format("//%s:target%d", pkg, i))
+              .setKind("java_library")
+              .setBuildFile(source(pkg + "/BUILD"))
+              .addSource(source(String.format("%s/Class%d.java", pkg, i)))
+              .addSource(source(String.format("%s/Other%d.java", pkg, i)))
+              .setJavaInfo(
+                  JavaIdeInfo.builder()
+                      .addJar(
+                          LibraryArtifact.builder()
+                              .setInterfaceJar(
+                                  generated(String.format("%s/libtarget%d-ijar.jar", pkg, i)))
+                              .setClassJar(generated(String.format("%s/libtarget%d.jar", pkg, i)))
+                              .addSourceJar(
+                                  generated(String.format("%s/libtarget%d-src.jar", pkg, i)))));
+      for (int dep = 1; dep <= 5 && dep <= i; dep++) {
+        target.addDependency(
+            String.format("//java/com/example/pkg%d:target%d", (i - dep) / 10, i - dep));
+      }
+      builder.addTarget(target);
+    }
+    TargetMap targetMap = builder.build();
+    return MockBlazeProjectDataBuilder.builder(new WorkspaceRoot(new File("/workspace")))
+        .setTargetMap(targetMap)
+        .setReverseDependencies(ReverseDependencyMap.create(targetMap))
+        .build();
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("bazel-out/k8-fastbuild/bin")
+        .setRelativePath(relativePath)
+        .setIsSource(false)
+        .build();
+  }
+}
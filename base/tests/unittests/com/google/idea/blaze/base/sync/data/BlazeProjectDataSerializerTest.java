@@ -0,0 +1,377 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.data;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.dependencies.TestSize;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.CIdeInfo;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.ideinfo.TestIdeInfo;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
+import com.google.idea.blaze.base.targetmaps.SourceToTargetIndex;
+import com.google.idea.blaze.base.util.SerializationUtil;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BlazeProjectDataSerializer}. */
+@RunWith(JUnit4.class)
+public class BlazeProjectDataSerializerTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static final ImmutableList<ClassLoader> CLASS_LOADERS =
+      ImmutableList.of(BlazeProjectDataSerializerTest.class.getClassLoader());
+
+  private static final ArtifactLocationDecoder DECODER =
+      location -> new File("/execroot", location.getRelativePath());
+
+  private File cacheFile;
+  private ExtensionPointImpl<SyncStateCodec> syncStateCodecs;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    cacheFile = new File(tmpFolder.getRoot(), "cache.dat");
+    syncStateCodecs = registerExtensionPoint(SyncStateCodec.EP_NAME, SyncStateCodec.class);
+    syncStateCodecs.registerExtension(new SourceToTargetIndex.Codec());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    BlazeProjectData original = createProjectData();
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, original);
+    BlazeProjectData loaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+
+    assertThat(loaded).isNotNull();
+    assertThat(loaded.syncTime).isEqualTo(original.syncTime);
+    assertThat(loaded.targetMap.map().keySet())
+        .containsExactlyElementsIn(original.targetMap.map().keySet())
+        .inOrder();
+    for (TargetIdeInfo target : original.targetMap.targets()) {
+      assertTargetsEqual(loaded.targetMap.get(target.key), target);
+    }
+    assertThat(loaded.reverseDependencies.toMultimap())
+        .isEqualTo(original.reverseDependencies.toMultimap());
+    // dependencies outside the target map are retained
+    assertThat(loaded.reverseDependencies.entryCount())
+        .isEqualTo(original.reverseDependencies.entryCount());
+    assertThat(loaded.blazeInfo.getExecutionRoot())
+        .isEqualTo(original.blazeInfo.getExecutionRoot());
+    assertThat(loaded.workspaceLanguageSettings.getWorkspaceType())
+        .isEqualTo(original.workspaceLanguageSettings.getWorkspaceType());
+  }
+
+  @Test
+  public void testSyncStateSharesLoadedTargetMap() throws IOException {
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, createProjectData());
+    BlazeProjectData loaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+
+    assertThat(loaded.syncState.get(TargetMap.class)).isSameAs(loaded.targetMap);
+  }
+
+  @Test
+  public void testSyncStateCodecRoundTrip() throws IOException {
+    TargetMap targetMap = createTargetMap();
+    SourceToTargetIndex index = SourceToTargetIndex.create(targetMap, DECODER, "/execroot");
+    BlazeProjectDataSerializer.saveToDisk(
+        cacheFile,
+        createProjectData(
+            targetMap, new SyncState.Builder().put(SourceToTargetIndex.class, index).build()));
+    BlazeProjectData loaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+
+    SourceToTargetIndex loadedIndex = loaded.syncState.get(SourceToTargetIndex.class);
+    assertThat(loadedIndex).isNotNull();
+    assertThat(loadedIndex.size()).isEqualTo(index.size());
+    assertThat(loadedIndex.get("java/com/foo/Lib.java"))
+        .containsExactly(TargetKey.forPlainTarget(Label.create("//java/com/foo:lib")));
+    assertThat(loadedIndex.getUnderDirectory("")).isEqualTo(index.getUnderDirectory(""));
+    // the loaded index can still be updated incrementally
+    assertThat(
+            loadedIndex
+                .update(loaded.targetMap, ImmutableList.of(), DECODER, "/execroot")
+                .getUnderDirectory(""))
+        .isEqualTo(index.getUnderDirectory(""));
+  }
+
+  @Test
+  public void testSyncStateEntryWithoutCodecIsDropped() throws IOException {
+    TargetMap targetMap = createTargetMap();
+    SourceToTargetIndex index = SourceToTargetIndex.create(targetMap, DECODER, "/execroot");
+    BlazeProjectDataSerializer.saveToDisk(
+        cacheFile,
+        createProjectData(
+            targetMap,
+            new SyncState.Builder()
+                .put(SourceToTargetIndex.class, index)
+                .put(TargetMap.class, targetMap)
+                .build()));
+    for (SyncStateCodec codec : syncStateCodecs.getExtensions()) {
+      syncStateCodecs.unregisterExtension(codec);
+    }
+    BlazeProjectData loaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+
+    assertThat(loaded.syncState.get(SourceToTargetIndex.class)).isNull();
+    assertThat(loaded.syncState.get(TargetMap.class)).isSameAs(loaded.targetMap);
+  }
+
+  @Test
+  public void testLazyTargetMapRoundTrip() throws IOException {
+    BlazeProjectData original = createProjectData();
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, original);
+    BlazeProjectData loaded =
+        BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS, /* lazyTargetMap */ true);
+
+    assertThat(loaded.targetMap).isInstanceOf(LazyTargetMap.class);
+    TargetKey key = TargetKey.forPlainTarget(Label.create("//java/com/foo:lib"));
+    assertThat(loaded.targetMap.contains(key)).isTrue();
+    assertThat(loaded.targetMap.contains(TargetKey.forPlainTarget(Label.create("//not:there"))))
+        .isFalse();
+    assertThat(loaded.targetMap.get(TargetKey.forPlainTarget(Label.create("//not:there"))))
+        .isNull();
+    assertTargetsEqual(loaded.targetMap.get(key), original.targetMap.get(key));
+    assertThat(loaded.targetMap.map().keySet())
+        .containsExactlyElementsIn(original.targetMap.map().keySet())
+        .inOrder();
+    for (TargetIdeInfo target : original.targetMap.targets()) {
+      assertTargetsEqual(loaded.targetMap.get(target.key), target);
+    }
+    assertThat(loaded.syncState.get(TargetMap.class)).isSameAs(loaded.targetMap);
+  }
+
+  @Test
+  public void testLazyTargetMapKeysAndDependencies() throws IOException {
+    BlazeProjectData original = createProjectData();
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, original);
+    BlazeProjectData loaded =
+        BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS, /* lazyTargetMap */ true);
+
+    assertThat(loaded.targetMap.keys())
+        .containsExactlyElementsIn(original.targetMap.keys())
+        .inOrder();
+    for (TargetIdeInfo target : original.targetMap.targets()) {
+      assertThat(loaded.targetMap.getDependencies(target.key))
+          .containsExactlyElementsIn(target.dependencies)
+          .inOrder();
+    }
+    assertThat(loaded.targetMap.getDependencies(TargetKey.forPlainTarget(Label.create("//not:x"))))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLazyTargetMapSurvivesSave() throws IOException {
+    BlazeProjectData original = createProjectData();
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, original);
+    BlazeProjectData loaded =
+        BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS, /* lazyTargetMap */ true);
+
+    // re-saving the lazily loaded data replaces the mapped file
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, loaded);
+
+    TargetKey key = TargetKey.forPlainTarget(Label.create("//cc/baz:baz"));
+    assertTargetsEqual(loaded.targetMap.get(key), original.targetMap.get(key));
+    BlazeProjectData reloaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+    assertTargetsEqual(reloaded.targetMap.get(key), original.targetMap.get(key));
+    assertThat(reloaded.syncState.get(TargetMap.class)).isSameAs(reloaded.targetMap);
+  }
+
+  @Test
+  public void testLoadsLegacySerializedData() throws IOException {
+    BlazeProjectData original = createProjectData();
+    SerializationUtil.saveToDisk(cacheFile, original);
+    BlazeProjectData loaded = BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+
+    assertThat(loaded).isNotNull();
+    assertThat(loaded.targetMap.map().keySet())
+        .containsExactlyElementsIn(original.targetMap.map().keySet());
+  }
+
+  @Test
+  public void testMissingFileReturnsNull() throws IOException {
+    assertThat(BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS)).isNull();
+  }
+
+  @Test
+  public void testUnsupportedSchemaVersionThrows() throws IOException {
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, createProjectData());
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.seek(4);
+      raf.writeInt(BlazeProjectDataSerializer.SCHEMA_VERSION + 1);
+    }
+    try {
+      BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTruncatedFileThrows() throws IOException {
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, createProjectData());
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.setLength(raf.length() / 2);
+    }
+    try {
+      BlazeProjectDataSerializer.loadFromDisk(cacheFile, CLASS_LOADERS);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  private static BlazeProjectData createProjectData() {
+    TargetMap targetMap = createTargetMap();
+    return createProjectData(
+        targetMap, new SyncState.Builder().put(TargetMap.class, targetMap).build());
+  }
+
+  private static BlazeProjectData createProjectData(TargetMap targetMap, SyncState syncState) {
+    TargetKey aspectKey =
+        TargetKey.forGeneralTarget(
+            Label.create("//java/com/bar:bar"), ImmutableList.of("some_aspect"));
+    ReverseDependencyMap.Builder rdeps =
+        ReverseDependencyMap.builder(targetMap)
+            .put(aspectKey, TargetKey.forPlainTarget(Label.create("//java/com/foo:lib")));
+    ReverseDependencyMap.createRdepsMap(targetMap).forEach(rdeps::put);
+    return MockBlazeProjectDataBuilder.builder(new WorkspaceRoot(new File("/workspace")))
+        .setSyncTime(12345L)
+        .setTargetMap(targetMap)
+        .setReverseDependencies(rdeps.build())
+        .setSyncState(syncState)
+        .build();
+  }
+
+  private static TargetMap createTargetMap() {
+    return TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//java/com/foo:lib")
+                    .setKind("java_library")
+                    .setBuildFile(source("java/com/foo/BUILD"))
+                    .addSource(source("java/com/foo/Lib.java"))
+                    .addSource(source("java/com/foo/Util.java"))
+                    .addTag("no-ide")
+                    .addDependency("//java/com/bar:bar")
+                    .addRuntimeDep("//third_party/guava:guava")
+                    .setJavaInfo(
+                        JavaIdeInfo.builder()
+                            .addJar(
+                                LibraryArtifact.builder()
+                                    .setInterfaceJar(generated("java/com/foo/liblib-ijar.jar"))
+                                    .setClassJar(generated("java/com/foo/liblib.jar"))
+                                    .addSourceJar(generated("java/com/foo/liblib-src.jar")))
+                            .setMainClass("com.foo.Main")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//java/com/bar:bar")
+                    .setKind("java_library")
+                    .setBuildFile(source("java/com/bar/BUILD")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//cc/baz:baz")
+                    .setKind("cc_library")
+                    .setBuildFile(source("cc/baz/BUILD"))
+                    .setCInfo(
+                        CIdeInfo.builder()
+                            .addSource(source("cc/baz/baz.cc"))
+                            .addHeader(source("cc/baz/baz.h"))
+                            .addLocalDefines(ImmutableList.of("-DFOO=1"))
+                            .addTransitiveIncludeDirectories(
+                                ImmutableList.of(new ExecutionRootPath("external/include")))))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//go/qux:qux_test")
+                    .setKind("go_test")
+                    .setBuildFile(source("go/qux/BUILD"))
+                    .setGoInfo(
+                        GoIdeInfo.builder()
+                            .addSources(ImmutableList.of(source("go/qux/qux_test.go")))
+                            .setImportPath("example.com/go/qux"))
+                    .setTestInfo(TestIdeInfo.builder().setTestSize(TestSize.LARGE)))
+            .build();
+  }
+
+  private static void assertTargetsEqual(TargetIdeInfo actual, TargetIdeInfo expected) {
+    assertThat(actual).isNotNull();
+    assertThat(actual.key).isEqualTo(expected.key);
+    assertThat(actual.kind).isEqualTo(expected.kind);
+    assertThat(actual.buildFile).isEqualTo(expected.buildFile);
+    assertThat(actual.dependencies).containsExactlyElementsIn(expected.dependencies).inOrder();
+    assertThat(actual.tags).containsExactlyElementsIn(expected.tags).inOrder();
+    assertThat(actual.sources).containsExactlyElementsIn(expected.sources).inOrder();
+
+    assertThat(actual.javaIdeInfo == null).isEqualTo(expected.javaIdeInfo == null);
+    if (expected.javaIdeInfo != null) {
+      assertThat(actual.javaIdeInfo.jars).containsExactlyElementsIn(expected.javaIdeInfo.jars);
+      assertThat(actual.javaIdeInfo.javaBinaryMainClass)
+          .isEqualTo(expected.javaIdeInfo.javaBinaryMainClass);
+      assertThat(actual.javaIdeInfo.testClass).isEqualTo(expected.javaIdeInfo.testClass);
+    }
+    assertThat(actual.cIdeInfo == null).isEqualTo(expected.cIdeInfo == null);
+    if (expected.cIdeInfo != null) {
+      assertThat(actual.cIdeInfo.sources).isEqualTo(expected.cIdeInfo.sources);
+      assertThat(actual.cIdeInfo.headers).isEqualTo(expected.cIdeInfo.headers);
+      assertThat(actual.cIdeInfo.localDefines).isEqualTo(expected.cIdeInfo.localDefines);
+      assertThat(actual.cIdeInfo.transitiveIncludeDirectories)
+          .isEqualTo(expected.cIdeInfo.transitiveIncludeDirectories);
+    }
+    assertThat(actual.goIdeInfo == null).isEqualTo(expected.goIdeInfo == null);
+    if (expected.goIdeInfo != null) {
+      assertThat(actual.goIdeInfo.sources).isEqualTo(expected.goIdeInfo.sources);
+      assertThat(actual.goIdeInfo.importPath).isEqualTo(expected.goIdeInfo.importPath);
+    }
+    assertThat(actual.testIdeInfo == null).isEqualTo(expected.testIdeInfo == null);
+    if (expected.testIdeInfo != null) {
+      assertThat(actual.testIdeInfo.testSize).isEqualTo(expected.testIdeInfo.testSize);
+    }
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("bazel-out/k8-fastbuild/bin")
+        .setRelativePath(relativePath)
+        .setIsSource(false)
+        .build();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.sync.sharding.PackageQueryCache.PackageRules;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackageQueryCache} and {@link BuildFileHasher}. */
+@RunWith(JUnit4.class)
+public class PackageQueryCacheTest {
+
+  private static final WorkspacePath FOO = new WorkspacePath("foo");
+  private static final WorkspacePath BAR = new WorkspacePath("bar");
+  private static final ImmutableSet<WorkspacePath> ALL = ImmutableSet.of(FOO, BAR);
+
+  @Test
+  public void testEntriesKeyedOnPackageHash() {
+    PackageQueryCache cache =
+        PackageQueryCache.EMPTY.update(
+            1, ImmutableMap.of(FOO, rules(10, "//foo:lib"), BAR, rules(20, "//bar:lib")), ALL);
+
+    assertThat(cache.get(1, FOO, 10).ruleTypes).containsKey("//foo:lib");
+    assertThat(cache.get(1, FOO, 11)).isNull();
+    assertThat(cache.get(1, new WorkspacePath("baz"), 10)).isNull();
+  }
+
+  @Test
+  public void testUpdateKeepsOtherEntries() {
+    PackageQueryCache cache =
+        PackageQueryCache.EMPTY
+            .update(
+                1, ImmutableMap.of(FOO, rules(10, "//foo:lib"), BAR, rules(20, "//bar:lib")), ALL)
+            .update(1, ImmutableMap.of(FOO, rules(11, "//foo:other")), ALL);
+
+    assertThat(cache.get(1, FOO, 11).ruleTypes).containsExactly("//foo:other", "java_library");
+    assertThat(cache.get(1, BAR, 20)).isNotNull();
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void testUpdateDropsUnreferencedPackages() {
+    PackageQueryCache cache =
+        PackageQueryCache.EMPTY
+            .update(
+                1, ImmutableMap.of(FOO, rules(10, "//foo:lib"), BAR, rules(20, "//bar:lib")), ALL)
+            .update(1, ImmutableMap.of(), ImmutableSet.of(FOO));
+
+    assertThat(cache.get(1, FOO, 10)).isNotNull();
+    assertThat(cache.get(1, BAR, 20)).isNull();
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testWorkspaceChangeInvalidatesEverything() {
+    PackageQueryCache cache =
+        PackageQueryCache.EMPTY.update(1, ImmutableMap.of(FOO, rules(10, "//foo:lib")), ALL);
+
+    assertThat(cache.get(2, FOO, 10)).isNull();
+    PackageQueryCache updated = cache.update(2, ImmutableMap.of(BAR, rules(20, "//bar:lib")), ALL);
+    assertThat(updated.get(2, FOO, 10)).isNull();
+    assertThat(updated.get(2, BAR, 20)).isNotNull();
+  }
+
+  @Test
+  public void testLoadedBzlFileResolution() {
+    WorkspacePath pkg = new WorkspacePath("foo/bar");
+    assertThat(BuildFileHasher.loadedFile("//tools:defs.bzl", pkg))
+        .isEqualTo(new WorkspacePath("tools/defs.bzl"));
+    assertThat(BuildFileHasher.loadedFile("//:defs.bzl", pkg))
+        .isEqualTo(new WorkspacePath("defs.bzl"));
+    assertThat(BuildFileHasher.loadedFile(":defs.bzl", pkg))
+        .isEqualTo(new WorkspacePath("foo/bar/defs.bzl"));
+    assertThat(BuildFileHasher.loadedFile("/tools/build_rules/defs", pkg))
+        .isEqualTo(new WorkspacePath("tools/build_rules/defs.bzl"));
+    assertThat(BuildFileHasher.loadedFile("@repo//tools:defs.bzl", pkg)).isNull();
+
+    assertThat(BuildFileHasher.loadedPackage("//tools:sub/defs.bzl", pkg))
+        .isEqualTo(new WorkspacePath("tools"));
+    assertThat(BuildFileHasher.loadedPackage(":defs.bzl", pkg)).isEqualTo(pkg);
+  }
+
+  @Test
+  public void testMainRepositoryLabelsResolved() {
+    assertThat(BuildFileHasher.mainRepositoryLabel("//tools:defs.bzl", "main"))
+        .isEqualTo("//tools:defs.bzl");
+    assertThat(BuildFileHasher.mainRepositoryLabel("@//tools:defs.bzl", null))
+        .isEqualTo("//tools:defs.bzl");
+    assertThat(BuildFileHasher.mainRepositoryLabel("@main//tools:defs.bzl", "main"))
+        .isEqualTo("//tools:defs.bzl");
+    assertThat(BuildFileHasher.mainRepositoryLabel("@main//tools:defs.bzl", null)).isNull();
+    assertThat(BuildFileHasher.mainRepositoryLabel("@mainline//tools:defs.bzl", "main")).isNull();
+    assertThat(BuildFileHasher.mainRepositoryLabel("@repo//tools:defs.bzl", "main")).isNull();
+  }
+
+  private static PackageRules rules(long hash, String label) {
+    return new PackageRules(hash, ImmutableMap.of(label, "java_library"));
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.BlazeCommand;
+import com.google.idea.blaze.base.command.BlazeCommandName;
+import com.google.idea.blaze.base.command.BlazeFlags;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.aspects.BuildResult;
+import com.google.idea.blaze.base.sync.sharding.ShardedTargetList.ShardInvocation;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ShardedTargetList#runShardedCommandInParallel}. */
+@RunWith(JUnit4.class)
+public class ParallelShardedBuildTest extends BlazeTestCase {
+
+  private static final ImmutableList<File> OUTPUT_BASES =
+      ImmutableList.of(new File("/output_base-shard1"), new File("/output_base-shard2"));
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+  }
+
+  @Test
+  public void testResultsHandledInShardOrder() {
+    ShardedTargetList shards = shards(6).withParallelOutputBases(OUTPUT_BASES);
+    FakeBuildBinary binary = new FakeBuildBinary();
+    List<String> handled = new ArrayList<>();
+
+    BuildResult result =
+        shards.runShardedCommandInParallel(
+            project,
+            new BlazeContext(),
+            shard -> "Building shard " + shard,
+            binary,
+            command -> false,
+            command -> {
+              handled.add(targetOf(command));
+              return BuildResult.SUCCESS;
+            });
+
+    assertThat(result).isEqualTo(BuildResult.SUCCESS);
+    assertThat(handled)
+        .containsExactly("//foo:0", "//foo:1", "//foo:2", "//foo:3", "//foo:4", "//foo:5")
+        .inOrder();
+    assertThat(binary.maxConcurrentBuilds.get()).isAtMost(3);
+    assertThat(binary.overlappingOutputBase.get()).isFalse();
+  }
+
+  @Test
+  public void testOutputBasePassedAsStartupFlag() {
+    ShardedTargetList shards = shards(3).withParallelOutputBases(OUTPUT_BASES);
+    FakeBuildBinary binary = new FakeBuildBinary();
+
+    shards.runShardedCommandInParallel(
+        project,
+        new BlazeContext(),
+        shard -> "",
+        binary,
+        command -> false,
+        command -> BuildResult.SUCCESS);
+
+    for (List<String> command : binary.commands) {
+      // startup flags precede the command name
+      if (!command.get(1).equals("build")) {
+        assertThat(command.get(1))
+            .isAnyOf(
+                "--output_base=" + OUTPUT_BASES.get(0).getPath(),
+                "--output_base=" + OUTPUT_BASES.get(1).getPath());
+        assertThat(command.get(2)).isEqualTo("build");
+      }
+    }
+  }
+
+  @Test
+  public void testBuildResultsCombinedDeterministically() {
+    ShardedTargetList shards = shards(4).withParallelOutputBases(OUTPUT_BASES);
+    BuildResult result =
+        shards.runShardedCommandInParallel(
+            project,
+            new BlazeContext(),
+            shard -> "",
+            new FakeBuildBinary(),
+            command -> false,
+            command ->
+                targetOf(command).equals("//foo:2")
+                    ? BuildResult.fromExitCode(1)
+                    : BuildResult.SUCCESS);
+    assertThat(result.status).isEqualTo(BuildResult.Status.BUILD_ERROR);
+  }
+
+  @Test
+  public void testShardsPinnedToOutputBases() {
+    ShardedTargetList shards = shards(7).withParallelOutputBases(OUTPUT_BASES);
+    FakeBuildBinary binary = new FakeBuildBinary();
+
+    shards.runShardedCommandInParallel(
+        project,
+        new BlazeContext(),
+        shard -> "",
+        binary,
+        command -> false,
+        command -> BuildResult.SUCCESS);
+
+    List<String> expectedFlags =
+        ImmutableList.of(
+            "build",
+            "--output_base=" + OUTPUT_BASES.get(0).getPath(),
+            "--output_base=" + OUTPUT_BASES.get(1).getPath());
+    assertThat(binary.commands).hasSize(7);
+    for (List<String> command : binary.commands) {
+      int shard = shardOf(command);
+      assertThat(command.get(1)).isEqualTo(expectedFlags.get(shard % 3));
+    }
+  }
+
+  @Test
+  public void testOutOfMemoryShardRetriedOnSameOutputBase() {
+    ShardedTargetList shards = shards(6).withParallelOutputBases(OUTPUT_BASES);
+    FakeBuildBinary binary = new FakeBuildBinary();
+    Set<Integer> failedShards = ConcurrentHashMap.newKeySet();
+    // shard 0 is the first shard built by its server, so isn't retried
+    Set<Integer> oomShards = ImmutableSet.of(0, 4);
+
+    BuildResult result =
+        shards.runShardedCommandInParallel(
+            project,
+            new BlazeContext(),
+            shard -> "",
+            binary,
+            command -> oomShards.contains(shardOf(command)) && failedShards.add(shardOf(command)),
+            command -> BuildResult.SUCCESS);
+
+    assertThat(result).isEqualTo(BuildResult.SUCCESS);
+    List<String> retried = new ArrayList<>();
+    for (List<String> command : binary.commands) {
+      if (shardOf(command) == 4) {
+        retried.add(command.get(1));
+      }
+    }
+    assertThat(retried)
+        .containsExactly(
+            "--output_base=" + OUTPUT_BASES.get(0).getPath(),
+            "--output_base=" + OUTPUT_BASES.get(0).getPath());
+    assertThat(binary.commands.stream().filter(command -> shardOf(command) == 0).count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testCancellationInterruptsRunningShards() throws InterruptedException {
+    ShardedTargetList shards = shards(3).withParallelOutputBases(OUTPUT_BASES);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    BlazeContext context = new BlazeContext();
+
+    BuildResult result =
+        shards.runShardedCommandInParallel(
+            project,
+            context,
+            shard -> "",
+            (shardContext, targets, outputBase) -> {
+              if (targets.get(0).toString().equals("//foo:1")) {
+                // e.g. the user stopped the blaze process
+                shardContext.setCancelled();
+                return BuildResult.SUCCESS;
+              }
+              try {
+                Thread.sleep(60_000);
+              } catch (InterruptedException e) {
+                interrupted.countDown();
+              }
+              return BuildResult.SUCCESS;
+            },
+            BuildResult::outOfMemory,
+            buildResult -> buildResult);
+
+    assertThat(result.status).isEqualTo(BuildResult.Status.FATAL_ERROR);
+    assertThat(context.isCancelled()).isTrue();
+    assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testSequentialWithoutParallelOutputBases() {
+    ShardedTargetList shards = shards(3);
+    FakeBuildBinary binary = new FakeBuildBinary();
+    shards.runShardedCommandInParallel(
+        project,
+        new BlazeContext(),
+        shard -> "",
+        binary,
+        command -> false,
+        command -> BuildResult.SUCCESS);
+
+    assertThat(shards.getParallelism()).isEqualTo(1);
+    assertThat(binary.maxConcurrentBuilds.get()).isEqualTo(1);
+    for (List<String> command : binary.commands) {
+      assertThat(command.get(1)).isEqualTo("build");
+    }
+  }
+
+  private static ShardedTargetList shards(int count) {
+    List<List<TargetExpression>> shards = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      shards.add(ImmutableList.of(TargetExpression.fromStringSafe("//foo:" + i)));
+    }
+    return new ShardedTargetList(shards);
+  }
+
+  private static String targetOf(List<String> command) {
+    return command.get(command.indexOf("--") + 1);
+  }
+
+  private static int shardOf(List<String> command) {
+    return Integer.parseInt(targetOf(command).substring("//foo:".length()));
+  }
+
+  /**
+   * Stands in for the blaze binary, recording each command line. Earlier shards take longer to
+   * build, so shards finish out of order.
+   */
+  private static class FakeBuildBinary implements ShardInvocation<List<String>> {
+    final List<List<String>> commands = new ArrayList<>();
+    final AtomicInteger maxConcurrentBuilds = new AtomicInteger();
+    final AtomicBoolean overlappingOutputBase = new AtomicBoolean();
+
+    private final AtomicInteger runningBuilds = new AtomicInteger();
+    private final Set<String> busyOutputBases = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public List<String> build(
+        BlazeContext context, List<TargetExpression> targets, @Nullable File outputBase) {
+      List<String> command =
+          BlazeCommand.builder("/fake/blaze", BlazeCommandName.BUILD)
+              .addStartupFlags(BlazeFlags.outputBaseFlags(outputBase))
+              .addTargets(targets)
+              .build()
+              .toList();
+      synchronized (commands) {
+        commands.add(command);
+      }
+      String outputBaseKey = String.valueOf(outputBase);
+      if (!busyOutputBases.add(outputBaseKey)) {
+        overlappingOutputBase.set(true);
+      }
+      maxConcurrentBuilds.accumulateAndGet(runningBuilds.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(10L * Math.max(6 - shardOf(command), 0));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        runningBuilds.decrementAndGet();
+        busyOutputBases.remove(outputBaseKey);
+      }
+      return command;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the cached target list evaluation in {@link WildcardTargetExpander}. */
+@RunWith(JUnit4.class)
+public class WildcardTargetExpanderTest {
+
+  private static final Map<WorkspacePath, ImmutableMap<String, String>> PACKAGE_RULES =
+      ImmutableMap.of(
+          new WorkspacePath("foo"),
+          ImmutableMap.of("//foo:lib", "java_library", "//foo:test", "java_test"),
+          new WorkspacePath("foo/bar"),
+          ImmutableMap.of("//foo/bar:lib", "java_library", "//foo/bar:css", "css_library"));
+
+  @Test
+  public void testReferencedPackages() {
+    assertThat(
+            WildcardTargetExpander.getReferencedPackages(
+                targets("//foo:all", "//foo/bar:lib", "-//foo/...", "-//baz:lib")))
+        .containsExactly(new WorkspacePath("foo"), new WorkspacePath("foo/bar"));
+  }
+
+  @Test
+  public void testUnsupportedPatternsAreNotCached() {
+    assertThat(WildcardTargetExpander.getReferencedPackages(targets("//foo/...:all"))).isNull();
+    assertThat(WildcardTargetExpander.getReferencedPackages(targets("@repo//foo:lib"))).isNull();
+    assertThat(WildcardTargetExpander.getReferencedPackages(targets("//foo"))).isNull();
+  }
+
+  @Test
+  public void testExcludesOnlyApplyToPrecedingTargets() {
+    List<TargetExpression> targets =
+        targets("//foo:all", "-//foo:test", "//foo/bar:all", "-//foo/...", "//foo/bar:lib");
+
+    assertThat(WildcardTargetExpander.evaluateTargetList(targets, PACKAGE_RULES, t -> true))
+        .containsExactlyElementsIn(targets("//foo/bar:lib"));
+  }
+
+  @Test
+  public void testExplicitTargetsMustBeRules() {
+    assertThat(
+            WildcardTargetExpander.evaluateTargetList(
+                targets("//foo:lib", "//foo:missing", "//foo/bar:all", "-//foo/bar:css"),
+                PACKAGE_RULES,
+                t -> true))
+        .containsExactlyElementsIn(targets("//foo:lib", "//foo/bar:lib"));
+  }
+
+  @Test
+  public void testRuleFilterApplied() {
+    assertThat(
+            WildcardTargetExpander.evaluateTargetList(
+                targets("//foo:all", "//foo/bar:all"),
+                PACKAGE_RULES,
+                t -> t.ruleType.equals("java_library")))
+        .containsExactlyElementsIn(targets("//foo:lib", "//foo/bar:lib"));
+  }
+
+  private static ImmutableList<TargetExpression> targets(String... targets) {
+    ImmutableList.Builder<TargetExpression> list = ImmutableList.builder();
+    for (String target : targets) {
+      list.add(TargetExpression.fromStringSafe(target));
+    }
+    return list.build();
+  }
+}
@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.targetmaps;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
@@ -193,6 +194,81 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
             TargetKey.forPlainTarget(Label.create("//l:l5")));
   }
 
+  @Test
+  public void testUpdateMatchesRebuild() {
+    TargetMap before =
+        TargetMapBuilder.builder()
+            .addTarget(library("//l:l1").addDependency("//l:l2"))
+            .addTarget(library("//l:l2").addDependency("//l:l3"))
+            .addTarget(library("//l:l3"))
+            .addTarget(library("//l:l4").addDependency("//l:l3").addDependency("//l:l5"))
+            .build();
+    // l2 no longer depends on l3, l4 is removed, and l5 (already a dependency) is added
+    TargetMap after =
+        TargetMapBuilder.builder()
+            .addTarget(library("//l:l1").addDependency("//l:l2"))
+            .addTarget(library("//l:l2").addDependency("//l:l5"))
+            .addTarget(library("//l:l3"))
+            .addTarget(library("//l:l5").addDependency("//l:l3"))
+            .build();
+
+    ReverseDependencyMap previous = ReverseDependencyMap.create(before);
+    ReverseDependencyMap updated =
+        previous.update(
+            before, after, ImmutableSet.of(key("//l:l2"), key("//l:l4"), key("//l:l5")));
+
+    assertThat(updated.toMultimap())
+        .containsExactlyEntriesIn(ReverseDependencyMap.createRdepsMap(after));
+    assertThat(updated.get(key("//l:l5"))).containsExactly(key("//l:l2"));
+    assertThat(updated.get(key("//l:l3"))).containsExactly(key("//l:l5"));
+    assertThat(updated.get(key("//l:l4"))).isEmpty();
+
+    // the previous map is unaffected
+    assertThat(previous.get(key("//l:l3"))).containsExactly(key("//l:l2"), key("//l:l4"));
+    assertThat(previous.get(key("//l:l5"))).isEmpty();
+  }
+
+  @Test
+  public void testUpdateAfterRestoringFromEntries() {
+    // l3 has neither dependencies nor reverse dependencies, so isn't in any persisted entry
+    TargetMap before =
+        TargetMapBuilder.builder()
+            .addTarget(library("//l:l1").addDependency("//l:l2"))
+            .addTarget(library("//l:l2"))
+            .addTarget(library("//l:l3"))
+            .build();
+    TargetMap after =
+        TargetMapBuilder.builder()
+            .addTarget(library("//l:l1").addDependency("//l:l2"))
+            .addTarget(library("//l:l2"))
+            .addTarget(library("//l:l3"))
+            .addTarget(library("//l:l4").addDependency("//l:l3"))
+            .build();
+
+    ReverseDependencyMap.Builder builder = ReverseDependencyMap.builder(before);
+    ReverseDependencyMap.create(before)
+        .forEachEntry((key, rdeps) -> rdeps.forEach(rdep -> builder.put(key, rdep)));
+    ReverseDependencyMap restored = builder.build();
+    ReverseDependencyMap updated = restored.update(before, after, ImmutableSet.of(key("//l:l4")));
+
+    assertThat(restored.toMultimap())
+        .containsExactlyEntriesIn(ReverseDependencyMap.createRdepsMap(before));
+    assertThat(updated.toMultimap())
+        .containsExactlyEntriesIn(ReverseDependencyMap.createRdepsMap(after));
+    assertThat(updated.get(key("//l:l3"))).containsExactly(key("//l:l4"));
+  }
+
+  private static TargetIdeInfo.Builder library(String label) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(sourceRoot("test/BUILD"))
+        .setLabel(label)
+        .setKind("java_library");
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
   private static ArtifactLocation sourceRoot(String relativePath) {
     return ArtifactLocation.builder()
         .setRelativePath(relativePath)
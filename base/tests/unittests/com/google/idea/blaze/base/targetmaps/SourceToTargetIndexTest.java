@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SourceToTargetIndex}. */
+@RunWith(JUnit4.class)
+public class SourceToTargetIndexTest {
+  private static final String EXECUTION_ROOT = "/execroot";
+  private static final ArtifactLocationDecoder DECODER =
+      location -> new File(EXECUTION_ROOT, location.getExecutionRootRelativePath());
+
+  @Test
+  public void testLookupByPath() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//foo:a", source("foo/A.java"), source("foo/Shared.java")))
+            .addTarget(target("//foo:b", source("foo/Shared.java")))
+            .addTarget(target("//gen:c", generated("gen/C.java")))
+            .build();
+    SourceToTargetIndex index = SourceToTargetIndex.create(targetMap, DECODER, EXECUTION_ROOT);
+
+    assertThat(index.get("foo/A.java")).containsExactly(key("//foo:a"));
+    assertThat(index.get("foo/Shared.java")).containsExactly(key("//foo:a"), key("//foo:b"));
+    assertThat(index.get("/execroot/bazel-out/k8-fastbuild/genfiles/gen/C.java"))
+        .containsExactly(key("//gen:c"));
+    assertThat(index.get("foo/Missing.java")).isEmpty();
+  }
+
+  @Test
+  public void testDirectoryQueries() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//foo:a", source("foo/A.java")))
+            .addTarget(target("//foo/bar:b", source("foo/bar/B.java")))
+            .addTarget(target("//foobar:c", source("foobar/C.java")))
+            .build();
+    SourceToTargetIndex index = SourceToTargetIndex.create(targetMap, DECODER, EXECUTION_ROOT);
+
+    assertThat(index.getUnderDirectory("foo")).containsExactly(key("//foo:a"), key("//foo/bar:b"));
+    assertThat(index.getUnderDirectory("foo/bar/")).containsExactly(key("//foo/bar:b"));
+    assertThat(index.getUnderDirectory("baz")).isEmpty();
+    assertThat(index.getUnderDirectory(""))
+        .containsExactly(key("//foo:a"), key("//foo/bar:b"), key("//foobar:c"));
+  }
+
+  @Test
+  public void testUpdateMatchesRebuild() {
+    TargetMap before =
+        TargetMapBuilder.builder()
+            .addTarget(target("//foo:a", source("foo/A.java")))
+            .addTarget(target("//foo:b", source("foo/B.java"), source("foo/Shared.java")))
+            .addTarget(target("//foo:c", source("foo/Shared.java")))
+            .build();
+    // b loses a source, c is removed and d is added
+    TargetMap after =
+        TargetMapBuilder.builder()
+            .addTarget(target("//foo:a", source("foo/A.java")))
+            .addTarget(target("//foo:b", source("foo/B.java")))
+            .addTarget(target("//foo:d", source("foo/Shared.java"), source("foo/D.java")))
+            .build();
+
+    SourceToTargetIndex updated =
+        SourceToTargetIndex.create(before, DECODER, EXECUTION_ROOT)
+            .update(
+                after,
+                ImmutableSet.of(key("//foo:b"), key("//foo:c"), key("//foo:d")),
+                DECODER,
+                EXECUTION_ROOT);
+    SourceToTargetIndex rebuilt = SourceToTargetIndex.create(after, DECODER, EXECUTION_ROOT);
+
+    for (String path : new String[] {"foo/A.java", "foo/B.java", "foo/Shared.java", "foo/D.java"}) {
+      assertThat(updated.get(path)).containsExactlyElementsIn(rebuilt.get(path));
+    }
+    assertThat(updated.get("foo/Shared.java")).containsExactly(key("//foo:d"));
+    assertThat(updated.getUnderDirectory("foo")).isEqualTo(rebuilt.getUnderDirectory("foo"));
+    assertThat(updated.size()).isEqualTo(rebuilt.size());
+  }
+
+  @Test
+  public void testUpdateWithNewExecutionRootRebuilds() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder().addTarget(target("//gen:c", generated("gen/C.java"))).build();
+    ArtifactLocationDecoder newDecoder =
+        location -> new File("/other", location.getExecutionRootRelativePath());
+
+    SourceToTargetIndex updated =
+        SourceToTargetIndex.create(targetMap, DECODER, EXECUTION_ROOT)
+            .update(targetMap, ImmutableSet.of(), newDecoder, "/other");
+
+    assertThat(updated.get("/other/bazel-out/k8-fastbuild/genfiles/gen/C.java"))
+        .containsExactly(key("//gen:c"));
+  }
+
+  private static TargetIdeInfo.Builder target(String label, ArtifactLocation... sources) {
+    TargetIdeInfo.Builder builder =
+        TargetIdeInfo.builder().setLabel(label).setKind("java_library");
+    for (ArtifactLocation source : sources) {
+      builder.addSource(source);
+    }
+    return builder;
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("bazel-out/k8-fastbuild/genfiles")
+        .setRelativePath(relativePath)
+        .setIsSource(false)
+        .build();
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
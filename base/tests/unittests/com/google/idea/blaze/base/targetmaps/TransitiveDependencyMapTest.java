@@ -17,6 +17,8 @@ package com.google.idea.blaze.base.targetmaps;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
@@ -26,6 +28,7 @@ import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
 import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import java.io.File;
 import org.junit.Test;
@@ -47,6 +50,7 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
             MockBlazeProjectDataBuilder.builder(workspaceRoot)
                 .setTargetMap(buildTargetMap())
                 .build()));
+    projectServices.register(SyncCache.class, new SyncCache(project));
     projectServices.register(TransitiveDependencyMap.class, new TransitiveDependencyMap(project));
     transitiveDependencyMap = TransitiveDependencyMap.getInstance(project);
   }
@@ -106,6 +110,43 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
     assertThat(transitiveDependencyMap.getTransitiveDependencies(bogus)).isEmpty();
   }
 
+  @Test
+  public void testRepeatedQueriesReturnSameResult() {
+    TargetKey diamondA = TargetKey.forPlainTarget(Label.create("//com/google/example/diamond:a"));
+    TargetKey diamondBBB =
+        TargetKey.forPlainTarget(Label.create("//com/google/example/diamond:bbb"));
+
+    // the first query memoizes diamond:bbb's closure, which is reused for diamond:a
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(diamondBBB)).hasSize(3);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(diamondA)).hasSize(6);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(diamondA)).hasSize(6);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(diamondBBB)).hasSize(3);
+  }
+
+  @Test
+  public void testGetDependenciesOfMultipleTargets() {
+    TargetKey simpleA = TargetKey.forPlainTarget(Label.create("//com/google/example/simple:a"));
+    TargetKey simpleB = TargetKey.forPlainTarget(Label.create("//com/google/example/simple:b"));
+    TargetKey chainC = TargetKey.forPlainTarget(Label.create("//com/google/example/chain:c"));
+    TargetKey chainD = TargetKey.forPlainTarget(Label.create("//com/google/example/chain:d"));
+    TargetKey bogus = TargetKey.forPlainTarget(Label.create("//com/google/fake:target"));
+
+    assertThat(
+            transitiveDependencyMap.getTransitiveDependencies(
+                ImmutableList.of(simpleA, chainC, bogus)))
+        .containsExactly(simpleB, chainD);
+    assertThat(
+            transitiveDependencyMap.getTransitiveDependenciesForEach(
+                ImmutableList.of(simpleA, chainC, bogus)))
+        .containsExactly(
+            simpleA,
+            ImmutableSet.of(simpleB),
+            chainC,
+            ImmutableSet.of(chainD),
+            bogus,
+            ImmutableSet.of());
+  }
+
   private static TargetMap buildTargetMap() {
     Label simpleA = Label.create("//com/google/example/simple:a");
     Label simpleB = Label.create("//com/google/example/simple:b");
@@ -23,11 +23,13 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.filecache.ContentAddressedFileStore;
 import com.google.idea.blaze.base.filecache.FileCache;
+import com.google.idea.blaze.base.filecache.FileCacheManifest;
 import com.google.idea.blaze.base.filecache.FileCacheSynchronizer;
 import com.google.idea.blaze.base.filecache.FileCacheSynchronizerTraits;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
-import com.google.idea.blaze.base.io.FileSizeScanner;
+import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
@@ -40,8 +42,10 @@ import com.google.idea.blaze.base.sync.BlazeSyncParams.SyncMode;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.util.SerializationUtil;
 import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -49,22 +53,45 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
-/** Local cache of the jars referenced by the project. */
+/**
+ * Local cache of the jars referenced by the project.
+ *
+ * <p>Cached jars are hard links into a {@link ContentAddressedFileStore}, so identical jars (e.g.
+ * the same jar built in different configurations) are only stored once. The source timestamp and
+ * digest of each cached jar are recorded in a {@link FileCacheManifest} alongside the cache, or in
+ * the cache's own index if the synchronizer isn't using manifests.
+ */
 public class JarCache {
   private static final Logger logger = Logger.getInstance(JarCache.class);
 
+  private static final BoolExperiment linkBlazeOutputs =
+      new BoolExperiment("blaze.jar.cache.link.outputs", true);
+
+  private static final String STORE_DIR_NAME = ".content";
+  private static final String MANIFEST_FILE_NAME = ".manifest";
+  private static final String INDEX_FILE_NAME = ".index";
+
   private final File cacheDir;
+  private final ContentAddressedFileStore store;
+  private final FileCacheManifest manifest;
+  /** Cache key to the state of the source jar the cache file was last updated from. */
+  @Nullable private ConcurrentHashMap<String, CacheEntry> index;
 
   private boolean enabled;
   @Nullable private JarCacheSynchronizerTraits traits;
@@ -77,6 +104,8 @@ public class JarCache {
     BlazeImportSettings importSettings =
         BlazeImportSettingsManager.getInstance(project).getImportSettings();
     this.cacheDir = getCacheDir(importSettings);
+    this.store = new ContentAddressedFileStore(new File(cacheDir, STORE_DIR_NAME), ".jar");
+    this.manifest = new FileCacheManifest(new File(cacheDir, MANIFEST_FILE_NAME));
   }
 
   void onSync(
@@ -106,18 +135,29 @@ public class JarCache {
 
     ArtifactLocationDecoder artifactLocationDecoder = projectData.artifactLocationDecoder;
     BiMap<File, String> sourceFileToCacheKey = HashBiMap.create(jarLibraries.size());
+    // blaze deletes its outputs before rewriting them, so they can safely be hard linked
+    Set<File> blazeOutputs = new HashSet<>();
+    boolean linkOutputs = linkBlazeOutputs.getValue();
     for (BlazeJarLibrary library : jarLibraries) {
-      File jarFile =
-          artifactLocationDecoder.decode(library.libraryArtifact.jarForIntellijLibrary());
+      ArtifactLocation jar = library.libraryArtifact.jarForIntellijLibrary();
+      File jarFile = artifactLocationDecoder.decode(jar);
       sourceFileToCacheKey.put(jarFile, cacheKeyForJar(jarFile));
+      if (linkOutputs && !jar.isSource()) {
+        blazeOutputs.add(jarFile);
+      }
 
       for (ArtifactLocation sourceJar : library.libraryArtifact.sourceJars) {
         File srcJarFile = artifactLocationDecoder.decode(sourceJar);
         sourceFileToCacheKey.put(srcJarFile, cacheKeyForSourceJar(srcJarFile));
+        if (linkOutputs && !sourceJar.isSource()) {
+          blazeOutputs.add(srcJarFile);
+        }
       }
     }
 
-    this.traits = new JarCacheSynchronizerTraits(cacheDir, sourceFileToCacheKey);
+    this.traits =
+        new JarCacheSynchronizerTraits(
+            cacheDir, sourceFileToCacheKey, blazeOutputs, store, manifest);
     refresh(context, removeMissingFiles);
   }
 
@@ -149,23 +189,65 @@ public class JarCache {
         return;
       }
     }
-    FileCacheSynchronizer synchronizer = new FileCacheSynchronizer(traits);
+    FileCacheSynchronizer synchronizer = new FileCacheSynchronizer(traits, manifest);
+    boolean useManifest = synchronizer.usesManifest();
+    Map<String, CacheEntry> index = useManifest ? null : getIndex();
+    traits.index = index;
     if (!synchronizer.synchronize(context, removeMissingFiles)) {
       logger.warn("Jar Cache synchronization didn't complete");
     }
+    Set<String> digests;
+    if (useManifest) {
+      digests =
+          manifest
+              .getEntries()
+              .values()
+              .stream()
+              .map(entry -> entry.digest)
+              .filter(Objects::nonNull)
+              .collect(Collectors.toSet());
+    } else {
+      digests = index.values().stream().map(e -> e.digest).collect(Collectors.toSet());
+      saveIndex(index);
+    }
+    store.retainAll(digests);
     if (context != null) {
-      try {
-        Collection<File> finalCacheFiles = traits.enumerateCacheFiles();
-        ImmutableMap<File, Long> cacheFileSizes = FileSizeScanner.readFilesizes(finalCacheFiles);
-        Long total = cacheFileSizes.values().stream().mapToLong(x -> x).sum();
-        context.output(
-            PrintOutput.log(
-                String.format(
-                    "Total Jar Cache size: %d kB (%d files)",
-                    total / 1024, finalCacheFiles.size())));
-      } catch (Exception e) {
-        logger.warn("Could not determine cache size", e);
+      int cacheFiles = traits.enumerateCacheFiles().size();
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Total Jar Cache size: %d kB (%d files, %d distinct)",
+                  store.storedBytes() / 1024, cacheFiles, digests.size())));
+    }
+  }
+
+  private synchronized ConcurrentHashMap<String, CacheEntry> getIndex() {
+    if (index == null) {
+      index = new ConcurrentHashMap<>(loadIndex());
+    }
+    return index;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, CacheEntry> loadIndex() {
+    try {
+      Object index =
+          SerializationUtil.loadFromDisk(
+              new File(cacheDir, INDEX_FILE_NAME), ImmutableList.of(getClass().getClassLoader()));
+      if (index instanceof Map) {
+        return (Map<String, CacheEntry>) index;
       }
+    } catch (IOException e) {
+      logger.warn("Could not read jar cache index", e);
+    }
+    return ImmutableMap.of();
+  }
+
+  private void saveIndex(Map<String, CacheEntry> index) {
+    try {
+      SerializationUtil.saveToDisk(new File(cacheDir, INDEX_FILE_NAME), new HashMap<>(index));
+    } catch (IOException e) {
+      logger.warn("Could not write jar cache index", e);
     }
   }
 
@@ -178,6 +260,10 @@ public class JarCache {
       }
     }
     traits = null;
+    manifest.clear();
+    synchronized (this) {
+      index = new ConcurrentHashMap<>();
+    }
   }
 
   /** Gets the cached file for a jar. If it doesn't exist, we return the file from the library. */
@@ -245,14 +331,45 @@ public class JarCache {
     }
   }
 
+  /** The state of the source jar a cache file was last updated from. */
+  private static final class CacheEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long sourceTimestamp;
+    final String digest;
+
+    CacheEntry(long sourceTimestamp, String digest) {
+      this.sourceTimestamp = sourceTimestamp;
+      this.digest = digest;
+    }
+  }
+
   /** Traits to synchronize local cache of the jars referenced by the project. */
   private static final class JarCacheSynchronizerTraits implements FileCacheSynchronizerTraits {
     private final File cacheDir;
     private final BiMap<File, String> sourceFileToCacheKey;
-
-    JarCacheSynchronizerTraits(File cacheDir, BiMap<File, String> sourceFileToCacheKey) {
+    private final Set<File> linkableSourceFiles;
+    private final ContentAddressedFileStore store;
+    private final FileCacheManifest manifest;
+    /** The digests of files updated by the current synchronization. */
+    private final Map<String, String> updatedDigests = new ConcurrentHashMap<>();
+    /**
+     * Records cache state instead of the manifest, if the current synchronization isn't using it.
+     * Set before each synchronization.
+     */
+    @Nullable private volatile Map<String, CacheEntry> index;
+
+    JarCacheSynchronizerTraits(
+        File cacheDir,
+        BiMap<File, String> sourceFileToCacheKey,
+        Set<File> linkableSourceFiles,
+        ContentAddressedFileStore store,
+        FileCacheManifest manifest) {
       this.cacheDir = cacheDir;
       this.sourceFileToCacheKey = sourceFileToCacheKey;
+      this.linkableSourceFiles = linkableSourceFiles;
+      this.store = store;
+      this.manifest = manifest;
     }
 
     @Override
@@ -279,6 +396,38 @@ public class JarCache {
       return cacheFile.getName();
     }
 
+    /**
+     * Cache files are hard links shared by all sources with identical contents, so their own
+     * timestamps are meaningless. Returns the source timestamps recorded in the index or manifest
+     * instead.
+     */
+    @Override
+    public ImmutableMap<File, Long> readCacheFileTimestamps(Collection<File> cacheFiles) {
+      Map<String, CacheEntry> index = this.index;
+      Map<String, FileCacheManifest.Entry> entries = index == null ? manifest.getEntries() : null;
+      ImmutableMap.Builder<File, Long> timestamps = ImmutableMap.builder();
+      for (File cacheFile : cacheFiles) {
+        String cacheKey = cacheFileToCacheKey(cacheFile);
+        Long timestamp;
+        if (index != null) {
+          CacheEntry entry = index.get(cacheKey);
+          timestamp = entry != null ? entry.sourceTimestamp : null;
+        } else {
+          FileCacheManifest.Entry entry = entries.get(cacheKey);
+          timestamp = entry != null ? entry.sourceTimestamp : null;
+        }
+        // files without an entry are always updated
+        timestamps.put(cacheFile, timestamp != null ? timestamp : 0L);
+      }
+      return timestamps.build();
+    }
+
+    @Nullable
+    @Override
+    public String cachedDigest(String cacheKey) {
+      return updatedDigests.remove(cacheKey);
+    }
+
     @Override
     public File cacheFileForKey(String key) {
       return new File(cacheDir, key);
@@ -289,18 +438,27 @@ public class JarCache {
         Collection<String> cacheKeys, ListeningExecutorService executor) {
       List<ListenableFuture<?>> futures = new ArrayList<>();
       Map<String, File> cacheKeyToSourceFile = sourceFileToCacheKey.inverse();
+      Map<String, CacheEntry> index = this.index;
       for (String cacheKey : cacheKeys) {
         File sourceFile = cacheKeyToSourceFile.get(cacheKey);
         File cacheFile = cacheFileForKey(cacheKey);
         futures.add(
             executor.submit(
                 () -> {
+                  // read before the contents, so a concurrent change is picked up next time
+                  long timestamp =
+                      index != null
+                          ? FileOperationProvider.getInstance().getFileModifiedTime(sourceFile)
+                          : 0L;
                   try {
-                    Files.copy(
-                        Paths.get(sourceFile.getPath()),
-                        Paths.get(cacheFile.getPath()),
-                        StandardCopyOption.REPLACE_EXISTING,
-                        StandardCopyOption.COPY_ATTRIBUTES);
+                    String digest =
+                        store.store(
+                            sourceFile, cacheFile, linkableSourceFiles.contains(sourceFile));
+                    if (index != null) {
+                      index.put(cacheKey, new CacheEntry(timestamp, digest));
+                    } else {
+                      updatedDigests.put(cacheKey, digest);
+                    }
                   } catch (IOException e) {
                     logger.warn(e);
                   }
@@ -313,11 +471,15 @@ public class JarCache {
     public Collection<ListenableFuture<?>> removeFiles(
         Collection<String> cacheKeys, ListeningExecutorService executor) {
       List<ListenableFuture<?>> futures = new ArrayList<>();
+      Map<String, CacheEntry> index = this.index;
       for (String cacheKey : cacheKeys) {
         File cacheFile = cacheFileForKey(cacheKey);
         futures.add(
             executor.submit(
                 () -> {
+                  if (index != null) {
+                    index.remove(cacheKey);
+                  }
                   try {
                     Files.deleteIfExists(Paths.get(cacheFile.getPath()));
                   } catch (IOException e) {
@@ -335,7 +497,10 @@ public class JarCache {
         int numRemovedFiles,
         boolean removeMissingFiles) {
       if (numUpdatedFiles > 0) {
-        context.output(PrintOutput.log(String.format("Copied %d jars", numUpdatedFiles)));
+        context.output(
+            PrintOutput.log(
+                String.format(
+                    "Updated %d jars: %s", numUpdatedFiles, store.getAndResetStats())));
       }
       if (numRemovedFiles > 0 && removeMissingFiles) {
         context.output(PrintOutput.log(String.format("Removed %d jars", numRemovedFiles)));
@@ -17,32 +17,209 @@ package com.google.idea.blaze.java.run.coverage;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
 import gnu.trove.TIntIntHashMap;
-import java.io.BufferedReader;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 
-/** Blaze coverage data class. Parsed from LCOV-formatted blaze output. */
+/**
+ * Blaze coverage data class. Parsed from LCOV-formatted blaze output.
+ *
+ * <p>Tracefiles are parsed a byte at a time, without decoding lines to Strings. Large tracefiles
+ * are split into chunks of whole SF records, which are memory-mapped and parsed in parallel.
+ *
+ * <p>On Windows, a mapped file can't be deleted or overwritten until the mapping is garbage
+ * collected, so tracefiles are streamed instead, one per task.
+ */
 class BlazeCoverageData {
 
   private static final Logger logger = Logger.getInstance(BlazeCoverageData.class);
 
+  /** The approximate size of the tracefile chunks parsed in parallel. */
+  private static final int CHUNK_SIZE = 32 * 1024 * 1024;
+
   static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-    return LcovParser.parse(inputStream);
+    LcovParser parser = new LcovParser();
+    parser.parse(inputStream);
+    return new BlazeCoverageData(parser.build());
+  }
+
+  /**
+   * Parses and merges the given tracefiles (e.g. one per test shard), summing the hit counts of
+   * any source files appearing in more than one.
+   */
+  static BlazeCoverageData parse(Collection<File> tracefiles, ListeningExecutorService executor)
+      throws IOException {
+    return parse(tracefiles, executor, CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  static BlazeCoverageData parse(
+      Collection<File> tracefiles, ListeningExecutorService executor, int chunkSize)
+      throws IOException {
+    List<ListenableFuture<Map<String, FileData>>> futures = new ArrayList<>();
+    for (File tracefile : tracefiles) {
+      if (SystemInfo.isWindows) {
+        futures.add(executor.submit(() -> parseFile(tracefile)));
+        continue;
+      }
+      long chunks = Math.max(1, (tracefile.length() + chunkSize - 1) / chunkSize);
+      int slack = Math.max(1, chunkSize / 16);
+      for (long i = 0; i < chunks; i++) {
+        long start = i * chunkSize;
+        long end = start + chunkSize;
+        futures.add(executor.submit(() -> parseChunk(tracefile, start, end, slack)));
+      }
+    }
+    List<Map<String, FileData>> results;
+    try {
+      results = Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing coverage data", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+    Map<String, FileData> merged = new HashMap<>();
+    for (Map<String, FileData> result : results) {
+      for (FileData fileData : result.values()) {
+        FileData existing = merged.putIfAbsent(fileData.source, fileData);
+        if (existing != null) {
+          existing.mergeFrom(fileData);
+        }
+      }
+    }
+    return new BlazeCoverageData(filterEmpty(merged));
+  }
+
+  private static Map<String, FileData> parseFile(File tracefile) throws IOException {
+    try (InputStream inputStream = new FileInputStream(tracefile)) {
+      LcovParser parser = new LcovParser();
+      parser.parse(inputStream);
+      return parser.files;
+    }
+  }
+
+  /**
+   * Parses the SF records starting in the given byte range of a tracefile. The last record is
+   * parsed to completion, even if it extends past the end of the range.
+   *
+   * <p>Only the range plus {@code slack} bytes is mapped. If the last record extends beyond that,
+   * the rest of the record is mapped separately, doubling the slack each time.
+   */
+  private static Map<String, FileData> parseChunk(File tracefile, long start, long end, int slack)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(tracefile.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      // include the preceding byte, to tell whether the range starts at the start of a line
+      long mapStart = Math.max(0, start - 1);
+      if (mapStart >= size) {
+        return ImmutableMap.of();
+      }
+      // map enough to recognize an SF line starting just before the end of the range
+      ByteBuffer buffer = map(channel, mapStart, end + Math.max(slack, LcovParser.SF.length), size);
+      int pos = 0;
+      if (start > 0) {
+        int rangeEnd = (int) Math.min(end - mapStart, buffer.limit());
+        pos = indexOf(buffer, (byte) '\n', 0, buffer.limit()) + 1;
+        // skip the tail of any record started in the previous chunk
+        while (pos > 0 && pos < rangeEnd && !startsWith(buffer, pos, LcovParser.SF)) {
+          pos = indexOf(buffer, (byte) '\n', pos, buffer.limit()) + 1;
+        }
+        if (pos == 0 || pos >= rangeEnd) {
+          // no record starts in this range
+          return ImmutableMap.of();
+        }
+      }
+      LcovParser parser = new LcovParser();
+      while (true) {
+        boolean endOfFile = mapStart + buffer.limit() == size;
+        int rangeEnd = (int) Math.max(0, Math.min(end - mapStart, buffer.limit()));
+        int unparsed = parser.parseRecords(buffer, pos, rangeEnd, endOfFile);
+        if (unparsed < 0) {
+          return parser.files;
+        }
+        // the last record continues past the mapped region
+        mapStart += unparsed;
+        slack = (int) Math.min(2L * slack, Integer.MAX_VALUE);
+        long mapEnd = mapStart + Math.max(slack, buffer.limit() - unparsed + 1L);
+        buffer = map(channel, mapStart, mapEnd, size);
+        pos = 0;
+      }
+    }
+  }
+
+  /** Maps the given byte range, truncated to the given file size. */
+  private static ByteBuffer map(FileChannel channel, long start, long end, long size)
+      throws IOException {
+    long length = Math.min(Math.min(end, size) - start, Integer.MAX_VALUE);
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
   }
 
   static class FileData {
     final String source;
-    final TIntIntHashMap lineHits;
+    final TIntIntHashMap lineHits = new TIntIntHashMap();
+    /** Branch hits keyed by {@link #branchKey}. Branches which were never evaluated have 0 hits. */
+    final TLongIntHashMap branchHits = new TLongIntHashMap();
+    /** The line number of each function, keyed by function name. */
+    final TObjectIntHashMap<String> functionLines = new TObjectIntHashMap<>();
+    final TObjectIntHashMap<String> functionHits = new TObjectIntHashMap<>();
 
-    private FileData(String source, TIntIntHashMap lineHits) {
+    private FileData(String source) {
       this.source = source;
-      this.lineHits = lineHits;
+    }
+
+    /**
+     * Returns the key of the given branch in {@link #branchHits}. Block and branch numbers are
+     * truncated to 16 bits.
+     */
+    static long branchKey(int line, int block, int branch) {
+      return ((long) line << 32) | ((block & 0xffffL) << 16) | (branch & 0xffffL);
+    }
+
+    private void mergeFrom(FileData other) {
+      other.lineHits.forEachEntry(
+          (line, hits) -> {
+            addHits(lineHits, line, hits);
+            return true;
+          });
+      other.branchHits.forEachEntry(
+          (branch, hits) -> {
+            branchHits.put(branch, saturatedAdd(branchHits.get(branch), hits));
+            return true;
+          });
+      other.functionLines.forEachEntry(
+          (name, line) -> {
+            functionLines.put(name, line);
+            return true;
+          });
+      other.functionHits.forEachEntry(
+          (name, hits) -> {
+            functionHits.put(name, saturatedAdd(functionHits.get(name), hits));
+            return true;
+          });
     }
   }
 
@@ -52,48 +229,238 @@ class BlazeCoverageData {
     this.perFileData = perFileData;
   }
 
+  private static ImmutableMap<String, FileData> filterEmpty(Map<String, FileData> files) {
+    ImmutableMap.Builder<String, FileData> builder = ImmutableMap.builder();
+    for (FileData fileData : files.values()) {
+      if (!fileData.lineHits.isEmpty()) {
+        builder.put(fileData.source, fileData);
+      }
+    }
+    return builder.build();
+  }
+
+  private static void addHits(TIntIntHashMap map, int key, int hits) {
+    map.put(key, saturatedAdd(map.get(key), hits));
+  }
+
+  private static int saturatedAdd(int a, int b) {
+    long sum = (long) a + b;
+    return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean startsWith(ByteBuffer buffer, int pos, byte[] prefix) {
+    if (pos + prefix.length > buffer.limit()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(pos + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Parses LCOV lines in place, without decoding them to Strings. Not thread-safe. */
   private static class LcovParser {
     // there are other valid lcov tracefile prefixes, but they're all ignored here
-    static final String SF = "SF:";
-    static final String DA = "DA:";
-    static final String END_OF_RECORD = "end_of_record";
-
-    private static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-      Map<String, FileData> map = new HashMap<>();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(SF)) {
-          String source = line.substring(SF.length());
-          TIntIntHashMap hits = parseHits(reader);
-          if (!hits.isEmpty()) {
-            map.put(source, new FileData(source, hits));
-          }
+    static final byte[] SF = bytes("SF:");
+    static final byte[] DA = bytes("DA:");
+    static final byte[] BRDA = bytes("BRDA:");
+    static final byte[] FN = bytes("FN:");
+    static final byte[] FNDA = bytes("FNDA:");
+    static final byte[] END_OF_RECORD = bytes("end_of_record");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final Map<String, FileData> files = new HashMap<>();
+    @Nullable private FileData current;
+    // the position of the next unparsed byte in the current line
+    private int pos;
+
+    private static byte[] bytes(String prefix) {
+      return prefix.getBytes(UTF_8);
+    }
+
+    ImmutableMap<String, FileData> build() {
+      return filterEmpty(files);
+    }
+
+    /** Parses a stream a buffer at a time, carrying partial lines over to the next buffer. */
+    void parse(InputStream inputStream) throws IOException {
+      byte[] bytes = new byte[BUFFER_SIZE];
+      int length = 0;
+      int read;
+      while ((read = inputStream.read(bytes, length, bytes.length - length)) != -1) {
+        length += read;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        int consumed = parseLines(buffer, 0, length, /* stopAtLastLine= */ true);
+        System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+        length -= consumed;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
         }
       }
-      return new BlazeCoverageData(ImmutableMap.copyOf(map));
+      parseLines(ByteBuffer.wrap(bytes, 0, length), 0, length, /* stopAtLastLine= */ false);
     }
 
-    private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
-      TIntIntHashMap hits = new TIntIntHashMap();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(END_OF_RECORD)) {
-          return hits;
+    /**
+     * Parses the SF records starting before {@code end}, continuing past {@code end} to complete
+     * the last record.
+     *
+     * @param endOfFile whether the buffer extends to the end of the file. If not, a trailing
+     *     unterminated line isn't parsed.
+     * @return -1 if the last record was completed, otherwise the position of the first unparsed
+     *     byte, from which parsing should continue once more of the file is available
+     */
+    int parseRecords(ByteBuffer buffer, int start, int end, boolean endOfFile) {
+      int lineStart = start;
+      int limit = buffer.limit();
+      while (lineStart < limit) {
+        if (lineStart >= end && startsWith(buffer, lineStart, SF)) {
+          return -1;
+        }
+        int lineEnd = indexOf(buffer, (byte) '\n', lineStart, limit);
+        if (lineEnd < 0 && !endOfFile) {
+          return lineStart;
+        }
+        int next = lineEnd < 0 ? limit : lineEnd + 1;
+        parseLine(buffer, lineStart, lineEnd < 0 ? limit : lineEnd);
+        if (current == null && lineStart >= end) {
+          return -1;
         }
-        if (line.startsWith(DA)) {
-          // DA:line,hits
-          int comma = line.indexOf(',');
-          try {
-            hits.put(
-                Integer.parseInt(line.substring(DA.length(), comma)),
-                Integer.parseInt(line.substring(comma + 1)));
-          } catch (NumberFormatException e) {
-            logger.warn("Cannot parse LCOV line: " + line, e);
+        lineStart = next;
+      }
+      return endOfFile ? -1 : lineStart;
+    }
+
+    /**
+     * Parses the complete lines in the given range, returning the position after the last line
+     * parsed. If {@code stopAtLastLine} is false, any trailing unterminated line is parsed too.
+     */
+    private int parseLines(ByteBuffer buffer, int start, int end, boolean stopAtLastLine) {
+      int lineStart = start;
+      while (lineStart < end) {
+        int lineEnd = indexOf(buffer, (byte) '\n', lineStart, end);
+        if (lineEnd < 0) {
+          if (stopAtLastLine) {
+            return lineStart;
           }
+          lineEnd = end;
         }
+        parseLine(buffer, lineStart, lineEnd);
+        lineStart = lineEnd + 1;
       }
-      return hits;
+      return end;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+      if (end > start && buffer.get(end - 1) == '\r') {
+        end--;
+      }
+      if (startsWith(buffer, start, SF)) {
+        String source = decode(buffer, start + SF.length, end);
+        current = files.computeIfAbsent(source, FileData::new);
+        return;
+      }
+      if (current == null) {
+        return;
+      }
+      if (startsWith(buffer, start, DA)) {
+        // DA:line,hits[,checksum]
+        pos = start + DA.length;
+        int line = parseInt(buffer, end);
+        int hits = line >= 0 && skip(buffer, ',', end) ? parseInt(buffer, end) : -1;
+        if (hits < 0) {
+          logInvalidLine(buffer, start, end);
+          return;
+        }
+        addHits(current.lineHits, line, hits);
+      } else if (startsWith(buffer, start, BRDA)) {
+        // BRDA:line,block,branch,taken, where taken is '-' if the branch was never evaluated
+        pos = start + BRDA.length;
+        int line = parseInt(buffer, end);
+        int block = line >= 0 && skip(buffer, ',', end) ? parseInt(buffer, end) : -1;
+        int branch = block >= 0 && skip(buffer, ',', end) ? parseInt(buffer, end) : -1;
+        int taken = -1;
+        if (branch >= 0 && skip(buffer, ',', end)) {
+          taken = skip(buffer, '-', end) ? 0 : parseInt(buffer, end);
+        }
+        if (taken < 0) {
+          logInvalidLine(buffer, start, end);
+          return;
+        }
+        long key = FileData.branchKey(line, block, branch);
+        current.branchHits.put(key, saturatedAdd(current.branchHits.get(key), taken));
+      } else if (startsWith(buffer, start, FNDA)) {
+        // FNDA:hits,name
+        pos = start + FNDA.length;
+        int hits = parseInt(buffer, end);
+        if (hits < 0 || !skip(buffer, ',', end)) {
+          logInvalidLine(buffer, start, end);
+          return;
+        }
+        String name = decode(buffer, pos, end);
+        current.functionHits.put(name, saturatedAdd(current.functionHits.get(name), hits));
+      } else if (startsWith(buffer, start, FN)) {
+        // FN:line,name
+        pos = start + FN.length;
+        int line = parseInt(buffer, end);
+        if (line < 0 || !skip(buffer, ',', end)) {
+          logInvalidLine(buffer, start, end);
+          return;
+        }
+        current.functionLines.put(decode(buffer, pos, end), line);
+      } else if (startsWith(buffer, start, END_OF_RECORD)) {
+        current = null;
+      }
+    }
+
+    /**
+     * Parses a non-negative decimal integer at the current position, saturating at {@link
+     * Integer#MAX_VALUE}. Returns -1 if there are no digits.
+     */
+    private int parseInt(ByteBuffer buffer, int end) {
+      int start = pos;
+      long value = 0;
+      while (pos < end) {
+        int digit = buffer.get(pos) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        value = Math.min(value * 10 + digit, Integer.MAX_VALUE);
+        pos++;
+      }
+      return pos == start ? -1 : (int) value;
+    }
+
+    /** Skips the given character if it's at the current position. */
+    private boolean skip(ByteBuffer buffer, char c, int end) {
+      if (pos < end && buffer.get(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+      byte[] bytes = new byte[end - start];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(start + i);
+      }
+      return new String(bytes, UTF_8);
+    }
+
+    private static void logInvalidLine(ByteBuffer buffer, int start, int end) {
+      logger.warn("Cannot parse LCOV line: " + decode(buffer, start, end));
     }
   }
 }
@@ -16,7 +16,9 @@
 package com.google.idea.blaze.java.run.coverage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
@@ -30,7 +32,6 @@ import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.annotation.Nullable;
@@ -51,8 +52,11 @@ public class BlazeCoverageRunner extends CoverageRunner {
     if (blazeProjectData == null) {
       return null;
     }
-    try (FileInputStream stream = new FileInputStream(sessionDataFile)) {
-      return parseCoverage(blazeProjectData.workspacePathResolver, stream);
+    try {
+      return toProjectData(
+          blazeProjectData.workspacePathResolver,
+          BlazeCoverageData.parse(
+              ImmutableList.of(sessionDataFile), BlazeExecutor.getInstance().getExecutor()));
     } catch (IOException e) {
       logger.warn(e);
     }
@@ -62,8 +66,12 @@ public class BlazeCoverageRunner extends CoverageRunner {
   @VisibleForTesting
   static ProjectData parseCoverage(WorkspacePathResolver pathResolver, InputStream stream)
       throws IOException {
+    return toProjectData(pathResolver, BlazeCoverageData.parse(stream));
+  }
+
+  private static ProjectData toProjectData(
+      WorkspacePathResolver pathResolver, BlazeCoverageData blazeData) {
     ProjectData data = new ProjectData();
-    BlazeCoverageData blazeData = BlazeCoverageData.parse(stream);
     for (String filePath : blazeData.perFileData.keySet()) {
       File file = pathResolver.resolveToFile(filePath);
       ClassData classData = data.getOrCreateClassData(file.getPath());
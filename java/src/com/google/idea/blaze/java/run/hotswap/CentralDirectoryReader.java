@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entry names and CRCs of a zip file from its central directory, without reading or
+ * inflating any of the entries themselves.
+ *
+ * <p>Only the end of central directory record (or its zip64 equivalent) and the central directory
+ * are read. Zip files with data prepended to them aren't supported, and result in a {@link
+ * ZipException}.
+ */
+final class CentralDirectoryReader {
+
+  /** Receives the central directory entries, in the order they're listed. */
+  interface EntryConsumer {
+    void accept(String name, int crc);
+  }
+
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int MAX_COMMENT_LENGTH = 0xffff;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_EOCD_SIZE = 56;
+  private static final int CEN_SIGNATURE = 0x02014b50;
+  private static final int CEN_HEADER_SIZE = 46;
+
+  private CentralDirectoryReader() {}
+
+  /** Passes every entry listed in the central directory of the given zip file to the consumer. */
+  static void read(File file, EntryConsumer consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_LENGTH);
+      ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+      int eocd = findEndOfCentralDirectory(tail);
+
+      long entryCount = tail.getShort(eocd + 10) & 0xffff;
+      long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+      long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+      if (entryCount == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator < 0 || tail.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+          throw new ZipException("Missing zip64 end of central directory locator");
+        }
+        ByteBuffer zip64 = readFully(channel, tail.getLong(locator + 8), ZIP64_EOCD_SIZE);
+        if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+          throw new ZipException("Invalid zip64 end of central directory record");
+        }
+        entryCount = zip64.getLong(32);
+        directorySize = zip64.getLong(40);
+        directoryOffset = zip64.getLong(48);
+      }
+      if (directorySize > Integer.MAX_VALUE
+          || directoryOffset < 0
+          || directoryOffset + directorySize > fileSize) {
+        throw new ZipException("Invalid central directory bounds");
+      }
+
+      ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+      byte[] bytes = directory.array();
+      int pos = 0;
+      for (long i = 0; i < entryCount; i++) {
+        if (pos + CEN_HEADER_SIZE > bytes.length || directory.getInt(pos) != CEN_SIGNATURE) {
+          throw new ZipException("Invalid central directory entry");
+        }
+        int crc = directory.getInt(pos + 16);
+        int nameLength = directory.getShort(pos + 28) & 0xffff;
+        int extraLength = directory.getShort(pos + 30) & 0xffff;
+        int commentLength = directory.getShort(pos + 32) & 0xffff;
+        if (pos + CEN_HEADER_SIZE + nameLength > bytes.length) {
+          throw new ZipException("Invalid central directory entry");
+        }
+        consumer.accept(new String(bytes, pos + CEN_HEADER_SIZE, nameLength, UTF_8), crc);
+        pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+    }
+  }
+
+  /** Returns the position of the end of central directory record within the buffer. */
+  private static int findEndOfCentralDirectory(ByteBuffer tail) throws ZipException {
+    // the record is followed by a variable-length comment, so search backwards for it
+    for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIGNATURE
+          && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == tail.limit()) {
+        return i;
+      }
+    }
+    throw new ZipException("Missing end of central directory record");
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -15,15 +15,13 @@
  */
 package com.google.idea.blaze.java.run.hotswap;
 
-import static com.google.idea.common.guava.GuavaHelper.toImmutableList;
-import static com.google.idea.common.guava.GuavaHelper.toImmutableMap;
-
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.filecache.FileDiffer;
+import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.intellij.execution.ExecutionException;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
@@ -31,15 +29,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
 import javax.annotation.Nullable;
 
 /** A manifest of .class file hashes for jars needed at runtime. Used for HotSwapping. */
@@ -88,6 +83,19 @@ public class ClassFileManifest {
   public static ClassFileManifest build(
       Collection<File> jars, @Nullable ClassFileManifest previousManifest)
       throws ExecutionException {
+    return build(jars, previousManifest, null);
+  }
+
+  /**
+   * Builds a manifest for the given jars. Only jars modified since the previous manifest are
+   * re-read, and those are first looked up in the given manifest cache.
+   */
+  @Nullable
+  static ClassFileManifest build(
+      Collection<File> jars,
+      @Nullable ClassFileManifest previousManifest,
+      @Nullable JarManifestCache cache)
+      throws ExecutionException {
     Set<File> updatedFiles = new HashSet<>();
     ImmutableMap<File, Long> newFileState =
         FileDiffer.updateFiles(
@@ -98,19 +106,23 @@ public class ClassFileManifest {
     if (newFileState == null) {
       throw new ExecutionException("Couldn't read jar file state");
     }
-    ImmutableMap.Builder<File, JarManifest> jarManifests = ImmutableMap.builder();
-    jars.forEach(
-        f -> {
-          if (!updatedFiles.contains(f)) {
-            jarManifests.put(f, previousManifest.jarManifests.get(f));
-          }
-        });
+    Map<File, JarManifest> jarManifests = new LinkedHashMap<>();
+    for (File jar : jars) {
+      JarManifest previous =
+          previousManifest != null ? previousManifest.jarManifests.get(jar) : null;
+      if (!updatedFiles.contains(jar) && previous != null) {
+        jarManifests.put(jar, previous);
+      }
+    }
     try {
-      buildJarManifests(updatedFiles)
+      buildJarManifests(updatedFiles, newFileState, previousManifest, cache)
           .stream()
           .filter(Objects::nonNull)
           .forEach(m -> jarManifests.put(m.jar, m));
-      return new ClassFileManifest(newFileState, jarManifests.build());
+      if (cache != null && !updatedFiles.isEmpty()) {
+        cache.prune();
+      }
+      return new ClassFileManifest(newFileState, ImmutableMap.copyOf(jarManifests));
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     } catch (java.util.concurrent.ExecutionException e) {
@@ -119,51 +131,51 @@ public class ClassFileManifest {
     return null;
   }
 
-  private static List<JarManifest> buildJarManifests(Collection<File> jars)
+  private static List<JarManifest> buildJarManifests(
+      Collection<File> jars,
+      ImmutableMap<File, Long> fileState,
+      @Nullable ClassFileManifest previousManifest,
+      @Nullable JarManifestCache cache)
       throws java.util.concurrent.ExecutionException, InterruptedException {
     BlazeExecutor executor = BlazeExecutor.getInstance();
     return Futures.allAsList(
             jars.stream()
-                .map(f -> executor.submit(() -> JarManifest.build(f)))
+                .map(
+                    f ->
+                        executor.submit(
+                            () -> {
+                              JarManifest previous =
+                                  previousManifest != null
+                                      ? previousManifest.jarManifests.get(f)
+                                      : null;
+                              return buildJarManifest(f, fileState.get(f), previous, cache);
+                            }))
                 .collect(Collectors.toList()))
         .get();
   }
 
-  /** .class file manifest for a single jar. */
-  private static class JarManifest {
-    private final File jar;
-    private final ImmutableMap<String, Long> nameToHash;
-
-    @Nullable
-    static JarManifest build(File file) {
+  @Nullable
+  private static JarManifest buildJarManifest(
+      File jar,
+      @Nullable Long timestamp,
+      @Nullable JarManifest previous,
+      @Nullable JarManifestCache cache) {
+    long size = FileOperationProvider.getInstance().getFileSize(jar);
+    JarManifest manifest =
+        cache != null && timestamp != null ? cache.get(jar, timestamp, size) : null;
+    if (manifest == null) {
       try {
-        JarFile jar = new JarFile(file);
-        return new JarManifest(
-            file,
-            jar.stream()
-                .filter(e -> e.getName().endsWith(".class"))
-                .collect(
-                    toImmutableMap(JarEntry::getName, ZipEntry::getCrc, (first, second) -> first)));
+        manifest = JarManifest.read(jar);
       } catch (IOException e) {
-        logger.warn("Error reading jar file: " + file, e);
+        logger.warn("Error reading jar file: " + jar, e);
         return null;
       }
+      if (cache != null && timestamp != null) {
+        cache.put(manifest, timestamp, size);
+      }
     }
-
-    private JarManifest(File jar, ImmutableMap<String, Long> nameToHash) {
-      this.jar = jar;
-      this.nameToHash = nameToHash;
-    }
-
-    /** Returns the list of classes changed in the new manifest. */
-    static ImmutableList<String> diff(JarManifest oldManifest, JarManifest newManifest) {
-      return newManifest
-          .nameToHash
-          .entrySet()
-          .stream()
-          .filter(e -> !Objects.equals(e.getValue(), oldManifest.nameToHash.get(e.getKey())))
-          .map(Entry::getKey)
-          .collect(toImmutableList());
-    }
+    // jars are often rebuilt with identical contents; keep the previous instance in that case, so
+    // the diff can skip it entirely
+    return previous != null && previous.digest == manifest.digest ? previous : manifest;
   }
 }
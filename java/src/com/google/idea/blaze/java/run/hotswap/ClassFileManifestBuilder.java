@@ -123,7 +123,8 @@ public class ClassFileManifestBuilder {
               .filter(f -> f.getName().endsWith(".jar"))
               .collect(toImmutableList());
       ClassFileManifest oldManifest = getManifest(env);
-      ClassFileManifest newManifest = ClassFileManifest.build(jars, oldManifest);
+      ClassFileManifest newManifest =
+          ClassFileManifest.build(jars, oldManifest, JarManifestCache.forProject(project));
       env.getCopyableUserData(MANIFEST_KEY).set(newManifest);
       return oldManifest != null
           ? ClassFileManifest.modifiedClasses(oldManifest, newManifest)
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * .class file manifest for a single jar: the CRC of each .class entry, stored as parallel arrays
+ * sorted by entry name.
+ */
+final class JarManifest {
+
+  final File jar;
+  /** A digest of the .class entry names and CRCs, identifying jars with identical classes. */
+  final long digest;
+
+  private final String[] names;
+  private final int[] crcs;
+
+  private JarManifest(File jar, String[] names, int[] crcs) {
+    this.jar = jar;
+    this.names = names;
+    this.crcs = crcs;
+    this.digest = computeDigest(names, crcs);
+  }
+
+  /** Builds a manifest from the jar's central directory, without inflating any entries. */
+  static JarManifest read(File jar) throws IOException {
+    List<String> names = new ArrayList<>();
+    List<Integer> crcs = new ArrayList<>();
+    try {
+      CentralDirectoryReader.read(
+          jar,
+          (name, crc) -> {
+            if (name.endsWith(".class")) {
+              names.add(name);
+              crcs.add(crc);
+            }
+          });
+    } catch (ZipException e) {
+      // fall back to the JDK for zip files we can't parse ourselves
+      names.clear();
+      crcs.clear();
+      try (ZipFile zipFile = new ZipFile(jar)) {
+        zipFile.stream()
+            .filter(entry -> entry.getName().endsWith(".class"))
+            .forEach(
+                entry -> {
+                  names.add(entry.getName());
+                  crcs.add((int) entry.getCrc());
+                });
+      }
+    }
+    return fromEntries(jar, names, crcs);
+  }
+
+  private static JarManifest fromEntries(File jar, List<String> names, List<Integer> crcs) {
+    Integer[] order = new Integer[names.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // stable sort, so the first of any duplicate entries wins
+    Arrays.sort(order, Comparator.comparing(names::get));
+    String[] sortedNames = new String[order.length];
+    int[] sortedCrcs = new int[order.length];
+    int count = 0;
+    for (int index : order) {
+      String name = names.get(index);
+      if (count > 0 && sortedNames[count - 1].equals(name)) {
+        continue;
+      }
+      sortedNames[count] = name;
+      sortedCrcs[count] = crcs.get(index);
+      count++;
+    }
+    return new JarManifest(
+        jar, Arrays.copyOf(sortedNames, count), Arrays.copyOf(sortedCrcs, count));
+  }
+
+  /**
+   * Returns the list of classes changed in the new manifest. All classes are considered changed if
+   * there's no old manifest.
+   */
+  static ImmutableList<String> diff(@Nullable JarManifest oldManifest, JarManifest newManifest) {
+    if (oldManifest == null) {
+      return ImmutableList.copyOf(newManifest.names);
+    }
+    if (oldManifest.digest == newManifest.digest) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<String> changed = ImmutableList.builder();
+    String[] oldNames = oldManifest.names;
+    int oldIndex = 0;
+    // both name arrays are sorted, so merge them
+    for (int i = 0; i < newManifest.names.length; i++) {
+      String name = newManifest.names[i];
+      while (oldIndex < oldNames.length && oldNames[oldIndex].compareTo(name) < 0) {
+        oldIndex++;
+      }
+      if (oldIndex == oldNames.length
+          || !oldNames[oldIndex].equals(name)
+          || oldManifest.crcs[oldIndex] != newManifest.crcs[i]) {
+        changed.add(name);
+      }
+    }
+    return changed.build();
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(names.length);
+    for (int i = 0; i < names.length; i++) {
+      out.writeUTF(names[i]);
+      out.writeInt(crcs[i]);
+    }
+  }
+
+  /** Reads a manifest previously written with {@link #writeTo}. */
+  static JarManifest readFrom(File jar, DataInput in) throws IOException {
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IOException("Invalid entry count: " + count);
+    }
+    String[] names = new String[count];
+    int[] crcs = new int[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = in.readUTF();
+      crcs[i] = in.readInt();
+    }
+    return new JarManifest(jar, names, crcs);
+  }
+
+  private static long computeDigest(String[] names, int[] crcs) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (int i = 0; i < names.length; i++) {
+      hasher.putInt(names[i].length()).putString(names[i], UTF_8).putInt(crcs[i]);
+    }
+    return hasher.hash().asLong();
+  }
+}
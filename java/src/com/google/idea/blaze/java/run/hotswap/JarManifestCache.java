@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of {@link JarManifest}s, so unchanged jars needn't be re-read when a new
+ * debugging session builds its first manifest.
+ *
+ * <p>Entries are keyed by the jar's path, size and modification time. Thread-safe.
+ */
+final class JarManifestCache {
+  private static final Logger logger = Logger.getInstance(JarManifestCache.class);
+
+  private static final int MAGIC = 0x4a4d4643;
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".manifest";
+
+  /** The maximum number of cached manifests retained by {@link #prune}. */
+  @VisibleForTesting static final int MAX_ENTRIES = 5000;
+
+  private final File cacheDir;
+
+  JarManifestCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  @Nullable
+  static JarManifestCache forProject(Project project) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    return new JarManifestCache(
+        new File(BlazeDataStorage.getProjectDataDir(importSettings), "hotswap_manifests"));
+  }
+
+  /** Returns the cached manifest for the given jar state, or null if there is none. */
+  @Nullable
+  JarManifest get(File jar, long timestamp, long size) {
+    File file = cacheFile(jar, timestamp, size);
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || !in.readUTF().equals(jar.getPath())
+          || in.readLong() != timestamp
+          || in.readLong() != size) {
+        return null;
+      }
+      return JarManifest.readFrom(jar, in);
+    } catch (IOException e) {
+      logger.warn("Could not read cached jar manifest " + file, e);
+      return null;
+    }
+  }
+
+  /** Caches the manifest for the given jar state. */
+  void put(JarManifest manifest, long timestamp, long size) {
+    File file = cacheFile(manifest.jar, timestamp, size);
+    File temp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+    try {
+      if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+        throw new IOException("Could not create directory " + cacheDir);
+      }
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(manifest.jar.getPath());
+        out.writeLong(timestamp);
+        out.writeLong(size);
+        manifest.writeTo(out);
+      }
+      Files.move(
+          temp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Could not cache jar manifest for " + manifest.jar, e);
+      temp.delete();
+    }
+  }
+
+  /** Removes the least recently written manifests, if there are more than {@link #MAX_ENTRIES}. */
+  void prune() {
+    File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files == null || files.length <= MAX_ENTRIES) {
+      return;
+    }
+    long[] timestamps = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      timestamps[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+    for (int i = 0; i < files.length - MAX_ENTRIES; i++) {
+      files[order[i]].delete();
+    }
+  }
+
+  private File cacheFile(File jar, long timestamp, long size) {
+    String key =
+        Hashing.murmur3_128()
+            .newHasher()
+            .putString(jar.getPath(), UTF_8)
+            .putLong(timestamp)
+            .putLong(size)
+            .hash()
+            .toString();
+    return new File(cacheDir, key + SUFFIX);
+  }
+}
@@ -58,6 +58,7 @@ import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.google.idea.blaze.java.sync.projectstructure.JavaSourceFolderProvider;
 import com.google.idea.blaze.java.sync.projectstructure.Jdks;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageCache;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.common.transactions.Transactions;
 import com.intellij.openapi.module.ModuleType;
@@ -140,6 +141,7 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
       return;
     }
 
+    JavaSourcePackageCache packageCache = JavaSourcePackageCache.fromSyncState(previousSyncState);
     BlazeJavaWorkspaceImporter blazeJavaWorkspaceImporter =
         new BlazeJavaWorkspaceImporter(
             project,
@@ -150,7 +152,8 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
             sourceFilter,
             jdepsMap,
             javaWorkingSet,
-            artifactLocationDecoder);
+            artifactLocationDecoder,
+            packageCache);
     BlazeJavaImportResult importResult =
         Scope.push(
             context,
@@ -166,6 +169,7 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
                 .build());
     BlazeJavaSyncData syncData = new BlazeJavaSyncData(importResult, excludedLibraries);
     syncStateBuilder.put(BlazeJavaSyncData.class, syncData);
+    syncStateBuilder.put(JavaSourcePackageCache.class, packageCache);
   }
 
   @Override
@@ -48,6 +48,7 @@ import com.google.idea.blaze.java.sync.jdeps.JdepsMap;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageCache;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
 import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
@@ -75,6 +76,7 @@ public final class BlazeJavaWorkspaceImporter {
   private final WorkspaceLanguageSettings workspaceLanguageSettings;
   private final List<BlazeJavaSyncAugmenter> augmenters;
   private final ProjectViewSet projectViewSet;
+  private final JavaSourcePackageCache packageCache;
 
   public BlazeJavaWorkspaceImporter(
       Project project,
@@ -86,6 +88,30 @@ public final class BlazeJavaWorkspaceImporter {
       JdepsMap jdepsMap,
       @Nullable JavaWorkingSet workingSet,
       ArtifactLocationDecoder artifactLocationDecoder) {
+    this(
+        project,
+        workspaceRoot,
+        projectViewSet,
+        workspaceLanguageSettings,
+        targetMap,
+        sourceFilter,
+        jdepsMap,
+        workingSet,
+        artifactLocationDecoder,
+        new JavaSourcePackageCache());
+  }
+
+  public BlazeJavaWorkspaceImporter(
+      Project project,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      WorkspaceLanguageSettings workspaceLanguageSettings,
+      TargetMap targetMap,
+      JavaSourceFilter sourceFilter,
+      JdepsMap jdepsMap,
+      @Nullable JavaWorkingSet workingSet,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      JavaSourcePackageCache packageCache) {
     this.project = project;
     this.workspaceRoot = workspaceRoot;
     this.buildSystem = Blaze.getBuildSystem(project);
@@ -98,6 +124,7 @@ public final class BlazeJavaWorkspaceImporter {
     this.workspaceLanguageSettings = workspaceLanguageSettings;
     this.augmenters = Arrays.asList(BlazeJavaSyncAugmenter.EP_NAME.getExtensions());
     this.projectViewSet = projectViewSet;
+    this.packageCache = packageCache;
   }
 
   public BlazeJavaImportResult importWorkspace(BlazeContext context) {
@@ -106,7 +133,7 @@ public final class BlazeJavaWorkspaceImporter {
       addTargetAsSource(workspaceBuilder, target, sourceFilter.targetToJavaSources.get(target.key));
     }
 
-    SourceDirectoryCalculator sourceDirectoryCalculator = new SourceDirectoryCalculator();
+    SourceDirectoryCalculator sourceDirectoryCalculator = new SourceDirectoryCalculator(packageCache);
     ImmutableList<BlazeContentEntry> contentEntries =
         sourceDirectoryCalculator.calculateContentEntries(
             project,
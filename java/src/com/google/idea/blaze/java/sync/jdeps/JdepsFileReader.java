@@ -18,6 +18,7 @@ package com.google.idea.blaze.java.sync.jdeps;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.view.proto.Deps;
@@ -35,13 +36,20 @@ import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.protobuf.CodedInputStream;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -53,11 +61,152 @@ import javax.annotation.Nullable;
 public class JdepsFileReader {
   private static final Logger logger = Logger.getInstance(JdepsFileReader.class);
 
+  /** The number of jdeps files parsed by each task. */
+  private static final int BATCH_SIZE = 100;
+
+  /**
+   * The jdeps of each target, stored as indices into a shared table of jar paths, since the same
+   * jars appear in the jdeps of many targets.
+   */
   static class JdepsState implements Serializable {
-    private static final long serialVersionUID = 4L;
+    private static final long serialVersionUID = 5L;
     private ImmutableMap<File, Long> fileState = null;
     private Map<File, TargetKey> fileToTargetMap = Maps.newHashMap();
-    private Map<TargetKey, List<String>> targetToJdeps = Maps.newHashMap();
+    private Map<TargetKey, int[]> targetToJdeps = Maps.newHashMap();
+    private ArrayList<String> paths = new ArrayList<>();
+    @Nullable private transient Map<String, Integer> pathIds;
+
+    JdepsState() {}
+
+    JdepsState(JdepsState oldState) {
+      this.fileToTargetMap = Maps.newHashMap(oldState.fileToTargetMap);
+      this.targetToJdeps = Maps.newHashMap(oldState.targetToJdeps);
+      this.paths = new ArrayList<>(oldState.paths);
+    }
+
+    @Nullable
+    List<String> getDependencies(TargetKey targetKey) {
+      int[] ids = targetToJdeps.get(targetKey);
+      return ids != null ? Lists.transform(Ints.asList(ids), paths::get) : null;
+    }
+
+    /** Records the dependencies read from the given jdeps file. */
+    void putDependencies(File file, TargetKey targetKey, List<String> dependencies) {
+      fileToTargetMap.put(file, targetKey);
+      if (pathIds == null) {
+        pathIds = Maps.newHashMapWithExpectedSize(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+          pathIds.put(paths.get(i), i);
+        }
+      }
+      int[] ids = new int[dependencies.size()];
+      for (int i = 0; i < ids.length; i++) {
+        String path = dependencies.get(i);
+        Integer id = pathIds.get(path);
+        if (id == null) {
+          id = paths.size();
+          paths.add(path);
+          pathIds.put(path, id);
+        }
+        ids[i] = id;
+      }
+      targetToJdeps.put(targetKey, ids);
+    }
+
+    /** Drops the dependencies read from the given jdeps file, if any. */
+    void removeFile(File file) {
+      TargetKey targetKey = fileToTargetMap.remove(file);
+      if (targetKey != null) {
+        targetToJdeps.remove(targetKey);
+      }
+    }
+
+    /**
+     * Drops paths no longer referenced by any target, once they make up a significant part of the
+     * path table.
+     */
+    void compactPaths() {
+      int[] newIds = new int[paths.size()];
+      Arrays.fill(newIds, -1);
+      ArrayList<String> newPaths = new ArrayList<>();
+      for (int[] ids : targetToJdeps.values()) {
+        for (int id : ids) {
+          if (newIds[id] < 0) {
+            newIds[id] = newPaths.size();
+            newPaths.add(paths.get(id));
+          }
+        }
+      }
+      if (paths.size() - newPaths.size() <= newPaths.size() / 2) {
+        return;
+      }
+      // the arrays may be shared with the previous state, so aren't modified in place
+      for (Map.Entry<TargetKey, int[]> entry : targetToJdeps.entrySet()) {
+        int[] ids = entry.getValue().clone();
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = newIds[ids[i]];
+        }
+        entry.setValue(ids);
+      }
+      paths = newPaths;
+      pathIds = null;
+    }
+
+    /** Writes the jdeps state in the compact project data format. */
+    static final class Codec implements SyncStateCodec<JdepsState> {
+      @Override
+      public Class<JdepsState> stateClass() {
+        return JdepsState.class;
+      }
+
+      @Override
+      public void write(JdepsState state, CompactDataOutput out) throws IOException {
+        out.writeBoolean(state.fileState != null);
+        if (state.fileState != null) {
+          out.writeFileState(state.fileState);
+        }
+        out.writeVarInt(state.fileToTargetMap.size());
+        for (Map.Entry<File, TargetKey> entry : state.fileToTargetMap.entrySet()) {
+          out.writeFile(entry.getKey());
+          out.writeTargetKey(entry.getValue());
+        }
+        out.writeStrings(state.paths);
+        out.writeVarInt(state.targetToJdeps.size());
+        for (Map.Entry<TargetKey, int[]> entry : state.targetToJdeps.entrySet()) {
+          out.writeTargetKey(entry.getKey());
+          out.writeVarInt(entry.getValue().length);
+          for (int id : entry.getValue()) {
+            out.writeVarInt(id);
+          }
+        }
+      }
+
+      @Override
+      public JdepsState read(CompactDataInput in) throws IOException {
+        JdepsState state = new JdepsState();
+        state.fileState = in.readBoolean() ? in.readFileState() : null;
+        int fileCount = in.readVarInt();
+        state.fileToTargetMap = Maps.newHashMapWithExpectedSize(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+          state.fileToTargetMap.put(in.readNonNullFile(), in.readTargetKey());
+        }
+        state.paths = new ArrayList<>(in.readStrings());
+        int targetCount = in.readVarInt();
+        state.targetToJdeps = Maps.newHashMapWithExpectedSize(targetCount);
+        for (int i = 0; i < targetCount; i++) {
+          TargetKey targetKey = in.readTargetKey();
+          int[] ids = new int[in.readVarInt()];
+          for (int j = 0; j < ids.length; j++) {
+            ids[j] = in.readVarInt();
+            if (ids[j] >= state.paths.size()) {
+              throw new IOException("Invalid jdeps path id: " + ids[j]);
+            }
+          }
+          state.targetToJdeps.put(targetKey, ids);
+        }
+        return state;
+      }
+    }
   }
 
   private static class Result {
@@ -93,7 +242,7 @@ public class JdepsFileReader {
       return null;
     }
     syncStateBuilder.put(JdepsState.class, jdepsState);
-    return targetKey -> jdepsState.targetToJdeps.get(targetKey);
+    return jdepsState::getDependencies;
   }
 
   private JdepsState doLoadJdepsFiles(
@@ -101,11 +250,7 @@ public class JdepsFileReader {
       ArtifactLocationDecoder artifactLocationDecoder,
       @Nullable JdepsState oldState,
       Iterable<TargetIdeInfo> targetsToLoad) {
-    JdepsState state = new JdepsState();
-    if (oldState != null) {
-      state.targetToJdeps = Maps.newHashMap(oldState.targetToJdeps);
-      state.fileToTargetMap = Maps.newHashMap(oldState.fileToTargetMap);
-    }
+    JdepsState state = oldState != null ? new JdepsState(oldState) : new JdepsState();
 
     Map<File, TargetKey> fileToTargetMap = Maps.newHashMap();
     for (TargetIdeInfo target : targetsToLoad) {
@@ -139,49 +284,22 @@ public class JdepsFileReader {
     }
 
     for (File removedFile : removedFiles) {
-      TargetKey targetKey = state.fileToTargetMap.remove(removedFile);
-      if (targetKey != null) {
-        state.targetToJdeps.remove(targetKey);
-      }
+      state.removeFile(removedFile);
     }
 
     AtomicLong totalSizeLoaded = new AtomicLong(0);
 
-    List<ListenableFuture<Result>> futures = Lists.newArrayList();
-    for (File updatedFile : updatedFiles) {
-      futures.add(
-          submit(
-              () -> {
-                totalSizeLoaded.addAndGet(updatedFile.length());
-                try (InputStream inputStream = new FileInputStream(updatedFile)) {
-                  Deps.Dependencies dependencies = Deps.Dependencies.parseFrom(inputStream);
-                  if (dependencies != null) {
-                    List<String> dependencyStringList = Lists.newArrayList();
-                    for (Deps.Dependency dependency : dependencies.getDependencyList()) {
-                      // We only want explicit or implicit deps that were
-                      // actually resolved by the compiler, not ones that are
-                      // available for use in the same package
-                      if (dependency.getKind() == Deps.Dependency.Kind.EXPLICIT
-                          || dependency.getKind() == Deps.Dependency.Kind.IMPLICIT) {
-                        dependencyStringList.add(dependency.getPath());
-                      }
-                    }
-                    TargetKey targetKey = fileToTargetMap.get(updatedFile);
-                    return new Result(updatedFile, targetKey, dependencyStringList);
-                  }
-                } catch (FileNotFoundException e) {
-                  logger.info("Could not open jdeps file: " + updatedFile);
-                }
-                return null;
-              }));
+    List<ListenableFuture<List<Result>>> futures = Lists.newArrayList();
+    for (List<File> batch : Lists.partition(updatedFiles, BATCH_SIZE)) {
+      futures.add(submit(() -> readJdepsFiles(batch, fileToTargetMap, totalSizeLoaded)));
     }
     try {
-      for (Result result : Futures.allAsList(futures).get()) {
-        if (result != null) {
-          state.fileToTargetMap.put(result.file, result.targetKey);
-          state.targetToJdeps.put(result.targetKey, result.dependencies);
+      for (List<Result> results : Futures.allAsList(futures).get()) {
+        for (Result result : results) {
+          state.putDependencies(result.file, result.targetKey, result.dependencies);
         }
       }
+      state.compactPaths();
       context.output(
           PrintOutput.log(
               String.format(
@@ -194,6 +312,47 @@ public class JdepsFileReader {
     return state;
   }
 
+  /**
+   * Parses a batch of jdeps files, reusing a single read buffer. Files which can't be read are
+   * skipped.
+   */
+  private static List<Result> readJdepsFiles(
+      List<File> files, Map<File, TargetKey> fileToTargetMap, AtomicLong totalSizeLoaded)
+      throws IOException {
+    List<Result> results = new ArrayList<>(files.size());
+    byte[] buffer = new byte[8192];
+    for (File file : files) {
+      int length = 0;
+      try (InputStream inputStream = new FileInputStream(file)) {
+        int read;
+        while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+          length += read;
+          if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+        }
+      } catch (FileNotFoundException e) {
+        logger.info("Could not open jdeps file: " + file);
+        continue;
+      }
+      totalSizeLoaded.addAndGet(length);
+      Deps.Dependencies dependencies =
+          Deps.Dependencies.parseFrom(CodedInputStream.newInstance(buffer, 0, length));
+      List<String> dependencyStringList = Lists.newArrayList();
+      for (Deps.Dependency dependency : dependencies.getDependencyList()) {
+        // We only want explicit or implicit deps that were
+        // actually resolved by the compiler, not ones that are
+        // available for use in the same package
+        if (dependency.getKind() == Deps.Dependency.Kind.EXPLICIT
+            || dependency.getKind() == Deps.Dependency.Kind.IMPLICIT) {
+          dependencyStringList.add(dependency.getPath());
+        }
+      }
+      results.add(new Result(file, fileToTargetMap.get(file), dependencyStringList));
+    }
+    return results;
+  }
+
   private static <T> ListenableFuture<T> submit(Callable<T> callable) {
     return BlazeExecutor.getInstance().submit(callable);
   }
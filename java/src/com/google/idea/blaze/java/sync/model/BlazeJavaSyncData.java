@@ -15,8 +15,18 @@
  */
 package com.google.idea.blaze.java.sync.model;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.projectview.section.Glob;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 /** Sync data for the java plugin. */
 public class BlazeJavaSyncData implements Serializable {
@@ -29,4 +39,93 @@ public class BlazeJavaSyncData implements Serializable {
     this.importResult = importResult;
     this.excludedLibraries = excludedLibraries;
   }
+
+  /** Writes the java sync data in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<BlazeJavaSyncData> {
+    @Override
+    public Class<BlazeJavaSyncData> stateClass() {
+      return BlazeJavaSyncData.class;
+    }
+
+    @Override
+    public void write(BlazeJavaSyncData syncData, CompactDataOutput out) throws IOException {
+      BlazeJavaImportResult importResult = syncData.importResult;
+      out.writeVarInt(importResult.contentEntries.size());
+      for (BlazeContentEntry contentEntry : importResult.contentEntries) {
+        out.writeFile(contentEntry.contentRoot);
+        out.writeVarInt(contentEntry.sources.size());
+        for (BlazeSourceDirectory source : contentEntry.sources) {
+          out.writeFile(source.getDirectory());
+          out.writeBoolean(source.getIsGenerated());
+          out.writeBoolean(source.getIsResource());
+          out.writeString(source.getPackagePrefix());
+        }
+      }
+      writeJarLibraries(importResult.libraries.values(), out);
+      out.writeArtifactLocations(importResult.buildOutputJars);
+      out.writeArtifactLocations(importResult.javaSourceFiles);
+      out.writeString(importResult.sourceVersion);
+      Collection<Glob> excludedLibraries = syncData.excludedLibraries.getGlobs();
+      out.writeVarInt(excludedLibraries.size());
+      for (Glob glob : excludedLibraries) {
+        out.writeString(glob.getPattern());
+      }
+    }
+
+    @Override
+    public BlazeJavaSyncData read(CompactDataInput in) throws IOException {
+      int contentEntryCount = in.readVarInt();
+      ImmutableList.Builder<BlazeContentEntry> contentEntries = ImmutableList.builder();
+      for (int i = 0; i < contentEntryCount; i++) {
+        BlazeContentEntry.Builder contentEntry = BlazeContentEntry.builder(in.readNonNullFile());
+        int sourceCount = in.readVarInt();
+        for (int j = 0; j < sourceCount; j++) {
+          contentEntry.addSource(
+              BlazeSourceDirectory.builder(in.readNonNullFile())
+                  .setGenerated(in.readBoolean())
+                  .setResource(in.readBoolean())
+                  .setPackagePrefix(in.readNonNullString())
+                  .build());
+        }
+        contentEntries.add(contentEntry.build());
+      }
+      BlazeJavaImportResult importResult =
+          new BlazeJavaImportResult(
+              contentEntries.build(),
+              readJarLibraries(in),
+              in.readArtifactLocations(),
+              ImmutableSet.copyOf(in.readArtifactLocations()),
+              in.readString());
+      int globCount = in.readVarInt();
+      ImmutableList.Builder<Glob> excludedLibraries = ImmutableList.builder();
+      for (int i = 0; i < globCount; i++) {
+        excludedLibraries.add(new Glob(in.readNonNullString()));
+      }
+      return new BlazeJavaSyncData(importResult, new Glob.GlobSet(excludedLibraries.build()));
+    }
+
+    /** Writes jar libraries. Their library keys are derived from the library artifacts. */
+    public static void writeJarLibraries(
+        Collection<BlazeJarLibrary> libraries, CompactDataOutput out) throws IOException {
+      out.writeVarInt(libraries.size());
+      for (BlazeJarLibrary library : libraries) {
+        out.writeLibraryArtifact(library.libraryArtifact);
+      }
+    }
+
+    public static ImmutableMap<LibraryKey, BlazeJarLibrary> readJarLibraries(CompactDataInput in)
+        throws IOException {
+      int size = in.readVarInt();
+      ImmutableMap.Builder<LibraryKey, BlazeJarLibrary> libraries = ImmutableMap.builder();
+      for (int i = 0; i < size; i++) {
+        LibraryArtifact libraryArtifact = in.readLibraryArtifact();
+        if (libraryArtifact == null) {
+          throw new IOException("Unexpected null library artifact in project data");
+        }
+        BlazeJarLibrary library = new BlazeJarLibrary(libraryArtifact);
+        libraries.put(library.key, library);
+      }
+      return libraries.build();
+    }
+  }
 }
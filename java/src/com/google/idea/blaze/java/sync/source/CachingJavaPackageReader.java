@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Reads java packages through a {@link JavaSourcePackageCache}, only delegating to the underlying
+ * reader for files modified since they were cached.
+ */
+class CachingJavaPackageReader extends JavaPackageReader {
+
+  private final JavaPackageReader delegate;
+  private final JavaSourcePackageCache cache;
+  /** The modified times of the source files, read up front in parallel. */
+  private final ImmutableMap<File, Long> timestamps;
+
+  private final AtomicInteger cacheHits = new AtomicInteger();
+  private final AtomicInteger filesRead = new AtomicInteger();
+
+  CachingJavaPackageReader(
+      JavaPackageReader delegate,
+      JavaSourcePackageCache cache,
+      ImmutableMap<File, Long> timestamps) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.timestamps = timestamps;
+  }
+
+  @Nullable
+  @Override
+  String getDeclaredPackageOfJavaFile(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      SourceArtifact sourceArtifact) {
+    File file = artifactLocationDecoder.decode(sourceArtifact.artifactLocation);
+    Long timestamp = timestamps.get(file);
+    if (timestamp != null) {
+      String packageString = cache.get(file, timestamp);
+      if (packageString != null) {
+        cacheHits.incrementAndGet();
+        return packageString;
+      }
+    }
+    filesRead.incrementAndGet();
+    String packageString =
+        delegate.getDeclaredPackageOfJavaFile(context, artifactLocationDecoder, sourceArtifact);
+    if (packageString != null && timestamp != null) {
+      cache.put(file, timestamp, packageString);
+    }
+    return packageString;
+  }
+
+  /** Drops the cache entries of files other than the current sources. */
+  void pruneCache() {
+    cache.retainAll(timestamps.keySet());
+  }
+
+  String getStats() {
+    return String.format(
+        "Java package declarations: %d cached, %d read", cacheHits.get(), filesRead.get());
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * The package declared by each java-like source file, keyed on the file's modified time. Persisted
+ * with the sync state, so only sources modified since the previous sync need to be re-read.
+ */
+public final class JavaSourcePackageCache implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long timestamp;
+    final String packageString;
+
+    Entry(long timestamp, String packageString) {
+      this.timestamp = timestamp;
+      this.packageString = packageString;
+    }
+  }
+
+  private final ConcurrentHashMap<File, Entry> entries;
+
+  public JavaSourcePackageCache() {
+    this.entries = new ConcurrentHashMap<>();
+  }
+
+  private JavaSourcePackageCache(JavaSourcePackageCache cache) {
+    this.entries = new ConcurrentHashMap<>(cache.entries);
+  }
+
+  /** Returns a copy of the cache from the previous sync, or an empty cache. */
+  public static JavaSourcePackageCache fromSyncState(@Nullable SyncState syncState) {
+    JavaSourcePackageCache cache =
+        syncState != null ? syncState.get(JavaSourcePackageCache.class) : null;
+    return cache != null ? new JavaSourcePackageCache(cache) : new JavaSourcePackageCache();
+  }
+
+  /** Returns the cached package of the given file, if it hasn't been modified since. */
+  @Nullable
+  String get(File file, long timestamp) {
+    Entry entry = entries.get(file);
+    return entry != null && entry.timestamp == timestamp ? entry.packageString : null;
+  }
+
+  void put(File file, long timestamp, String packageString) {
+    entries.put(file, new Entry(timestamp, packageString));
+  }
+
+  /** Drops the entries of all files other than the given ones. */
+  void retainAll(Collection<File> files) {
+    entries.keySet().retainAll(files);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /** Writes the cache in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<JavaSourcePackageCache> {
+    @Override
+    public Class<JavaSourcePackageCache> stateClass() {
+      return JavaSourcePackageCache.class;
+    }
+
+    @Override
+    public void write(JavaSourcePackageCache cache, CompactDataOutput out) throws IOException {
+      out.writeVarInt(cache.entries.size());
+      for (Map.Entry<File, Entry> entry : cache.entries.entrySet()) {
+        out.writeFile(entry.getKey());
+        out.writeLong(entry.getValue().timestamp);
+        out.writeString(entry.getValue().packageString);
+      }
+    }
+
+    @Override
+    public JavaSourcePackageCache read(CompactDataInput in) throws IOException {
+      JavaSourcePackageCache cache = new JavaSourcePackageCache();
+      int size = in.readVarInt();
+      for (int i = 0; i < size; i++) {
+        cache.put(in.readNonNullFile(), in.readLong(), in.readNonNullString());
+      }
+      return cache;
+    }
+  }
+}
@@ -29,11 +29,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.Reader;
 import javax.annotation.Nullable;
 
-/** Parse package string directly from java source */
+/**
+ * Parse package string directly from java source.
+ *
+ * <p>Only the start of each file is read: comments and annotations are skipped, and reading stops
+ * at the first other token, which must be the package declaration if there is one.
+ */
 public class JavaSourcePackageReader extends JavaPackageReader {
 
   public static JavaSourcePackageReader getInstance() {
@@ -42,8 +46,10 @@ public class JavaSourcePackageReader extends JavaPackageReader {
 
   private static final Logger logger = Logger.getInstance(SourceDirectoryCalculator.class);
 
-  // Package declaration of java-like languages.
-  private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
+  private static final String PACKAGE_KEYWORD = "package";
+
+  /** Stops reading after this many characters if no package declaration has been found. */
+  private static final int MAX_HEADER_CHARS = 64 * 1024;
 
   @Override
   @Nullable
@@ -57,14 +63,10 @@ public class JavaSourcePackageReader extends JavaPackageReader {
     InputStreamProvider inputStreamProvider = InputStreamProvider.getInstance();
     File sourceFile = artifactLocationDecoder.decode(sourceArtifact.artifactLocation);
     try (InputStream javaInputStream = inputStreamProvider.getFile(sourceFile)) {
-      BufferedReader javaReader = new BufferedReader(new InputStreamReader(javaInputStream, UTF_8));
-      String javaLine;
-
-      while ((javaLine = javaReader.readLine()) != null) {
-        Matcher packageMatch = PACKAGE_PATTERN.matcher(javaLine);
-        if (packageMatch.find()) {
-          return packageMatch.group(1);
-        }
+      String packageString =
+          readPackage(new BufferedReader(new InputStreamReader(javaInputStream, UTF_8)));
+      if (packageString != null) {
+        return packageString;
       }
       IssueOutput.warn("No package name string found in java source file: " + sourceFile)
           .inFile(sourceFile)
@@ -80,4 +82,131 @@ public class JavaSourcePackageReader extends JavaPackageReader {
       return null;
     }
   }
+
+  /**
+   * Returns the package declared by java-like source, or null if the first token other than
+   * comments and annotations isn't a package declaration.
+   */
+  @Nullable
+  static String readPackage(Reader reader) throws IOException {
+    HeaderScanner scanner = new HeaderScanner(reader);
+    while (scanner.skipWhitespaceAndComments()) {
+      if (scanner.peek() == '@') {
+        scanner.next();
+        scanner.skipAnnotation();
+        continue;
+      }
+      if (!scanner.readName().equals(PACKAGE_KEYWORD) || !scanner.skipWhitespaceAndComments()) {
+        return null;
+      }
+      String packageString = scanner.readName();
+      return !packageString.isEmpty() ? packageString : null;
+    }
+    return null;
+  }
+
+  /** Reads tokens from the start of a source file, up to {@link #MAX_HEADER_CHARS}. */
+  private static class HeaderScanner {
+    private static final int NONE = -2;
+
+    private final Reader reader;
+    private int peeked = NONE;
+    private int charsRead;
+
+    HeaderScanner(Reader reader) {
+      this.reader = reader;
+    }
+
+    int peek() throws IOException {
+      if (peeked == NONE) {
+        peeked = charsRead++ < MAX_HEADER_CHARS ? reader.read() : -1;
+      }
+      return peeked;
+    }
+
+    int next() throws IOException {
+      int c = peek();
+      peeked = NONE;
+      return c;
+    }
+
+    /** Skips whitespace and comments. Returns false if there are no more tokens. */
+    boolean skipWhitespaceAndComments() throws IOException {
+      while (true) {
+        int c = peek();
+        if (c == -1) {
+          return false;
+        }
+        if (Character.isWhitespace(c) || c == '\uFEFF') {
+          next();
+          continue;
+        }
+        if (c != '/') {
+          return true;
+        }
+        next();
+        c = next();
+        if (c == '/') {
+          while (c != -1 && c != '\n') {
+            c = next();
+          }
+        } else if (c == '*') {
+          int previous = 0;
+          while ((c = next()) != -1 && !(previous == '*' && c == '/')) {
+            previous = c;
+          }
+        } else {
+          // a lone '/' can't precede a package declaration
+          return false;
+        }
+      }
+    }
+
+    /** Reads a possibly qualified name, which is empty if the next token isn't a name. */
+    String readName() throws IOException {
+      StringBuilder name = new StringBuilder();
+      while (isNameChar(peek())) {
+        name.append((char) next());
+      }
+      return name.toString();
+    }
+
+    /**
+     * Skips an annotation, after its '@'. Also handles Kotlin file annotations, such as
+     * '@file:JvmName("Foo")'.
+     */
+    void skipAnnotation() throws IOException {
+      skipWhitespaceAndComments();
+      while (isNameChar(peek()) || peek() == ':') {
+        next();
+      }
+      if (!skipWhitespaceAndComments() || peek() != '(') {
+        return;
+      }
+      int depth = 0;
+      int c;
+      while ((c = next()) != -1) {
+        if (c == '"' || c == '\'') {
+          skipLiteral(c);
+        } else if (c == '(') {
+          depth++;
+        } else if (c == ')' && --depth == 0) {
+          return;
+        }
+      }
+    }
+
+    private static boolean isNameChar(int c) {
+      return c != -1 && (Character.isJavaIdentifierPart(c) || c == '.');
+    }
+
+    private void skipLiteral(int quote) throws IOException {
+      int c;
+      while ((c = next()) != -1 && c != quote) {
+        if (c == '\\') {
+          next();
+        }
+      }
+    }
+  }
 }
@@ -22,6 +22,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -34,11 +35,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.executor.TransientExecutor;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.io.ModifiedTimeScanner;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
@@ -79,6 +82,19 @@ public final class SourceDirectoryCalculator {
   private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
   private final ListeningExecutorService packageReaderExecutorService =
       MoreExecutors.listeningDecorator(new TransientExecutor(16));
+  private final JavaSourcePackageCache packageCache;
+
+  public SourceDirectoryCalculator() {
+    this(new JavaSourcePackageCache());
+  }
+
+  /**
+   * @param packageCache the packages read by previous syncs, which is updated with the packages
+   *     read by this one
+   */
+  public SourceDirectoryCalculator(JavaSourcePackageCache packageCache) {
+    this.packageCache = packageCache;
+  }
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -105,18 +121,26 @@ public final class SourceDirectoryCalculator {
               return new ManifestFilePackageReader(manifestMap);
             });
 
-    final List<JavaPackageReader> javaPackageReaders =
-        Lists.newArrayList(
-            manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
-            generatedFileJavaPackageReader);
-
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
 
     // Sort artifacts and excludes into their respective workspace paths
     Multimap<WorkspacePath, SourceArtifact> sourcesUnderDirectoryRoot =
         sortArtifactLocationsByRootDirectory(context, importRoots, nonGeneratedSources);
 
+    CachingJavaPackageReader sourcePackageReader =
+        new CachingJavaPackageReader(
+            JavaSourcePackageReader.getInstance(),
+            packageCache,
+            readSourceTimestamps(
+                context,
+                artifactLocationDecoder,
+                sourcesUnderDirectoryRoot.values(),
+                manifestFilePackageReader));
+
+    final List<JavaPackageReader> javaPackageReaders =
+        Lists.newArrayList(
+            manifestFilePackageReader, sourcePackageReader, generatedFileJavaPackageReader);
+
     List<BlazeContentEntry> result = Lists.newArrayList();
     Scope.push(
         context,
@@ -138,9 +162,41 @@ public final class SourceDirectoryCalculator {
           }
           result.sort(Comparator.comparing(lhs -> lhs.contentRoot));
         });
+    sourcePackageReader.pruneCache();
+    context.output(PrintOutput.log(sourcePackageReader.getStats()));
     return ImmutableList.copyOf(result);
   }
 
+  /**
+   * Reads the modified times of java-like sources whose package isn't given by a package manifest,
+   * so their packages can be looked up in the {@link JavaSourcePackageCache}.
+   */
+  private static ImmutableMap<File, Long> readSourceTimestamps(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      Collection<SourceArtifact> sources,
+      ManifestFilePackageReader manifestFilePackageReader) {
+    Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
+    List<File> files = Lists.newArrayList();
+    for (SourceArtifact source : sources) {
+      if (!isSourceFile.test(source.artifactLocation)) {
+        continue;
+      }
+      String manifestPackage =
+          manifestFilePackageReader.getDeclaredPackageOfJavaFile(
+              context, artifactLocationDecoder, source);
+      if (manifestPackage == null) {
+        files.add(artifactLocationDecoder.decode(source.artifactLocation));
+      }
+    }
+    try {
+      return ModifiedTimeScanner.readTimestamps(files);
+    } catch (Exception e) {
+      logger.warn("Could not read source file timestamps", e);
+      return ImmutableMap.of();
+    }
+  }
+
   private Collection<SourceArtifact> filterGeneratedArtifacts(
       Collection<SourceArtifact> artifactLocations) {
     return artifactLocations
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.coverage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import gnu.trove.TIntIntHashMap;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link BlazeCoverageData} parsing of a synthetic ~500 MB LCOV tracefile, against the
+ * previous BufferedReader-based implementation.
+ *
+ * <p>Not part of the unit test suite; run it manually, e.g. from the IDE.
+ */
+@RunWith(JUnit4.class)
+public class BlazeCoverageDataBenchmark {
+
+  private static final long TRACEFILE_SIZE = 500L * 1024 * 1024;
+  private static final int LINES_PER_FILE = 400;
+  private static final int ITERATIONS = 3;
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void compareWithBufferedReader() throws IOException {
+    File tracefile = createTracefile(tmpFolder.newFile("coverage.dat"), TRACEFILE_SIZE);
+    int threads = Runtime.getRuntime().availableProcessors();
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+    try {
+      // warm up all code paths
+      parseWithBufferedReader(tracefile);
+      parseStreaming(tracefile);
+      BlazeCoverageData.parse(ImmutableList.of(tracefile), executor);
+
+      long legacy = 0;
+      long streaming = 0;
+      long parallel = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        parseWithBufferedReader(tracefile);
+        legacy += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        parseStreaming(tracefile);
+        streaming += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BlazeCoverageData.parse(ImmutableList.of(tracefile), executor);
+        parallel += System.nanoTime() - start;
+      }
+      System.out.println(
+          String.format(
+              "%d MB tracefile: BufferedReader %d ms, byte-level %d ms, "
+                  + "byte-level on %d threads %d ms",
+              tracefile.length() / (1024 * 1024),
+              legacy / ITERATIONS / 1000000,
+              streaming / ITERATIONS / 1000000,
+              threads,
+              parallel / ITERATIONS / 1000000));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void parseStreaming(File tracefile) throws IOException {
+    try (InputStream in = new FileInputStream(tracefile)) {
+      BlazeCoverageData.parse(in);
+    }
+  }
+
+  private static File createTracefile(File file, long size) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+      long written = 0;
+      for (int i = 0; written < size; i++) {
+        StringBuilder record = new StringBuilder();
+        record.append(
+            String.format("SF:java/com/google/example/pkg%d/Source%d.java\n", i / 50, i));
+        for (int line = 1; line <= LINES_PER_FILE; line++) {
+          if (line % 40 == 1) {
+            record.append(String.format("FN:%d,Source%d::method%d\n", line, i, line));
+            record.append(String.format("FNDA:%d,Source%d::method%d\n", i % 7, i, line));
+          }
+          if (line % 10 == 0) {
+            record.append(String.format("BRDA:%d,0,0,%d\n", line, line % 3));
+            record.append(String.format("BRDA:%d,0,1,-\n", line));
+          }
+          record.append(String.format("DA:%d,%d\n", line, (line * 31 + i) % 100));
+        }
+        record.append("end_of_record\n");
+        byte[] bytes = record.toString().getBytes(UTF_8);
+        out.write(bytes);
+        written += bytes.length;
+      }
+    }
+    return file;
+  }
+
+  /** The previous implementation, which decodes every line to a String. */
+  private static Map<String, TIntIntHashMap> parseWithBufferedReader(File tracefile)
+      throws IOException {
+    Map<String, TIntIntHashMap> map = new HashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(tracefile), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("SF:")) {
+          String source = line.substring("SF:".length());
+          TIntIntHashMap hits = parseHits(reader);
+          if (!hits.isEmpty()) {
+            map.put(source, hits);
+          }
+        }
+      }
+    }
+    return map;
+  }
+
+  private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
+    TIntIntHashMap hits = new TIntIntHashMap();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.startsWith("end_of_record")) {
+        return hits;
+      }
+      if (line.startsWith("DA:")) {
+        int comma = line.indexOf(',');
+        hits.put(
+            Integer.parseInt(line.substring("DA:".length(), comma)),
+            Integer.parseInt(line.substring(comma + 1)));
+      }
+    }
+    return hits;
+  }
+}
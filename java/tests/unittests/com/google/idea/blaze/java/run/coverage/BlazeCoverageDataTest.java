@@ -18,17 +18,23 @@ package com.google.idea.blaze.java.run.coverage;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.java.run.coverage.BlazeCoverageData.FileData;
 import com.google.idea.common.guava.GuavaHelper;
 import gnu.trove.TIntIntHashMap;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.function.Function;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -36,6 +42,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class BlazeCoverageDataTest {
 
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
   @Test
   public void testParseSingleFile() throws IOException {
     BlazeCoverageData data =
@@ -82,6 +90,81 @@ public class BlazeCoverageDataTest {
     assertThat(data.perFileData.keySet()).containsExactly("path/to/another/file.txt");
   }
 
+  @Test
+  public void testParseBranchesAndFunctions() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream(
+                "SF:path/to/file.txt",
+                "FN:3,com/google/Foo::bar",
+                "FNDA:7,com/google/Foo::bar",
+                "DA:3,7",
+                "DA:4,7,checksum",
+                "BRDA:4,0,0,5",
+                "BRDA:4,0,1,-",
+                "end_of_record"));
+
+    FileData fileData = data.perFileData.get("path/to/file.txt");
+    assertThat(toMap(fileData.lineHits)).containsExactly(3, 7, 4, 7);
+    assertThat(fileData.functionLines.get("com/google/Foo::bar")).isEqualTo(3);
+    assertThat(fileData.functionHits.get("com/google/Foo::bar")).isEqualTo(7);
+    assertThat(fileData.branchHits.size()).isEqualTo(2);
+    assertThat(fileData.branchHits.get(FileData.branchKey(4, 0, 0))).isEqualTo(5);
+    assertThat(fileData.branchHits.containsKey(FileData.branchKey(4, 0, 1))).isTrue();
+    assertThat(fileData.branchHits.get(FileData.branchKey(4, 0, 1))).isEqualTo(0);
+  }
+
+  @Test
+  public void testChunkedParseMatchesStreamingParse() throws IOException {
+    StringBuilder tracefile = new StringBuilder();
+    for (int file = 0; file < 50; file++) {
+      tracefile.append("SF:path/to/file").append(file).append(".txt\r\n");
+      for (int line = 1; line <= file + 1; line++) {
+        tracefile.append("DA:").append(line).append(',').append(file * line).append('\n');
+      }
+      tracefile.append("end_of_record\n");
+    }
+    byte[] bytes = tracefile.toString().getBytes(StandardCharsets.UTF_8);
+    File file = tmpFolder.newFile("coverage.dat");
+    Files.write(file.toPath(), bytes);
+
+    BlazeCoverageData streamed = BlazeCoverageData.parse(new ByteArrayInputStream(bytes));
+    // small chunks, so chunk boundaries fall in the middle of records and lines
+    for (int chunkSize : new int[] {1, 7, 100, bytes.length}) {
+      BlazeCoverageData chunked =
+          BlazeCoverageData.parse(
+              ImmutableList.of(file), MoreExecutors.newDirectExecutorService(), chunkSize);
+      assertThat(chunked.perFileData.keySet()).isEqualTo(streamed.perFileData.keySet());
+      for (String source : streamed.perFileData.keySet()) {
+        assertThat(toMap(chunked.perFileData.get(source).lineHits))
+            .isEqualTo(toMap(streamed.perFileData.get(source).lineHits));
+      }
+    }
+  }
+
+  @Test
+  public void testShardTracefilesAreMerged() throws IOException {
+    File shard1 = tmpFolder.newFile("shard1.dat");
+    File shard2 = tmpFolder.newFile("shard2.dat");
+    Files.write(
+        shard1.toPath(),
+        Joiner.on('\n')
+            .join("SF:a.txt", "DA:1,1", "DA:2,0", "end_of_record", "SF:b.txt", "DA:1,1")
+            .getBytes(StandardCharsets.UTF_8));
+    Files.write(
+        shard2.toPath(),
+        Joiner.on('\n')
+            .join("SF:a.txt", "DA:2,3", "DA:3,1", "end_of_record")
+            .getBytes(StandardCharsets.UTF_8));
+
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            ImmutableList.of(shard1, shard2), MoreExecutors.newDirectExecutorService());
+
+    assertThat(toMap(data.perFileData.get("a.txt").lineHits)).containsExactly(1, 1, 2, 3, 3, 1);
+    assertThat(toMap(data.perFileData.get("b.txt").lineHits)).containsExactly(1, 1);
+  }
+
   private static ImmutableMap<Integer, Integer> toMap(TIntIntHashMap troveMap) {
     return Arrays.stream(troveMap.keys())
         .boxed()
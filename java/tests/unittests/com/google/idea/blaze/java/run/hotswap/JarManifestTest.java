@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JarManifest}, {@link CentralDirectoryReader} and {@link JarManifestCache}. */
+@RunWith(JUnit4.class)
+public class JarManifestTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testCentralDirectoryMatchesZipFile() throws IOException {
+    File jar =
+        writeJar(
+            "lib.jar",
+            ImmutableMap.of(
+                "com/google/Foo.class", "foo",
+                "com/google/Bar.class", "bar",
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n"));
+
+    Map<String, Integer> crcs = new HashMap<>();
+    CentralDirectoryReader.read(jar, crcs::put);
+
+    Map<String, Integer> expected = new HashMap<>();
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      zipFile.stream().forEach(e -> expected.put(e.getName(), (int) e.getCrc()));
+    }
+    assertThat(crcs).isEqualTo(expected);
+  }
+
+  @Test
+  public void testDiffReturnsChangedAndAddedClasses() throws IOException {
+    JarManifest oldManifest =
+        JarManifest.read(
+            writeJar(
+                "old.jar",
+                ImmutableMap.of(
+                    "Same.class", "same", "Changed.class", "old", "Removed.class", "removed")));
+    JarManifest newManifest =
+        JarManifest.read(
+            writeJar(
+                "new.jar",
+                ImmutableMap.of(
+                    "Same.class", "same", "Changed.class", "new", "Added.class", "added")));
+
+    assertThat(JarManifest.diff(oldManifest, newManifest))
+        .containsExactly("Changed.class", "Added.class");
+    assertThat(JarManifest.diff(newManifest, newManifest)).isEmpty();
+  }
+
+  @Test
+  public void testIdenticalJarsHaveSameDigest() throws IOException {
+    ImmutableMap<String, String> contents = ImmutableMap.of("Foo.class", "foo", "foo.txt", "a");
+    JarManifest first = JarManifest.read(writeJar("first.jar", contents));
+    JarManifest second = JarManifest.read(writeJar("second.jar", contents));
+    JarManifest other =
+        JarManifest.read(writeJar("other.jar", ImmutableMap.of("Foo.class", "bar")));
+
+    assertThat(second.digest).isEqualTo(first.digest);
+    assertThat(other.digest).isNotEqualTo(first.digest);
+  }
+
+  @Test
+  public void testCachedManifestIsKeyedByJarState() throws IOException {
+    File jar = writeJar("lib.jar", ImmutableMap.of("Foo.class", "foo", "Bar.class", "bar"));
+    JarManifest manifest = JarManifest.read(jar);
+    JarManifestCache cache = new JarManifestCache(new File(tmpFolder.getRoot(), "cache"));
+
+    cache.put(manifest, 1000L, 20L);
+
+    JarManifest cached = cache.get(jar, 1000L, 20L);
+    assertThat(cached).isNotNull();
+    assertThat(cached.digest).isEqualTo(manifest.digest);
+    assertThat(JarManifest.diff(manifest, cached)).isEmpty();
+    assertThat(cache.get(jar, 2000L, 20L)).isNull();
+    assertThat(cache.get(jar, 1000L, 30L)).isNull();
+  }
+
+  private File writeJar(String name, Map<String, String> entries) throws IOException {
+    File jar = new File(tmpFolder.getRoot(), name);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      boolean stored = false;
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        byte[] bytes = entry.getValue().getBytes(UTF_8);
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        // alternate between stored and deflated entries
+        if (stored) {
+          CRC32 crc = new CRC32();
+          crc.update(bytes);
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setSize(bytes.length);
+          zipEntry.setCrc(crc.getValue());
+        }
+        stored = !stored;
+        out.putNextEntry(zipEntry);
+        out.write(bytes);
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.jdeps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.SyncState;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataSerializer;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import com.google.idea.blaze.java.sync.jdeps.JdepsFileReader.JdepsState;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link JdepsState}. */
+@RunWith(JUnit4.class)
+public class JdepsStateTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static final TargetKey FOO = TargetKey.forPlainTarget(Label.create("//java/foo:foo"));
+  private static final TargetKey BAR = TargetKey.forPlainTarget(Label.create("//java/bar:bar"));
+  private static final File FOO_JDEPS = new File("/execroot/bin/java/foo/libfoo.jdeps");
+  private static final File BAR_JDEPS = new File("/execroot/bin/java/bar/libbar.jdeps");
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    registerExtensionPoint(SyncStateCodec.EP_NAME, SyncStateCodec.class)
+        .registerExtension(new JdepsState.Codec());
+  }
+
+  @Test
+  public void testIncrementalPutLeavesPreviousStateUnchanged() {
+    JdepsState previous = new JdepsState();
+    previous.putDependencies(FOO_JDEPS, FOO, ImmutableList.of("a.jar", "b.jar"));
+
+    JdepsState state = new JdepsState(previous);
+    state.putDependencies(BAR_JDEPS, BAR, ImmutableList.of("b.jar", "c.jar"));
+    state.putDependencies(FOO_JDEPS, FOO, ImmutableList.of("c.jar"));
+
+    assertThat(state.getDependencies(FOO)).containsExactly("c.jar");
+    assertThat(state.getDependencies(BAR)).containsExactly("b.jar", "c.jar").inOrder();
+    assertThat(previous.getDependencies(FOO)).containsExactly("a.jar", "b.jar").inOrder();
+    assertThat(previous.getDependencies(BAR)).isNull();
+  }
+
+  @Test
+  public void testCompactionAfterRemovalRemapsIds() {
+    JdepsState previous = new JdepsState();
+    // FOO's paths are assigned the lowest ids, so BAR's ids change once they're dropped
+    previous.putDependencies(
+        FOO_JDEPS, FOO, ImmutableList.of("a.jar", "b.jar", "c.jar", "d.jar", "e.jar"));
+    previous.putDependencies(BAR_JDEPS, BAR, ImmutableList.of("x.jar", "a.jar"));
+    List<String> previousBarDeps = ImmutableList.copyOf(previous.getDependencies(BAR));
+
+    JdepsState state = new JdepsState(previous);
+    state.removeFile(FOO_JDEPS);
+    state.compactPaths();
+
+    assertThat(state.getDependencies(FOO)).isNull();
+    assertThat(state.getDependencies(BAR)).containsExactly("x.jar", "a.jar").inOrder();
+    // new paths are numbered after the compacted ones
+    state.putDependencies(FOO_JDEPS, FOO, ImmutableList.of("y.jar", "x.jar"));
+    assertThat(state.getDependencies(FOO)).containsExactly("y.jar", "x.jar").inOrder();
+    assertThat(state.getDependencies(BAR)).containsExactly("x.jar", "a.jar").inOrder();
+
+    // the id arrays shared with the previous state weren't remapped in place
+    assertThat(previous.getDependencies(BAR)).isEqualTo(previousBarDeps);
+    assertThat(previous.getDependencies(FOO))
+        .containsExactly("a.jar", "b.jar", "c.jar", "d.jar", "e.jar")
+        .inOrder();
+  }
+
+  @Test
+  public void testDependenciesSurviveSerialization() throws IOException {
+    JdepsState state = new JdepsState();
+    state.putDependencies(FOO_JDEPS, FOO, ImmutableList.of("a.jar", "b.jar"));
+    state.putDependencies(BAR_JDEPS, BAR, ImmutableList.of("b.jar", "c.jar"));
+
+    JdepsState loaded = roundTrip(state);
+
+    assertThat(loaded.getDependencies(FOO)).containsExactly("a.jar", "b.jar").inOrder();
+    assertThat(loaded.getDependencies(BAR)).containsExactly("b.jar", "c.jar").inOrder();
+    // the loaded state can still be updated incrementally
+    loaded.removeFile(BAR_JDEPS);
+    loaded.putDependencies(BAR_JDEPS, BAR, ImmutableList.of("c.jar", "d.jar"));
+    assertThat(loaded.getDependencies(BAR)).containsExactly("c.jar", "d.jar").inOrder();
+    assertThat(loaded.getDependencies(FOO)).containsExactly("a.jar", "b.jar").inOrder();
+  }
+
+  private JdepsState roundTrip(JdepsState state) throws IOException {
+    File cacheFile = new File(tmpFolder.getRoot(), "cache.dat");
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder(new WorkspaceRoot(new File("/workspace")))
+            .setSyncState(new SyncState.Builder().put(JdepsState.class, state).build())
+            .build();
+    BlazeProjectDataSerializer.saveToDisk(cacheFile, projectData);
+    BlazeProjectData loaded =
+        BlazeProjectDataSerializer.loadFromDisk(
+            cacheFile, ImmutableList.of(getClass().getClassLoader()));
+    return loaded.syncState.get(JdepsState.class);
+  }
+}
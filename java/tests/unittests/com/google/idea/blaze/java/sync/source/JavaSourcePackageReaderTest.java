@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JavaSourcePackageReader#readPackage}. */
+@RunWith(JUnit4.class)
+public class JavaSourcePackageReaderTest {
+
+  @Test
+  public void testSimplePackage() throws IOException {
+    assertThat(readPackage("package com.google;\nclass Foo {}")).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testPackageWithoutSemicolon() throws IOException {
+    assertThat(readPackage("package com.google\nclass Foo")).isEqualTo("com.google");
+    assertThat(readPackage("package com.google {\nclass Foo }")).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testCommentsAreSkipped() throws IOException {
+    String source =
+        "/*\n * Copyright\n * package com.wrong;\n */\n"
+            + "// package com.alsowrong;\n"
+            + "package /* inline */ com.google;\n";
+    assertThat(readPackage(source)).isEqualTo("com.google");
+  }
+
+  @Test
+  public void testAnnotationsAreSkipped() throws IOException {
+    String source =
+        "@ParametersAreNonnullByDefault\n"
+            + "@Generated(value = {\"a)\", \"b\"}, comments = \"package com.wrong;\")\n"
+            + "package com.google;\n";
+    assertThat(readPackage(source)).isEqualTo("com.google");
+    assertThat(readPackage("@file:JvmName(\"Foo\")\npackage com.google\n"))
+        .isEqualTo("com.google");
+  }
+
+  @Test
+  public void testStopsAtFirstOtherToken() throws IOException {
+    assertThat(readPackage("import com.google.Foo;\nclass Bar { String s = \"\npackage x;\"; }"))
+        .isNull();
+    assertThat(readPackage("public class Foo {}")).isNull();
+    assertThat(readPackage("packagefoo;")).isNull();
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    assertThat(readPackage("")).isNull();
+    assertThat(readPackage("// just a comment")).isNull();
+  }
+
+  @Nullable
+  private static String readPackage(String source) throws IOException {
+    return JavaSourcePackageReader.readPackage(new StringReader(source));
+  }
+}
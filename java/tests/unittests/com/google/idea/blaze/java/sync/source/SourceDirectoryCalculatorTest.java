@@ -158,6 +158,49 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
     issues.assertNoIssues();
   }
 
+  @Test
+  public void testUnmodifiedSourcesAreReadFromPackageCache() throws Exception {
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.google;\n public class Bla {}");
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build());
+    ImportRoots importRoots =
+        buildImportRoots(ImmutableList.of(new WorkspacePath("java/com/google")), ImmutableList.of());
+    JavaSourcePackageCache packageCache = new JavaSourcePackageCache();
+    new SourceDirectoryCalculator(packageCache)
+        .calculateContentEntries(
+            project, context, workspaceRoot, decoder, importRoots, sourceArtifacts, NO_MANIFESTS);
+
+    // the modified time is unchanged, so the file isn't read again
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.google.different;\n public class Bla {}");
+    ImmutableList<BlazeContentEntry> result =
+        new SourceDirectoryCalculator(packageCache)
+            .calculateContentEntries(
+                project,
+                context,
+                workspaceRoot,
+                decoder,
+                importRoots,
+                sourceArtifacts,
+                NO_MANIFESTS);
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google")
+                        .build())
+                .build());
+    issues.assertNoIssues();
+  }
+
   @Test
   public void testSourceRootUnderExcludedDirectoryIsIgnored() throws Exception {
     mockInputStreamProvider.addFile(
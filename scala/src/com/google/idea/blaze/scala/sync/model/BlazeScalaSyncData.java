@@ -15,6 +15,11 @@
  */
 package com.google.idea.blaze.scala.sync.model;
 
+import com.google.idea.blaze.base.sync.data.CompactDataInput;
+import com.google.idea.blaze.base.sync.data.CompactDataOutput;
+import com.google.idea.blaze.base.sync.data.SyncStateCodec;
+import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
+import java.io.IOException;
 import java.io.Serializable;
 
 /** Sync data for the scala plugin. */
@@ -26,4 +31,23 @@ public class BlazeScalaSyncData implements Serializable {
   public BlazeScalaSyncData(BlazeScalaImportResult importResult) {
     this.importResult = importResult;
   }
+
+  /** Writes the scala sync data in the compact project data format. */
+  public static final class Codec implements SyncStateCodec<BlazeScalaSyncData> {
+    @Override
+    public Class<BlazeScalaSyncData> stateClass() {
+      return BlazeScalaSyncData.class;
+    }
+
+    @Override
+    public void write(BlazeScalaSyncData syncData, CompactDataOutput out) throws IOException {
+      BlazeJavaSyncData.Codec.writeJarLibraries(syncData.importResult.libraries.values(), out);
+    }
+
+    @Override
+    public BlazeScalaSyncData read(CompactDataInput in) throws IOException {
+      return new BlazeScalaSyncData(
+          new BlazeScalaImportResult(BlazeJavaSyncData.Codec.readJarLibraries(in)));
+    }
+  }
 }